@@ -0,0 +1,105 @@
+package example.opengl;
+
+import club.doki7.opengl.GL;
+import club.doki7.opengl.util.GLCommandStream;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandles;
+import java.util.Map;
+
+/// Measures what {@link GLCommandStream} adds per call: a frame of typical draw-loop calls is
+/// made directly through {@link GL}, then recorded on a worker thread and replayed.
+///
+/// The GL functions are bound to no-op upcall stubs, so no context or driver is needed, and the
+/// reported per-call times are the Java side only: the direct time is the cost of one downcall,
+/// the replay time additionally includes decoding. Pass the number of frames as the first
+/// argument.
+public final class CommandStreamBenchmark {
+    public static void main(String[] args) throws InterruptedException {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        int drawsPerFrame = 1000;
+        int callsPerFrame = drawsPerFrame * 5;
+
+        try (Arena arena = Arena.ofShared()) {
+            Map<String, MemorySegment> stubs = Map.of(
+                    "glUseProgram", noop(arena, FunctionDescriptor.ofVoid(ValueLayout.JAVA_INT)),
+                    "glBindBuffer", noop(arena, FunctionDescriptor.ofVoid(ValueLayout.JAVA_INT, ValueLayout.JAVA_INT)),
+                    "glUniform4f", noop(arena, FunctionDescriptor.ofVoid(
+                            ValueLayout.JAVA_INT,
+                            ValueLayout.JAVA_FLOAT, ValueLayout.JAVA_FLOAT, ValueLayout.JAVA_FLOAT, ValueLayout.JAVA_FLOAT
+                    )),
+                    "glBufferSubData", noop(arena, FunctionDescriptor.ofVoid(
+                            ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS
+                    )),
+                    "glDrawArrays", noop(arena, FunctionDescriptor.ofVoid(
+                            ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT
+                    ))
+            );
+            GL gl = new GL(name -> stubs.getOrDefault(name, MemorySegment.NULL));
+            MemorySegment uniforms = arena.allocate(64);
+
+            try (GLCommandStream stream = new GLCommandStream(gl)) {
+                for (int round = 0; round < 3; round++) {
+                    long start = System.nanoTime();
+                    for (int frame = 0; frame < frames; frame++) {
+                        for (int i = 0; i < drawsPerFrame; i++) {
+                            gl.useProgram(i & 7);
+                            gl.bindBuffer(GL.ARRAY_BUFFER, i);
+                            gl.uniform4f(0, i, 0.0f, 0.0f, 1.0f);
+                            gl.bufferSubData(GL.UNIFORM_BUFFER, 0, uniforms.byteSize(), uniforms);
+                            gl.drawArrays(GL.TRIANGLES, 0, 36);
+                        }
+                    }
+                    long directNanos = System.nanoTime() - start;
+
+                    long encodeNanos = 0;
+                    long replayNanos = 0;
+                    for (int frame = 0; frame < frames; frame++) {
+                        long[] workerNanos = new long[1];
+                        Thread worker = Thread.ofPlatform().start(() -> {
+                            long workerStart = System.nanoTime();
+                            GLCommandStream.CommandList list = stream.begin();
+                            for (int i = 0; i < drawsPerFrame; i++) {
+                                list.useProgram(i & 7);
+                                list.bindBuffer(GL.ARRAY_BUFFER, i);
+                                list.uniform4f(0, i, 0.0f, 0.0f, 1.0f);
+                                list.bufferSubData(GL.UNIFORM_BUFFER, 0, uniforms.byteSize(), uniforms);
+                                list.drawArrays(GL.TRIANGLES, 0, 36);
+                            }
+                            stream.submit(list);
+                            workerNanos[0] = System.nanoTime() - workerStart;
+                        });
+                        worker.join();
+                        encodeNanos += workerNanos[0];
+
+                        start = System.nanoTime();
+                        stream.replay();
+                        replayNanos += System.nanoTime() - start;
+                    }
+
+                    double calls = (double) frames * callsPerFrame;
+                    System.out.printf(
+                            "round %d: direct %.1f ns/call, encode %.1f ns/call (worker), replay %.1f ns/call (context thread), replay overhead %.1f ns/call%n",
+                            round,
+                            directNanos / calls,
+                            encodeNanos / calls,
+                            replayNanos / calls,
+                            (replayNanos - directNanos) / calls
+                    );
+                }
+            }
+        }
+    }
+
+    private static MemorySegment noop(Arena arena, FunctionDescriptor descriptor) {
+        return Linker.nativeLinker().upcallStub(
+                MethodHandles.empty(descriptor.toMethodType()),
+                descriptor,
+                arena
+        );
+    }
+}
@@ -0,0 +1,64 @@
+package example.vma;
+
+import club.doki7.ffm.Loader;
+import club.doki7.vma.VMA;
+import club.doki7.vma.util.VMASuballocator;
+
+import java.util.ArrayList;
+
+/// Measures {@link VMASuballocator} on the CPU alone, with a {@link VMASuballocator#hostOnly}
+/// suballocator: a frame of small transient allocations followed by the per-frame clear, and
+/// allocate/free pairs of long-lived allocations.
+///
+/// Needs the {@code vma} native library but no Vulkan device. Pass the number of frames as the
+/// first argument.
+public final class SuballocatorBenchmark {
+    public static void main(String[] args) {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int allocationsPerFrame = 1000;
+        int framesInFlight = 2;
+
+        System.loadLibrary("vma");
+        VMA vma = new VMA(Loader::loadFunctionOrNull);
+
+        try (VMASuballocator suballocator = VMASuballocator.hostOnly(vma, 4 << 20, framesInFlight, 256)) {
+            for (int round = 0; round < 3; round++) {
+                long checksum = 0;
+                long start = System.nanoTime();
+                for (int frame = 0; frame < frames; frame++) {
+                    suballocator.beginFrame(frame % framesInFlight);
+                    for (int i = 0; i < allocationsPerFrame; i++) {
+                        VMASuballocator.Suballocation s = suballocator.allocateTransient(64 + (i & 255));
+                        s.floats().write(0, i);
+                        checksum += s.offset();
+                    }
+                }
+                long transientNanos = System.nanoTime() - start;
+
+                ArrayList<VMASuballocator.Suballocation> live = new ArrayList<>();
+                start = System.nanoTime();
+                for (int frame = 0; frame < frames / 10; frame++) {
+                    for (int i = 0; i < allocationsPerFrame; i++) {
+                        live.add(suballocator.allocate(64 + (i & 4095)));
+                    }
+                    for (VMASuballocator.Suballocation s : live) {
+                        checksum += s.offset();
+                        suballocator.free(s);
+                    }
+                    live.clear();
+                }
+                long persistentNanos = System.nanoTime() - start;
+
+                System.out.printf(
+                        "round %d: transient %.1f ns/allocation, long-lived %.1f ns/pair, %d pages, %d bytes reserved (checksum %x)%n",
+                        round,
+                        transientNanos / ((double) frames * allocationsPerFrame),
+                        persistentNanos / ((double) (frames / 10) * allocationsPerFrame),
+                        suballocator.pageCount(),
+                        suballocator.reservedBytes(),
+                        checksum
+                );
+            }
+        }
+    }
+}
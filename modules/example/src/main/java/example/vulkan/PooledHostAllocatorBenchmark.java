@@ -0,0 +1,79 @@
+package example.vulkan;
+
+import club.doki7.vulkan.enumtype.VkSystemAllocationScope;
+import club.doki7.vulkan.util.PooledHostAllocator;
+
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.lang.management.ManagementFactory;
+
+/// Measures the cost of an allocation/free pair made through the upcall stubs of
+/// {@link PooledHostAllocator}, the way a driver calls them, against {@code malloc}/{@code free}
+/// called through the same kind of downcall, and reports the Java heap allocated per pair.
+///
+/// Needs neither a Vulkan driver nor a device. Pass the number of iterations as the first argument.
+public final class PooledHostAllocatorBenchmark {
+    public static void main(String[] args) throws Throwable {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        Linker linker = Linker.nativeLinker();
+
+        try (PooledHostAllocator allocator = new PooledHostAllocator("bench")) {
+            MethodHandle allocation = linker.downcallHandle(allocator.callbacks().pfnAllocation(), FunctionDescriptor.of(
+                    ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT
+            ));
+            MethodHandle free = linker.downcallHandle(allocator.callbacks().pfnFree(), FunctionDescriptor.ofVoid(
+                    ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG
+            ));
+            MethodHandle malloc = linker.downcallHandle(linker.defaultLookup().find("malloc").orElseThrow(), FunctionDescriptor.of(
+                    ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG
+            ));
+            MethodHandle systemFree = linker.downcallHandle(linker.defaultLookup().find("free").orElseThrow(), FunctionDescriptor.ofVoid(
+                    ValueLayout.JAVA_LONG
+            ));
+
+            for (int round = 0; round < 3; round++) {
+                long heapBefore = threadAllocatedBytes();
+                long start = System.nanoTime();
+                long checksum = 0;
+                for (int i = 0; i < iterations; i++) {
+                    long size = 16L + (i & 1023);
+                    long p = (long) allocation.invokeExact(0L, size, 16L, VkSystemAllocationScope.OBJECT);
+                    checksum += p;
+                    free.invokeExact(0L, p);
+                }
+                long callbackNanos = System.nanoTime() - start;
+                long heapBytes = threadAllocatedBytes() - heapBefore;
+
+                start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    long size = 16L + (i & 1023);
+                    long p = (long) malloc.invokeExact(size);
+                    checksum += p;
+                    systemFree.invokeExact(p);
+                }
+                long mallocNanos = System.nanoTime() - start;
+
+                System.out.printf(
+                        "round %d: callbacks %.1f ns/pair, malloc %.1f ns/pair, heap %.3f bytes/pair (checksum %x)%n",
+                        round,
+                        callbackNanos / (double) iterations,
+                        mallocNanos / (double) iterations,
+                        heapBytes / (double) iterations,
+                        checksum
+                );
+            }
+            System.out.printf(
+                    "allocations %d, peak %d bytes, reserved %d bytes%n",
+                    allocator.allocationCount(VkSystemAllocationScope.OBJECT),
+                    allocator.peakBytes(VkSystemAllocationScope.OBJECT),
+                    allocator.reservedBytes()
+            );
+        }
+    }
+
+    private static long threadAllocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+}
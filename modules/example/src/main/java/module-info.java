@@ -1,8 +1,10 @@
 module example {
     requires club.doki7.ffm;
     requires club.doki7.openal;
+    requires club.doki7.opengl;
     requires club.doki7.sdl3;
     requires club.doki7.vulkan;
     requires club.doki7.vma;
     requires java.desktop;
+    requires jdk.management;
 }
@@ -0,0 +1,62 @@
+package club.doki7.opengl.util;
+
+import club.doki7.ffm.ptr.BytePtr;
+import club.doki7.ffm.ptr.IntPtr;
+import club.doki7.opengl.GL;
+import club.doki7.opengl.GLConstants;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.foreign.Arena;
+
+/// Queries of what the current context supports.
+///
+/// Function loaders such as {@code glfwGetProcAddress} may return entry points the context does
+/// not support, so a non-null {@code HANDLE$} alone does not make a function callable; the
+/// context version or extension list has to be checked as well.
+final class GLCapabilities {
+    private GLCapabilities() {}
+
+    /// Whether the current context is OpenGL {@code major.minor} or later.
+    static boolean isVersionAtLeast(@NotNull GL gl, int major, int minor) {
+        try (Arena arena = Arena.ofConfined()) {
+            // contexts before 3.0 do not know MAJOR_VERSION and leave the value untouched
+            IntPtr pValue = IntPtr.allocate(arena);
+            gl.getIntegerv(GLConstants.MAJOR_VERSION, pValue);
+            int contextMajor = pValue.read();
+            pValue.write(0);
+            gl.getIntegerv(GLConstants.MINOR_VERSION, pValue);
+            int contextMinor = pValue.read();
+            return contextMajor > major || (contextMajor == major && contextMinor >= minor);
+        }
+    }
+
+    /// Whether the current context exposes {@code extension}, e.g. {@code "GL_ARB_buffer_storage"}.
+    static boolean hasExtension(@NotNull GL gl, @NotNull String extension) {
+        if (gl.HANDLE$glGetStringi == null) {
+            BytePtr extensions = gl.getString(GLConstants.EXTENSIONS);
+            if (extensions == null) {
+                return false;
+            }
+            for (String name : extensions.readString().split(" ")) {
+                if (name.equals(extension)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        int count;
+        try (Arena arena = Arena.ofConfined()) {
+            IntPtr pCount = IntPtr.allocate(arena);
+            gl.getIntegerv(GLConstants.NUM_EXTENSIONS, pCount);
+            count = pCount.read();
+        }
+        for (int i = 0; i < count; i++) {
+            BytePtr name = gl.getStringi(GLConstants.EXTENSIONS, i);
+            if (name != null && name.readString().equals(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
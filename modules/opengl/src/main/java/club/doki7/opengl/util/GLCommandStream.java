@@ -0,0 +1,576 @@
+package club.doki7.opengl.util;
+
+import club.doki7.ffm.annotation.NativeType;
+import club.doki7.ffm.annotation.Unsigned;
+import club.doki7.ffm.ptr.FloatPtr;
+import club.doki7.opengl.GL;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/// Lets threads without a current context record OpenGL commands, which the context thread then
+/// executes through {@link GL}.
+///
+/// A worker takes a {@link CommandList} with {@link #begin}, records into it with methods named
+/// and typed like their {@link GL} counterparts, and hands it over with {@link #submit}. Each
+/// command is encoded as an opcode followed by its arguments in the list's own off-heap buffer;
+/// bulk data, such as the contents of {@link CommandList#bufferSubData}, is copied in, so the
+/// caller may reuse its memory right away. On the context thread, {@link #replay} decodes the
+/// submitted lists in submission order and recycles them for later {@link #begin} calls.
+///
+/// {@snippet :
+/// GLCommandStream stream = new GLCommandStream(gl);
+///
+/// // on a worker thread
+/// GLCommandStream.CommandList list = stream.begin();
+/// list.useProgram(program);
+/// list.bufferSubData(GL.UNIFORM_BUFFER, 0, uniforms.byteSize(), uniforms);
+/// list.drawElements(GL.TRIANGLES, indexCount, GL.UNSIGNED_INT, 0);
+/// stream.submit(list);
+///
+/// // on the context thread, once per frame
+/// stream.replay();
+/// }
+///
+/// Only the commands of {@link CommandList} can be recorded; queries and anything returning a
+/// value must run on the context thread. {@link #begin} and {@link #submit} are thread safe; a
+/// {@link CommandList} must only be used by one thread at a time, and {@link #replay} and
+/// {@link #close} must be called on the context thread.
+public final class GLCommandStream implements AutoCloseable {
+    public GLCommandStream(@NotNull GL gl) {
+        this(gl, 64 * 1024);
+    }
+
+    /// @param initialListBytes initial buffer size of each command list; lists grow as needed
+    public GLCommandStream(@NotNull GL gl, long initialListBytes) {
+        if (initialListBytes <= 0) {
+            throw new IllegalArgumentException("Invalid initial list size " + initialListBytes);
+        }
+        this.gl = gl;
+        this.initialListBytes = initialListBytes;
+    }
+
+    /// Takes an empty command list, recycled if one is free. Thread safe.
+    public @NotNull CommandList begin() {
+        CommandList list = free.poll();
+        if (list == null) {
+            list = new CommandList(initialListBytes);
+            all.add(list);
+        }
+        return list;
+    }
+
+    /// Queues {@code list} for the next {@link #replay}. Lists are replayed in the order they are
+    /// submitted; the list must not be touched afterwards. Thread safe.
+    public void submit(@NotNull CommandList list) {
+        submitted.add(list);
+    }
+
+    /// Returns {@code list} unsubmitted, discarding what was recorded. Thread safe.
+    public void discard(@NotNull CommandList list) {
+        list.reset();
+        free.add(list);
+    }
+
+    /// Executes all submitted lists in submission order and recycles them.
+    ///
+    /// @return the number of commands executed
+    public int replay() {
+        int commandCount = 0;
+        CommandList list;
+        while ((list = submitted.poll()) != null) {
+            execute(list.segment, list.position);
+            commandCount += list.commandCount;
+            list.reset();
+            free.add(list);
+        }
+        replayed += commandCount;
+        return commandCount;
+    }
+
+    /// Total number of commands executed by {@link #replay}.
+    public long replayedCount() {
+        return replayed;
+    }
+
+    /// Frees the buffers of all lists, including ones that were taken but never submitted.
+    @Override
+    public void close() {
+        CommandList list;
+        while ((list = all.poll()) != null) {
+            list.arena.close();
+        }
+        submitted.clear();
+        free.clear();
+    }
+
+    /// A sequence of recorded commands. See {@link GLCommandStream}.
+    public static final class CommandList {
+        public void bindBuffer(@NativeType("GLenum") int target, @NativeType("GLuint") @Unsigned int buffer) {
+            long p = reserve(OP_BIND_BUFFER, 2 * INT);
+            segment.set(I32, p, target);
+            segment.set(I32, p + 4, buffer);
+        }
+
+        public void bindBufferBase(
+                @NativeType("GLenum") int target,
+                @NativeType("GLuint") @Unsigned int index,
+                @NativeType("GLuint") @Unsigned int buffer
+        ) {
+            long p = reserve(OP_BIND_BUFFER_BASE, 3 * INT);
+            segment.set(I32, p, target);
+            segment.set(I32, p + 4, index);
+            segment.set(I32, p + 8, buffer);
+        }
+
+        public void bindBufferRange(
+                @NativeType("GLenum") int target,
+                @NativeType("GLuint") @Unsigned int index,
+                @NativeType("GLuint") @Unsigned int buffer,
+                @NativeType("GLintptr") long offset,
+                @NativeType("GLsizeiptr") long size
+        ) {
+            long p = reserve(OP_BIND_BUFFER_RANGE, 3 * INT + 2 * LONG);
+            segment.set(I32, p, target);
+            segment.set(I32, p + 4, index);
+            segment.set(I32, p + 8, buffer);
+            segment.set(I64, p + 12, offset);
+            segment.set(I64, p + 20, size);
+        }
+
+        /// Copies {@code size} bytes of {@code data} into the list.
+        public void bufferSubData(
+                @NativeType("GLenum") int target,
+                @NativeType("GLintptr") long offset,
+                @NativeType("GLsizeiptr") long size,
+                @NotNull MemorySegment data
+        ) {
+            long p = reserve(OP_BUFFER_SUB_DATA, INT + 2 * LONG + padded(size));
+            segment.set(I32, p, target);
+            segment.set(I64, p + 4, offset);
+            segment.set(I64, p + 12, size);
+            MemorySegment.copy(data, 0, segment, p + 20, size);
+        }
+
+        public void bindVertexArray(@NativeType("GLuint") @Unsigned int array) {
+            long p = reserve(OP_BIND_VERTEX_ARRAY, INT);
+            segment.set(I32, p, array);
+        }
+
+        public void useProgram(@NativeType("GLuint") @Unsigned int program) {
+            long p = reserve(OP_USE_PROGRAM, INT);
+            segment.set(I32, p, program);
+        }
+
+        public void activeTexture(@NativeType("GLenum") int texture) {
+            long p = reserve(OP_ACTIVE_TEXTURE, INT);
+            segment.set(I32, p, texture);
+        }
+
+        public void bindTexture(@NativeType("GLenum") int target, @NativeType("GLuint") @Unsigned int texture) {
+            long p = reserve(OP_BIND_TEXTURE, 2 * INT);
+            segment.set(I32, p, target);
+            segment.set(I32, p + 4, texture);
+        }
+
+        public void bindSampler(@NativeType("GLuint") @Unsigned int unit, @NativeType("GLuint") @Unsigned int sampler) {
+            long p = reserve(OP_BIND_SAMPLER, 2 * INT);
+            segment.set(I32, p, unit);
+            segment.set(I32, p + 4, sampler);
+        }
+
+        public void enable(@NativeType("GLenum") int cap) {
+            long p = reserve(OP_ENABLE, INT);
+            segment.set(I32, p, cap);
+        }
+
+        public void disable(@NativeType("GLenum") int cap) {
+            long p = reserve(OP_DISABLE, INT);
+            segment.set(I32, p, cap);
+        }
+
+        public void blendFunc(@NativeType("GLenum") int sfactor, @NativeType("GLenum") int dfactor) {
+            long p = reserve(OP_BLEND_FUNC, 2 * INT);
+            segment.set(I32, p, sfactor);
+            segment.set(I32, p + 4, dfactor);
+        }
+
+        public void viewport(
+                @NativeType("GLint") int x,
+                @NativeType("GLint") int y,
+                @NativeType("GLsizei") int width,
+                @NativeType("GLsizei") int height
+        ) {
+            long p = reserve(OP_VIEWPORT, 4 * INT);
+            segment.set(I32, p, x);
+            segment.set(I32, p + 4, y);
+            segment.set(I32, p + 8, width);
+            segment.set(I32, p + 12, height);
+        }
+
+        public void scissor(
+                @NativeType("GLint") int x,
+                @NativeType("GLint") int y,
+                @NativeType("GLsizei") int width,
+                @NativeType("GLsizei") int height
+        ) {
+            long p = reserve(OP_SCISSOR, 4 * INT);
+            segment.set(I32, p, x);
+            segment.set(I32, p + 4, y);
+            segment.set(I32, p + 8, width);
+            segment.set(I32, p + 12, height);
+        }
+
+        public void clearColor(
+                @NativeType("GLfloat") float red,
+                @NativeType("GLfloat") float green,
+                @NativeType("GLfloat") float blue,
+                @NativeType("GLfloat") float alpha
+        ) {
+            long p = reserve(OP_CLEAR_COLOR, 4 * INT);
+            segment.set(F32, p, red);
+            segment.set(F32, p + 4, green);
+            segment.set(F32, p + 8, blue);
+            segment.set(F32, p + 12, alpha);
+        }
+
+        public void clear(@NativeType("GLbitfield") @Unsigned int mask) {
+            long p = reserve(OP_CLEAR, INT);
+            segment.set(I32, p, mask);
+        }
+
+        public void uniform1i(@NativeType("GLint") int location, @NativeType("GLint") int v0) {
+            long p = reserve(OP_UNIFORM1I, 2 * INT);
+            segment.set(I32, p, location);
+            segment.set(I32, p + 4, v0);
+        }
+
+        public void uniform1f(@NativeType("GLint") int location, @NativeType("GLfloat") float v0) {
+            long p = reserve(OP_UNIFORM1F, 2 * INT);
+            segment.set(I32, p, location);
+            segment.set(F32, p + 4, v0);
+        }
+
+        public void uniform4f(
+                @NativeType("GLint") int location,
+                @NativeType("GLfloat") float v0,
+                @NativeType("GLfloat") float v1,
+                @NativeType("GLfloat") float v2,
+                @NativeType("GLfloat") float v3
+        ) {
+            long p = reserve(OP_UNIFORM4F, 5 * INT);
+            segment.set(I32, p, location);
+            segment.set(F32, p + 4, v0);
+            segment.set(F32, p + 8, v1);
+            segment.set(F32, p + 12, v2);
+            segment.set(F32, p + 16, v3);
+        }
+
+        /// Copies the {@code count} matrices of {@code value} into the list.
+        public void uniformMatrix4fv(
+                @NativeType("GLint") int location,
+                @NativeType("GLsizei") int count,
+                @NativeType("GLboolean") @Unsigned byte transpose,
+                @NotNull FloatPtr value
+        ) {
+            long size = count * 16L * Float.BYTES;
+            long p = reserve(OP_UNIFORM_MATRIX4FV, 3 * INT + size);
+            segment.set(I32, p, location);
+            segment.set(I32, p + 4, count);
+            segment.set(I32, p + 8, transpose);
+            MemorySegment.copy(value.segment(), 0, segment, p + 12, size);
+        }
+
+        public void drawArrays(
+                @NativeType("GLenum") int mode,
+                @NativeType("GLint") int first,
+                @NativeType("GLsizei") int count
+        ) {
+            long p = reserve(OP_DRAW_ARRAYS, 3 * INT);
+            segment.set(I32, p, mode);
+            segment.set(I32, p + 4, first);
+            segment.set(I32, p + 8, count);
+        }
+
+        public void drawArraysInstanced(
+                @NativeType("GLenum") int mode,
+                @NativeType("GLint") int first,
+                @NativeType("GLsizei") int count,
+                @NativeType("GLsizei") int instanceCount
+        ) {
+            long p = reserve(OP_DRAW_ARRAYS_INSTANCED, 4 * INT);
+            segment.set(I32, p, mode);
+            segment.set(I32, p + 4, first);
+            segment.set(I32, p + 8, count);
+            segment.set(I32, p + 12, instanceCount);
+        }
+
+        /// Unlike {@link GL#drawElements}, takes the byte offset into the bound element array
+        /// buffer directly, since client memory cannot outlive the call.
+        public void drawElements(
+                @NativeType("GLenum") int mode,
+                @NativeType("GLsizei") int count,
+                @NativeType("GLenum") int type,
+                long indexOffset
+        ) {
+            long p = reserve(OP_DRAW_ELEMENTS, 3 * INT + LONG);
+            segment.set(I32, p, mode);
+            segment.set(I32, p + 4, count);
+            segment.set(I32, p + 8, type);
+            segment.set(I64, p + 12, indexOffset);
+        }
+
+        /// See {@link #drawElements} for {@code indexOffset}.
+        public void drawElementsInstanced(
+                @NativeType("GLenum") int mode,
+                @NativeType("GLsizei") int count,
+                @NativeType("GLenum") int type,
+                long indexOffset,
+                @NativeType("GLsizei") int instanceCount
+        ) {
+            long p = reserve(OP_DRAW_ELEMENTS_INSTANCED, 4 * INT + LONG);
+            segment.set(I32, p, mode);
+            segment.set(I32, p + 4, count);
+            segment.set(I32, p + 8, type);
+            segment.set(I64, p + 12, indexOffset);
+            segment.set(I32, p + 20, instanceCount);
+        }
+
+        /// See {@link #drawElements} for {@code indexOffset}.
+        public void drawElementsBaseVertex(
+                @NativeType("GLenum") int mode,
+                @NativeType("GLsizei") int count,
+                @NativeType("GLenum") int type,
+                long indexOffset,
+                @NativeType("GLint") int baseVertex
+        ) {
+            long p = reserve(OP_DRAW_ELEMENTS_BASE_VERTEX, 4 * INT + LONG);
+            segment.set(I32, p, mode);
+            segment.set(I32, p + 4, count);
+            segment.set(I32, p + 8, type);
+            segment.set(I64, p + 12, indexOffset);
+            segment.set(I32, p + 20, baseVertex);
+        }
+
+        /// Number of commands recorded.
+        public int commandCount() {
+            return commandCount;
+        }
+
+        /// Bytes of encoded commands.
+        public long byteSize() {
+            return position;
+        }
+
+        private CommandList(long initialBytes) {
+            arena = Arena.ofShared();
+            segment = arena.allocate(initialBytes, Long.BYTES);
+        }
+
+        /// Writes the opcode and returns the position of the {@code argumentBytes} that follow
+        private long reserve(int opcode, long argumentBytes) {
+            long needed = position + INT + argumentBytes;
+            if (needed > segment.byteSize()) {
+                // closing a shared arena is expensive, so outgrown buffers stay in the arena until
+                // the stream is closed; they add up to less than the current one
+                MemorySegment newSegment = arena.allocate(Math.max(needed, segment.byteSize() * 2), Long.BYTES);
+                MemorySegment.copy(segment, 0, newSegment, 0, position);
+                segment = newSegment;
+            }
+
+            segment.set(I32, position, opcode);
+            long p = position + INT;
+            position = needed;
+            commandCount++;
+            return p;
+        }
+
+        private void reset() {
+            position = 0;
+            commandCount = 0;
+        }
+
+        private static long padded(long size) {
+            return (size + INT - 1) & -INT;
+        }
+
+        private final Arena arena;
+        private MemorySegment segment;
+        private long position;
+        private int commandCount;
+    }
+
+    private void execute(MemorySegment s, long end) {
+        GL gl = this.gl;
+        long p = 0;
+        while (p < end) {
+            int opcode = s.get(I32, p);
+            p += INT;
+            switch (opcode) {
+                case OP_BIND_BUFFER -> {
+                    gl.bindBuffer(s.get(I32, p), s.get(I32, p + 4));
+                    p += 2 * INT;
+                }
+                case OP_BIND_BUFFER_BASE -> {
+                    gl.bindBufferBase(s.get(I32, p), s.get(I32, p + 4), s.get(I32, p + 8));
+                    p += 3 * INT;
+                }
+                case OP_BIND_BUFFER_RANGE -> {
+                    gl.bindBufferRange(
+                            s.get(I32, p), s.get(I32, p + 4), s.get(I32, p + 8),
+                            s.get(I64, p + 12), s.get(I64, p + 20)
+                    );
+                    p += 3 * INT + 2 * LONG;
+                }
+                case OP_BUFFER_SUB_DATA -> {
+                    long size = s.get(I64, p + 12);
+                    gl.bufferSubData(s.get(I32, p), s.get(I64, p + 4), size, s.asSlice(p + 20, size));
+                    p += INT + 2 * LONG + CommandList.padded(size);
+                }
+                case OP_BIND_VERTEX_ARRAY -> {
+                    gl.bindVertexArray(s.get(I32, p));
+                    p += INT;
+                }
+                case OP_USE_PROGRAM -> {
+                    gl.useProgram(s.get(I32, p));
+                    p += INT;
+                }
+                case OP_ACTIVE_TEXTURE -> {
+                    gl.activeTexture(s.get(I32, p));
+                    p += INT;
+                }
+                case OP_BIND_TEXTURE -> {
+                    gl.bindTexture(s.get(I32, p), s.get(I32, p + 4));
+                    p += 2 * INT;
+                }
+                case OP_BIND_SAMPLER -> {
+                    gl.bindSampler(s.get(I32, p), s.get(I32, p + 4));
+                    p += 2 * INT;
+                }
+                case OP_ENABLE -> {
+                    gl.enable(s.get(I32, p));
+                    p += INT;
+                }
+                case OP_DISABLE -> {
+                    gl.disable(s.get(I32, p));
+                    p += INT;
+                }
+                case OP_BLEND_FUNC -> {
+                    gl.blendFunc(s.get(I32, p), s.get(I32, p + 4));
+                    p += 2 * INT;
+                }
+                case OP_VIEWPORT -> {
+                    gl.viewport(s.get(I32, p), s.get(I32, p + 4), s.get(I32, p + 8), s.get(I32, p + 12));
+                    p += 4 * INT;
+                }
+                case OP_SCISSOR -> {
+                    gl.scissor(s.get(I32, p), s.get(I32, p + 4), s.get(I32, p + 8), s.get(I32, p + 12));
+                    p += 4 * INT;
+                }
+                case OP_CLEAR_COLOR -> {
+                    gl.clearColor(s.get(F32, p), s.get(F32, p + 4), s.get(F32, p + 8), s.get(F32, p + 12));
+                    p += 4 * INT;
+                }
+                case OP_CLEAR -> {
+                    gl.clear(s.get(I32, p));
+                    p += INT;
+                }
+                case OP_UNIFORM1I -> {
+                    gl.uniform1i(s.get(I32, p), s.get(I32, p + 4));
+                    p += 2 * INT;
+                }
+                case OP_UNIFORM1F -> {
+                    gl.uniform1f(s.get(I32, p), s.get(F32, p + 4));
+                    p += 2 * INT;
+                }
+                case OP_UNIFORM4F -> {
+                    gl.uniform4f(
+                            s.get(I32, p),
+                            s.get(F32, p + 4), s.get(F32, p + 8), s.get(F32, p + 12), s.get(F32, p + 16)
+                    );
+                    p += 5 * INT;
+                }
+                case OP_UNIFORM_MATRIX4FV -> {
+                    int count = s.get(I32, p + 4);
+                    long size = count * 16L * Float.BYTES;
+                    gl.uniformMatrix4fv(
+                            s.get(I32, p), count, (byte) s.get(I32, p + 8), new FloatPtr(s.asSlice(p + 12, size))
+                    );
+                    p += 3 * INT + size;
+                }
+                case OP_DRAW_ARRAYS -> {
+                    gl.drawArrays(s.get(I32, p), s.get(I32, p + 4), s.get(I32, p + 8));
+                    p += 3 * INT;
+                }
+                case OP_DRAW_ARRAYS_INSTANCED -> {
+                    gl.drawArraysInstanced(s.get(I32, p), s.get(I32, p + 4), s.get(I32, p + 8), s.get(I32, p + 12));
+                    p += 4 * INT;
+                }
+                case OP_DRAW_ELEMENTS -> {
+                    gl.drawElements(
+                            s.get(I32, p), s.get(I32, p + 4), s.get(I32, p + 8),
+                            MemorySegment.ofAddress(s.get(I64, p + 12))
+                    );
+                    p += 3 * INT + LONG;
+                }
+                case OP_DRAW_ELEMENTS_INSTANCED -> {
+                    gl.drawElementsInstanced(
+                            s.get(I32, p), s.get(I32, p + 4), s.get(I32, p + 8),
+                            MemorySegment.ofAddress(s.get(I64, p + 12)), s.get(I32, p + 20)
+                    );
+                    p += 4 * INT + LONG;
+                }
+                case OP_DRAW_ELEMENTS_BASE_VERTEX -> {
+                    gl.drawElementsBaseVertex(
+                            s.get(I32, p), s.get(I32, p + 4), s.get(I32, p + 8),
+                            MemorySegment.ofAddress(s.get(I64, p + 12)), s.get(I32, p + 20)
+                    );
+                    p += 4 * INT + LONG;
+                }
+                default -> throw new IllegalStateException("Corrupt command list: opcode " + opcode + " at " + (p - INT));
+            }
+        }
+    }
+
+    private static final int OP_BIND_BUFFER = 1;
+    private static final int OP_BIND_BUFFER_BASE = 2;
+    private static final int OP_BIND_BUFFER_RANGE = 3;
+    private static final int OP_BUFFER_SUB_DATA = 4;
+    private static final int OP_BIND_VERTEX_ARRAY = 5;
+    private static final int OP_USE_PROGRAM = 6;
+    private static final int OP_ACTIVE_TEXTURE = 7;
+    private static final int OP_BIND_TEXTURE = 8;
+    private static final int OP_BIND_SAMPLER = 9;
+    private static final int OP_ENABLE = 10;
+    private static final int OP_DISABLE = 11;
+    private static final int OP_BLEND_FUNC = 12;
+    private static final int OP_VIEWPORT = 13;
+    private static final int OP_SCISSOR = 14;
+    private static final int OP_CLEAR_COLOR = 15;
+    private static final int OP_CLEAR = 16;
+    private static final int OP_UNIFORM1I = 17;
+    private static final int OP_UNIFORM1F = 18;
+    private static final int OP_UNIFORM4F = 19;
+    private static final int OP_UNIFORM_MATRIX4FV = 20;
+    private static final int OP_DRAW_ARRAYS = 21;
+    private static final int OP_DRAW_ARRAYS_INSTANCED = 22;
+    private static final int OP_DRAW_ELEMENTS = 23;
+    private static final int OP_DRAW_ELEMENTS_INSTANCED = 24;
+    private static final int OP_DRAW_ELEMENTS_BASE_VERTEX = 25;
+
+    private static final long INT = Integer.BYTES;
+    private static final long LONG = Long.BYTES;
+    private static final ValueLayout.OfInt I32 = ValueLayout.JAVA_INT_UNALIGNED;
+    private static final ValueLayout.OfFloat F32 = ValueLayout.JAVA_FLOAT_UNALIGNED;
+    private static final ValueLayout.OfLong I64 = ValueLayout.JAVA_LONG_UNALIGNED;
+
+    private final GL gl;
+    private final long initialListBytes;
+    private final ConcurrentLinkedQueue<CommandList> all = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<CommandList> free = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<CommandList> submitted = new ConcurrentLinkedQueue<>();
+    private long replayed;
+}
@@ -0,0 +1,161 @@
+package club.doki7.opengl.util;
+
+import club.doki7.ffm.annotation.NativeType;
+import club.doki7.ffm.annotation.Pointer;
+import club.doki7.ffm.annotation.Unsigned;
+import club.doki7.opengl.GL;
+import club.doki7.opengl.GLConstants;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+
+/// {@code glDebugMessageCallback} callback that does nothing but copy the message into a native
+/// ring, leaving decoding, deduplication and logging to a background thread.
+///
+/// With {@code DEBUG_OUTPUT} enabled the driver may call back very often, and with
+/// {@code DEBUG_OUTPUT_SYNCHRONOUS} it does so on the thread making the GL call. The upcall stub
+/// of this sink, built from {@link #DESCRIPTOR}, only copies the source, type, ID, severity and
+/// message bytes into a preallocated native ring; it does not allocate on the Java heap and never
+/// blocks. Messages longer than a slot are truncated, and messages arriving while the ring is full
+/// are dropped and counted.
+///
+/// The background thread hands messages to a {@link MessageHandler}, by default one writing to
+/// the {@link System.Logger} {@code club.doki7.opengl.debug}. Each (source, type, ID) triple is
+/// rate limited: after {@code repeatLimit} messages within {@code windowNanos}, further ones are
+/// suppressed until the window ends, and the next message passed on carries the number
+/// suppressed.
+///
+/// {@snippet :
+/// GLDebugMessageSink sink = new GLDebugMessageSink(1024, 5, 1_000_000_000L, GLDebugMessageSink.logger());
+/// sink.install(gl);
+///
+/// // on shutdown, while the context is still current
+/// gl.debugMessageCallback(MemorySegment.NULL, MemorySegment.NULL);
+/// sink.close();
+/// }
+public final class GLDebugMessageSink implements AutoCloseable {
+    /// Function descriptor of {@code GLDEBUGPROC}.
+    public static final FunctionDescriptor DESCRIPTOR = FunctionDescriptor.ofVoid(
+            ValueLayout.JAVA_INT,
+            ValueLayout.JAVA_INT,
+            ValueLayout.JAVA_INT,
+            ValueLayout.JAVA_INT,
+            ValueLayout.JAVA_INT,
+            ValueLayout.ADDRESS,
+            ValueLayout.ADDRESS
+    );
+
+    /// Receives decoded messages on the sink's background thread.
+    @FunctionalInterface
+    public interface MessageHandler {
+        /// @param suppressed number of messages with the same source, type and ID suppressed by
+        ///                   rate limiting since the previous one passed on
+        void handle(
+                @NativeType("GLenum") int source,
+                @NativeType("GLenum") int type,
+                @Unsigned int id,
+                @NativeType("GLenum") int severity,
+                @NotNull String message,
+                int suppressed
+        );
+    }
+
+    /// A handler writing to the {@link System.Logger} {@code club.doki7.opengl.debug}, mapping
+    /// {@code DEBUG_SEVERITY_HIGH}, {@code MEDIUM}, {@code LOW} and {@code NOTIFICATION} to
+    /// {@code ERROR}, {@code WARNING}, {@code INFO} and {@code DEBUG}.
+    public static @NotNull MessageHandler logger() {
+        System.Logger logger = System.getLogger("club.doki7.opengl.debug");
+        return (source, type, id, severity, message, suppressed) -> {
+            System.Logger.Level level = switch (severity) {
+                case GLConstants.DEBUG_SEVERITY_HIGH -> System.Logger.Level.ERROR;
+                case GLConstants.DEBUG_SEVERITY_MEDIUM -> System.Logger.Level.WARNING;
+                case GLConstants.DEBUG_SEVERITY_LOW -> System.Logger.Level.INFO;
+                default -> System.Logger.Level.DEBUG;
+            };
+            if (suppressed > 0) {
+                logger.log(level, "{0} ({1} similar messages suppressed)", message, suppressed);
+            } else {
+                logger.log(level, message);
+            }
+        };
+    }
+
+    /// @param capacity number of ring slots, a power of two
+    /// @param repeatLimit messages passed on per source, type and ID within one window
+    /// @param windowNanos length of the rate limiting window
+    /// @param handler receives the messages on the background thread; must not throw
+    public GLDebugMessageSink(int capacity, int repeatLimit, long windowNanos, @NotNull MessageHandler handler) {
+        this.ring = new NativeMessageRing(
+                capacity,
+                repeatLimit,
+                windowNanos,
+                "vulkan4j-gl-debug-messages",
+                handler::handle
+        );
+        this.arena = Arena.ofShared();
+        try {
+            MethodHandle handle = MethodHandles.lookup()
+                    .findVirtual(GLDebugMessageSink.class, "callback", DESCRIPTOR.toMethodType())
+                    .bindTo(this);
+            this.callback = Linker.nativeLinker().upcallStub(handle, DESCRIPTOR, arena);
+        } catch (ReflectiveOperationException e) {
+            arena.close();
+            ring.close();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /// The {@code GLDEBUGPROC} to register. Valid until {@link #close}.
+    public @NotNull MemorySegment callback() {
+        return callback;
+    }
+
+    /// Enables {@code DEBUG_OUTPUT} and registers {@link #callback} on the current context.
+    public void install(@NotNull GL gl) {
+        gl.enable(GLConstants.DEBUG_OUTPUT);
+        gl.debugMessageCallback(callback, MemorySegment.NULL);
+    }
+
+    /// Number of messages dropped because the ring was full.
+    public long droppedCount() {
+        return ring.droppedCount();
+    }
+
+    /// Number of messages suppressed by rate limiting. Updated on the background thread.
+    public long suppressedCount() {
+        return ring.suppressedCount();
+    }
+
+    /// Passes on the messages still in the ring, stops the background thread and frees the
+    /// callback. Unregister {@link #callback} from every context first.
+    @Override
+    public void close() {
+        ring.close();
+        arena.close();
+    }
+
+    private void callback(
+            @NativeType("GLenum") int source,
+            @NativeType("GLenum") int type,
+            @Unsigned int id,
+            @NativeType("GLenum") int severity,
+            @NativeType("GLsizei") int length,
+            @Pointer(comment = "GLchar") MemorySegment message,
+            @Pointer(comment = "void*") MemorySegment userParam
+    ) {
+        // some drivers pass a negative length for NUL-terminated messages, which the ring
+        // handles the same way
+        long key = ((long) (source & 0xFFFF) << 48) | ((long) (type & 0xFFFF) << 32) | Integer.toUnsignedLong(id);
+        ring.offer(key, source, type, id, severity, message.address(), length);
+    }
+
+    private final NativeMessageRing ring;
+    private final Arena arena;
+    private final MemorySegment callback;
+}
@@ -0,0 +1,260 @@
+package club.doki7.opengl.util;
+
+import club.doki7.ffm.annotation.NativeType;
+import club.doki7.ffm.annotation.Unsigned;
+import club.doki7.ffm.ptr.IntPtr;
+import club.doki7.opengl.GL;
+import club.doki7.opengl.GLConstants;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Arrays;
+
+/// Collects indexed draws, sorts them by a state key and submits each run of equal keys with a
+/// single {@code glMultiDrawElementsIndirect}.
+///
+/// Every {@link #add} appends one {@code DrawElementsIndirectCommand} to an off-heap array that
+/// grows as needed. {@link #flush} orders the commands by state key (draws with equal keys keep
+/// their submission order), uploads all of them to the batcher's {@code DRAW_INDIRECT_BUFFER} in
+/// one {@code glBufferData}, then, for every run of equal keys, lets the {@link StateBinder} bind
+/// the state and issues one multi-draw covering the run.
+///
+/// {@snippet :
+/// GLIndirectBatcher batcher = new GLIndirectBatcher(gl, GL.TRIANGLES, GL.UNSIGNED_INT, 1024, false);
+///
+/// for (Mesh mesh : visibleMeshes) {
+///     batcher.add(mesh.material.id, mesh.indexCount, 1, mesh.firstIndex, mesh.baseVertex, mesh.instanceIndex);
+/// }
+/// batcher.flush(key -> materials[key].bind(state));
+/// }
+///
+/// All draws of a batch share the primitive mode and index type; everything else that differs
+/// between them, including the vertex array, belongs in the state key. The
+/// {@link StateBinder} must not rebind {@code DRAW_INDIRECT_BUFFER} or {@code PARAMETER_BUFFER}.
+///
+/// Not thread safe.
+public final class GLIndirectBatcher implements AutoCloseable {
+    /// Size of one {@code DrawElementsIndirectCommand}: {@code count}, {@code instanceCount},
+    /// {@code firstIndex}, {@code baseVertex} and {@code baseInstance}.
+    public static final int COMMAND_BYTES = 5 * Integer.BYTES;
+
+    /// Binds the state shared by all draws with a given key.
+    @FunctionalInterface
+    public interface StateBinder {
+        void bind(int stateKey);
+    }
+
+    /// @param mode primitive mode of all draws, e.g. {@code TRIANGLES}
+    /// @param indexType {@code UNSIGNED_BYTE}, {@code UNSIGNED_SHORT} or {@code UNSIGNED_INT}
+    /// @param initialCapacity number of commands to reserve space for
+    /// @param indirectCount whether to issue {@code glMultiDrawElementsIndirectCount} (OpenGL 4.6
+    ///                      or {@code ARB_indirect_parameters}) with the draw count of each run
+    ///                      read from the same buffer, so that a compute pass can lower it in
+    ///                      place; ignored when neither entry point is available
+    public GLIndirectBatcher(
+            @NotNull GL gl,
+            @NativeType("GLenum") int mode,
+            @NativeType("GLenum") int indexType,
+            int initialCapacity,
+            boolean indirectCount
+    ) {
+        if (initialCapacity <= 0) {
+            throw new IllegalArgumentException("Invalid initial capacity " + initialCapacity);
+        }
+        this.gl = gl;
+        this.mode = mode;
+        this.indexType = indexType;
+        if (!indirectCount) {
+            this.countFunction = COUNT_NONE;
+        } else if (gl.HANDLE$glMultiDrawElementsIndirectCount != null && GLCapabilities.isVersionAtLeast(gl, 4, 6)) {
+            this.countFunction = COUNT_CORE;
+        } else if (gl.HANDLE$glMultiDrawElementsIndirectCountARB != null
+                   && GLCapabilities.hasExtension(gl, "GL_ARB_indirect_parameters")) {
+            this.countFunction = COUNT_ARB;
+        } else {
+            this.countFunction = COUNT_NONE;
+        }
+
+        try (Arena arena = Arena.ofConfined()) {
+            IntPtr pBuffer = IntPtr.allocate(arena);
+            gl.genBuffers(1, pBuffer);
+            this.buffer = pBuffer.read();
+        }
+        reserve(initialCapacity);
+    }
+
+    /// Whether {@link #flush} issues the indirect-count variant.
+    public boolean usesIndirectCount() {
+        return countFunction != COUNT_NONE;
+    }
+
+    /// Name of the {@code DRAW_INDIRECT_BUFFER} the commands are uploaded to.
+    public @Unsigned int buffer() {
+        return buffer;
+    }
+
+    /// Appends one draw to the batch.
+    public void add(
+            int stateKey,
+            @Unsigned int count,
+            @Unsigned int instanceCount,
+            @Unsigned int firstIndex,
+            int baseVertex,
+            @Unsigned int baseInstance
+    ) {
+        if (size == capacity) {
+            reserve(capacity * 2);
+        }
+        long offset = (long) size * COMMAND_BYTES;
+        commands.set(ValueLayout.JAVA_INT, offset, count);
+        commands.set(ValueLayout.JAVA_INT, offset + 4, instanceCount);
+        commands.set(ValueLayout.JAVA_INT, offset + 8, firstIndex);
+        commands.set(ValueLayout.JAVA_INT, offset + 12, baseVertex);
+        commands.set(ValueLayout.JAVA_INT, offset + 16, baseInstance);
+        order[size] = ((long) stateKey << 32) | size;
+        size++;
+    }
+
+    /// Number of draws added since the last {@link #flush} or {@link #clear}.
+    public int size() {
+        return size;
+    }
+
+    /// Discards the draws of the current batch.
+    public void clear() {
+        size = 0;
+    }
+
+    /// Sorts, uploads and draws the current batch, then clears it.
+    ///
+    /// Leaves {@code DRAW_INDIRECT_BUFFER}, and {@code PARAMETER_BUFFER} when
+    /// {@link #usesIndirectCount}, bound to the batcher's buffer.
+    ///
+    /// @return the number of multi-draw calls issued, i.e. the number of distinct state keys
+    public int flush(@NotNull StateBinder binder) {
+        if (size == 0) {
+            return 0;
+        }
+
+        Arrays.sort(order, 0, size);
+        int runCount = 0;
+        for (int i = 0; i < size; i++) {
+            int index = (int) order[i];
+            MemorySegment.copy(
+                    commands, (long) index * COMMAND_BYTES,
+                    upload, (long) i * COMMAND_BYTES,
+                    COMMAND_BYTES
+            );
+            if (i == 0 || (int) (order[i] >>> 32) != (int) (order[i - 1] >>> 32)) {
+                runStarts[runCount++] = i;
+            }
+        }
+        runStarts[runCount] = size;
+
+        long commandBytes = (long) size * COMMAND_BYTES;
+        long uploadBytes = commandBytes;
+        if (countFunction != COUNT_NONE) {
+            for (int run = 0; run < runCount; run++) {
+                upload.set(
+                        ValueLayout.JAVA_INT,
+                        commandBytes + (long) run * Integer.BYTES,
+                        runStarts[run + 1] - runStarts[run]
+                );
+            }
+            uploadBytes += (long) runCount * Integer.BYTES;
+        }
+
+        gl.bindBuffer(GLConstants.DRAW_INDIRECT_BUFFER, buffer);
+        gl.bufferData(GLConstants.DRAW_INDIRECT_BUFFER, uploadBytes, upload, GLConstants.STREAM_DRAW);
+        if (countFunction != COUNT_NONE) {
+            gl.bindBuffer(GLConstants.PARAMETER_BUFFER, buffer);
+        }
+
+        for (int run = 0; run < runCount; run++) {
+            int first = runStarts[run];
+            int drawCount = runStarts[run + 1] - first;
+            binder.bind((int) (order[first] >>> 32));
+
+            MemorySegment indirect = MemorySegment.ofAddress((long) first * COMMAND_BYTES);
+            long countOffset = commandBytes + (long) run * Integer.BYTES;
+            switch (countFunction) {
+                case COUNT_CORE -> gl.multiDrawElementsIndirectCount(
+                        mode, indexType, indirect, countOffset, drawCount, COMMAND_BYTES
+                );
+                case COUNT_ARB -> gl.multiDrawElementsIndirectCountARB(
+                        mode, indexType, indirect, countOffset, drawCount, COMMAND_BYTES
+                );
+                default -> gl.multiDrawElementsIndirect(mode, indexType, indirect, drawCount, COMMAND_BYTES);
+            }
+        }
+
+        drawCalls += runCount;
+        draws += size;
+        size = 0;
+        return runCount;
+    }
+
+    /// Total number of draws submitted by all {@link #flush} calls.
+    public long drawCount() {
+        return draws;
+    }
+
+    /// Total number of multi-draw calls issued by all {@link #flush} calls.
+    public long drawCallCount() {
+        return drawCalls;
+    }
+
+    @Override
+    public void close() {
+        try (Arena arena = Arena.ofConfined()) {
+            gl.deleteBuffers(1, IntPtr.allocate(arena, new int[] { buffer }));
+        }
+        if (arena != null) {
+            arena.close();
+            arena = null;
+        }
+    }
+
+    private void reserve(int newCapacity) {
+        Arena newArena = Arena.ofConfined();
+        MemorySegment newCommands = newArena.allocate((long) newCapacity * COMMAND_BYTES, Integer.BYTES);
+        // sorted commands followed by at most one draw count per command
+        MemorySegment newUpload = newArena.allocate((long) newCapacity * (COMMAND_BYTES + Integer.BYTES), Integer.BYTES);
+        if (arena != null) {
+            MemorySegment.copy(commands, 0, newCommands, 0, (long) size * COMMAND_BYTES);
+            arena.close();
+        }
+
+        arena = newArena;
+        commands = newCommands;
+        upload = newUpload;
+        order = Arrays.copyOf(order, newCapacity);
+        runStarts = new int[newCapacity + 1];
+        capacity = newCapacity;
+    }
+
+    private static final int COUNT_NONE = 0;
+    private static final int COUNT_CORE = 1;
+    private static final int COUNT_ARB = 2;
+
+    private final GL gl;
+    private final int mode;
+    private final int indexType;
+    private final int countFunction;
+    private final int buffer;
+
+    private Arena arena;
+    private MemorySegment commands;
+    private MemorySegment upload;
+    /// State key in the high half, command index in the low half, so that sorting keeps the
+    /// submission order within a key
+    private long[] order = new long[0];
+    private int[] runStarts;
+    private int capacity;
+    private int size;
+
+    private long draws;
+    private long drawCalls;
+}
@@ -0,0 +1,429 @@
+package club.doki7.opengl.util;
+
+import club.doki7.ffm.annotation.NativeType;
+import club.doki7.ffm.annotation.Unsigned;
+import club.doki7.ffm.ptr.BytePtr;
+import club.doki7.ffm.ptr.IntPtr;
+import club.doki7.ffm.ptr.PointerPtr;
+import club.doki7.opengl.GL;
+import club.doki7.opengl.GLConstants;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32C;
+
+/// Caches linked program binaries across runs in one pack file, so that programs seen before are
+/// loaded with {@code glProgramBinary} instead of being compiled and linked again.
+///
+/// Programs are keyed by the SHA-256 of their shader stages and sources together with
+/// {@code GL_VENDOR}, {@code GL_RENDERER} and {@code GL_VERSION}, so a driver update or a
+/// different GPU simply misses. The pack file is an append-only sequence of records (key, binary
+/// format, length, CRC-32C, binary). When the cache is opened, the index from keys to records is
+/// rebuilt by walking the record headers, a torn record at the end, left by a crash during a
+/// write, is cut off, and only then is the rest of the file memory mapped. Binaries are checked
+/// against their CRC and passed to {@code glProgramBinary} straight from the mapping.
+///
+/// On a miss, a CRC mismatch, or when the driver rejects a cached binary (checked with
+/// {@code LINK_STATUS}), the program is built from source, its binary retrieved with
+/// {@code glGetProgramBinary}, and the new record appended to the file on the writer
+/// {@link Executor}. A corrupted or rejected record is superseded by the new one, since later records win when the index is rebuilt.
+///
+/// {@snippet :
+/// try (GLProgramCache cache = new GLProgramCache(gl, cacheDir.resolve("programs.pack"))) {
+///     int program = cache.getOrCreate(
+///             new int[] { GL.VERTEX_SHADER, GL.FRAGMENT_SHADER },
+///             new String[] { vertexSource, fragmentSource }
+///     );
+/// }
+/// }
+///
+/// When the context reports no binary formats, the cache only compiles and links.
+///
+/// Not thread safe: apart from the file writes, all methods must be called on the thread the
+/// context is current on.
+public final class GLProgramCache implements AutoCloseable {
+    /// Opens or creates the pack file, writing new records on {@link ForkJoinPool#commonPool()}.
+    ///
+    /// @throws IOException if the file cannot be opened or mapped
+    public GLProgramCache(@NotNull GL gl, @NotNull Path file) throws IOException {
+        this(gl, file, ForkJoinPool.commonPool());
+    }
+
+    /// @param gl OpenGL functions of the current context
+    /// @param file the pack file, created if missing
+    /// @param writer executor appending new records to the file; records are written one at a
+    ///               time in creation order whatever the executor
+    /// @throws IOException if the file cannot be opened or mapped
+    public GLProgramCache(@NotNull GL gl, @NotNull Path file, @NotNull Executor writer) throws IOException {
+        this.gl = gl;
+        this.writer = writer;
+        this.arena = Arena.ofConfined();
+        this.driverId = (readString(GLConstants.VENDOR) + '\0'
+                + readString(GLConstants.RENDERER) + '\0'
+                + readString(GLConstants.VERSION) + '\0').getBytes(StandardCharsets.UTF_8);
+
+        boolean supported = false;
+        if (gl.HANDLE$glProgramBinary != null && gl.HANDLE$glGetProgramBinary != null) {
+            try (Arena tempArena = Arena.ofConfined()) {
+                IntPtr pFormatCount = IntPtr.allocate(tempArena);
+                gl.getIntegerv(GLConstants.NUM_PROGRAM_BINARY_FORMATS, pFormatCount);
+                supported = pFormatCount.read() > 0;
+            }
+        }
+        this.supported = supported;
+
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        this.channel = FileChannel.open(
+                file,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE
+        );
+        try {
+            this.mapped = openPack();
+        } catch (IOException e) {
+            channel.close();
+            arena.close();
+            throw e;
+        }
+    }
+
+    /// Whether the context supports program binaries; if not, every call is a miss and nothing is
+    /// stored.
+    public boolean isSupported() {
+        return supported;
+    }
+
+    /// Returns a linked program made of the given shader stages, loading it from the cache when
+    /// possible.
+    ///
+    /// @param shaderTypes stage of each shader, e.g. {@code VERTEX_SHADER}
+    /// @param sources GLSL source of each shader
+    /// @return the program name, owned by the caller
+    /// @throws RuntimeException if a shader fails to compile or the program fails to link
+    public @Unsigned int getOrCreate(@NativeType("GLenum") int @NotNull [] shaderTypes, String @NotNull [] sources) {
+        if (shaderTypes.length != sources.length || shaderTypes.length == 0) {
+            throw new IllegalArgumentException("Need one source for each of at least one shader");
+        }
+
+        String key = HexFormat.of().formatHex(digest(shaderTypes, sources));
+        if (supported) {
+            Entry entry = index.get(key);
+            if (entry != null) {
+                MemorySegment mappedBinary = entry.binary == null
+                        ? mapped.asSlice(entry.offset, entry.length)
+                        : null;
+                if (mappedBinary == null || crc(mappedBinary.asByteBuffer()) == entry.crc) {
+                    int program = gl.createProgram();
+                    try (Arena tempArena = Arena.ofConfined()) {
+                        MemorySegment binary = mappedBinary != null
+                                ? mappedBinary
+                                : tempArena.allocateFrom(ValueLayout.JAVA_BYTE, entry.binary);
+                        gl.programBinary(program, entry.format, binary, entry.length);
+                        if (linkStatus(program, IntPtr.allocate(tempArena))) {
+                            hits++;
+                            return program;
+                        }
+                    }
+                    gl.deleteProgram(program);
+                }
+                index.remove(key);
+                rejections++;
+            }
+        }
+
+        misses++;
+        int program = build(shaderTypes, sources);
+        if (supported) {
+            store(key, program);
+        }
+        return program;
+    }
+
+    /// Number of programs loaded from binaries.
+    public long hitCount() {
+        return hits;
+    }
+
+    /// Number of programs built from source, including those whose binary was rejected.
+    public long missCount() {
+        return misses;
+    }
+
+    /// Number of cached binaries that failed their CRC check or that the driver refused to load.
+    public long rejectionCount() {
+        return rejections;
+    }
+
+    /// Number of binaries in the index.
+    public int size() {
+        return index.size();
+    }
+
+    /// Waits for pending writes and closes the pack file.
+    ///
+    /// @throws IOException if a record could not be written
+    @Override
+    public void close() throws IOException {
+        try {
+            pendingWrite.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw e;
+        } finally {
+            channel.close();
+            arena.close();
+        }
+    }
+
+    private MemorySegment openPack() throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < HEADER_BYTES || !hasValidHeader()) {
+            channel.truncate(0);
+            // magic and version, followed by reserved zero bytes
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(FORMAT_VERSION).rewind();
+            writeFully(header, 0);
+            writeEnd = HEADER_BYTES;
+            return MemorySegment.NULL;
+        }
+
+        // a file cannot be truncated while it is mapped on every platform, so the record headers
+        // are read through the channel and the file is mapped once the torn tail is cut off
+        ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        long offset = HEADER_BYTES;
+        while (offset + RECORD_HEADER_BYTES <= fileSize) {
+            recordHeader.clear();
+            if (!readFully(recordHeader, offset)) {
+                // the file shrank under us, keep what has been read so far
+                break;
+            }
+            int format = recordHeader.getInt(KEY_BYTES);
+            int length = recordHeader.getInt(KEY_BYTES + Integer.BYTES);
+            int crc = recordHeader.getInt(KEY_BYTES + 2 * Integer.BYTES);
+            long binaryOffset = offset + RECORD_HEADER_BYTES;
+            if (length <= 0 || binaryOffset + length > fileSize) {
+                break;
+            }
+            byte[] key = new byte[KEY_BYTES];
+            recordHeader.get(0, key);
+            index.put(HexFormat.of().formatHex(key), new Entry(format, length, crc, binaryOffset, null));
+            offset = binaryOffset + length;
+        }
+        if (offset != fileSize) {
+            channel.truncate(offset);
+        }
+        writeEnd = offset;
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, offset, arena);
+    }
+
+    private boolean hasValidHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        if (!readFully(header, 0)) {
+            return false;
+        }
+        return header.getInt(0) == MAGIC && header.getInt(Integer.BYTES) == FORMAT_VERSION;
+    }
+
+    private int build(int[] shaderTypes, String[] sources) {
+        int program = gl.createProgram();
+        int[] shaders = new int[shaderTypes.length];
+        try (Arena tempArena = Arena.ofConfined()) {
+            IntPtr pStatus = IntPtr.allocate(tempArena);
+            for (int i = 0; i < shaderTypes.length; i++) {
+                int shader = gl.createShader(shaderTypes[i]);
+                shaders[i] = shader;
+                gl.shaderSource(shader, 1, PointerPtr.allocateV(tempArena, BytePtr.allocateString(tempArena, sources[i])), null);
+                gl.compileShader(shader);
+                gl.getShaderiv(shader, GLConstants.COMPILE_STATUS, pStatus);
+                if (pStatus.read() == GLConstants.FALSE) {
+                    String log = infoLog(shader, false, tempArena);
+                    deleteAll(program, shaders);
+                    throw new RuntimeException("Failed to compile shader " + i + ": " + log);
+                }
+                gl.attachShader(program, shader);
+            }
+
+            if (supported) {
+                gl.programParameteri(program, GLConstants.PROGRAM_BINARY_RETRIEVABLE_HINT, GLConstants.TRUE);
+            }
+            gl.linkProgram(program);
+            if (!linkStatus(program, pStatus)) {
+                String log = infoLog(program, true, tempArena);
+                deleteAll(program, shaders);
+                throw new RuntimeException("Failed to link program: " + log);
+            }
+        }
+
+        for (int shader : shaders) {
+            gl.detachShader(program, shader);
+            gl.deleteShader(shader);
+        }
+        return program;
+    }
+
+    private void store(String key, int program) {
+        byte[] binary;
+        int format;
+        try (Arena tempArena = Arena.ofConfined()) {
+            IntPtr pValue = IntPtr.allocate(tempArena);
+            gl.getProgramiv(program, GLConstants.PROGRAM_BINARY_LENGTH, pValue);
+            int length = pValue.read();
+            if (length <= 0) {
+                return;
+            }
+
+            MemorySegment segment = tempArena.allocate(length);
+            IntPtr pFormat = IntPtr.allocate(tempArena);
+            gl.getProgramBinary(program, length, pValue, pFormat, segment);
+            length = pValue.read();
+            if (length <= 0) {
+                return;
+            }
+            binary = segment.asSlice(0, length).toArray(ValueLayout.JAVA_BYTE);
+            format = pFormat.read();
+        }
+
+        int crc = crc(ByteBuffer.wrap(binary));
+        index.put(key, new Entry(format, binary.length, crc, -1, binary));
+        long offset = writeEnd;
+        writeEnd += RECORD_HEADER_BYTES + binary.length;
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + binary.length).order(ByteOrder.LITTLE_ENDIAN);
+        record.put(HexFormat.of().parseHex(key)).putInt(format).putInt(binary.length).putInt(crc).put(binary).flip();
+        pendingWrite = pendingWrite.thenRunAsync(() -> {
+            try {
+                writeFully(record, offset);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, writer);
+    }
+
+    /// @return {@code false} if the end of the file was reached before {@code buffer} was filled
+    private boolean readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private boolean linkStatus(int program, IntPtr pStatus) {
+        gl.getProgramiv(program, GLConstants.LINK_STATUS, pStatus);
+        return pStatus.read() != GLConstants.FALSE;
+    }
+
+    private String infoLog(int object, boolean isProgram, Arena tempArena) {
+        IntPtr pLength = IntPtr.allocate(tempArena);
+        if (isProgram) {
+            gl.getProgramiv(object, GLConstants.INFO_LOG_LENGTH, pLength);
+        } else {
+            gl.getShaderiv(object, GLConstants.INFO_LOG_LENGTH, pLength);
+        }
+        int length = Math.max(pLength.read(), 1);
+        BytePtr pLog = BytePtr.allocate(tempArena, length);
+        if (isProgram) {
+            gl.getProgramInfoLog(object, length, null, pLog);
+        } else {
+            gl.getShaderInfoLog(object, length, null, pLog);
+        }
+        return pLog.readStringSafe();
+    }
+
+    private void deleteAll(int program, int[] shaders) {
+        for (int shader : shaders) {
+            if (shader != 0) {
+                gl.deleteShader(shader);
+            }
+        }
+        gl.deleteProgram(program);
+    }
+
+    private String readString(int name) {
+        @Nullable BytePtr s = gl.getString(name);
+        return s != null ? s.readString() : "";
+    }
+
+    private byte[] digest(int[] shaderTypes, String[] sources) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        digest.update(driverId);
+        ByteBuffer type = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < shaderTypes.length; i++) {
+            digest.update(type.clear().putInt(shaderTypes[i]).flip());
+            digest.update(Objects.requireNonNull(sources[i]).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        return digest.digest();
+    }
+
+    private static int crc(ByteBuffer data) {
+        CRC32C crc = new CRC32C();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+
+    /// A cached binary, either in the mapping at {@code offset} or, if written during this
+    /// session, in {@code binary}
+    private record Entry(int format, int length, int crc, long offset, byte @Nullable [] binary) {}
+
+    private static final int MAGIC = 0x42504C47; // "GLPB"
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_BYTES = 16;
+    private static final int KEY_BYTES = 32;
+    private static final int RECORD_HEADER_BYTES = KEY_BYTES + 3 * Integer.BYTES;
+
+    private final GL gl;
+    private final Executor writer;
+    private final Arena arena;
+    private final byte[] driverId;
+    private final boolean supported;
+    private final FileChannel channel;
+    private final MemorySegment mapped;
+    private final Map<String, Entry> index = new HashMap<>();
+
+    private long writeEnd;
+    private CompletableFuture<Void> pendingWrite = CompletableFuture.completedFuture(null);
+    private long hits;
+    private long misses;
+    private long rejections;
+}
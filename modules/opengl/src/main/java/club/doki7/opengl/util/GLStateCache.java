@@ -0,0 +1,673 @@
+package club.doki7.opengl.util;
+
+import club.doki7.ffm.annotation.NativeType;
+import club.doki7.ffm.annotation.Unsigned;
+import club.doki7.ffm.ptr.IntPtr;
+import club.doki7.opengl.GL;
+import club.doki7.opengl.GLConstants;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.foreign.Arena;
+import java.util.Arrays;
+
+/// Shadows frequently set OpenGL state and skips calls that would not change it.
+///
+/// The state-setting methods have the same signatures as their {@link GL} counterparts. Each
+/// compares the arguments with the shadowed value and only calls {@link GL} when they differ.
+/// Shadowed state:
+///
+/// - buffer bindings per target, and indexed bindings of {@code UNIFORM_BUFFER},
+///   {@code SHADER_STORAGE_BUFFER}, {@code ATOMIC_COUNTER_BUFFER} and
+///   {@code TRANSFORM_FEEDBACK_BUFFER};
+/// - the vertex array, the program, the draw and read framebuffers;
+/// - the active texture unit, texture bindings per unit and target, sampler bindings per unit;
+/// - {@code enable}/{@code disable} capabilities;
+/// - blend functions and equations, depth function and mask, cull face, front face, color mask,
+///   viewport and scissor box.
+///
+/// {@snippet :
+/// GLStateCache state = new GLStateCache(gl);
+///
+/// for (DrawItem item : drawItems) {
+///     state.useProgram(item.program);
+///     state.bindVertexArray(item.vao);
+///     state.activeTexture(GL.TEXTURE0);
+///     state.bindTexture(GL.TEXTURE_2D, item.texture);
+///     gl.drawElements(GL.TRIANGLES, item.count, GL.UNSIGNED_INT, MemorySegment.NULL);
+/// }
+/// }
+///
+/// Everything starts unknown, so the first call of each kind always reaches GL. When code that
+/// does not go through the cache changes state, e.g. a UI library, call {@link #invalidate} (cheap,
+/// the next calls go through) or {@link #resync} (queries the current state back). Deleting a
+/// bound object resets its bindings to {@code 0} in GL; report it with {@link #bufferDeleted} and
+/// friends so that a recycled name is not mistaken for the deleted object.
+///
+/// The cache belongs to one context and must be used on the thread the context is current on.
+public final class GLStateCache {
+    /// Creates a cache for the context current on this thread.
+    public GLStateCache(@NotNull GL gl) {
+        this.gl = gl;
+        try (Arena arena = Arena.ofConfined()) {
+            IntPtr pValue = IntPtr.allocate(arena);
+            gl.getIntegerv(GLConstants.MAX_COMBINED_TEXTURE_IMAGE_UNITS, pValue);
+            this.textureUnits = Math.clamp(pValue.read(), 16, MAX_TEXTURE_UNITS);
+        }
+        this.textures = new int[textureUnits * TEXTURE_TARGETS.length];
+        this.samplers = new int[textureUnits];
+        invalidate();
+    }
+
+    public @NotNull GL gl() {
+        return gl;
+    }
+
+    public void bindBuffer(@NativeType("GLenum") int target, @NativeType("GLuint") @Unsigned int buffer) {
+        int slot = indexOf(BUFFER_TARGETS, target);
+        if (slot >= 0) {
+            if (buffers[slot] == buffer) {
+                elided++;
+                return;
+            }
+            buffers[slot] = buffer;
+        }
+        forwarded++;
+        gl.bindBuffer(target, buffer);
+    }
+
+    public void bindBufferBase(
+            @NativeType("GLenum") int target,
+            @NativeType("GLuint") @Unsigned int index,
+            @NativeType("GLuint") @Unsigned int buffer
+    ) {
+        bindIndexed(target, index, buffer, 0, WHOLE_BUFFER);
+    }
+
+    public void bindBufferRange(
+            @NativeType("GLenum") int target,
+            @NativeType("GLuint") @Unsigned int index,
+            @NativeType("GLuint") @Unsigned int buffer,
+            @NativeType("GLintptr") long offset,
+            @NativeType("GLsizeiptr") long size
+    ) {
+        bindIndexed(target, index, buffer, offset, size);
+    }
+
+    public void bindVertexArray(@NativeType("GLuint") @Unsigned int array) {
+        if (vertexArray == array) {
+            elided++;
+            return;
+        }
+        vertexArray = array;
+        // the element array buffer binding is part of the vertex array
+        buffers[ELEMENT_ARRAY_SLOT] = UNKNOWN;
+        forwarded++;
+        gl.bindVertexArray(array);
+    }
+
+    public void useProgram(@NativeType("GLuint") @Unsigned int program) {
+        if (this.program == program) {
+            elided++;
+            return;
+        }
+        this.program = program;
+        forwarded++;
+        gl.useProgram(program);
+    }
+
+    public void bindFramebuffer(@NativeType("GLenum") int target, @NativeType("GLuint") @Unsigned int framebuffer) {
+        switch (target) {
+            case GLConstants.FRAMEBUFFER -> {
+                if (drawFramebuffer == framebuffer && readFramebuffer == framebuffer) {
+                    elided++;
+                    return;
+                }
+                drawFramebuffer = framebuffer;
+                readFramebuffer = framebuffer;
+            }
+            case GLConstants.DRAW_FRAMEBUFFER -> {
+                if (drawFramebuffer == framebuffer) {
+                    elided++;
+                    return;
+                }
+                drawFramebuffer = framebuffer;
+            }
+            case GLConstants.READ_FRAMEBUFFER -> {
+                if (readFramebuffer == framebuffer) {
+                    elided++;
+                    return;
+                }
+                readFramebuffer = framebuffer;
+            }
+            default -> {}
+        }
+        forwarded++;
+        gl.bindFramebuffer(target, framebuffer);
+    }
+
+    public void activeTexture(@NativeType("GLenum") int texture) {
+        if (activeTexture == texture) {
+            elided++;
+            return;
+        }
+        activeTexture = texture;
+        forwarded++;
+        gl.activeTexture(texture);
+    }
+
+    public void bindTexture(@NativeType("GLenum") int target, @NativeType("GLuint") @Unsigned int texture) {
+        int unit = activeTexture - GLConstants.TEXTURE0;
+        int targetIndex = indexOf(TEXTURE_TARGETS, target);
+        if (activeTexture != UNKNOWN && unit >= 0 && unit < textureUnits && targetIndex >= 0) {
+            int slot = unit * TEXTURE_TARGETS.length + targetIndex;
+            if (textures[slot] == texture) {
+                elided++;
+                return;
+            }
+            textures[slot] = texture;
+        }
+        forwarded++;
+        gl.bindTexture(target, texture);
+    }
+
+    public void bindSampler(@NativeType("GLuint") @Unsigned int unit, @NativeType("GLuint") @Unsigned int sampler) {
+        if (unit < textureUnits) {
+            if (samplers[unit] == sampler) {
+                elided++;
+                return;
+            }
+            samplers[unit] = sampler;
+        }
+        forwarded++;
+        gl.bindSampler(unit, sampler);
+    }
+
+    public void enable(@NativeType("GLenum") int cap) {
+        setCapability(cap, true);
+    }
+
+    public void disable(@NativeType("GLenum") int cap) {
+        setCapability(cap, false);
+    }
+
+    public void blendFunc(@NativeType("GLenum") int sfactor, @NativeType("GLenum") int dfactor) {
+        if (blend[BLEND_SRC_RGB] == sfactor && blend[BLEND_DST_RGB] == dfactor
+                && blend[BLEND_SRC_ALPHA] == sfactor && blend[BLEND_DST_ALPHA] == dfactor) {
+            elided++;
+            return;
+        }
+        blend[BLEND_SRC_RGB] = sfactor;
+        blend[BLEND_SRC_ALPHA] = sfactor;
+        blend[BLEND_DST_RGB] = dfactor;
+        blend[BLEND_DST_ALPHA] = dfactor;
+        forwarded++;
+        gl.blendFunc(sfactor, dfactor);
+    }
+
+    public void blendFuncSeparate(
+            @NativeType("GLenum") int sfactorRGB,
+            @NativeType("GLenum") int dfactorRGB,
+            @NativeType("GLenum") int sfactorAlpha,
+            @NativeType("GLenum") int dfactorAlpha
+    ) {
+        if (blend[BLEND_SRC_RGB] == sfactorRGB && blend[BLEND_DST_RGB] == dfactorRGB
+                && blend[BLEND_SRC_ALPHA] == sfactorAlpha && blend[BLEND_DST_ALPHA] == dfactorAlpha) {
+            elided++;
+            return;
+        }
+        blend[BLEND_SRC_RGB] = sfactorRGB;
+        blend[BLEND_DST_RGB] = dfactorRGB;
+        blend[BLEND_SRC_ALPHA] = sfactorAlpha;
+        blend[BLEND_DST_ALPHA] = dfactorAlpha;
+        forwarded++;
+        gl.blendFuncSeparate(sfactorRGB, dfactorRGB, sfactorAlpha, dfactorAlpha);
+    }
+
+    public void blendEquation(@NativeType("GLenum") int mode) {
+        if (blend[BLEND_EQUATION_RGB] == mode && blend[BLEND_EQUATION_ALPHA] == mode) {
+            elided++;
+            return;
+        }
+        blend[BLEND_EQUATION_RGB] = mode;
+        blend[BLEND_EQUATION_ALPHA] = mode;
+        forwarded++;
+        gl.blendEquation(mode);
+    }
+
+    public void blendEquationSeparate(@NativeType("GLenum") int modeRGB, @NativeType("GLenum") int modeAlpha) {
+        if (blend[BLEND_EQUATION_RGB] == modeRGB && blend[BLEND_EQUATION_ALPHA] == modeAlpha) {
+            elided++;
+            return;
+        }
+        blend[BLEND_EQUATION_RGB] = modeRGB;
+        blend[BLEND_EQUATION_ALPHA] = modeAlpha;
+        forwarded++;
+        gl.blendEquationSeparate(modeRGB, modeAlpha);
+    }
+
+    public void depthFunc(@NativeType("GLenum") int func) {
+        if (depthFunc == func) {
+            elided++;
+            return;
+        }
+        depthFunc = func;
+        forwarded++;
+        gl.depthFunc(func);
+    }
+
+    public void depthMask(@NativeType("GLboolean") @Unsigned byte flag) {
+        int value = flag != 0 ? 1 : 0;
+        if (depthMask == value) {
+            elided++;
+            return;
+        }
+        depthMask = value;
+        forwarded++;
+        gl.depthMask(flag);
+    }
+
+    public void cullFace(@NativeType("GLenum") int mode) {
+        if (cullFace == mode) {
+            elided++;
+            return;
+        }
+        cullFace = mode;
+        forwarded++;
+        gl.cullFace(mode);
+    }
+
+    public void frontFace(@NativeType("GLenum") int mode) {
+        if (frontFace == mode) {
+            elided++;
+            return;
+        }
+        frontFace = mode;
+        forwarded++;
+        gl.frontFace(mode);
+    }
+
+    public void colorMask(
+            @NativeType("GLboolean") @Unsigned byte red,
+            @NativeType("GLboolean") @Unsigned byte green,
+            @NativeType("GLboolean") @Unsigned byte blue,
+            @NativeType("GLboolean") @Unsigned byte alpha
+    ) {
+        int value = (red != 0 ? 1 : 0) | (green != 0 ? 2 : 0) | (blue != 0 ? 4 : 0) | (alpha != 0 ? 8 : 0);
+        if (colorMask == value) {
+            elided++;
+            return;
+        }
+        colorMask = value;
+        forwarded++;
+        gl.colorMask(red, green, blue, alpha);
+    }
+
+    public void viewport(
+            @NativeType("GLint") int x,
+            @NativeType("GLint") int y,
+            @NativeType("GLsizei") int width,
+            @NativeType("GLsizei") int height
+    ) {
+        if (viewportKnown && viewport[0] == x && viewport[1] == y && viewport[2] == width && viewport[3] == height) {
+            elided++;
+            return;
+        }
+        viewportKnown = true;
+        viewport[0] = x;
+        viewport[1] = y;
+        viewport[2] = width;
+        viewport[3] = height;
+        forwarded++;
+        gl.viewport(x, y, width, height);
+    }
+
+    public void scissor(
+            @NativeType("GLint") int x,
+            @NativeType("GLint") int y,
+            @NativeType("GLsizei") int width,
+            @NativeType("GLsizei") int height
+    ) {
+        if (scissorKnown && scissor[0] == x && scissor[1] == y && scissor[2] == width && scissor[3] == height) {
+            elided++;
+            return;
+        }
+        scissorKnown = true;
+        scissor[0] = x;
+        scissor[1] = y;
+        scissor[2] = width;
+        scissor[3] = height;
+        forwarded++;
+        gl.scissor(x, y, width, height);
+    }
+
+    /// Records that {@code buffer} has been deleted, which unbinds it everywhere it was bound.
+    public void bufferDeleted(@Unsigned int buffer) {
+        replace(buffers, buffer, 0);
+        replace(indexedBuffers, buffer, 0);
+    }
+
+    /// Records that {@code texture} has been deleted, which unbinds it from all units.
+    public void textureDeleted(@Unsigned int texture) {
+        replace(textures, texture, 0);
+    }
+
+    /// Records that {@code sampler} has been deleted, which unbinds it from all units.
+    public void samplerDeleted(@Unsigned int sampler) {
+        replace(samplers, sampler, 0);
+    }
+
+    /// Records that {@code array} has been deleted, which unbinds it if it was bound.
+    public void vertexArrayDeleted(@Unsigned int array) {
+        if (vertexArray == array) {
+            vertexArray = 0;
+            buffers[ELEMENT_ARRAY_SLOT] = UNKNOWN;
+        }
+    }
+
+    /// Records that {@code framebuffer} has been deleted, which unbinds it if it was bound.
+    public void framebufferDeleted(@Unsigned int framebuffer) {
+        if (drawFramebuffer == framebuffer) {
+            drawFramebuffer = 0;
+        }
+        if (readFramebuffer == framebuffer) {
+            readFramebuffer = 0;
+        }
+    }
+
+    /// Forgets all shadowed state, so that the next call of each kind reaches GL.
+    public void invalidate() {
+        Arrays.fill(buffers, UNKNOWN);
+        Arrays.fill(indexedBuffers, UNKNOWN);
+        Arrays.fill(textures, UNKNOWN);
+        Arrays.fill(samplers, UNKNOWN);
+        Arrays.fill(capabilities, (byte) UNKNOWN);
+        Arrays.fill(blend, UNKNOWN);
+        vertexArray = UNKNOWN;
+        program = UNKNOWN;
+        drawFramebuffer = UNKNOWN;
+        readFramebuffer = UNKNOWN;
+        activeTexture = UNKNOWN;
+        depthFunc = UNKNOWN;
+        depthMask = UNKNOWN;
+        cullFace = UNKNOWN;
+        frontFace = UNKNOWN;
+        colorMask = UNKNOWN;
+        viewportKnown = false;
+        scissorKnown = false;
+    }
+
+    /// Reads the current state back from GL. This costs one query per shadowed value and
+    /// switches through all texture units, so it is meant for occasional use, e.g. after handing
+    /// the context to third-party code. Indexed buffer bindings are left unknown.
+    public void resync() {
+        invalidate();
+        try (Arena arena = Arena.ofConfined()) {
+            IntPtr pValues = IntPtr.allocate(arena, 4);
+
+            for (int i = 0; i < BUFFER_TARGETS.length; i++) {
+                if (BUFFER_BINDING_QUERIES[i] != 0) {
+                    buffers[i] = queryInt(pValues, BUFFER_BINDING_QUERIES[i]);
+                }
+            }
+            vertexArray = queryInt(pValues, GLConstants.VERTEX_ARRAY_BINDING);
+            program = queryInt(pValues, GLConstants.CURRENT_PROGRAM);
+            drawFramebuffer = queryInt(pValues, GLConstants.DRAW_FRAMEBUFFER_BINDING);
+            readFramebuffer = queryInt(pValues, GLConstants.READ_FRAMEBUFFER_BINDING);
+
+            int active = queryInt(pValues, GLConstants.ACTIVE_TEXTURE);
+            for (int unit = 0; unit < textureUnits; unit++) {
+                gl.activeTexture(GLConstants.TEXTURE0 + unit);
+                for (int t = 0; t < TEXTURE_TARGETS.length; t++) {
+                    textures[unit * TEXTURE_TARGETS.length + t] = queryInt(pValues, TEXTURE_BINDING_QUERIES[t]);
+                }
+                samplers[unit] = queryInt(pValues, GLConstants.SAMPLER_BINDING);
+            }
+            gl.activeTexture(active);
+            activeTexture = active;
+
+            for (int i = 0; i < CAPABILITIES.length; i++) {
+                capabilities[i] = gl.isEnabled(CAPABILITIES[i]) != 0 ? (byte) 1 : (byte) 0;
+            }
+
+            blend[BLEND_SRC_RGB] = queryInt(pValues, GLConstants.BLEND_SRC_RGB);
+            blend[BLEND_DST_RGB] = queryInt(pValues, GLConstants.BLEND_DST_RGB);
+            blend[BLEND_SRC_ALPHA] = queryInt(pValues, GLConstants.BLEND_SRC_ALPHA);
+            blend[BLEND_DST_ALPHA] = queryInt(pValues, GLConstants.BLEND_DST_ALPHA);
+            blend[BLEND_EQUATION_RGB] = queryInt(pValues, GLConstants.BLEND_EQUATION_RGB);
+            blend[BLEND_EQUATION_ALPHA] = queryInt(pValues, GLConstants.BLEND_EQUATION_ALPHA);
+            depthFunc = queryInt(pValues, GLConstants.DEPTH_FUNC);
+            depthMask = queryInt(pValues, GLConstants.DEPTH_WRITEMASK) != 0 ? 1 : 0;
+            cullFace = queryInt(pValues, GLConstants.CULL_FACE_MODE);
+            frontFace = queryInt(pValues, GLConstants.FRONT_FACE);
+
+            gl.getIntegerv(GLConstants.COLOR_WRITEMASK, pValues);
+            colorMask = (pValues.read(0) != 0 ? 1 : 0)
+                    | (pValues.read(1) != 0 ? 2 : 0)
+                    | (pValues.read(2) != 0 ? 4 : 0)
+                    | (pValues.read(3) != 0 ? 8 : 0);
+            gl.getIntegerv(GLConstants.VIEWPORT, pValues);
+            for (int i = 0; i < 4; i++) {
+                viewport[i] = pValues.read(i);
+            }
+            viewportKnown = true;
+            gl.getIntegerv(GLConstants.SCISSOR_BOX, pValues);
+            for (int i = 0; i < 4; i++) {
+                scissor[i] = pValues.read(i);
+            }
+            scissorKnown = true;
+        }
+    }
+
+    /// Number of calls skipped because they would not have changed the state.
+    public long elidedCount() {
+        return elided;
+    }
+
+    /// Number of calls passed to GL.
+    public long forwardedCount() {
+        return forwarded;
+    }
+
+    public void resetCounters() {
+        elided = 0;
+        forwarded = 0;
+    }
+
+    private void bindIndexed(int target, int index, int buffer, long offset, long size) {
+        int targetIndex = indexOf(INDEXED_TARGETS, target);
+        if (targetIndex >= 0 && Integer.compareUnsigned(index, MAX_INDEXED_BINDINGS) < 0) {
+            int slot = targetIndex * MAX_INDEXED_BINDINGS + index;
+            if (indexedBuffers[slot] == buffer && indexedOffsets[slot] == offset && indexedSizes[slot] == size) {
+                elided++;
+                return;
+            }
+            indexedBuffers[slot] = buffer;
+            indexedOffsets[slot] = offset;
+            indexedSizes[slot] = size;
+        }
+        // binding to an indexed point also binds the generic point of the target
+        int genericSlot = indexOf(BUFFER_TARGETS, target);
+        if (genericSlot >= 0) {
+            buffers[genericSlot] = buffer;
+        }
+        forwarded++;
+        if (size == WHOLE_BUFFER) {
+            gl.bindBufferBase(target, index, buffer);
+        } else {
+            gl.bindBufferRange(target, index, buffer, offset, size);
+        }
+    }
+
+    private void setCapability(int cap, boolean enabled) {
+        int slot = indexOf(CAPABILITIES, cap);
+        byte value = enabled ? (byte) 1 : (byte) 0;
+        if (slot >= 0) {
+            if (capabilities[slot] == value) {
+                elided++;
+                return;
+            }
+            capabilities[slot] = value;
+        }
+        forwarded++;
+        if (enabled) {
+            gl.enable(cap);
+        } else {
+            gl.disable(cap);
+        }
+    }
+
+    private int queryInt(IntPtr pValue, int pname) {
+        gl.getIntegerv(pname, pValue);
+        return pValue.read();
+    }
+
+    private static int indexOf(int[] values, int value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void replace(int[] values, int from, int to) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == from) {
+                values[i] = to;
+            }
+        }
+    }
+
+    private static final int UNKNOWN = -1;
+    private static final long WHOLE_BUFFER = -1;
+    private static final int MAX_TEXTURE_UNITS = 192;
+    private static final int MAX_INDEXED_BINDINGS = 96;
+
+    private static final int[] BUFFER_TARGETS = {
+            GLConstants.ARRAY_BUFFER,
+            GLConstants.ELEMENT_ARRAY_BUFFER,
+            GLConstants.PIXEL_PACK_BUFFER,
+            GLConstants.PIXEL_UNPACK_BUFFER,
+            GLConstants.UNIFORM_BUFFER,
+            GLConstants.SHADER_STORAGE_BUFFER,
+            GLConstants.ATOMIC_COUNTER_BUFFER,
+            GLConstants.TRANSFORM_FEEDBACK_BUFFER,
+            GLConstants.COPY_READ_BUFFER,
+            GLConstants.COPY_WRITE_BUFFER,
+            GLConstants.DRAW_INDIRECT_BUFFER,
+            GLConstants.DISPATCH_INDIRECT_BUFFER,
+            GLConstants.QUERY_BUFFER,
+            GLConstants.PARAMETER_BUFFER,
+            GLConstants.TEXTURE_BUFFER,
+    };
+    // TEXTURE_BUFFER_BINDING names the texture, not the buffer, so that binding is not queried
+    private static final int[] BUFFER_BINDING_QUERIES = {
+            GLConstants.ARRAY_BUFFER_BINDING,
+            GLConstants.ELEMENT_ARRAY_BUFFER_BINDING,
+            GLConstants.PIXEL_PACK_BUFFER_BINDING,
+            GLConstants.PIXEL_UNPACK_BUFFER_BINDING,
+            GLConstants.UNIFORM_BUFFER_BINDING,
+            GLConstants.SHADER_STORAGE_BUFFER_BINDING,
+            GLConstants.ATOMIC_COUNTER_BUFFER_BINDING,
+            GLConstants.TRANSFORM_FEEDBACK_BUFFER_BINDING,
+            GLConstants.COPY_READ_BUFFER_BINDING,
+            GLConstants.COPY_WRITE_BUFFER_BINDING,
+            GLConstants.DRAW_INDIRECT_BUFFER_BINDING,
+            GLConstants.DISPATCH_INDIRECT_BUFFER_BINDING,
+            GLConstants.QUERY_BUFFER_BINDING,
+            GLConstants.PARAMETER_BUFFER_BINDING,
+            0,
+    };
+    private static final int ELEMENT_ARRAY_SLOT = 1;
+
+    private static final int[] INDEXED_TARGETS = {
+            GLConstants.UNIFORM_BUFFER,
+            GLConstants.SHADER_STORAGE_BUFFER,
+            GLConstants.ATOMIC_COUNTER_BUFFER,
+            GLConstants.TRANSFORM_FEEDBACK_BUFFER,
+    };
+
+    private static final int[] TEXTURE_TARGETS = {
+            GLConstants.TEXTURE_1D,
+            GLConstants.TEXTURE_2D,
+            GLConstants.TEXTURE_3D,
+            GLConstants.TEXTURE_1D_ARRAY,
+            GLConstants.TEXTURE_2D_ARRAY,
+            GLConstants.TEXTURE_RECTANGLE,
+            GLConstants.TEXTURE_CUBE_MAP,
+            GLConstants.TEXTURE_CUBE_MAP_ARRAY,
+            GLConstants.TEXTURE_BUFFER,
+            GLConstants.TEXTURE_2D_MULTISAMPLE,
+            GLConstants.TEXTURE_2D_MULTISAMPLE_ARRAY,
+    };
+    private static final int[] TEXTURE_BINDING_QUERIES = {
+            GLConstants.TEXTURE_BINDING_1D,
+            GLConstants.TEXTURE_BINDING_2D,
+            GLConstants.TEXTURE_BINDING_3D,
+            GLConstants.TEXTURE_BINDING_1D_ARRAY,
+            GLConstants.TEXTURE_BINDING_2D_ARRAY,
+            GLConstants.TEXTURE_BINDING_RECTANGLE,
+            GLConstants.TEXTURE_BINDING_CUBE_MAP,
+            GLConstants.TEXTURE_BINDING_CUBE_MAP_ARRAY,
+            GLConstants.TEXTURE_BINDING_BUFFER,
+            GLConstants.TEXTURE_BINDING_2D_MULTISAMPLE,
+            GLConstants.TEXTURE_BINDING_2D_MULTISAMPLE_ARRAY,
+    };
+
+    private static final int[] CAPABILITIES = {
+            GLConstants.BLEND,
+            GLConstants.CULL_FACE,
+            GLConstants.DEPTH_TEST,
+            GLConstants.STENCIL_TEST,
+            GLConstants.SCISSOR_TEST,
+            GLConstants.POLYGON_OFFSET_FILL,
+            GLConstants.POLYGON_OFFSET_LINE,
+            GLConstants.MULTISAMPLE,
+            GLConstants.SAMPLE_ALPHA_TO_COVERAGE,
+            GLConstants.FRAMEBUFFER_SRGB,
+            GLConstants.PRIMITIVE_RESTART,
+            GLConstants.PRIMITIVE_RESTART_FIXED_INDEX,
+            GLConstants.RASTERIZER_DISCARD,
+            GLConstants.DEPTH_CLAMP,
+            GLConstants.TEXTURE_CUBE_MAP_SEAMLESS,
+            GLConstants.PROGRAM_POINT_SIZE,
+            GLConstants.DITHER,
+            GLConstants.LINE_SMOOTH,
+    };
+
+    private static final int BLEND_SRC_RGB = 0;
+    private static final int BLEND_DST_RGB = 1;
+    private static final int BLEND_SRC_ALPHA = 2;
+    private static final int BLEND_DST_ALPHA = 3;
+    private static final int BLEND_EQUATION_RGB = 4;
+    private static final int BLEND_EQUATION_ALPHA = 5;
+
+    private final GL gl;
+    private final int textureUnits;
+
+    private final int[] buffers = new int[BUFFER_TARGETS.length];
+    private final int[] indexedBuffers = new int[INDEXED_TARGETS.length * MAX_INDEXED_BINDINGS];
+    private final long[] indexedOffsets = new long[INDEXED_TARGETS.length * MAX_INDEXED_BINDINGS];
+    private final long[] indexedSizes = new long[INDEXED_TARGETS.length * MAX_INDEXED_BINDINGS];
+    private final int[] textures;
+    private final int[] samplers;
+    private final byte[] capabilities = new byte[CAPABILITIES.length];
+    private final int[] blend = new int[6];
+    private final int[] viewport = new int[4];
+    private final int[] scissor = new int[4];
+    private int vertexArray;
+    private int program;
+    private int drawFramebuffer;
+    private int readFramebuffer;
+    private int activeTexture;
+    private int depthFunc;
+    private int depthMask;
+    private int cullFace;
+    private int frontFace;
+    private int colorMask;
+    private boolean viewportKnown;
+    private boolean scissorKnown;
+
+    private long elided;
+    private long forwarded;
+}
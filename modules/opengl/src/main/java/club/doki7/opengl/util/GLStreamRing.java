@@ -0,0 +1,298 @@
+package club.doki7.opengl.util;
+
+import club.doki7.ffm.annotation.NativeType;
+import club.doki7.ffm.annotation.Unsigned;
+import club.doki7.ffm.ptr.BytePtr;
+import club.doki7.ffm.ptr.FloatPtr;
+import club.doki7.ffm.ptr.IntPtr;
+import club.doki7.opengl.GL;
+import club.doki7.opengl.GLConstants;
+import club.doki7.opengl.handle.GLsync;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+
+/// Ring of regions in one buffer object for streaming per-frame vertex, index or uniform data.
+///
+/// When {@code glBufferStorage} is available (OpenGL 4.4 or {@code ARB_buffer_storage}), the
+/// buffer gets immutable storage of {@code regionCount * regionSize} bytes and is mapped once with
+/// {@code MAP_PERSISTENT_BIT}. Each region is guarded by a fence placed when the ring moves past
+/// it, and {@link #beginRegion} waits for that fence before handing the region out again, so the
+/// CPU never overwrites data the GPU has yet to read.
+///
+/// Otherwise the ring falls back to orphaning: every {@link #beginRegion} re-specifies the store of
+/// a {@code regionSize} buffer with {@code glBufferData(NULL)} and maps it with
+/// {@code MAP_INVALIDATE_BUFFER_BIT}, leaving the synchronization to the driver.
+///
+/// {@snippet :
+/// GLStreamRing ring = new GLStreamRing(gl, GL.ARRAY_BUFFER, 4 * 1024 * 1024, 3, 16, true);
+///
+/// // every frame
+/// ring.beginRegion();
+/// long offset = ring.allocate(vertexCount * VERTEX_BYTES);
+/// writeVertices(ring.floats(offset, vertexCount * VERTEX_FLOATS));
+/// ring.flush();
+/// gl.bindVertexBuffer(0, ring.buffer(), offset, VERTEX_BYTES);
+/// gl.drawArrays(GL.TRIANGLES, 0, vertexCount);
+/// }
+///
+/// The constructor, {@link #beginRegion}, {@link #flush} and {@link #close} may bind the buffer to
+/// the target; if a {@link GLStateCache} is in use, update it with
+/// {@link GLStateCache#bindBuffer} afterwards or {@link GLStateCache#invalidate} it.
+///
+/// Not thread safe.
+public final class GLStreamRing implements AutoCloseable {
+    /// Returned by {@link #allocate} when the current region is full.
+    public static final long EXHAUSTED = -1;
+
+    /// @param target the target used to bind the buffer while setting it up and mapping it
+    /// @param regionSize size of each region, rounded up to {@code alignment}
+    /// @param regionCount number of regions, usually the number of frames in flight plus one
+    /// @param alignment alignment of allocations, e.g. {@code UNIFORM_BUFFER_OFFSET_ALIGNMENT},
+    ///                  a power of two
+    /// @param coherent whether to map with {@code MAP_COHERENT_BIT}; if {@code false},
+    ///                 {@link #flush} flushes the written range explicitly
+    public GLStreamRing(
+            @NotNull GL gl,
+            @NativeType("GLenum") int target,
+            @Unsigned long regionSize,
+            int regionCount,
+            @Unsigned long alignment,
+            boolean coherent
+    ) {
+        if (alignment <= 0 || (alignment & (alignment - 1)) != 0) {
+            throw new IllegalArgumentException("Alignment must be a power of two, got " + alignment);
+        }
+        if (regionSize <= 0 || regionCount <= 0) {
+            throw new IllegalArgumentException("Invalid ring of " + regionCount + " regions of " + regionSize + " bytes");
+        }
+
+        this.gl = gl;
+        this.target = target;
+        this.regionSize = (regionSize + alignment - 1) & -alignment;
+        this.regionCount = regionCount;
+        this.alignment = alignment;
+        this.persistent = gl.HANDLE$glBufferStorage != null
+                && (GLCapabilities.isVersionAtLeast(gl, 4, 4)
+                    || GLCapabilities.hasExtension(gl, "GL_ARB_buffer_storage"));
+        this.coherent = coherent;
+        this.fences = new GLsync[regionCount];
+
+        try (Arena arena = Arena.ofConfined()) {
+            IntPtr pBuffer = IntPtr.allocate(arena);
+            gl.genBuffers(1, pBuffer);
+            this.buffer = pBuffer.read();
+        }
+        gl.bindBuffer(target, buffer);
+
+        if (persistent) {
+            long totalSize = this.regionSize * regionCount;
+            int storageFlags = GLConstants.MAP_WRITE_BIT
+                    | GLConstants.MAP_PERSISTENT_BIT
+                    | (coherent ? GLConstants.MAP_COHERENT_BIT : 0);
+            int accessFlags = GLConstants.MAP_WRITE_BIT
+                    | GLConstants.MAP_PERSISTENT_BIT
+                    | (coherent ? GLConstants.MAP_COHERENT_BIT : GLConstants.MAP_FLUSH_EXPLICIT_BIT);
+            gl.bufferStorage(target, totalSize, MemorySegment.NULL, storageFlags);
+            MemorySegment mapped = gl.mapBufferRange(target, 0, totalSize, accessFlags);
+            if (mapped.equals(MemorySegment.NULL)) {
+                deleteBuffer();
+                throw new RuntimeException("Failed to map streaming buffer of " + totalSize + " bytes");
+            }
+            this.mapped = mapped.reinterpret(totalSize);
+        } else {
+            gl.bufferData(target, this.regionSize, MemorySegment.NULL, GLConstants.STREAM_DRAW);
+            this.mapped = MemorySegment.NULL;
+        }
+    }
+
+    /// Whether the ring uses a persistent mapping rather than orphaning.
+    public boolean isPersistent() {
+        return persistent;
+    }
+
+    /// Name of the buffer object.
+    public @Unsigned int buffer() {
+        return buffer;
+    }
+
+    /// Moves to the next region, fencing the commands issued while the previous one was current.
+    ///
+    /// In persistent mode, blocks until the GPU has finished with the commands that last read the
+    /// new region. In orphaning mode, orphans the buffer and maps its new store.
+    public void beginRegion() {
+        if (regionActive) {
+            throw new IllegalStateException("Previous region has not been flushed");
+        }
+
+        if (persistent) {
+            if (current >= 0) {
+                GLsync fence = gl.fenceSync(GLConstants.SYNC_GPU_COMMANDS_COMPLETE, 0);
+                if (fence == null) {
+                    throw new RuntimeException("Failed to create fence for streaming buffer region " + current);
+                }
+                fences[current] = fence;
+            }
+            current = (current + 1) % regionCount;
+            GLsync fence = fences[current];
+            if (fence != null) {
+                waitFence(fence);
+                gl.deleteSync(fence);
+                fences[current] = null;
+            }
+            window = mapped.asSlice(current * regionSize, regionSize);
+        } else {
+            current = 0;
+            gl.bindBuffer(target, buffer);
+            gl.bufferData(target, regionSize, MemorySegment.NULL, GLConstants.STREAM_DRAW);
+            MemorySegment segment = gl.mapBufferRange(
+                    target,
+                    0,
+                    regionSize,
+                    GLConstants.MAP_WRITE_BIT | GLConstants.MAP_INVALIDATE_BUFFER_BIT
+            );
+            if (segment.equals(MemorySegment.NULL)) {
+                throw new RuntimeException("Failed to map orphaned streaming buffer of " + regionSize + " bytes");
+            }
+            window = segment.reinterpret(regionSize);
+        }
+        used = 0;
+        regionActive = true;
+    }
+
+    /// Allocates {@code size} bytes in the current region.
+    ///
+    /// @return offset of the allocation within the buffer, aligned to the alignment, or
+    ///         {@link #EXHAUSTED}
+    public long allocate(@Unsigned long size) {
+        if (!regionActive) {
+            throw new IllegalStateException("No region is being written");
+        }
+        if (size > regionSize - used) {
+            return EXHAUSTED;
+        }
+        long start = used;
+        used = Math.min(regionSize, (used + size + alignment - 1) & -alignment);
+        return regionOffset() + start;
+    }
+
+    /// The {@code size} bytes at buffer offset {@code offset}, which must lie in the current region.
+    /// Only valid until {@link #flush}, which unmaps the region when orphaning.
+    ///
+    /// @throws IllegalStateException if no region is being written
+    public @NotNull MemorySegment segment(@Unsigned long offset, @Unsigned long size) {
+        if (!regionActive) {
+            throw new IllegalStateException("No region is being written");
+        }
+        return window.asSlice(offset - regionOffset(), size);
+    }
+
+    /// The {@code size} bytes at buffer offset {@code offset}, which must lie in the current region.
+    public @NotNull BytePtr bytes(@Unsigned long offset, @Unsigned long size) {
+        return new BytePtr(segment(offset, size));
+    }
+
+    /// The {@code count} floats at buffer offset {@code offset}, which must lie in the current
+    /// region.
+    public @NotNull FloatPtr floats(@Unsigned long offset, long count) {
+        return new FloatPtr(segment(offset, count * Float.BYTES));
+    }
+
+    /// Makes the writes to the current region visible to GL. Call before issuing the commands
+    /// that read it; allocating again requires another {@link #beginRegion}.
+    public void flush() {
+        if (!regionActive) {
+            throw new IllegalStateException("No region is being written");
+        }
+        regionActive = false;
+
+        if (!persistent) {
+            gl.bindBuffer(target, buffer);
+            gl.unmapBuffer(target);
+        } else if (!coherent && used != 0) {
+            gl.bindBuffer(target, buffer);
+            gl.flushMappedBufferRange(target, regionOffset(), used);
+        }
+    }
+
+    /// Offset of the current region within the buffer; always {@code 0} when orphaning.
+    public @Unsigned long regionOffset() {
+        return persistent ? current * regionSize : 0;
+    }
+
+    public @Unsigned long regionSize() {
+        return regionSize;
+    }
+
+    public int regionCount() {
+        return regionCount;
+    }
+
+    /// Bytes allocated in the current region, including alignment padding.
+    public @Unsigned long usedBytes() {
+        return used;
+    }
+
+    /// Number of times {@link #beginRegion} had to block because the GPU was still reading the
+    /// region. A steadily growing count means the ring needs more or larger regions.
+    public long stallCount() {
+        return stalls;
+    }
+
+    @Override
+    public void close() {
+        for (int i = 0; i < regionCount; i++) {
+            if (fences[i] != null) {
+                gl.deleteSync(fences[i]);
+                fences[i] = null;
+            }
+        }
+        if (persistent || regionActive) {
+            gl.bindBuffer(target, buffer);
+            gl.unmapBuffer(target);
+        }
+        deleteBuffer();
+        regionActive = false;
+    }
+
+    private void waitFence(GLsync fence) {
+        int result = gl.clientWaitSync(fence, 0, 0);
+        if (result == GLConstants.ALREADY_SIGNALED) {
+            return;
+        }
+
+        stalls++;
+        while (result == GLConstants.TIMEOUT_EXPIRED) {
+            result = gl.clientWaitSync(fence, GLConstants.SYNC_FLUSH_COMMANDS_BIT, WAIT_TIMEOUT_NANOS);
+        }
+        if (result == GLConstants.WAIT_FAILED) {
+            throw new RuntimeException("Failed to wait for streaming region fence");
+        }
+    }
+
+    private void deleteBuffer() {
+        try (Arena arena = Arena.ofConfined()) {
+            gl.deleteBuffers(1, IntPtr.allocate(arena, new int[] { buffer }));
+        }
+    }
+
+    private static final long WAIT_TIMEOUT_NANOS = 1_000_000;
+
+    private final GL gl;
+    private final int target;
+    private final long regionSize;
+    private final int regionCount;
+    private final long alignment;
+    private final boolean persistent;
+    private final boolean coherent;
+    private final int buffer;
+    private final MemorySegment mapped;
+    private final GLsync[] fences;
+
+    private int current = -1;
+    private MemorySegment window = MemorySegment.NULL;
+    private long used;
+    private boolean regionActive;
+    private long stalls;
+}
@@ -0,0 +1,6 @@
+/// Hand-written helpers built on top of the generated OpenGL bindings.
+///
+/// Classes in this package call OpenGL through {@link club.doki7.opengl.GL GL} only. Unless
+/// otherwise noted, they belong to one context and must be used on the thread that context is
+/// current on.
+package club.doki7.opengl.util;
@@ -15,6 +15,7 @@
 module club.doki7.opengl {
     exports club.doki7.opengl;
     exports club.doki7.opengl.handle;
+    exports club.doki7.opengl.util;
 
     requires club.doki7.ffm;
     requires org.jetbrains.annotations;
@@ -0,0 +1,169 @@
+package club.doki7.opengl.test.util;
+
+import club.doki7.ffm.ptr.FloatPtr;
+import club.doki7.opengl.GL;
+import club.doki7.opengl.util.GLCommandStream;
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class TestGLCommandStream {
+    @Test
+    void testReplayEveryCommand() throws Exception {
+        List<String> calls = new ArrayList<>();
+        try (Arena arena = Arena.ofShared()) {
+            GL gl = recordingGL(arena, calls);
+            MemorySegment data = arena.allocateFrom(ValueLayout.JAVA_BYTE, new byte[] { 1, 2, 3, 4, 5 });
+            float[] matrices = new float[32];
+            for (int i = 0; i < matrices.length; i++) {
+                matrices[i] = i * 0.5f;
+            }
+            FloatPtr pMatrices = FloatPtr.allocate(arena, matrices);
+
+            // a tiny initial size makes the list grow several times while recording
+            try (GLCommandStream stream = new GLCommandStream(gl, 16)) {
+                GLCommandStream.CommandList first = stream.begin();
+                first.bindBuffer(GL.ARRAY_BUFFER, 7);
+                first.bindBufferBase(GL.UNIFORM_BUFFER, 1, 8);
+                first.bindBufferRange(GL.UNIFORM_BUFFER, 2, 9, 256L, 1L << 33);
+                first.bufferSubData(GL.UNIFORM_BUFFER, 16L, 5L, data);
+                first.bindVertexArray(10);
+                first.useProgram(11);
+                first.activeTexture(GL.TEXTURE0 + 3);
+                first.bindTexture(GL.TEXTURE_2D, 12);
+                first.bindSampler(3, 13);
+                first.enable(GL.BLEND);
+                first.disable(GL.DEPTH_TEST);
+                first.blendFunc(GL.SRC_ALPHA, GL.ONE_MINUS_SRC_ALPHA);
+                first.viewport(0, 1, 1920, 1080);
+                first.scissor(2, 3, 640, 480);
+                first.clearColor(0.25f, 0.5f, 0.75f, 1.0f);
+                first.clear(GL.COLOR_BUFFER_BIT | GL.DEPTH_BUFFER_BIT);
+                first.uniform1i(4, -5);
+                first.uniform1f(5, 1.5f);
+                first.uniform4f(6, 1.0f, 2.0f, 3.0f, 4.0f);
+                first.uniformMatrix4fv(7, 2, (byte) 1, pMatrices);
+
+                GLCommandStream.CommandList discarded = stream.begin();
+                discarded.useProgram(99);
+                stream.discard(discarded);
+
+                GLCommandStream.CommandList second = stream.begin();
+                second.drawArrays(GL.TRIANGLES, 3, 36);
+                second.drawArraysInstanced(GL.TRIANGLE_STRIP, 0, 4, 100);
+                second.drawElements(GL.TRIANGLES, 6, GL.UNSIGNED_SHORT, 128L);
+                second.drawElementsInstanced(GL.LINES, 8, GL.UNSIGNED_INT, 64L, 3);
+                second.drawElementsBaseVertex(GL.POINTS, 9, GL.UNSIGNED_BYTE, 32L, -2);
+
+                // overwriting the source after recording must not affect the replay
+                data.fill((byte) 0);
+
+                stream.submit(first);
+                stream.submit(second);
+                assertEquals(25, stream.replay());
+                assertEquals(25, stream.replayedCount());
+                assertEquals(0, stream.replay());
+            }
+        }
+
+        float[] firstMatrix = new float[32];
+        for (int i = 0; i < firstMatrix.length; i++) {
+            firstMatrix[i] = i * 0.5f;
+        }
+        List<String> expected = List.of(
+                call("glBindBuffer", GL.ARRAY_BUFFER, 7),
+                call("glBindBufferBase", GL.UNIFORM_BUFFER, 1, 8),
+                call("glBindBufferRange", GL.UNIFORM_BUFFER, 2, 9, 256L, 1L << 33),
+                call("glBufferSubData", GL.UNIFORM_BUFFER, 16L, 5L, new byte[] { 1, 2, 3, 4, 5 }),
+                call("glBindVertexArray", 10),
+                call("glUseProgram", 11),
+                call("glActiveTexture", GL.TEXTURE0 + 3),
+                call("glBindTexture", GL.TEXTURE_2D, 12),
+                call("glBindSampler", 3, 13),
+                call("glEnable", GL.BLEND),
+                call("glDisable", GL.DEPTH_TEST),
+                call("glBlendFunc", GL.SRC_ALPHA, GL.ONE_MINUS_SRC_ALPHA),
+                call("glViewport", 0, 1, 1920, 1080),
+                call("glScissor", 2, 3, 640, 480),
+                call("glClearColor", 0.25f, 0.5f, 0.75f, 1.0f),
+                call("glClear", GL.COLOR_BUFFER_BIT | GL.DEPTH_BUFFER_BIT),
+                call("glUniform1i", 4, -5),
+                call("glUniform1f", 5, 1.5f),
+                call("glUniform4f", 6, 1.0f, 2.0f, 3.0f, 4.0f),
+                call("glUniformMatrix4fv", 7, 2, (byte) 1, firstMatrix),
+                call("glDrawArrays", GL.TRIANGLES, 3, 36),
+                call("glDrawArraysInstanced", GL.TRIANGLE_STRIP, 0, 4, 100),
+                call("glDrawElements", GL.TRIANGLES, 6, GL.UNSIGNED_SHORT, 128L),
+                call("glDrawElementsInstanced", GL.LINES, 8, GL.UNSIGNED_INT, 64L, 3),
+                call("glDrawElementsBaseVertex", GL.POINTS, 9, GL.UNSIGNED_BYTE, 32L, -2)
+        );
+        assertEquals(expected, calls);
+    }
+
+    /// A {@link GL} whose functions used by {@link GLCommandStream} are upcalls appending
+    /// {@link #call} strings to {@code calls}
+    private static GL recordingGL(Arena arena, List<String> calls) throws ReflectiveOperationException {
+        MethodHandle record = MethodHandles.lookup().findStatic(
+                TestGLCommandStream.class,
+                "record",
+                MethodType.methodType(void.class, List.class, String.class, Object[].class)
+        );
+
+        Map<String, MemorySegment> stubs = new HashMap<>();
+        for (String name : FUNCTIONS) {
+            FunctionDescriptor descriptor = (FunctionDescriptor) GL.Descriptors.class
+                    .getField("DESCRIPTOR$" + name)
+                    .get(null);
+            MethodType type = descriptor.toMethodType();
+            MethodHandle handle = MethodHandles.insertArguments(record, 0, calls, name)
+                    .asCollector(Object[].class, type.parameterCount())
+                    .asType(type);
+            stubs.put(name, Linker.nativeLinker().upcallStub(handle, descriptor, arena));
+        }
+        return new GL(name -> stubs.getOrDefault(name, MemorySegment.NULL));
+    }
+
+    private static void record(List<String> calls, String name, Object[] arguments) {
+        // GLintptr and GLsizeiptr are passed as addresses too, so data pointers are converted last
+        boolean hasData = name.equals("glBufferSubData") || name.equals("glUniformMatrix4fv");
+        int dataIndex = hasData ? arguments.length - 1 : -1;
+        for (int i = 0; i < arguments.length; i++) {
+            if (i != dataIndex && arguments[i] instanceof MemorySegment segment) {
+                arguments[i] = segment.address();
+            }
+        }
+        if (hasData) {
+            MemorySegment data = (MemorySegment) arguments[dataIndex];
+            arguments[dataIndex] = name.equals("glBufferSubData")
+                    ? data.reinterpret((long) arguments[2]).toArray(ValueLayout.JAVA_BYTE)
+                    : data.reinterpret((int) arguments[1] * 16L * Float.BYTES).toArray(ValueLayout.JAVA_FLOAT);
+        }
+        calls.add(call(name, arguments));
+    }
+
+    private static String call(String name, Object... arguments) {
+        return name + Arrays.deepToString(arguments);
+    }
+
+    private static final String[] FUNCTIONS = {
+            "glBindBuffer", "glBindBufferBase", "glBindBufferRange", "glBufferSubData", "glBindVertexArray",
+            "glUseProgram", "glActiveTexture", "glBindTexture", "glBindSampler", "glEnable", "glDisable",
+            "glBlendFunc", "glViewport", "glScissor", "glClearColor", "glClear", "glUniform1i", "glUniform1f",
+            "glUniform4f", "glUniformMatrix4fv", "glDrawArrays", "glDrawArraysInstanced", "glDrawElements",
+            "glDrawElementsInstanced", "glDrawElementsBaseVertex"
+    };
+}
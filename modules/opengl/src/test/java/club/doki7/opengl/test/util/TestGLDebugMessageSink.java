@@ -0,0 +1,83 @@
+package club.doki7.opengl.test.util;
+
+import club.doki7.opengl.GLConstants;
+import club.doki7.opengl.util.GLDebugMessageSink;
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.invoke.MethodHandle;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestGLDebugMessageSink {
+    @Test
+    void testRateLimitAndTruncation() throws Throwable {
+        List<String> received = Collections.synchronizedList(new ArrayList<>());
+        GLDebugMessageSink sink = new GLDebugMessageSink(
+                64,
+                2,
+                Long.MAX_VALUE,
+                (source, type, id, severity, message, suppressed) ->
+                        received.add(source + ":" + type + ":" + id + ":" + severity + ":" + suppressed + ":" + message)
+        );
+
+        try (Arena arena = Arena.ofConfined()) {
+            MethodHandle callback = Linker.nativeLinker().downcallHandle(sink.callback(), GLDebugMessageSink.DESCRIPTOR);
+            for (int i = 0; i < 5; i++) {
+                invoke(callback, arena, GLConstants.DEBUG_TYPE_PERFORMANCE, 7, "repeated " + i, false);
+            }
+            // same ID, but another type, is rate limited separately
+            invoke(callback, arena, GLConstants.DEBUG_TYPE_ERROR, 7, "error", true);
+            invoke(callback, arena, GLConstants.DEBUG_TYPE_ERROR, 8, "x".repeat(5000), false);
+
+            // the background thread is woken up by the callback, not only by close
+            long deadline = System.nanoTime() + 10_000_000_000L;
+            while (received.size() < 4 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(4, received.size());
+        }
+        sink.close();
+
+        String prefix = GLConstants.DEBUG_SOURCE_API + ":";
+        int severity = GLConstants.DEBUG_SEVERITY_MEDIUM;
+        assertEquals(4, received.size());
+        assertEquals(prefix + GLConstants.DEBUG_TYPE_PERFORMANCE + ":7:" + severity + ":0:repeated 0", received.get(0));
+        assertEquals(prefix + GLConstants.DEBUG_TYPE_PERFORMANCE + ":7:" + severity + ":0:repeated 1", received.get(1));
+        assertEquals(prefix + GLConstants.DEBUG_TYPE_ERROR + ":7:" + severity + ":0:error", received.get(2));
+        assertTrue(received.get(3).startsWith(prefix + GLConstants.DEBUG_TYPE_ERROR + ":8:" + severity + ":0:xxx"));
+        assertTrue(received.get(3).endsWith("..."));
+        assertTrue(received.get(3).length() < 5000);
+        assertEquals(3, sink.suppressedCount());
+        assertEquals(0, sink.droppedCount());
+    }
+
+    /// @param nulTerminated pass a negative length, as some drivers do, instead of the byte count
+    private static void invoke(
+            MethodHandle callback,
+            Arena arena,
+            int type,
+            int id,
+            String message,
+            boolean nulTerminated
+    ) throws Throwable {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        MemorySegment pMessage = arena.allocateFrom(message);
+        callback.invokeExact(
+                GLConstants.DEBUG_SOURCE_API,
+                type,
+                id,
+                GLConstants.DEBUG_SEVERITY_MEDIUM,
+                nulTerminated ? -1 : bytes.length,
+                pMessage,
+                MemorySegment.NULL
+        );
+    }
+}
@@ -1,6 +1,10 @@
 package club.doki7.vma;
 
 import club.doki7.vma.datatype.VmaVulkanFunctions;
+import club.doki7.vulkan.command.VkDeviceCommands;
+import club.doki7.vulkan.command.VkEntryCommands;
+import club.doki7.vulkan.command.VkInstanceCommands;
+import club.doki7.vulkan.command.VkStaticCommands;
 import org.jetbrains.annotations.Nullable;
 
 import java.lang.foreign.MemorySegment;
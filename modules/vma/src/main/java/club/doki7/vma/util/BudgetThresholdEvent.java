@@ -0,0 +1,35 @@
+package club.doki7.vma.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/// JFR event emitted by {@link VMATelemetry} when a heap crosses a budget threshold.
+@Name("club.doki7.vma.BudgetThreshold")
+@Label("VMA Budget Threshold")
+@Category({"vulkan4j", "VMA"})
+@Description("Usage of a Vulkan memory heap crossed a fraction of its budget")
+@StackTrace(false)
+final class BudgetThresholdEvent extends jdk.jfr.Event {
+    @Label("Heap")
+    int heap;
+
+    @Label("Threshold")
+    @Description("Fraction of the budget")
+    double threshold;
+
+    @Label("Exceeded")
+    @Description("Whether usage went above the threshold, or back below it")
+    boolean exceeded;
+
+    @Label("Usage")
+    @DataAmount
+    long usage;
+
+    @Label("Budget")
+    @DataAmount
+    long budget;
+}
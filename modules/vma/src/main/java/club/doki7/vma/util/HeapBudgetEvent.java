@@ -0,0 +1,42 @@
+package club.doki7.vma.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/// JFR event emitted by {@link VMATelemetry} for each memory heap at every sample.
+@Name("club.doki7.vma.HeapBudget")
+@Label("VMA Heap Budget")
+@Category({"vulkan4j", "VMA"})
+@Description("Usage and budget of a Vulkan memory heap as reported by vmaGetHeapBudgets")
+@StackTrace(false)
+final class HeapBudgetEvent extends jdk.jfr.Event {
+    @Label("Heap")
+    int heap;
+
+    @Label("Usage")
+    @Description("Memory used by the process on the heap, including other allocators")
+    @DataAmount
+    long usage;
+
+    @Label("Budget")
+    @Description("Memory the process can use on the heap without degrading performance")
+    @DataAmount
+    long budget;
+
+    @Label("Block Size")
+    @Description("Memory allocated by VMA from Vulkan on the heap")
+    @DataAmount
+    long blockBytes;
+
+    @Label("Allocation Size")
+    @Description("Memory occupied by VMA allocations on the heap")
+    @DataAmount
+    long allocationBytes;
+
+    @Label("Allocations")
+    int allocationCount;
+}
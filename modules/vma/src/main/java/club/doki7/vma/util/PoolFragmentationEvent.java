@@ -0,0 +1,45 @@
+package club.doki7.vma.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/// JFR event emitted by {@link VMATelemetry} for each pool found in the detailed statistics
+/// string.
+@Name("club.doki7.vma.PoolFragmentation")
+@Label("VMA Pool Fragmentation")
+@Category({"vulkan4j", "VMA"})
+@Description("Free space layout of a VMA pool, from vmaBuildStatsString")
+@StackTrace(false)
+final class PoolFragmentationEvent extends jdk.jfr.Event {
+    @Label("Pool")
+    String pool;
+
+    @Label("Memory Type")
+    int memoryType;
+
+    @Label("Blocks")
+    int blockCount;
+
+    @Label("Block Size")
+    @DataAmount
+    long totalBytes;
+
+    @Label("Unused Size")
+    @DataAmount
+    long unusedBytes;
+
+    @Label("Unused Ranges")
+    int unusedRangeCount;
+
+    @Label("Largest Unused Range")
+    @DataAmount
+    long largestUnusedRange;
+
+    @Label("Fragmentation")
+    @Description("1 - largest unused range / unused size; 0 when all free space is contiguous")
+    double fragmentation;
+}
@@ -0,0 +1,33 @@
+package club.doki7.vma.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/// JFR event emitted by {@link VMATelemetry} for each tracked pool at every sample.
+@Name("club.doki7.vma.PoolStatistics")
+@Label("VMA Pool Statistics")
+@Category({"vulkan4j", "VMA"})
+@Description("Statistics of a custom VMA pool as reported by vmaGetPoolStatistics")
+@StackTrace(false)
+final class PoolStatisticsEvent extends jdk.jfr.Event {
+    @Label("Pool")
+    String pool;
+
+    @Label("Blocks")
+    int blockCount;
+
+    @Label("Allocations")
+    int allocationCount;
+
+    @Label("Block Size")
+    @DataAmount
+    long blockBytes;
+
+    @Label("Allocation Size")
+    @DataAmount
+    long allocationBytes;
+}
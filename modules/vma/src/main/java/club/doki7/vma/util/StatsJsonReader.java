@@ -0,0 +1,227 @@
+package club.doki7.vma.util;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
+
+/// Pull tokenizer over the JSON produced by {@code vmaBuildStatsString}, reading the native
+/// string in place.
+///
+/// Only what VMA writes is supported: names and strings are returned as spans of the input and
+/// decoded on demand, numbers are read as integers. The input ends at its first NUL byte or at
+/// the end of the segment.
+final class StatsJsonReader {
+    static final int END = 0;
+    static final int BEGIN_OBJECT = 1;
+    static final int END_OBJECT = 2;
+    static final int BEGIN_ARRAY = 3;
+    static final int END_ARRAY = 4;
+    static final int NAME = 5;
+    static final int STRING = 6;
+    static final int NUMBER = 7;
+    static final int LITERAL = 8;
+
+    StatsJsonReader(MemorySegment json) {
+        this.json = json;
+        this.limit = json.byteSize();
+    }
+
+    /// Reads the next token, skipping separators.
+    ///
+    /// @throws IllegalArgumentException if the input is not valid JSON
+    int next() {
+        skipSeparators();
+        if (position >= limit) {
+            return END;
+        }
+        byte c = json.get(ValueLayout.JAVA_BYTE, position);
+        switch (c) {
+            case 0 -> {
+                limit = position;
+                return END;
+            }
+            case '{' -> {
+                position++;
+                return BEGIN_OBJECT;
+            }
+            case '}' -> {
+                position++;
+                return END_OBJECT;
+            }
+            case '[' -> {
+                position++;
+                return BEGIN_ARRAY;
+            }
+            case ']' -> {
+                position++;
+                return END_ARRAY;
+            }
+            case '"' -> {
+                scanString();
+                skipWhitespace();
+                if (position < limit && json.get(ValueLayout.JAVA_BYTE, position) == ':') {
+                    position++;
+                    return NAME;
+                }
+                return STRING;
+            }
+            default -> {
+                tokenStart = position;
+                while (position < limit && isLiteralByte(json.get(ValueLayout.JAVA_BYTE, position))) {
+                    position++;
+                }
+                tokenEnd = position;
+                if (tokenEnd == tokenStart) {
+                    throw new IllegalArgumentException("Unexpected character '" + (char) c + "' at " + position);
+                }
+                byte first = json.get(ValueLayout.JAVA_BYTE, tokenStart);
+                return first == '-' || (first >= '0' && first <= '9') ? NUMBER : LITERAL;
+            }
+        }
+    }
+
+    /// Skips the value starting with {@code token}, which has just been read.
+    void skipValue(int token) {
+        if (token != BEGIN_OBJECT && token != BEGIN_ARRAY) {
+            if (token == END || token == END_OBJECT || token == END_ARRAY || token == NAME) {
+                throw new IllegalArgumentException("Expected a value at " + position);
+            }
+            return;
+        }
+        int depth = 1;
+        while (depth > 0) {
+            switch (next()) {
+                case BEGIN_OBJECT, BEGIN_ARRAY -> depth++;
+                case END_OBJECT, END_ARRAY -> depth--;
+                case END -> throw new IllegalArgumentException("Unexpected end of input");
+                default -> {}
+            }
+        }
+    }
+
+    /// Compares the current name or string with an ASCII text without decoding it.
+    boolean textEquals(String ascii) {
+        if (tokenEnd - tokenStart != ascii.length()) {
+            return false;
+        }
+        for (int i = 0; i < ascii.length(); i++) {
+            if (json.get(ValueLayout.JAVA_BYTE, tokenStart + i) != ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /// Decodes the current name or string.
+    String text() {
+        StringBuilder builder = null;
+        long runStart = tokenStart;
+        for (long i = tokenStart; i < tokenEnd; i++) {
+            if (json.get(ValueLayout.JAVA_BYTE, i) != '\\') {
+                continue;
+            }
+            if (builder == null) {
+                builder = new StringBuilder();
+            }
+            builder.append(decode(runStart, i));
+            char escaped = (char) json.get(ValueLayout.JAVA_BYTE, ++i);
+            switch (escaped) {
+                case 'n' -> builder.append('\n');
+                case 't' -> builder.append('\t');
+                case 'r' -> builder.append('\r');
+                case 'b' -> builder.append('\b');
+                case 'f' -> builder.append('\f');
+                case 'u' -> {
+                    builder.append((char) Integer.parseInt(decode(i + 1, i + 5), 16));
+                    i += 4;
+                }
+                default -> builder.append(escaped);
+            }
+            runStart = i + 1;
+        }
+        if (builder == null) {
+            return decode(tokenStart, tokenEnd);
+        }
+        return builder.append(decode(runStart, tokenEnd)).toString();
+    }
+
+    /// Reads the integer part of the current number.
+    long number() {
+        long value = 0;
+        long i = tokenStart;
+        boolean negative = json.get(ValueLayout.JAVA_BYTE, i) == '-';
+        if (negative) {
+            i++;
+        }
+        for (; i < tokenEnd; i++) {
+            byte c = json.get(ValueLayout.JAVA_BYTE, i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    /// Reads the next token as a number, or skips the value and returns {@code 0}.
+    long nextNumber() {
+        int token = next();
+        if (token == NUMBER) {
+            return number();
+        }
+        skipValue(token);
+        return 0;
+    }
+
+    private void scanString() {
+        long i = position + 1;
+        while (true) {
+            if (i >= limit) {
+                throw new IllegalArgumentException("Unterminated string at " + position);
+            }
+            byte c = json.get(ValueLayout.JAVA_BYTE, i);
+            if (c == '"') {
+                break;
+            }
+            i += c == '\\' ? 2 : 1;
+        }
+        tokenStart = position + 1;
+        tokenEnd = i;
+        position = i + 1;
+    }
+
+    private void skipSeparators() {
+        while (position < limit) {
+            byte c = json.get(ValueLayout.JAVA_BYTE, position);
+            if (c != ',' && c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return;
+            }
+            position++;
+        }
+    }
+
+    private void skipWhitespace() {
+        while (position < limit) {
+            byte c = json.get(ValueLayout.JAVA_BYTE, position);
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return;
+            }
+            position++;
+        }
+    }
+
+    private String decode(long start, long end) {
+        byte[] bytes = json.asSlice(start, end - start).toArray(ValueLayout.JAVA_BYTE);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isLiteralByte(byte c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || c == '-' || c == '+' || c == '.' || c == 'E';
+    }
+
+    private final MemorySegment json;
+    private long limit;
+    private long position;
+    private long tokenStart;
+    private long tokenEnd;
+}
@@ -0,0 +1,358 @@
+package club.doki7.vma.util;
+
+import club.doki7.ffm.annotation.EnumType;
+import club.doki7.ffm.annotation.Unsigned;
+import club.doki7.ffm.ptr.IntPtr;
+import club.doki7.vma.VMA;
+import club.doki7.vma.bitmask.VmaAllocationCreateFlags;
+import club.doki7.vma.datatype.VmaAllocationCreateInfo;
+import club.doki7.vma.datatype.VmaAllocationInfo;
+import club.doki7.vma.datatype.VmaPoolCreateInfo;
+import club.doki7.vma.enumtype.VmaMemoryUsage;
+import club.doki7.vma.handle.VmaAllocation;
+import club.doki7.vma.handle.VmaAllocator;
+import club.doki7.vma.handle.VmaPool;
+import club.doki7.vulkan.bitmask.VkBufferUsageFlags;
+import club.doki7.vulkan.datatype.VkBufferCreateInfo;
+import club.doki7.vulkan.enumtype.VkResult;
+import club.doki7.vulkan.enumtype.VkSharingMode;
+import club.doki7.vulkan.handle.VkBuffer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/// Recycles short-lived {@link VkBuffer}s instead of creating and destroying them through
+/// {@link VMA#createBuffer} and {@link VMA#destroyBuffer} every time.
+///
+/// Buffers are grouped by (usage, memory usage, allocation flags, size class), size classes being
+/// powers of two. Each group has its own VMA custom pool ({@link VMA#createPool}) sized for its
+/// class, and a free list of released buffers that are handed out again as they are, with their
+/// {@link VmaAllocationInfo} and, for {@link VmaAllocationCreateFlags#MAPPED} buffers, their
+/// persistent mapping. Buffers idle for longer than the configured age are destroyed by
+/// {@link #trim}.
+///
+/// {@snippet :
+/// VMABufferPool pool = new VMABufferPool(vma, allocator, 256, 4 << 20, 2_000_000_000L);
+///
+/// VMABufferPool.PooledBuffer vertices = pool.acquire(
+///         VkBufferUsageFlags.VERTEX_BUFFER,
+///         VmaMemoryUsage.AUTO,
+///         VmaAllocationCreateFlags.HOST_ACCESS_SEQUENTIAL_WRITE | VmaAllocationCreateFlags.MAPPED,
+///         particleCount * PARTICLE_BYTES
+/// );
+/// vertices.mapped().copyFrom(particleData);
+/// // ... once the GPU is done with it, e.g. from a DeferredDeletionQueue kind
+/// pool.release(vertices);
+///
+/// // once per frame or less
+/// pool.trim();
+/// }
+///
+/// Requests larger than {@code maxPooledSize} are served by plain {@link VMA#createBuffer} and
+/// destroyed on release. Released buffers must no longer be in use by the GPU.
+///
+/// Not thread safe.
+public final class VMABufferPool implements AutoCloseable {
+    /// A buffer handed out by {@link #acquire}. Its size is the size class, which may be larger
+    /// than requested.
+    public static final class PooledBuffer {
+        public @NotNull VkBuffer buffer() {
+            return buffer;
+        }
+
+        public @NotNull VmaAllocation allocation() {
+            return allocation;
+        }
+
+        /// Allocation info at creation; stays valid as long as the buffer is alive.
+        public @NotNull VmaAllocationInfo allocationInfo() {
+            return allocationInfo;
+        }
+
+        /// Size of the buffer, i.e. its size class.
+        public @Unsigned long size() {
+            return size;
+        }
+
+        /// The persistent mapping of the buffer, {@code null} if it was not created with
+        /// {@link VmaAllocationCreateFlags#MAPPED} or the memory is not host visible.
+        public @Nullable MemorySegment mapped() {
+            return mapped;
+        }
+
+        private PooledBuffer(
+                @Nullable SizeClass sizeClass,
+                VkBuffer buffer,
+                VmaAllocation allocation,
+                VmaAllocationInfo allocationInfo,
+                long size
+        ) {
+            this.sizeClass = sizeClass;
+            this.buffer = buffer;
+            this.allocation = allocation;
+            this.allocationInfo = allocationInfo;
+            this.size = size;
+            MemorySegment mappedData = allocationInfo.pMappedData();
+            this.mapped = mappedData.equals(MemorySegment.NULL) ? null : mappedData.reinterpret(size);
+        }
+
+        private final @Nullable SizeClass sizeClass;
+        private final VkBuffer buffer;
+        private final VmaAllocation allocation;
+        private final VmaAllocationInfo allocationInfo;
+        private final long size;
+        private final @Nullable MemorySegment mapped;
+        private boolean inUse;
+        private long releasedAt;
+    }
+
+    /// @param minSizeClass smallest size class, a power of two
+    /// @param maxPooledSize largest size served from the pools, a power of two
+    /// @param maxIdleNanos age after which released buffers are destroyed by {@link #trim}
+    public VMABufferPool(
+            @NotNull VMA vma,
+            @NotNull VmaAllocator allocator,
+            @Unsigned long minSizeClass,
+            @Unsigned long maxPooledSize,
+            long maxIdleNanos
+    ) {
+        if (Long.bitCount(minSizeClass) != 1 || Long.bitCount(maxPooledSize) != 1 || maxPooledSize < minSizeClass) {
+            throw new IllegalArgumentException(
+                    "Size classes must be powers of two, got " + minSizeClass + " and " + maxPooledSize
+            );
+        }
+        this.vma = vma;
+        this.allocator = allocator;
+        this.minSizeClass = minSizeClass;
+        this.maxPooledSize = maxPooledSize;
+        this.maxIdleNanos = maxIdleNanos;
+
+        this.bufferCreateInfo = VkBufferCreateInfo.allocate(arena).sharingMode(VkSharingMode.EXCLUSIVE);
+        this.allocationCreateInfo = VmaAllocationCreateInfo.allocate(arena);
+        this.poolCreateInfo = VmaPoolCreateInfo.allocate(arena);
+        this.pBuffer = VkBuffer.Ptr.allocate(arena);
+        this.pAllocation = VmaAllocation.Ptr.allocate(arena);
+        this.pPool = VmaPool.Ptr.allocate(arena);
+        this.pMemoryTypeIndex = IntPtr.allocate(arena);
+    }
+
+    /// Returns a released buffer of the matching group, or creates one.
+    ///
+    /// @param memoryUsage a {@link VmaMemoryUsage}, used to choose the memory type of the group
+    /// @param allocationFlags {@link VmaAllocationCreateFlags} such as
+    ///                        {@link VmaAllocationCreateFlags#MAPPED}
+    /// @throws RuntimeException if the pool or the buffer cannot be created
+    public @NotNull PooledBuffer acquire(
+            @EnumType(VkBufferUsageFlags.class) int usage,
+            @EnumType(VmaMemoryUsage.class) int memoryUsage,
+            @EnumType(VmaAllocationCreateFlags.class) int allocationFlags,
+            @Unsigned long size
+    ) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Invalid buffer size " + size);
+        }
+
+        if (size > maxPooledSize) {
+            PooledBuffer buffer = createBuffer(null, usage, memoryUsage, allocationFlags, size);
+            buffer.inUse = true;
+            liveCount++;
+            return buffer;
+        }
+
+        long classSize = Math.max(minSizeClass, Long.highestOneBit(size - 1) << 1);
+        SizeClass sizeClass = sizeClasses.get(new Key(usage, memoryUsage, allocationFlags, classSize));
+        if (sizeClass == null) {
+            sizeClass = createSizeClass(usage, memoryUsage, allocationFlags, classSize);
+        }
+
+        PooledBuffer buffer = sizeClass.free.pollFirst();
+        if (buffer == null) {
+            buffer = createBuffer(sizeClass, usage, memoryUsage, allocationFlags, classSize);
+        } else {
+            reuseCount++;
+        }
+        buffer.inUse = true;
+        liveCount++;
+        return buffer;
+    }
+
+    /// Returns a buffer to its free list, or destroys it if it was not pooled.
+    ///
+    /// @throws IllegalStateException if the buffer has already been released
+    public void release(@NotNull PooledBuffer buffer) {
+        if (!buffer.inUse) {
+            throw new IllegalStateException("Buffer released twice");
+        }
+        buffer.inUse = false;
+        liveCount--;
+
+        SizeClass sizeClass = buffer.sizeClass;
+        if (sizeClass == null) {
+            destroyBuffer(buffer);
+            return;
+        }
+        buffer.releasedAt = System.nanoTime();
+        sizeClass.free.addFirst(buffer);
+    }
+
+    /// Destroys the released buffers idle for longer than the configured age.
+    ///
+    /// @return number of buffers destroyed
+    public int trim() {
+        long now = System.nanoTime();
+        int destroyed = 0;
+        for (SizeClass sizeClass : sizeClasses.values()) {
+            // most recently released first, so the oldest are at the tail
+            while (!sizeClass.free.isEmpty() && now - sizeClass.free.peekLast().releasedAt > maxIdleNanos) {
+                destroyBuffer(sizeClass.free.pollLast());
+                destroyed++;
+            }
+        }
+        return destroyed;
+    }
+
+    /// Number of buffers currently acquired, including those too large to be pooled.
+    public int liveCount() {
+        return liveCount;
+    }
+
+    /// Number of released buffers waiting for reuse.
+    public int freeCount() {
+        int count = 0;
+        for (SizeClass sizeClass : sizeClasses.values()) {
+            count += sizeClass.free.size();
+        }
+        return count;
+    }
+
+    /// Number of (usage, memory usage, flags, size class) groups, i.e. of VMA pools.
+    public int sizeClassCount() {
+        return sizeClasses.size();
+    }
+
+    /// Number of buffers created so far.
+    public long createdCount() {
+        return createdCount;
+    }
+
+    /// Number of {@link #acquire} calls served from a free list.
+    public long reuseCount() {
+        return reuseCount;
+    }
+
+    /// Destroys all released buffers and the VMA pools. All buffers must have been released.
+    ///
+    /// @throws IllegalStateException if buffers are still acquired
+    @Override
+    public void close() {
+        if (liveCount != 0) {
+            throw new IllegalStateException(liveCount + " buffers have not been released");
+        }
+        Iterator<SizeClass> iterator = sizeClasses.values().iterator();
+        while (iterator.hasNext()) {
+            SizeClass sizeClass = iterator.next();
+            for (PooledBuffer buffer : sizeClass.free) {
+                destroyBuffer(buffer);
+            }
+            vma.destroyPool(allocator, sizeClass.pool);
+            iterator.remove();
+        }
+        arena.close();
+    }
+
+    private record Key(int usage, int memoryUsage, int allocationFlags, long size) {}
+
+    private static final class SizeClass {
+        SizeClass(VmaPool pool) {
+            this.pool = pool;
+        }
+
+        final VmaPool pool;
+        final ArrayDeque<PooledBuffer> free = new ArrayDeque<>();
+    }
+
+    private SizeClass createSizeClass(int usage, int memoryUsage, int allocationFlags, long classSize) {
+        bufferCreateInfo.size(classSize).usage(usage);
+        allocationCreateInfo.usage(memoryUsage).flags(allocationFlags).pool(null);
+        int result = vma.findMemoryTypeIndexForBufferInfo(allocator, bufferCreateInfo, allocationCreateInfo, pMemoryTypeIndex);
+        if (result != VkResult.SUCCESS) {
+            throw new RuntimeException("Failed to find memory type for buffer pool: " + VkResult.explain(result));
+        }
+
+        // large classes get fewer buffers per block rather than blocks of hundreds of MiB
+        long blockSize = Math.min(MAX_BLOCK_SIZE, Math.max(MIN_BLOCK_SIZE, classSize * BUFFERS_PER_BLOCK));
+        poolCreateInfo
+                .memoryTypeIndex(pMemoryTypeIndex.read())
+                .blockSize(Math.max(blockSize, classSize));
+        result = vma.createPool(allocator, poolCreateInfo, pPool);
+        if (result != VkResult.SUCCESS) {
+            throw new RuntimeException("Failed to create buffer pool: " + VkResult.explain(result));
+        }
+
+        SizeClass sizeClass = new SizeClass(pPool.read());
+        sizeClasses.put(new Key(usage, memoryUsage, allocationFlags, classSize), sizeClass);
+        return sizeClass;
+    }
+
+    private PooledBuffer createBuffer(
+            @Nullable SizeClass sizeClass,
+            int usage,
+            int memoryUsage,
+            int allocationFlags,
+            long size
+    ) {
+        bufferCreateInfo.size(size).usage(usage);
+        allocationCreateInfo
+                .usage(memoryUsage)
+                .flags(allocationFlags)
+                .pool(sizeClass != null ? sizeClass.pool : null);
+        VmaAllocationInfo allocationInfo = spareInfos.pollFirst();
+        if (allocationInfo == null) {
+            allocationInfo = VmaAllocationInfo.allocate(arena);
+        }
+
+        int result = vma.createBuffer(allocator, bufferCreateInfo, allocationCreateInfo, pBuffer, pAllocation, allocationInfo);
+        if (result != VkResult.SUCCESS) {
+            spareInfos.addFirst(allocationInfo);
+            throw new RuntimeException("Failed to create pooled buffer: " + VkResult.explain(result));
+        }
+        createdCount++;
+        return new PooledBuffer(sizeClass, pBuffer.read(), pAllocation.read(), allocationInfo, size);
+    }
+
+    private void destroyBuffer(PooledBuffer buffer) {
+        vma.destroyBuffer(allocator, buffer.buffer, buffer.allocation);
+        // allocation infos live in the arena, keep them for the next buffers
+        spareInfos.addFirst(buffer.allocationInfo);
+    }
+
+    private static final long MIN_BLOCK_SIZE = 1 << 20;
+    private static final long MAX_BLOCK_SIZE = 64 << 20;
+    private static final long BUFFERS_PER_BLOCK = 64;
+
+    private final VMA vma;
+    private final VmaAllocator allocator;
+    private final long minSizeClass;
+    private final long maxPooledSize;
+    private final long maxIdleNanos;
+    private final HashMap<Key, SizeClass> sizeClasses = new HashMap<>();
+    private final ArrayDeque<VmaAllocationInfo> spareInfos = new ArrayDeque<>();
+    private int liveCount;
+    private long createdCount;
+    private long reuseCount;
+
+    private final Arena arena = Arena.ofShared();
+    private final VkBufferCreateInfo bufferCreateInfo;
+    private final VmaAllocationCreateInfo allocationCreateInfo;
+    private final VmaPoolCreateInfo poolCreateInfo;
+    private final VkBuffer.Ptr pBuffer;
+    private final VmaAllocation.Ptr pAllocation;
+    private final VmaPool.Ptr pPool;
+    private final IntPtr pMemoryTypeIndex;
+}
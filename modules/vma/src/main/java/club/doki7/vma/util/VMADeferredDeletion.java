@@ -0,0 +1,93 @@
+package club.doki7.vma.util;
+
+import club.doki7.ffm.annotation.Unsigned;
+import club.doki7.vma.VMA;
+import club.doki7.vma.handle.VmaAllocation;
+import club.doki7.vma.handle.VmaAllocator;
+import club.doki7.vulkan.handle.VkBuffer;
+import club.doki7.vulkan.handle.VkImage;
+import club.doki7.vulkan.util.DeferredDeletionQueue;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.foreign.MemorySegment;
+
+/// Adds VMA object kinds ({@code vmaDestroyBuffer}, {@code vmaDestroyImage} and
+/// {@code vmaFreeMemory}) to a {@link DeferredDeletionQueue}.
+///
+/// {@snippet :
+/// DeferredDeletionQueue deletionQueue = new DeferredDeletionQueue(deviceCommands, device, null);
+/// VMADeferredDeletion vmaDeletion = new VMADeferredDeletion(deletionQueue, vma, allocator);
+///
+/// vmaDeletion.destroyBuffer(stagingBuffer, stagingAllocation, frameNumber);
+/// }
+public final class VMADeferredDeletion {
+    /// Registers the VMA kinds to {@code queue}.
+    ///
+    /// @param queue the deletion queue
+    /// @param vma VMA commands
+    /// @param allocator the allocator owning the allocations
+    public VMADeferredDeletion(
+            @NotNull DeferredDeletionQueue queue,
+            @NotNull VMA vma,
+            @NotNull VmaAllocator allocator
+    ) {
+        this.queue = queue;
+        this.kindBuffer = queue.registerKind((handle, aux) -> vma.destroyBuffer(
+                allocator,
+                new VkBuffer(handle),
+                aux.equals(MemorySegment.NULL) ? null : new VmaAllocation(aux)
+        ));
+        this.kindImage = queue.registerKind((handle, aux) -> vma.destroyImage(
+                allocator,
+                new VkImage(handle),
+                aux.equals(MemorySegment.NULL) ? null : new VmaAllocation(aux)
+        ));
+        this.kindAllocation = queue.registerKind((handle, _) -> vma.freeMemory(
+                allocator,
+                new VmaAllocation(handle)
+        ));
+    }
+
+    public @NotNull DeferredDeletionQueue queue() {
+        return queue;
+    }
+
+    /// Equivalent to a deferred {@link VMA#destroyBuffer}.
+    public void destroyBuffer(
+            @Nullable VkBuffer buffer,
+            @Nullable VmaAllocation allocation,
+            @Unsigned long retireValue
+    ) {
+        if (buffer != null) {
+            queue.enqueue(kindBuffer, buffer, allocation, retireValue);
+        } else if (allocation != null) {
+            queue.enqueue(kindAllocation, allocation, null, retireValue);
+        }
+    }
+
+    /// Equivalent to a deferred {@link VMA#destroyImage}.
+    public void destroyImage(
+            @Nullable VkImage image,
+            @Nullable VmaAllocation allocation,
+            @Unsigned long retireValue
+    ) {
+        if (image != null) {
+            queue.enqueue(kindImage, image, allocation, retireValue);
+        } else if (allocation != null) {
+            queue.enqueue(kindAllocation, allocation, null, retireValue);
+        }
+    }
+
+    /// Equivalent to a deferred {@link VMA#freeMemory}.
+    public void freeMemory(@Nullable VmaAllocation allocation, @Unsigned long retireValue) {
+        if (allocation != null) {
+            queue.enqueue(kindAllocation, allocation, null, retireValue);
+        }
+    }
+
+    private final DeferredDeletionQueue queue;
+    private final int kindBuffer;
+    private final int kindImage;
+    private final int kindAllocation;
+}
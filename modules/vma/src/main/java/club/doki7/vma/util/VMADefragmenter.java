@@ -0,0 +1,604 @@
+package club.doki7.vma.util;
+
+import club.doki7.ffm.annotation.EnumType;
+import club.doki7.ffm.annotation.Unsigned;
+import club.doki7.ffm.ptr.IntPtr;
+import club.doki7.vma.VMA;
+import club.doki7.vma.bitmask.VmaDefragmentationFlags;
+import club.doki7.vma.datatype.VmaDefragmentationInfo;
+import club.doki7.vma.datatype.VmaDefragmentationMove;
+import club.doki7.vma.datatype.VmaDefragmentationPassMoveInfo;
+import club.doki7.vma.datatype.VmaDefragmentationStats;
+import club.doki7.vma.enumtype.VmaDefragmentationMoveOperation;
+import club.doki7.vma.handle.VmaAllocation;
+import club.doki7.vma.handle.VmaAllocator;
+import club.doki7.vma.handle.VmaDefragmentationContext;
+import club.doki7.vma.handle.VmaPool;
+import club.doki7.vulkan.VkConstants;
+import club.doki7.vulkan.bitmask.VkAccessFlags;
+import club.doki7.vulkan.bitmask.VkBufferUsageFlags;
+import club.doki7.vulkan.bitmask.VkImageAspectFlags;
+import club.doki7.vulkan.bitmask.VkImageUsageFlags;
+import club.doki7.vulkan.bitmask.VkPipelineStageFlags;
+import club.doki7.vulkan.command.VkDeviceCommands;
+import club.doki7.vulkan.datatype.VkBufferCopy;
+import club.doki7.vulkan.datatype.VkBufferCreateInfo;
+import club.doki7.vulkan.datatype.VkImageCopy;
+import club.doki7.vulkan.datatype.VkImageCreateInfo;
+import club.doki7.vulkan.datatype.VkImageMemoryBarrier;
+import club.doki7.vulkan.datatype.VkMemoryBarrier;
+import club.doki7.vulkan.enumtype.VkImageLayout;
+import club.doki7.vulkan.enumtype.VkResult;
+import club.doki7.vulkan.handle.VkBuffer;
+import club.doki7.vulkan.handle.VkCommandBuffer;
+import club.doki7.vulkan.handle.VkDevice;
+import club.doki7.vulkan.handle.VkImage;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/// Runs VMA defragmentation incrementally, one pass per frame, so that long-running sessions keep
+/// memory compact without a visible hitch.
+///
+/// VMA only decides which allocations move where; the application has to recreate the resources,
+/// copy their contents on the GPU, and destroy the old ones once the copies are done. This class
+/// does that for the buffers and images registered with it:
+///
+/// 1. {@link #recordPass} asks VMA for the moves of one pass, creates the new resources, binds them
+///    to the new place, records the copies into the frame's command buffer with the barriers
+///    around them, and reports each new handle to a {@link RemapListener} so the application can
+///    update its handle tables and descriptors before recording anything else;
+/// 2. {@link #collect}, called once the frame has completed on the GPU, ends the pass, which makes
+///    VMA free the old memory, and destroys the old resources.
+///
+/// Each pass is bounded by a byte and allocation count budget, applied by VMA when choosing moves,
+/// and by a CPU time budget, checked by VMA through its break callback while it searches.
+///
+/// {@snippet :
+/// VMADefragmenter defragmenter = new VMADefragmenter(vma, allocator, deviceCommands, device, remapper);
+/// defragmenter.registerImage(textureAllocation, texture, textureCreateInfo,
+///         VkImageLayout.SHADER_READ_ONLY_OPTIMAL, VkImageAspectFlags.COLOR);
+///
+/// // e.g. after a level is unloaded
+/// defragmenter.begin(null, VmaDefragmentationFlags.FLAG_ALGORITHM_FAST, 16 << 20, 64, 500_000L);
+///
+/// // every frame, after waiting the in-flight fence of frameNumber - MAX_FRAMES_IN_FLIGHT
+/// defragmenter.collect(frameNumber - MAX_FRAMES_IN_FLIGHT);
+/// defragmenter.recordPass(cmd, frameNumber);
+/// }
+///
+/// Moved resources must not be written by the host or the GPU while a pass that moves them is in
+/// flight: writes to the old resource after the copy are lost. Registered resources must not be
+/// destroyed or unregistered while {@link #isPassPending()}.
+///
+/// Not thread safe.
+public final class VMADefragmenter implements AutoCloseable {
+    /// Receives the new handles of moved resources.
+    ///
+    /// Called from {@link #recordPass} after the copies have been recorded. The old handle stays
+    /// valid until the {@link #collect} that retires the pass, so views or descriptors created
+    /// over it can be destroyed with the same retire value, e.g. through a
+    /// {@link club.doki7.vulkan.util.DeferredDeletionQueue}.
+    public interface RemapListener {
+        void bufferMoved(@NotNull VmaAllocation allocation, @NotNull VkBuffer oldBuffer, @NotNull VkBuffer newBuffer);
+
+        void imageMoved(@NotNull VmaAllocation allocation, @NotNull VkImage oldImage, @NotNull VkImage newImage);
+    }
+
+    public VMADefragmenter(
+            @NotNull VMA vma,
+            @NotNull VmaAllocator allocator,
+            @NotNull VkDeviceCommands deviceCommands,
+            @NotNull VkDevice device,
+            @NotNull RemapListener listener
+    ) {
+        this.vma = vma;
+        this.allocator = allocator;
+        this.deviceCommands = deviceCommands;
+        this.device = device;
+        this.listener = listener;
+
+        this.defragmentationInfo = VmaDefragmentationInfo.allocate(arena);
+        this.passInfo = VmaDefragmentationPassMoveInfo.allocate(arena);
+        this.stats = VmaDefragmentationStats.allocate(arena);
+        this.pContext = VmaDefragmentationContext.Ptr.allocate(arena);
+        this.pBuffer = VkBuffer.Ptr.allocate(arena);
+        this.pImage = VkImage.Ptr.allocate(arena);
+        try {
+            MethodHandle handle = MethodHandles.lookup()
+                    .findVirtual(VMADefragmenter.class, "shouldBreak", MethodType.methodType(int.class, MemorySegment.class))
+                    .bindTo(this);
+            this.breakCallback = Linker.nativeLinker().upcallStub(
+                    handle,
+                    FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS),
+                    arena
+            );
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /// Registers a buffer that may be moved. {@code createInfo} is copied, without its
+    /// {@code pNext} chain, to create the buffer again at the new place.
+    ///
+    /// @throws IllegalArgumentException if the buffer is not usable as both transfer source and
+    ///                                  destination
+    public void registerBuffer(
+            @NotNull VmaAllocation allocation,
+            @NotNull VkBuffer buffer,
+            @NotNull VkBufferCreateInfo createInfo
+    ) {
+        int transfer = VkBufferUsageFlags.TRANSFER_SRC | VkBufferUsageFlags.TRANSFER_DST;
+        if ((createInfo.usage() & transfer) != transfer) {
+            throw new IllegalArgumentException("Buffer must have TRANSFER_SRC and TRANSFER_DST usage to be moved");
+        }
+        VkBufferCreateInfo copy = VkBufferCreateInfo.clone(arena, createInfo);
+        copy.pNext(MemorySegment.NULL);
+        if (createInfo.queueFamilyIndexCount() != 0) {
+            copy.pQueueFamilyIndices(IntPtr.allocate(arena, createInfo.pQueueFamilyIndices().segment()
+                    .reinterpret(createInfo.queueFamilyIndexCount() * Integer.BYTES)
+                    .toArray(ValueLayout.JAVA_INT)));
+        }
+
+        Resource resource = new Resource();
+        resource.buffer = buffer;
+        resource.bufferCreateInfo = copy;
+        resources.put(allocation.segment().address(), resource);
+    }
+
+    /// Registers an image that may be moved. {@code createInfo} is copied, without its
+    /// {@code pNext} chain, to create the image again at the new place.
+    ///
+    /// @param layout layout of all subresources of the image between frames, restored after the
+    ///               copy; {@link VkImageLayout#UNDEFINED} if the contents need not be preserved
+    /// @param aspectMask aspects to copy
+    /// @throws IllegalArgumentException if the image is not usable as both transfer source and
+    ///                                  destination
+    public void registerImage(
+            @NotNull VmaAllocation allocation,
+            @NotNull VkImage image,
+            @NotNull VkImageCreateInfo createInfo,
+            @EnumType(VkImageLayout.class) int layout,
+            @EnumType(VkImageAspectFlags.class) int aspectMask
+    ) {
+        int transfer = VkImageUsageFlags.TRANSFER_SRC | VkImageUsageFlags.TRANSFER_DST;
+        if ((createInfo.usage() & transfer) != transfer) {
+            throw new IllegalArgumentException("Image must have TRANSFER_SRC and TRANSFER_DST usage to be moved");
+        }
+        VkImageCreateInfo copy = VkImageCreateInfo.clone(arena, createInfo).initialLayout(VkImageLayout.UNDEFINED);
+        copy.pNext(MemorySegment.NULL);
+        if (createInfo.queueFamilyIndexCount() != 0) {
+            copy.pQueueFamilyIndices(IntPtr.allocate(arena, createInfo.pQueueFamilyIndices().segment()
+                    .reinterpret(createInfo.queueFamilyIndexCount() * Integer.BYTES)
+                    .toArray(ValueLayout.JAVA_INT)));
+        }
+
+        Resource resource = new Resource();
+        resource.image = image;
+        resource.imageCreateInfo = copy;
+        resource.layout = layout;
+        resource.aspectMask = aspectMask;
+        resources.put(allocation.segment().address(), resource);
+    }
+
+    /// Updates the layout a registered image is in between frames.
+    public void setImageLayout(@NotNull VmaAllocation allocation, @EnumType(VkImageLayout.class) int layout) {
+        Resource resource = resources.get(allocation.segment().address());
+        if (resource == null || resource.image == null) {
+            throw new IllegalArgumentException("Allocation is not a registered image");
+        }
+        resource.layout = layout;
+    }
+
+    /// Stops moving a resource, e.g. before destroying it. Allocations that are not registered
+    /// are never moved.
+    public void unregister(@NotNull VmaAllocation allocation) {
+        resources.remove(allocation.segment().address());
+    }
+
+    /// Starts a defragmentation session, run by the following {@link #recordPass} calls.
+    ///
+    /// @param pool pool to defragment, {@code null} for the default pools
+    /// @param flags a {@link VmaDefragmentationFlags} algorithm, {@code 0} for the default
+    /// @param maxBytesPerPass maximum bytes moved per pass, {@code 0} for no limit
+    /// @param maxAllocationsPerPass maximum allocations moved per pass, {@code 0} for no limit
+    /// @param maxNanosPerPass CPU time VMA may spend searching for moves per pass, {@code 0} for
+    ///                        no limit
+    /// @throws IllegalStateException if a session is already active
+    public void begin(
+            @Nullable VmaPool pool,
+            @EnumType(VmaDefragmentationFlags.class) int flags,
+            @Unsigned long maxBytesPerPass,
+            @Unsigned int maxAllocationsPerPass,
+            long maxNanosPerPass
+    ) {
+        if (context != null) {
+            throw new IllegalStateException("Defragmentation already active");
+        }
+        this.maxNanosPerPass = maxNanosPerPass;
+        defragmentationInfo
+                .flags(flags)
+                .pool(pool)
+                .maxBytesPerPass(maxBytesPerPass)
+                .maxAllocationsPerPass(maxAllocationsPerPass);
+        if (maxNanosPerPass > 0) {
+            defragmentationInfo.pfnBreakCallback(breakCallback);
+        } else {
+            defragmentationInfo.pfnBreakCallback(MemorySegment.NULL);
+        }
+
+        int result = vma.beginDefragmentation(allocator, defragmentationInfo, pContext);
+        if (result != VkResult.SUCCESS) {
+            throw new RuntimeException("Failed to begin defragmentation: " + VkResult.explain(result));
+        }
+        context = pContext.read();
+    }
+
+    /// Whether a session started by {@link #begin} has not finished yet.
+    public boolean isActive() {
+        return context != null;
+    }
+
+    /// Whether a recorded pass is waiting for {@link #collect}.
+    public boolean isPassPending() {
+        return passPending;
+    }
+
+    /// Runs one defragmentation pass, recording its copies into {@code commandBuffer}.
+    ///
+    /// Does nothing if no session is active or the previous pass has not been collected yet. The
+    /// session ends when VMA finds nothing more to move.
+    ///
+    /// @param retireValue value that {@link #collect} will be called with once
+    ///                    {@code commandBuffer} has completed, e.g. the absolute frame number
+    /// @return number of resources moved
+    /// @throws RuntimeException if a VMA or Vulkan call fails
+    public int recordPass(@NotNull VkCommandBuffer commandBuffer, @Unsigned long retireValue) {
+        if (context == null || passPending) {
+            return 0;
+        }
+
+        deadline = System.nanoTime() + maxNanosPerPass;
+        int result = vma.beginDefragmentationPass(allocator, context, passInfo);
+        if (result == VkResult.SUCCESS) {
+            end();
+            return 0;
+        }
+        if (result != VkResult.INCOMPLETE) {
+            throw new RuntimeException("Failed to begin defragmentation pass: " + VkResult.explain(result));
+        }
+
+        int moveCount = passInfo.moveCount();
+        VmaDefragmentationMove.Ptr moves = moveCount == 0
+                ? null
+                : new VmaDefragmentationMove.Ptr(passInfo.pMovesRaw().reinterpret(moveCount * VmaDefragmentationMove.BYTES));
+        pendingMoves.clear();
+        for (int i = 0; i < moveCount; i++) {
+            VmaDefragmentationMove move = moves.at(i);
+            Move pending = prepareMove(move);
+            if (pending == null) {
+                move.operation(VmaDefragmentationMoveOperation.IGNORE);
+            } else {
+                pendingMoves.add(pending);
+            }
+        }
+
+        if (pendingMoves.isEmpty()) {
+            endPass();
+            return 0;
+        }
+
+        recordCopies(commandBuffer);
+        for (Move move : pendingMoves) {
+            Resource resource = move.resource;
+            if (move.oldBuffer != null) {
+                listener.bufferMoved(move.allocation, move.oldBuffer, resource.buffer);
+            } else {
+                listener.imageMoved(move.allocation, move.oldImage, resource.image);
+            }
+        }
+        passPending = true;
+        pendingRetireValue = retireValue;
+        return pendingMoves.size();
+    }
+
+    /// Retires the pending pass if {@code completedValue} has reached its retire value: VMA frees
+    /// the old memory and the old resources are destroyed.
+    ///
+    /// @return whether a pass was retired
+    public boolean collect(@Unsigned long completedValue) {
+        if (!passPending || Long.compareUnsigned(completedValue, pendingRetireValue) < 0) {
+            return false;
+        }
+        endPass();
+        return true;
+    }
+
+    /// Bytes moved by all finished sessions.
+    public @Unsigned long bytesMoved() {
+        return bytesMoved;
+    }
+
+    /// Bytes of device memory released by all finished sessions.
+    public @Unsigned long bytesFreed() {
+        return bytesFreed;
+    }
+
+    public @Unsigned long allocationsMoved() {
+        return allocationsMoved;
+    }
+
+    public @Unsigned long deviceMemoryBlocksFreed() {
+        return deviceMemoryBlocksFreed;
+    }
+
+    /// Ends the active session. A pending pass is retired first, so the GPU must be done with it,
+    /// e.g. after {@code vkDeviceWaitIdle}.
+    @Override
+    public void close() {
+        if (passPending) {
+            endPass();
+        }
+        if (context != null) {
+            end();
+        }
+        resources.clear();
+        arena.close();
+    }
+
+    private static final class Resource {
+        @Nullable VkBuffer buffer;
+        @Nullable VkBufferCreateInfo bufferCreateInfo;
+        @Nullable VkImage image;
+        @Nullable VkImageCreateInfo imageCreateInfo;
+        int layout;
+        int aspectMask;
+    }
+
+    private record Move(
+            VmaAllocation allocation,
+            Resource resource,
+            @Nullable VkBuffer oldBuffer,
+            @Nullable VkImage oldImage
+    ) {}
+
+    private @Nullable Move prepareMove(VmaDefragmentationMove move) {
+        // the generated getters wrap the address of the member rather than the handle stored in it
+        MemorySegment sourceRaw = move.segment().get(ValueLayout.ADDRESS, VmaDefragmentationMove.OFFSET$srcAllocation);
+        MemorySegment destinationRaw = move.segment().get(ValueLayout.ADDRESS, VmaDefragmentationMove.OFFSET$dstTmpAllocation);
+        if (sourceRaw.address() == 0 || destinationRaw.address() == 0) {
+            return null;
+        }
+        VmaAllocation source = new VmaAllocation(sourceRaw);
+        VmaAllocation destination = new VmaAllocation(destinationRaw);
+        Resource resource = resources.get(source.segment().address());
+        if (resource == null) {
+            return null;
+        }
+
+        if (resource.buffer != null) {
+            int result = deviceCommands.createBuffer(device, resource.bufferCreateInfo, null, pBuffer);
+            if (result != VkResult.SUCCESS) {
+                return null;
+            }
+            VkBuffer newBuffer = pBuffer.read();
+            if (vma.bindBufferMemory(allocator, destination, newBuffer) != VkResult.SUCCESS) {
+                deviceCommands.destroyBuffer(device, newBuffer, null);
+                return null;
+            }
+            Move pending = new Move(source, resource, resource.buffer, null);
+            resource.buffer = newBuffer;
+            return pending;
+        }
+
+        int result = deviceCommands.createImage(device, resource.imageCreateInfo, null, pImage);
+        if (result != VkResult.SUCCESS) {
+            return null;
+        }
+        VkImage newImage = pImage.read();
+        if (vma.bindImageMemory(allocator, destination, newImage) != VkResult.SUCCESS) {
+            deviceCommands.destroyImage(device, newImage, null);
+            return null;
+        }
+        Move pending = new Move(source, resource, null, resource.image);
+        resource.image = newImage;
+        return pending;
+    }
+
+    private void recordCopies(VkCommandBuffer commandBuffer) {
+        int imageCount = 0;
+        for (Move move : pendingMoves) {
+            if (move.oldImage != null && move.resource.layout != VkImageLayout.UNDEFINED) {
+                imageCount++;
+            }
+        }
+
+        try (Arena scratch = Arena.ofConfined()) {
+            VkMemoryBarrier memoryBarrier = VkMemoryBarrier.allocate(scratch);
+            VkImageMemoryBarrier.Ptr imageBarriers = imageCount == 0
+                    ? null
+                    : VkImageMemoryBarrier.allocate(scratch, imageCount * 2L);
+
+            // before: previous writes visible to the copies, old images readable, new images writable
+            memoryBarrier
+                    .srcAccessMask(VkAccessFlags.MEMORY_WRITE)
+                    .dstAccessMask(VkAccessFlags.TRANSFER_READ);
+            int index = 0;
+            for (Move move : pendingMoves) {
+                if (move.oldImage != null && move.resource.layout != VkImageLayout.UNDEFINED) {
+                    imageBarrier(imageBarriers.at(index++), move.oldImage, move.resource.aspectMask,
+                            VkAccessFlags.MEMORY_WRITE, VkAccessFlags.TRANSFER_READ,
+                            move.resource.layout, VkImageLayout.TRANSFER_SRC_OPTIMAL);
+                    imageBarrier(imageBarriers.at(index++), move.resource.image, move.resource.aspectMask,
+                            0, VkAccessFlags.TRANSFER_WRITE,
+                            VkImageLayout.UNDEFINED, VkImageLayout.TRANSFER_DST_OPTIMAL);
+                }
+            }
+            deviceCommands.cmdPipelineBarrier(
+                    commandBuffer,
+                    VkPipelineStageFlags.ALL_COMMANDS,
+                    VkPipelineStageFlags.TRANSFER,
+                    0,
+                    1, memoryBarrier,
+                    0, null,
+                    index, imageBarriers
+            );
+
+            VkBufferCopy bufferCopy = VkBufferCopy.allocate(scratch);
+            for (Move move : pendingMoves) {
+                Resource resource = move.resource;
+                if (move.oldBuffer != null) {
+                    bufferCopy.srcOffset(0).dstOffset(0).size(resource.bufferCreateInfo.size());
+                    deviceCommands.cmdCopyBuffer(commandBuffer, move.oldBuffer, resource.buffer, 1, bufferCopy);
+                } else if (resource.layout != VkImageLayout.UNDEFINED) {
+                    VkImageCreateInfo info = resource.imageCreateInfo;
+                    int mipLevels = info.mipLevels();
+                    VkImageCopy.Ptr regions = VkImageCopy.allocate(scratch, mipLevels);
+                    for (int level = 0; level < mipLevels; level++) {
+                        VkImageCopy region = regions.at(level);
+                        region.srcSubresource()
+                                .aspectMask(resource.aspectMask)
+                                .mipLevel(level)
+                                .baseArrayLayer(0)
+                                .layerCount(info.arrayLayers());
+                        region.dstSubresource()
+                                .aspectMask(resource.aspectMask)
+                                .mipLevel(level)
+                                .baseArrayLayer(0)
+                                .layerCount(info.arrayLayers());
+                        region.extent()
+                                .width(Math.max(1, info.extent().width() >>> level))
+                                .height(Math.max(1, info.extent().height() >>> level))
+                                .depth(Math.max(1, info.extent().depth() >>> level));
+                    }
+                    deviceCommands.cmdCopyImage(
+                            commandBuffer,
+                            move.oldImage,
+                            VkImageLayout.TRANSFER_SRC_OPTIMAL,
+                            resource.image,
+                            VkImageLayout.TRANSFER_DST_OPTIMAL,
+                            mipLevels,
+                            regions
+                    );
+                }
+            }
+
+            // after: copies visible to everything, new images back in their layout
+            memoryBarrier
+                    .srcAccessMask(VkAccessFlags.TRANSFER_WRITE)
+                    .dstAccessMask(VkAccessFlags.MEMORY_READ | VkAccessFlags.MEMORY_WRITE);
+            index = 0;
+            for (Move move : pendingMoves) {
+                if (move.oldImage != null && move.resource.layout != VkImageLayout.UNDEFINED) {
+                    imageBarrier(imageBarriers.at(index++), move.resource.image, move.resource.aspectMask,
+                            VkAccessFlags.TRANSFER_WRITE, VkAccessFlags.MEMORY_READ | VkAccessFlags.MEMORY_WRITE,
+                            VkImageLayout.TRANSFER_DST_OPTIMAL, move.resource.layout);
+                }
+            }
+            deviceCommands.cmdPipelineBarrier(
+                    commandBuffer,
+                    VkPipelineStageFlags.TRANSFER,
+                    VkPipelineStageFlags.ALL_COMMANDS,
+                    0,
+                    1, memoryBarrier,
+                    0, null,
+                    index, imageBarriers
+            );
+        }
+    }
+
+    private static void imageBarrier(
+            VkImageMemoryBarrier barrier,
+            VkImage image,
+            int aspectMask,
+            int srcAccessMask,
+            int dstAccessMask,
+            int oldLayout,
+            int newLayout
+    ) {
+        barrier.srcAccessMask(srcAccessMask)
+                .dstAccessMask(dstAccessMask)
+                .oldLayout(oldLayout)
+                .newLayout(newLayout)
+                .srcQueueFamilyIndex(VkConstants.QUEUE_FAMILY_IGNORED)
+                .dstQueueFamilyIndex(VkConstants.QUEUE_FAMILY_IGNORED)
+                .image(image);
+        barrier.subresourceRange()
+                .aspectMask(aspectMask)
+                .baseMipLevel(0)
+                .levelCount(VkConstants.REMAINING_MIP_LEVELS)
+                .baseArrayLayer(0)
+                .layerCount(VkConstants.REMAINING_ARRAY_LAYERS);
+    }
+
+    private void endPass() {
+        int result = vma.endDefragmentationPass(allocator, context, passInfo);
+        passPending = false;
+        for (Move move : pendingMoves) {
+            if (move.oldBuffer != null) {
+                deviceCommands.destroyBuffer(device, move.oldBuffer, null);
+            } else {
+                deviceCommands.destroyImage(device, move.oldImage, null);
+            }
+        }
+        pendingMoves.clear();
+
+        if (result == VkResult.SUCCESS) {
+            end();
+        } else if (result != VkResult.INCOMPLETE) {
+            throw new RuntimeException("Failed to end defragmentation pass: " + VkResult.explain(result));
+        }
+    }
+
+    private void end() {
+        vma.endDefragmentation(allocator, context, stats);
+        context = null;
+        bytesMoved += stats.bytesMoved();
+        bytesFreed += stats.bytesFreed();
+        allocationsMoved += Integer.toUnsignedLong(stats.allocationsMoved());
+        deviceMemoryBlocksFreed += Integer.toUnsignedLong(stats.deviceMemoryBlocksFreed());
+    }
+
+    @SuppressWarnings("unused")
+    private int shouldBreak(MemorySegment userData) {
+        return System.nanoTime() - deadline >= 0 ? VkConstants.TRUE : VkConstants.FALSE;
+    }
+
+    private final VMA vma;
+    private final VmaAllocator allocator;
+    private final VkDeviceCommands deviceCommands;
+    private final VkDevice device;
+    private final RemapListener listener;
+    private final HashMap<Long, Resource> resources = new HashMap<>();
+    private final ArrayList<Move> pendingMoves = new ArrayList<>();
+
+    private @Nullable VmaDefragmentationContext context;
+    private boolean passPending;
+    private long pendingRetireValue;
+    private long maxNanosPerPass;
+    private long deadline;
+
+    private long bytesMoved;
+    private long bytesFreed;
+    private long allocationsMoved;
+    private long deviceMemoryBlocksFreed;
+
+    private final Arena arena = Arena.ofShared();
+    private final VmaDefragmentationInfo defragmentationInfo;
+    private final VmaDefragmentationPassMoveInfo passInfo;
+    private final VmaDefragmentationStats stats;
+    private final VmaDefragmentationContext.Ptr pContext;
+    private final VkBuffer.Ptr pBuffer;
+    private final VkImage.Ptr pImage;
+    private final MemorySegment breakCallback;
+}
@@ -0,0 +1,119 @@
+package club.doki7.vma.util;
+
+import club.doki7.ffm.ptr.LongPtr;
+import club.doki7.vma.VMA;
+import club.doki7.vma.handle.VmaAllocation;
+import club.doki7.vma.handle.VmaAllocator;
+import club.doki7.vulkan.VkConstants;
+import club.doki7.vulkan.enumtype.VkResult;
+import club.doki7.vulkan.util.DirtyRangeSet;
+import club.doki7.vulkan.util.MappedMemoryView;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.foreign.Arena;
+import java.util.ArrayList;
+
+/// Flushes the dirty ranges of {@link MappedMemoryView}s over VMA allocations with a single
+/// {@link VMA#flushAllocations} call.
+///
+/// Views are created with a {@code null} memory and offsets relative to the allocation, i.e.
+/// over {@code VmaAllocationInfo::pMappedData} or the pointer returned by {@link VMA#mapMemory}.
+/// VMA skips coherent memory types by itself, so {@code coherent} may be left {@code false} when
+/// not known; the alignment passed to the view then only serves to merge neighbouring writes.
+///
+/// {@snippet :
+/// MappedMemoryView view = new MappedMemoryView(null, mappedData, 0, limits.nonCoherentAtomSize(), false);
+/// flusher.register(allocation, view);
+///
+/// // once per frame
+/// flusher.flush();
+/// }
+///
+/// Not thread safe.
+public final class VMAMappedRangeFlusher implements AutoCloseable {
+    public VMAMappedRangeFlusher(@NotNull VMA vma, @NotNull VmaAllocator allocator) {
+        this.vma = vma;
+        this.allocator = allocator;
+    }
+
+    public void register(@NotNull VmaAllocation allocation, @NotNull MappedMemoryView view) {
+        if (!view.isCoherent()) {
+            allocations.add(allocation);
+            views.add(view);
+        }
+    }
+
+    public void unregister(@NotNull MappedMemoryView view) {
+        int index = views.indexOf(view);
+        if (index >= 0) {
+            views.remove(index);
+            allocations.remove(index);
+        }
+    }
+
+    /// Flushes and clears the dirty ranges of all registered views.
+    ///
+    /// @return number of ranges flushed
+    /// @throws RuntimeException if {@link VMA#flushAllocations} fails
+    public int flush() {
+        int total = 0;
+        for (MappedMemoryView view : views) {
+            total += view.dirtyRanges().count();
+        }
+        if (total == 0) {
+            return 0;
+        }
+        ensureCapacity(total);
+
+        // VMA takes one (allocation, offset, size) triple per region, allocations may repeat
+        int index = 0;
+        for (int v = 0; v < views.size(); v++) {
+            MappedMemoryView view = views.get(v);
+            VmaAllocation allocation = allocations.get(v);
+            DirtyRangeSet dirty = view.dirtyRanges();
+            long mappedSize = view.segment().byteSize();
+            for (int i = 0; i < dirty.count(); i++) {
+                long start = dirty.start(i);
+                long end = dirty.end(i);
+                pAllocations.write(index, allocation);
+                pOffsets.write(index, view.mapOffset() + start);
+                pSizes.write(index, end > mappedSize ? VkConstants.WHOLE_SIZE : end - start);
+                index++;
+            }
+            dirty.clear();
+        }
+
+        int result = vma.flushAllocations(allocator, total, pAllocations, pOffsets, pSizes);
+        if (result != VkResult.SUCCESS) {
+            throw new RuntimeException("Failed to flush allocations: " + VkResult.explain(result));
+        }
+        return total;
+    }
+
+    @Override
+    public void close() {
+        arena.close();
+    }
+
+    private void ensureCapacity(int count) {
+        if (pAllocations != null && pAllocations.size() >= count) {
+            return;
+        }
+        arena.close();
+        arena = Arena.ofShared();
+        int capacity = Math.max(16, Integer.highestOneBit(count - 1) << 1);
+        pAllocations = VmaAllocation.Ptr.allocate(arena, capacity);
+        pOffsets = LongPtr.allocate(arena, capacity);
+        pSizes = LongPtr.allocate(arena, capacity);
+    }
+
+    private final VMA vma;
+    private final VmaAllocator allocator;
+    private final ArrayList<VmaAllocation> allocations = new ArrayList<>();
+    private final ArrayList<MappedMemoryView> views = new ArrayList<>();
+    private Arena arena = Arena.ofShared();
+    private @Nullable VmaAllocation.Ptr pAllocations;
+    private LongPtr pOffsets;
+    private LongPtr pSizes;
+}
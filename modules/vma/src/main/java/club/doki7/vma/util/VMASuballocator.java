@@ -0,0 +1,396 @@
+package club.doki7.vma.util;
+
+import club.doki7.ffm.annotation.EnumType;
+import club.doki7.ffm.annotation.Unsigned;
+import club.doki7.ffm.ptr.FloatPtr;
+import club.doki7.ffm.ptr.LongPtr;
+import club.doki7.vma.VMA;
+import club.doki7.vma.bitmask.VmaAllocationCreateFlags;
+import club.doki7.vma.bitmask.VmaVirtualBlockCreateFlags;
+import club.doki7.vma.datatype.VmaAllocationCreateInfo;
+import club.doki7.vma.datatype.VmaAllocationInfo;
+import club.doki7.vma.datatype.VmaVirtualAllocationCreateInfo;
+import club.doki7.vma.datatype.VmaVirtualBlockCreateInfo;
+import club.doki7.vma.enumtype.VmaMemoryUsage;
+import club.doki7.vma.handle.VmaAllocation;
+import club.doki7.vma.handle.VmaAllocator;
+import club.doki7.vma.handle.VmaVirtualAllocation;
+import club.doki7.vma.handle.VmaVirtualBlock;
+import club.doki7.vulkan.bitmask.VkBufferUsageFlags;
+import club.doki7.vulkan.bitmask.VkMemoryPropertyFlags;
+import club.doki7.vulkan.datatype.VkBufferCreateInfo;
+import club.doki7.vulkan.enumtype.VkResult;
+import club.doki7.vulkan.enumtype.VkSharingMode;
+import club.doki7.vulkan.handle.VkBuffer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.ArrayList;
+
+/// Suballocates small buffers (uniforms, dynamic vertices, scratch data) out of a few large,
+/// persistently mapped {@link VkBuffer}s, using VMA virtual blocks to manage the offsets.
+///
+/// Memory is organized in pages: one {@link VkBuffer} of {@code pageSize} bytes with its own
+/// {@link VmaVirtualBlock}. There are two kinds of suballocations:
+///
+/// - **transient** ({@link #allocateTransient}): valid for one frame. Each frame in flight has its
+///   own pages using the linear algorithm, so allocating is a bump of the block's offset, and
+///   {@link #beginFrame} releases everything the frame allocated with one
+///   {@link VMA#clearVirtualBlock} per used page instead of freeing suballocations one by one;
+/// - **long-lived** ({@link #allocate}, {@link #free}): pages using the default TLSF algorithm,
+///   freed individually.
+///
+/// When a page is full a new one is created; requests larger than {@code pageSize} get a page of
+/// their own. Pages are kept until {@link #close}.
+///
+/// {@snippet :
+/// VMASuballocator suballocator = new VMASuballocator(
+///         vma, allocator, VkBufferUsageFlags.UNIFORM_BUFFER, 4 << 20, MAX_FRAMES_IN_FLIGHT,
+///         limits.minUniformBufferOffsetAlignment()
+/// );
+///
+/// // after waiting for the frame's fence
+/// suballocator.beginFrame(currentFrame);
+/// VMASuballocator.Suballocation ubo = suballocator.allocateTransient(16 * Float.BYTES);
+/// ubo.floats().write(mvp);
+/// descriptorWriter.writeBuffer(set, 0, 0, VkDescriptorType.UNIFORM_BUFFER, ubo.buffer(), ubo.offset(), ubo.size());
+/// }
+///
+/// Pages are created with {@link VmaMemoryUsage#AUTO}, host visible and host coherent memory, so
+/// writes through the mapping need no flush. Virtual blocks need no device: {@link #hostOnly}
+/// creates a suballocator whose pages are plain host memory without buffers, to test or benchmark
+/// the allocation logic on the CPU.
+///
+/// Not thread safe; use one suballocator per recording thread.
+public final class VMASuballocator implements AutoCloseable {
+    /// A range of a page buffer.
+    public static final class Suballocation {
+        /// The page buffer, {@code null} for {@link #hostOnly} suballocators.
+        public @Nullable VkBuffer buffer() {
+            return page.buffer;
+        }
+
+        /// Offset of the range within {@link #buffer()}.
+        public @Unsigned long offset() {
+            return offset;
+        }
+
+        public @Unsigned long size() {
+            return size;
+        }
+
+        /// The mapped memory of the range.
+        public @NotNull MemorySegment mapped() {
+            return mapped;
+        }
+
+        /// The mapped memory of the range, as floats.
+        public @NotNull FloatPtr floats() {
+            return new FloatPtr(mapped);
+        }
+
+        private Suballocation(Page page, long offset, long size, @Nullable VmaVirtualAllocation allocation) {
+            this.page = page;
+            this.offset = offset;
+            this.size = size;
+            this.mapped = page.mapped.asSlice(offset, size);
+            this.allocation = allocation;
+        }
+
+        private final Page page;
+        private final long offset;
+        private final long size;
+        private final MemorySegment mapped;
+        private @Nullable VmaVirtualAllocation allocation;
+    }
+
+    /// @param usage usage of the page buffers
+    /// @param pageSize size of each page buffer
+    /// @param framesInFlight number of frames whose transient suballocations may be alive at once
+    /// @param defaultAlignment alignment used when none is given, e.g.
+    ///                         {@code minUniformBufferOffsetAlignment}
+    public VMASuballocator(
+            @NotNull VMA vma,
+            @NotNull VmaAllocator allocator,
+            @EnumType(VkBufferUsageFlags.class) int usage,
+            @Unsigned long pageSize,
+            int framesInFlight,
+            @Unsigned long defaultAlignment
+    ) {
+        this(allocator, vma, usage, pageSize, framesInFlight, defaultAlignment);
+    }
+
+    /// Creates a suballocator whose pages are host memory without {@link VkBuffer}s. The
+    /// allocation logic is the same, which is useful for tests and benchmarks.
+    public static @NotNull VMASuballocator hostOnly(
+            @NotNull VMA vma,
+            @Unsigned long pageSize,
+            int framesInFlight,
+            @Unsigned long defaultAlignment
+    ) {
+        return new VMASuballocator(null, vma, 0, pageSize, framesInFlight, defaultAlignment);
+    }
+
+    private VMASuballocator(
+            @Nullable VmaAllocator allocator,
+            VMA vma,
+            int usage,
+            long pageSize,
+            int framesInFlight,
+            long defaultAlignment
+    ) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Invalid page size " + pageSize);
+        }
+        if (framesInFlight <= 0) {
+            throw new IllegalArgumentException("Invalid number of frames in flight " + framesInFlight);
+        }
+        checkAlignment(defaultAlignment);
+
+        this.vma = vma;
+        this.allocator = allocator;
+        this.usage = usage;
+        this.pageSize = pageSize;
+        this.defaultAlignment = defaultAlignment;
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        ArrayList<Page>[] framePages = new ArrayList[framesInFlight];
+        this.framePages = framePages;
+        this.frameCurrentPage = new int[framesInFlight];
+        for (int i = 0; i < framesInFlight; i++) {
+            framePages[i] = new ArrayList<>();
+        }
+
+        this.virtualCreateInfo = VmaVirtualAllocationCreateInfo.allocate(arena);
+        this.pVirtualAllocation = VmaVirtualAllocation.Ptr.allocate(arena);
+        this.pOffset = LongPtr.allocate(arena);
+    }
+
+    /// Starts recording frame {@code frameIndex}, releasing all transient suballocations it made
+    /// last time. Call after waiting for the frame's fence.
+    public void beginFrame(int frameIndex) {
+        ArrayList<Page> pages = framePages[frameIndex];
+        int used = Math.min(frameCurrentPage[frameIndex] + 1, pages.size());
+        for (int i = 0; i < used; i++) {
+            vma.clearVirtualBlock(pages.get(i).block);
+        }
+        currentFrame = frameIndex;
+        frameCurrentPage[frameIndex] = 0;
+    }
+
+    /// Allocates {@code size} bytes with the default alignment, valid until the next
+    /// {@link #beginFrame} of the current frame.
+    public @NotNull Suballocation allocateTransient(@Unsigned long size) {
+        return allocateTransient(size, defaultAlignment);
+    }
+
+    /// Allocates {@code size} bytes aligned to {@code alignment}, valid until the next
+    /// {@link #beginFrame} of the current frame.
+    ///
+    /// @throws IllegalStateException if {@link #beginFrame} has not been called
+    public @NotNull Suballocation allocateTransient(@Unsigned long size, @Unsigned long alignment) {
+        if (currentFrame < 0) {
+            throw new IllegalStateException("beginFrame has not been called");
+        }
+        checkRequest(size, alignment);
+
+        ArrayList<Page> pages = framePages[currentFrame];
+        int current = frameCurrentPage[currentFrame];
+        // pages before the current one are full, pages after it have been cleared
+        for (int i = current; i < pages.size(); i++) {
+            Page page = pages.get(i);
+            if (page.size >= size && tryAllocate(page, size, alignment)) {
+                frameCurrentPage[currentFrame] = i;
+                return new Suballocation(page, pOffset.read(), size, null);
+            }
+        }
+
+        Page page = createPage(Math.max(pageSize, size), VmaVirtualBlockCreateFlags.LINEAR_ALGORITHM);
+        pages.add(page);
+        frameCurrentPage[currentFrame] = pages.size() - 1;
+        if (!tryAllocate(page, size, alignment)) {
+            throw new IllegalStateException("Failed to suballocate " + size + " bytes from a new page");
+        }
+        return new Suballocation(page, pOffset.read(), size, null);
+    }
+
+    /// Allocates {@code size} bytes with the default alignment, valid until {@link #free}.
+    public @NotNull Suballocation allocate(@Unsigned long size) {
+        return allocate(size, defaultAlignment);
+    }
+
+    /// Allocates {@code size} bytes aligned to {@code alignment}, valid until {@link #free}.
+    public @NotNull Suballocation allocate(@Unsigned long size, @Unsigned long alignment) {
+        checkRequest(size, alignment);
+
+        for (Page page : persistentPages) {
+            if (page.size >= size && tryAllocate(page, size, alignment)) {
+                return new Suballocation(page, pOffset.read(), size, pVirtualAllocation.read());
+            }
+        }
+
+        Page page = createPage(Math.max(pageSize, size), 0);
+        persistentPages.add(page);
+        if (!tryAllocate(page, size, alignment)) {
+            throw new IllegalStateException("Failed to suballocate " + size + " bytes from a new page");
+        }
+        return new Suballocation(page, pOffset.read(), size, pVirtualAllocation.read());
+    }
+
+    /// Frees a suballocation returned by {@link #allocate}.
+    ///
+    /// @throws IllegalArgumentException if {@code suballocation} is transient or already freed
+    public void free(@NotNull Suballocation suballocation) {
+        VmaVirtualAllocation allocation = suballocation.allocation;
+        if (allocation == null) {
+            throw new IllegalArgumentException("Suballocation is transient or already freed");
+        }
+        vma.virtualFree(suballocation.page.block, allocation);
+        suballocation.allocation = null;
+    }
+
+    public int pageCount() {
+        int count = persistentPages.size();
+        for (ArrayList<Page> pages : framePages) {
+            count += pages.size();
+        }
+        return count;
+    }
+
+    /// Total size of all pages.
+    public @Unsigned long reservedBytes() {
+        long total = 0;
+        for (Page page : persistentPages) {
+            total += page.size;
+        }
+        for (ArrayList<Page> pages : framePages) {
+            for (Page page : pages) {
+                total += page.size;
+            }
+        }
+        return total;
+    }
+
+    /// Destroys all pages. Every suballocation becomes invalid, and long-lived ones need not be
+    /// freed first.
+    @Override
+    public void close() {
+        for (Page page : persistentPages) {
+            destroyPage(page);
+        }
+        persistentPages.clear();
+        for (ArrayList<Page> pages : framePages) {
+            for (Page page : pages) {
+                destroyPage(page);
+            }
+            pages.clear();
+        }
+        arena.close();
+        hostArena.close();
+    }
+
+    private static final class Page {
+        Page(VmaVirtualBlock block, @Nullable VkBuffer buffer, @Nullable VmaAllocation allocation, MemorySegment mapped, long size) {
+            this.block = block;
+            this.buffer = buffer;
+            this.allocation = allocation;
+            this.mapped = mapped;
+            this.size = size;
+        }
+
+        final VmaVirtualBlock block;
+        final @Nullable VkBuffer buffer;
+        final @Nullable VmaAllocation allocation;
+        final MemorySegment mapped;
+        final long size;
+    }
+
+    private boolean tryAllocate(Page page, long size, long alignment) {
+        virtualCreateInfo.size(size).alignment(alignment);
+        int result = vma.virtualAllocate(page.block, virtualCreateInfo, pVirtualAllocation, pOffset);
+        return result == VkResult.SUCCESS;
+    }
+
+    private Page createPage(long size, int blockFlags) {
+        try (Arena scratch = Arena.ofConfined()) {
+            VmaVirtualBlockCreateInfo blockCreateInfo = VmaVirtualBlockCreateInfo.allocate(scratch)
+                    .size(size)
+                    .flags(blockFlags);
+            VmaVirtualBlock.Ptr pBlock = VmaVirtualBlock.Ptr.allocate(scratch);
+            int result = vma.createVirtualBlock(blockCreateInfo, pBlock);
+            if (result != VkResult.SUCCESS) {
+                throw new RuntimeException("Failed to create virtual block: " + VkResult.explain(result));
+            }
+            VmaVirtualBlock block = pBlock.read();
+
+            if (allocator == null) {
+                return new Page(block, null, null, hostArena.allocate(size, HOST_PAGE_ALIGNMENT), size);
+            }
+
+            VkBufferCreateInfo bufferCreateInfo = VkBufferCreateInfo.allocate(scratch)
+                    .size(size)
+                    .usage(usage)
+                    .sharingMode(VkSharingMode.EXCLUSIVE);
+            VmaAllocationCreateInfo allocationCreateInfo = VmaAllocationCreateInfo.allocate(scratch)
+                    .usage(VmaMemoryUsage.AUTO)
+                    .flags(VmaAllocationCreateFlags.HOST_ACCESS_SEQUENTIAL_WRITE | VmaAllocationCreateFlags.MAPPED)
+                    .requiredFlags(VkMemoryPropertyFlags.HOST_VISIBLE | VkMemoryPropertyFlags.HOST_COHERENT);
+            VkBuffer.Ptr pBuffer = VkBuffer.Ptr.allocate(scratch);
+            VmaAllocation.Ptr pAllocation = VmaAllocation.Ptr.allocate(scratch);
+            VmaAllocationInfo allocationInfo = VmaAllocationInfo.allocate(scratch);
+            result = vma.createBuffer(allocator, bufferCreateInfo, allocationCreateInfo, pBuffer, pAllocation, allocationInfo);
+            if (result != VkResult.SUCCESS) {
+                vma.destroyVirtualBlock(block);
+                throw new RuntimeException("Failed to create suballocator page: " + VkResult.explain(result));
+            }
+            return new Page(
+                    block,
+                    pBuffer.read(),
+                    pAllocation.read(),
+                    allocationInfo.pMappedData().reinterpret(size),
+                    size
+            );
+        }
+    }
+
+    private void destroyPage(Page page) {
+        // long-lived suballocations may still be alive, which destroyVirtualBlock does not allow
+        vma.clearVirtualBlock(page.block);
+        vma.destroyVirtualBlock(page.block);
+        if (allocator != null) {
+            vma.destroyBuffer(allocator, page.buffer, page.allocation);
+        }
+    }
+
+    private static void checkRequest(long size, long alignment) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Invalid suballocation size " + size);
+        }
+        checkAlignment(alignment);
+    }
+
+    private static void checkAlignment(long alignment) {
+        if (alignment <= 0 || (alignment & (alignment - 1)) != 0) {
+            throw new IllegalArgumentException("Alignment must be a power of two, got " + alignment);
+        }
+    }
+
+    private static final long HOST_PAGE_ALIGNMENT = 256;
+
+    private final VMA vma;
+    private final @Nullable VmaAllocator allocator;
+    private final int usage;
+    private final long pageSize;
+    private final long defaultAlignment;
+    private final ArrayList<Page>[] framePages;
+    private final int[] frameCurrentPage;
+    private final ArrayList<Page> persistentPages = new ArrayList<>();
+    private int currentFrame = -1;
+
+    private final Arena arena = Arena.ofShared();
+    private final Arena hostArena = Arena.ofShared();
+    private final VmaVirtualAllocationCreateInfo virtualCreateInfo;
+    private final VmaVirtualAllocation.Ptr pVirtualAllocation;
+    private final LongPtr pOffset;
+}
@@ -0,0 +1,641 @@
+package club.doki7.vma.util;
+
+import club.doki7.ffm.annotation.Unsigned;
+import club.doki7.ffm.ptr.BytePtr;
+import club.doki7.ffm.ptr.PointerPtr;
+import club.doki7.vma.VMA;
+import club.doki7.vma.datatype.VmaBudget;
+import club.doki7.vma.datatype.VmaDetailedStatistics;
+import club.doki7.vma.datatype.VmaStatistics;
+import club.doki7.vma.datatype.VmaTotalStatistics;
+import club.doki7.vma.handle.VmaAllocator;
+import club.doki7.vma.handle.VmaPool;
+import club.doki7.vulkan.VkConstants;
+import club.doki7.vulkan.datatype.VkPhysicalDeviceMemoryProperties;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/// Samples the memory usage of a {@link VmaAllocator} on a fixed cadence, keeps a rolling
+/// history per memory heap, and warns before the process runs out of device memory.
+///
+/// Each sample reads {@link VMA#getHeapBudgets} and {@link VMA#getPoolStatistics} for the
+/// tracked pools, both cheap; the slower {@link VMA#calculateStatistics} and the fragmentation
+/// analysis of {@link VMA#buildStatsString} run every {@link #setStatisticsEvery n-th} and
+/// {@link #setFragmentationEvery m-th} sample. Samples are recorded as JFR events
+/// ({@code club.doki7.vma.HeapBudget}, {@code PoolStatistics}, {@code PoolFragmentation} and
+/// {@code BudgetThreshold}) when a recording enables them.
+///
+/// {@snippet :
+/// VMATelemetry telemetry = new VMATelemetry(vma, allocator, 600);
+/// telemetry.setInterval(100_000_000L); // 100 ms
+/// telemetry.addThreshold(0.9, (heap, threshold, usage, budget, exceeded) -> {
+///     if (exceeded) {
+///         textureStreamer.startEvicting(heap);
+///     } else {
+///         textureStreamer.stopEvicting(heap);
+///     }
+/// });
+///
+/// // once per frame
+/// telemetry.poll();
+/// }
+///
+/// Histories are stored in primitive ring buffers sized once at construction, and native scratch
+/// structures are reused across samples.
+///
+/// Not thread safe, though the VMA functions used are; call {@link #poll} from one thread.
+public final class VMATelemetry implements AutoCloseable {
+    /// Called when the usage of a heap crosses a fraction of its budget.
+    @FunctionalInterface
+    public interface ThresholdListener {
+        /// @param exceeded {@code true} when usage went above {@code threshold * budget},
+        ///                 {@code false} when it went back below it
+        void onThreshold(int heap, double threshold, @Unsigned long usage, @Unsigned long budget, boolean exceeded);
+    }
+
+    /// Free space layout of one pool: a default pool of a memory type, or a custom pool.
+    ///
+    /// @param name {@code "Default"} for default pools, the name written by VMA for custom pools
+    /// @param largestUnusedRange size of the largest free range of any block
+    /// @param dedicatedAllocationCount dedicated allocations made on behalf of the pool, which are
+    ///                                 not part of its blocks
+    public record PoolFragmentation(
+            @NotNull String name,
+            int memoryType,
+            int blockCount,
+            @Unsigned long totalBytes,
+            @Unsigned long unusedBytes,
+            int allocationCount,
+            int unusedRangeCount,
+            @Unsigned long largestUnusedRange,
+            int dedicatedAllocationCount
+    ) {
+        /// {@code 1 - largestUnusedRange / unusedBytes}: {@code 0} when all free space of the pool
+        /// is one range, close to {@code 1} when it is scattered in small ranges.
+        public double fragmentation() {
+            return unusedBytes == 0 ? 0.0 : 1.0 - (double) largestUnusedRange / (double) unusedBytes;
+        }
+    }
+
+    /// @param historyLength number of samples kept per heap
+    public VMATelemetry(@NotNull VMA vma, @NotNull VmaAllocator allocator, int historyLength) {
+        if (historyLength <= 0) {
+            throw new IllegalArgumentException("Invalid history length " + historyLength);
+        }
+        this.vma = vma;
+        this.allocator = allocator;
+        this.historyLength = historyLength;
+
+        PointerPtr pMemoryProperties = PointerPtr.allocate(arena);
+        vma.getMemoryProperties(allocator, pMemoryProperties);
+        VkPhysicalDeviceMemoryProperties memoryProperties = new VkPhysicalDeviceMemoryProperties(
+                pMemoryProperties.read().reinterpret(VkPhysicalDeviceMemoryProperties.BYTES)
+        );
+        this.heapCount = memoryProperties.memoryHeapCount();
+        this.heapSizes = new long[heapCount];
+        for (int i = 0; i < heapCount; i++) {
+            heapSizes[i] = memoryProperties.memoryHeaps().at(i).size();
+        }
+
+        this.budgets = VmaBudget.allocate(arena, VkConstants.MAX_MEMORY_HEAPS);
+        this.totalStatistics = VmaTotalStatistics.allocate(arena);
+        this.poolStatistics = VmaStatistics.allocate(arena);
+        this.pStatsString = PointerPtr.allocate(arena);
+
+        this.timestamps = new long[historyLength];
+        this.usageHistory = new long[historyLength * heapCount];
+        this.budgetHistory = new long[historyLength * heapCount];
+        this.blockBytes = new long[heapCount];
+        this.allocationBytes = new long[heapCount];
+        this.allocationCounts = new int[heapCount];
+        this.unusedRangeCounts = new int[heapCount];
+        this.largestUnusedRanges = new long[heapCount];
+    }
+
+    /// Sets the minimum time between two samples taken by {@link #poll}, {@code 0} to sample at
+    /// every call. Defaults to one second.
+    public void setInterval(long nanos) {
+        if (nanos < 0) {
+            throw new IllegalArgumentException("Invalid interval " + nanos);
+        }
+        intervalNanos = nanos;
+    }
+
+    /// Calls {@link VMA#calculateStatistics}, which walks all allocations, every {@code n}
+    /// samples; {@code 0} disables it. Defaults to 10.
+    public void setStatisticsEvery(int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("Invalid statistics period " + n);
+        }
+        statisticsEvery = n;
+    }
+
+    /// Runs {@link #analyzeFragmentation} every {@code n} samples; {@code 0} disables it, which
+    /// is the default.
+    public void setFragmentationEvery(int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("Invalid fragmentation period " + n);
+        }
+        fragmentationEvery = n;
+    }
+
+    /// Registers a listener called when the usage of any heap goes above {@code threshold} times
+    /// its budget. It is called again with {@code exceeded == false} once the usage is back below
+    /// {@code threshold - 0.02} times the budget, so that usage hovering around the threshold does
+    /// not flood the listener.
+    ///
+    /// @param threshold fraction of the budget, e.g. {@code 0.9}
+    public void addThreshold(double threshold, @NotNull ThresholdListener listener) {
+        if (!(threshold > 0.0)) {
+            throw new IllegalArgumentException("Invalid threshold " + threshold);
+        }
+        int count = thresholdListeners.size();
+        thresholds = Arrays.copyOf(thresholds, count + 1);
+        thresholds[count] = threshold;
+        thresholdListeners.add(listener);
+        thresholdExceeded = Arrays.copyOf(thresholdExceeded, (count + 1) * heapCount);
+    }
+
+    /// Adds a custom pool whose statistics are read at every sample.
+    public void trackPool(@NotNull VmaPool pool, @NotNull String name) {
+        pools.add(new TrackedPool(pool, name));
+    }
+
+    /// Stops tracking a pool, e.g. before destroying it.
+    public void untrackPool(@NotNull VmaPool pool) {
+        pools.removeIf(tracked -> tracked.pool.equals(pool));
+    }
+
+    /// Takes a sample if the {@link #setInterval interval} has elapsed since the last one.
+    ///
+    /// @return whether a sample was taken
+    public boolean poll() {
+        long now = System.nanoTime();
+        if (sampleCount != 0 && now - lastSampleNanos < intervalNanos) {
+            return false;
+        }
+        sample(now);
+        return true;
+    }
+
+    /// Takes a sample now.
+    public void sample() {
+        sample(System.nanoTime());
+    }
+
+    /// Builds the detailed statistics string of the allocator, parses it into per-pool metrics and
+    /// frees it. This is expensive with many allocations; see {@link #setFragmentationEvery}.
+    public @NotNull List<PoolFragmentation> analyzeFragmentation() {
+        vma.buildStatsString(allocator, pStatsString, VkConstants.TRUE);
+        MemorySegment json = pStatsString.read();
+        List<PoolFragmentation> result;
+        try {
+            result = parseFragmentation(json.reinterpret(Long.MAX_VALUE));
+        } finally {
+            vma.freeStatsString(allocator, new BytePtr(json));
+        }
+
+        for (PoolFragmentation pool : result) {
+            PoolFragmentationEvent event = new PoolFragmentationEvent();
+            if (event.shouldCommit()) {
+                event.pool = pool.name();
+                event.memoryType = pool.memoryType();
+                event.blockCount = pool.blockCount();
+                event.totalBytes = pool.totalBytes();
+                event.unusedBytes = pool.unusedBytes();
+                event.unusedRangeCount = pool.unusedRangeCount();
+                event.largestUnusedRange = pool.largestUnusedRange();
+                event.fragmentation = pool.fragmentation();
+                event.commit();
+            }
+        }
+        lastFragmentation = result;
+        return result;
+    }
+
+    /// Parses the JSON written by {@link VMA#buildStatsString} with {@code detailedMap} set into
+    /// per-pool metrics, reading {@code json} in place. Parsing stops at the first NUL byte.
+    ///
+    /// @throws IllegalArgumentException if {@code json} is not valid JSON
+    public static @NotNull List<PoolFragmentation> parseFragmentation(@NotNull MemorySegment json) {
+        StatsJsonReader reader = new StatsJsonReader(json);
+        ArrayList<PoolFragmentation> result = new ArrayList<>();
+        expect(reader, StatsJsonReader.BEGIN_OBJECT);
+        while (reader.next() == StatsJsonReader.NAME) {
+            if (reader.textEquals("DefaultPools")) {
+                parsePoolGroup(reader, false, result);
+            } else if (reader.textEquals("CustomPools")) {
+                parsePoolGroup(reader, true, result);
+            } else {
+                reader.skipValue(reader.next());
+            }
+        }
+        return result;
+    }
+
+    public int heapCount() {
+        return heapCount;
+    }
+
+    public @Unsigned long heapSize(int heap) {
+        return heapSizes[heap];
+    }
+
+    /// Number of samples in the history, at most the history length.
+    public int historySize() {
+        return (int) Math.min(sampleCount, historyLength);
+    }
+
+    /// {@link System#nanoTime} of a sample, {@code 0} being the latest.
+    public long timestamp(int age) {
+        return timestamps[slot(age)];
+    }
+
+    /// Usage of {@code heap} at a sample, {@code 0} being the latest.
+    public @Unsigned long usage(int heap, int age) {
+        return usageHistory[slot(age) * heapCount + heap];
+    }
+
+    /// Budget of {@code heap} at a sample, {@code 0} being the latest.
+    public @Unsigned long budget(int heap, int age) {
+        return budgetHistory[slot(age) * heapCount + heap];
+    }
+
+    /// Latest usage of {@code heap}.
+    public @Unsigned long usage(int heap) {
+        return usage(heap, 0);
+    }
+
+    /// Latest budget of {@code heap}.
+    public @Unsigned long budget(int heap) {
+        return budget(heap, 0);
+    }
+
+    /// Copies the usage history of {@code heap} into {@code dst}, oldest first.
+    ///
+    /// @return number of samples copied
+    public int copyUsageHistory(int heap, long @NotNull [] dst) {
+        return copyHistory(usageHistory, heap, dst);
+    }
+
+    /// Copies the budget history of {@code heap} into {@code dst}, oldest first.
+    ///
+    /// @return number of samples copied
+    public int copyBudgetHistory(int heap, long @NotNull [] dst) {
+        return copyHistory(budgetHistory, heap, dst);
+    }
+
+    /// Memory allocated by VMA from Vulkan on {@code heap}, as of the latest sample.
+    public @Unsigned long blockBytes(int heap) {
+        return blockBytes[heap];
+    }
+
+    /// Memory occupied by VMA allocations on {@code heap}, as of the latest sample.
+    public @Unsigned long allocationBytes(int heap) {
+        return allocationBytes[heap];
+    }
+
+    public int allocationCount(int heap) {
+        return allocationCounts[heap];
+    }
+
+    /// Number of free ranges on {@code heap}, as of the latest {@link VMA#calculateStatistics}.
+    public int unusedRangeCount(int heap) {
+        return unusedRangeCounts[heap];
+    }
+
+    /// Largest free range on {@code heap}, as of the latest {@link VMA#calculateStatistics}.
+    public @Unsigned long largestUnusedRange(int heap) {
+        return largestUnusedRanges[heap];
+    }
+
+    public int poolCount() {
+        return pools.size();
+    }
+
+    public @NotNull String poolName(int index) {
+        return pools.get(index).name;
+    }
+
+    public int poolBlockCount(int index) {
+        return pools.get(index).blockCount;
+    }
+
+    public int poolAllocationCount(int index) {
+        return pools.get(index).allocationCount;
+    }
+
+    public @Unsigned long poolBlockBytes(int index) {
+        return pools.get(index).blockBytes;
+    }
+
+    public @Unsigned long poolAllocationBytes(int index) {
+        return pools.get(index).allocationBytes;
+    }
+
+    /// Result of the latest {@link #analyzeFragmentation}, empty if it never ran.
+    public @NotNull List<PoolFragmentation> lastFragmentation() {
+        return lastFragmentation;
+    }
+
+    @Override
+    public void close() {
+        arena.close();
+    }
+
+    private static final class TrackedPool {
+        TrackedPool(VmaPool pool, String name) {
+            this.pool = pool;
+            this.name = name;
+        }
+
+        final VmaPool pool;
+        final String name;
+        int blockCount;
+        int allocationCount;
+        long blockBytes;
+        long allocationBytes;
+    }
+
+    private void sample(long now) {
+        int slot = (int) (sampleCount % historyLength);
+        sampleCount++;
+        lastSampleNanos = now;
+        timestamps[slot] = now;
+
+        vma.getHeapBudgets(allocator, budgets);
+        for (int heap = 0; heap < heapCount; heap++) {
+            VmaBudget budget = budgets.at(heap);
+            VmaStatistics statistics = budget.statistics();
+            long usage = budget.usage();
+            long budgetBytes = budget.budget();
+            usageHistory[slot * heapCount + heap] = usage;
+            budgetHistory[slot * heapCount + heap] = budgetBytes;
+            blockBytes[heap] = statistics.blockBytes();
+            allocationBytes[heap] = statistics.allocationBytes();
+            allocationCounts[heap] = statistics.allocationCount();
+
+            HeapBudgetEvent event = new HeapBudgetEvent();
+            if (event.shouldCommit()) {
+                event.heap = heap;
+                event.usage = usage;
+                event.budget = budgetBytes;
+                event.blockBytes = blockBytes[heap];
+                event.allocationBytes = allocationBytes[heap];
+                event.allocationCount = allocationCounts[heap];
+                event.commit();
+            }
+            checkThresholds(heap, usage, budgetBytes);
+        }
+
+        for (TrackedPool pool : pools) {
+            vma.getPoolStatistics(allocator, pool.pool, poolStatistics);
+            pool.blockCount = poolStatistics.blockCount();
+            pool.allocationCount = poolStatistics.allocationCount();
+            pool.blockBytes = poolStatistics.blockBytes();
+            pool.allocationBytes = poolStatistics.allocationBytes();
+
+            PoolStatisticsEvent event = new PoolStatisticsEvent();
+            if (event.shouldCommit()) {
+                event.pool = pool.name;
+                event.blockCount = pool.blockCount;
+                event.allocationCount = pool.allocationCount;
+                event.blockBytes = pool.blockBytes;
+                event.allocationBytes = pool.allocationBytes;
+                event.commit();
+            }
+        }
+
+        if (statisticsEvery != 0 && (sampleCount - 1) % statisticsEvery == 0) {
+            vma.calculateStatistics(allocator, totalStatistics);
+            VmaDetailedStatistics.Ptr heaps = totalStatistics.memoryHeap();
+            for (int heap = 0; heap < heapCount; heap++) {
+                VmaDetailedStatistics detailed = heaps.at(heap);
+                unusedRangeCounts[heap] = detailed.unusedRangeCount();
+                largestUnusedRanges[heap] = detailed.unusedRangeSizeMax();
+            }
+        }
+
+        if (fragmentationEvery != 0 && (sampleCount - 1) % fragmentationEvery == 0) {
+            analyzeFragmentation();
+        }
+    }
+
+    private void checkThresholds(int heap, long usage, long budget) {
+        if (budget == 0) {
+            return;
+        }
+        double fraction = (double) usage / (double) budget;
+        for (int i = 0; i < thresholds.length; i++) {
+            double threshold = thresholds[i];
+            int index = i * heapCount + heap;
+            boolean exceeded = thresholdExceeded[index];
+            if (!exceeded && fraction > threshold) {
+                thresholdExceeded[index] = true;
+                fireThreshold(i, heap, threshold, usage, budget, true);
+            } else if (exceeded && fraction < threshold - THRESHOLD_REARM_MARGIN) {
+                thresholdExceeded[index] = false;
+                fireThreshold(i, heap, threshold, usage, budget, false);
+            }
+        }
+    }
+
+    private void fireThreshold(int index, int heap, double threshold, long usage, long budget, boolean exceeded) {
+        BudgetThresholdEvent event = new BudgetThresholdEvent();
+        if (event.shouldCommit()) {
+            event.heap = heap;
+            event.threshold = threshold;
+            event.exceeded = exceeded;
+            event.usage = usage;
+            event.budget = budget;
+            event.commit();
+        }
+        thresholdListeners.get(index).onThreshold(heap, threshold, usage, budget, exceeded);
+    }
+
+    private int slot(int age) {
+        if (age < 0 || age >= historySize()) {
+            throw new IndexOutOfBoundsException("Sample " + age + " not in history of size " + historySize());
+        }
+        return (int) ((sampleCount - 1 - age) % historyLength);
+    }
+
+    private int copyHistory(long[] history, int heap, long[] dst) {
+        int count = Math.min(historySize(), dst.length);
+        for (int i = 0; i < count; i++) {
+            dst[i] = history[slot(count - 1 - i) * heapCount + heap];
+        }
+        return count;
+    }
+
+    private static void expect(StatsJsonReader reader, int token) {
+        if (reader.next() != token) {
+            throw new IllegalArgumentException("Unexpected structure in VMA statistics string");
+        }
+    }
+
+    /// {@code "DefaultPools": {"Type 0": {pool}, ...}} or
+    /// {@code "CustomPools": {"Type 0": [{pool}, ...], ...}}
+    private static void parsePoolGroup(StatsJsonReader reader, boolean custom, ArrayList<PoolFragmentation> result) {
+        expect(reader, StatsJsonReader.BEGIN_OBJECT);
+        while (reader.next() == StatsJsonReader.NAME) {
+            int memoryType = parseMemoryType(reader.text());
+            int token = reader.next();
+            if (!custom && token == StatsJsonReader.BEGIN_OBJECT) {
+                result.add(parsePool(reader, memoryType));
+            } else if (custom && token == StatsJsonReader.BEGIN_ARRAY) {
+                while ((token = reader.next()) == StatsJsonReader.BEGIN_OBJECT) {
+                    result.add(parsePool(reader, memoryType));
+                }
+                if (token != StatsJsonReader.END_ARRAY) {
+                    throw new IllegalArgumentException("Unexpected structure in VMA statistics string");
+                }
+            } else {
+                reader.skipValue(token);
+            }
+        }
+    }
+
+    /// Reads a pool object whose opening brace has been consumed.
+    private static PoolFragmentation parsePool(StatsJsonReader reader, int memoryType) {
+        String name = "Default";
+        int blockCount = 0;
+        long totalBytes = 0;
+        long unusedBytes = 0;
+        int allocationCount = 0;
+        int unusedRangeCount = 0;
+        long largestUnusedRange = 0;
+        int dedicatedAllocationCount = 0;
+
+        while (reader.next() == StatsJsonReader.NAME) {
+            if (reader.textEquals("Name")) {
+                int token = reader.next();
+                if (token == StatsJsonReader.STRING) {
+                    name = reader.text();
+                } else {
+                    reader.skipValue(token);
+                }
+            } else if (reader.textEquals("Blocks")) {
+                expect(reader, StatsJsonReader.BEGIN_OBJECT);
+                while (reader.next() == StatsJsonReader.NAME) {
+                    expect(reader, StatsJsonReader.BEGIN_OBJECT);
+                    blockCount++;
+                    // TotalBytes, UnusedBytes, Allocations, UnusedRanges, Suballocations
+                    while (reader.next() == StatsJsonReader.NAME) {
+                        if (reader.textEquals("TotalBytes")) {
+                            totalBytes += reader.nextNumber();
+                        } else if (reader.textEquals("UnusedBytes")) {
+                            unusedBytes += reader.nextNumber();
+                        } else if (reader.textEquals("Allocations")) {
+                            allocationCount += (int) reader.nextNumber();
+                        } else if (reader.textEquals("UnusedRanges")) {
+                            unusedRangeCount += (int) reader.nextNumber();
+                        } else if (reader.textEquals("Suballocations")) {
+                            largestUnusedRange = Math.max(largestUnusedRange, parseLargestFreeRange(reader));
+                        } else {
+                            reader.skipValue(reader.next());
+                        }
+                    }
+                }
+            } else if (reader.textEquals("DedicatedAllocations")) {
+                int token = reader.next();
+                if (token == StatsJsonReader.BEGIN_ARRAY) {
+                    while ((token = reader.next()) != StatsJsonReader.END_ARRAY) {
+                        reader.skipValue(token);
+                        dedicatedAllocationCount++;
+                    }
+                } else {
+                    reader.skipValue(token);
+                }
+            } else {
+                reader.skipValue(reader.next());
+            }
+        }
+
+        return new PoolFragmentation(
+                name,
+                memoryType,
+                blockCount,
+                totalBytes,
+                unusedBytes,
+                allocationCount,
+                unusedRangeCount,
+                largestUnusedRange,
+                dedicatedAllocationCount
+        );
+    }
+
+    /// {@code [{"Offset": 0, "Type": "FREE", "Size": 256}, ...]}
+    private static long parseLargestFreeRange(StatsJsonReader reader) {
+        long largest = 0;
+        expect(reader, StatsJsonReader.BEGIN_ARRAY);
+        while (reader.next() == StatsJsonReader.BEGIN_OBJECT) {
+            boolean free = false;
+            long size = 0;
+            while (reader.next() == StatsJsonReader.NAME) {
+                if (reader.textEquals("Type")) {
+                    int token = reader.next();
+                    free = token == StatsJsonReader.STRING && reader.textEquals("FREE");
+                } else if (reader.textEquals("Size")) {
+                    size = reader.nextNumber();
+                } else {
+                    reader.skipValue(reader.next());
+                }
+            }
+            if (free) {
+                largest = Math.max(largest, size);
+            }
+        }
+        return largest;
+    }
+
+    private static int parseMemoryType(String name) {
+        // "Type 3"
+        int space = name.lastIndexOf(' ');
+        try {
+            return Integer.parseInt(name.substring(space + 1));
+        } catch (NumberFormatException _) {
+            return -1;
+        }
+    }
+
+    private static final long DEFAULT_INTERVAL_NANOS = 1_000_000_000L;
+    private static final double THRESHOLD_REARM_MARGIN = 0.02;
+
+    private final VMA vma;
+    private final VmaAllocator allocator;
+    private final int heapCount;
+    private final long[] heapSizes;
+    private final int historyLength;
+    private long intervalNanos = DEFAULT_INTERVAL_NANOS;
+    private int statisticsEvery = 10;
+    private int fragmentationEvery = 0;
+
+    private long sampleCount;
+    private long lastSampleNanos;
+    private final long[] timestamps;
+    private final long[] usageHistory;
+    private final long[] budgetHistory;
+    private final long[] blockBytes;
+    private final long[] allocationBytes;
+    private final int[] allocationCounts;
+    private final int[] unusedRangeCounts;
+    private final long[] largestUnusedRanges;
+
+    private double[] thresholds = new double[0];
+    private final ArrayList<ThresholdListener> thresholdListeners = new ArrayList<>();
+    private boolean[] thresholdExceeded = new boolean[0];
+    private final ArrayList<TrackedPool> pools = new ArrayList<>();
+    private List<PoolFragmentation> lastFragmentation = List.of();
+
+    private final Arena arena = Arena.ofShared();
+    private final VmaBudget.Ptr budgets;
+    private final VmaTotalStatistics totalStatistics;
+    private final VmaStatistics poolStatistics;
+    private final PointerPtr pStatsString;
+}
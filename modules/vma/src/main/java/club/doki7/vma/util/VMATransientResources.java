@@ -0,0 +1,301 @@
+package club.doki7.vma.util;
+
+import club.doki7.ffm.ptr.PointerPtr;
+import club.doki7.vma.VMA;
+import club.doki7.vma.bitmask.VmaAllocationCreateFlags;
+import club.doki7.vma.datatype.VmaAllocationCreateInfo;
+import club.doki7.vma.handle.VmaAllocation;
+import club.doki7.vma.handle.VmaAllocator;
+import club.doki7.vulkan.bitmask.VkMemoryPropertyFlags;
+import club.doki7.vulkan.command.VkDeviceCommands;
+import club.doki7.vulkan.datatype.VkBufferCreateInfo;
+import club.doki7.vulkan.datatype.VkDeviceBufferMemoryRequirements;
+import club.doki7.vulkan.datatype.VkDeviceImageMemoryRequirements;
+import club.doki7.vulkan.datatype.VkImageCreateInfo;
+import club.doki7.vulkan.datatype.VkMemoryRequirements;
+import club.doki7.vulkan.datatype.VkMemoryRequirements2;
+import club.doki7.vulkan.datatype.VkPhysicalDeviceProperties;
+import club.doki7.vulkan.enumtype.VkResult;
+import club.doki7.vulkan.handle.VkBuffer;
+import club.doki7.vulkan.handle.VkDevice;
+import club.doki7.vulkan.handle.VkImage;
+import club.doki7.vulkan.util.AliasingPlanner;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.ArrayList;
+import java.util.Objects;
+
+/// Creates transient images and buffers in shared, aliased VMA allocations placed by an
+/// {@link AliasingPlanner}.
+///
+/// Resources are declared with their create info and the interval of passes using them.
+/// {@link #build()} queries their memory requirements, plans the placement, allocates one VMA
+/// allocation per planned heap with {@link VMA#allocateMemory} and creates every resource at its
+/// offset with {@link VMA#createAliasingImage2} / {@link VMA#createAliasingBuffer2}.
+///
+/// {@snippet :
+/// VMATransientResources transients = new VMATransientResources(deviceCommands, device, vma, allocator, null);
+/// int gBufferAlbedo = transients.addImage(albedoCreateInfo, 0, 2);
+/// int bloomScratch = transients.addImage(bloomCreateInfo, 3, 4);
+/// transients.build();
+///
+/// VkImage albedo = transients.image(gBufferAlbedo);
+/// }
+///
+/// Create infos are copied when added, but the memory they point to ({@code pNext} chains,
+/// {@code pQueueFamilyIndices}) must stay valid until {@link #build()} returns. Memory
+/// requirements come from {@code vkGetDeviceImageMemoryRequirements} and
+/// {@code vkGetDeviceBufferMemoryRequirements} when available (Vulkan 1.3 or
+/// {@code VK_KHR_maintenance4}), otherwise from a temporary resource. Every alignment is raised to
+/// at least {@code bufferImageGranularity}, so buffers and optimal-tiling images can share a heap.
+///
+/// Since aliased resources share memory, the first use of a resource in a frame must treat its
+/// previous contents as undefined (e.g. {@code oldLayout = UNDEFINED}). Not thread safe.
+public final class VMATransientResources implements AutoCloseable {
+    /// @param allocationCreateInfo template for the heap allocations, {@code null} for device
+    ///                             local memory
+    public VMATransientResources(
+            @NotNull VkDeviceCommands deviceCommands,
+            @NotNull VkDevice device,
+            @NotNull VMA vma,
+            @NotNull VmaAllocator allocator,
+            @Nullable VmaAllocationCreateInfo allocationCreateInfo
+    ) {
+        this.deviceCommands = deviceCommands;
+        this.device = device;
+        this.vma = vma;
+        this.allocator = allocator;
+        this.allocationCreateInfo = VmaAllocationCreateInfo.allocate(arena);
+        if (allocationCreateInfo != null) {
+            this.allocationCreateInfo.segment().copyFrom(allocationCreateInfo.segment());
+        } else {
+            this.allocationCreateInfo.requiredFlags(VkMemoryPropertyFlags.DEVICE_LOCAL);
+        }
+        this.allocationCreateInfo.flags(this.allocationCreateInfo.flags() | VmaAllocationCreateFlags.CAN_ALIAS);
+    }
+
+    /// Declares an image used by passes {@code firstUse} to {@code lastUse}, returns its index.
+    public int addImage(@NotNull VkImageCreateInfo createInfo, int firstUse, int lastUse) {
+        return add(createInfo.segment(), VkImageCreateInfo.BYTES, true, firstUse, lastUse);
+    }
+
+    /// Declares a buffer used by passes {@code firstUse} to {@code lastUse}, returns its index.
+    public int addBuffer(@NotNull VkBufferCreateInfo createInfo, int firstUse, int lastUse) {
+        return add(createInfo.segment(), VkBufferCreateInfo.BYTES, false, firstUse, lastUse);
+    }
+
+    /// Plans the placement, allocates memory and creates all declared resources.
+    ///
+    /// @return the plan, for statistics
+    /// @throws IllegalStateException if already built
+    /// @throws RuntimeException if a Vulkan or VMA call fails; resources created so far are
+    ///                          destroyed by {@link #close()}
+    public @NotNull AliasingPlanner.Plan build() {
+        if (plan != null) {
+            throw new IllegalStateException("Transient resources already built");
+        }
+
+        AliasingPlanner planner = new AliasingPlanner(Long.MAX_VALUE);
+        try (Arena scratch = Arena.ofConfined()) {
+            // buffers and optimal-tiling images share heaps, so no two neighbours may share a page
+            PointerPtr pProperties = PointerPtr.allocate(scratch);
+            vma.getPhysicalDeviceProperties(allocator, pProperties);
+            long granularity = new VkPhysicalDeviceProperties(
+                    pProperties.read().reinterpret(VkPhysicalDeviceProperties.BYTES)
+            ).limits().bufferImageGranularity();
+
+            VkMemoryRequirements requirements = VkMemoryRequirements.allocate(scratch);
+            for (Declaration declaration : declarations) {
+                queryRequirements(declaration, requirements, scratch);
+                planner.add(
+                        declaration.firstUse,
+                        declaration.lastUse,
+                        requirements.size(),
+                        Math.max(requirements.alignment(), granularity),
+                        requirements.memoryTypeBits()
+                );
+            }
+            AliasingPlanner.Plan plan = planner.plan();
+            this.plan = plan;
+
+            VkMemoryRequirements heapRequirements = VkMemoryRequirements.allocate(scratch);
+            VmaAllocation.Ptr pAllocation = VmaAllocation.Ptr.allocate(scratch);
+            for (int h = 0; h < plan.heapCount(); h++) {
+                heapRequirements
+                        .size(plan.heapSize(h))
+                        .alignment(plan.heapAlignment(h))
+                        .memoryTypeBits(plan.heapMemoryTypeBits(h));
+                int result = vma.allocateMemory(allocator, heapRequirements, allocationCreateInfo, pAllocation, null);
+                if (result != VkResult.SUCCESS) {
+                    throw new RuntimeException("Failed to allocate transient heap: " + VkResult.explain(result));
+                }
+                heaps.add(Objects.requireNonNull(pAllocation.read()));
+            }
+
+            VkImage.Ptr pImage = VkImage.Ptr.allocate(scratch);
+            VkBuffer.Ptr pBuffer = VkBuffer.Ptr.allocate(scratch);
+            for (int i = 0; i < declarations.size(); i++) {
+                Declaration declaration = declarations.get(i);
+                VmaAllocation heap = heaps.get(plan.heapOf(i));
+                long offset = plan.offsetOf(i);
+                int result;
+                if (declaration.image) {
+                    result = vma.createAliasingImage2(
+                            allocator,
+                            heap,
+                            offset,
+                            new VkImageCreateInfo(declaration.createInfo),
+                            pImage
+                    );
+                    if (result == VkResult.SUCCESS) {
+                        declaration.handle = Objects.requireNonNull(pImage.read()).segment();
+                    }
+                } else {
+                    result = vma.createAliasingBuffer2(
+                            allocator,
+                            heap,
+                            offset,
+                            new VkBufferCreateInfo(declaration.createInfo),
+                            pBuffer
+                    );
+                    if (result == VkResult.SUCCESS) {
+                        declaration.handle = Objects.requireNonNull(pBuffer.read()).segment();
+                    }
+                }
+                if (result != VkResult.SUCCESS) {
+                    throw new RuntimeException("Failed to create aliasing resource: " + VkResult.explain(result));
+                }
+            }
+            return plan;
+        }
+    }
+
+    /// The image declared with index {@code index}, available after {@link #build()}.
+    public @NotNull VkImage image(int index) {
+        Declaration declaration = built(index);
+        if (!declaration.image) {
+            throw new IllegalArgumentException("Transient resource " + index + " is a buffer");
+        }
+        return new VkImage(declaration.handle);
+    }
+
+    /// The buffer declared with index {@code index}, available after {@link #build()}.
+    public @NotNull VkBuffer buffer(int index) {
+        Declaration declaration = built(index);
+        if (declaration.image) {
+            throw new IllegalArgumentException("Transient resource " + index + " is an image");
+        }
+        return new VkBuffer(declaration.handle);
+    }
+
+    /// Destroys all resources and frees the heaps. The GPU must no longer use them.
+    @Override
+    public void close() {
+        for (Declaration declaration : declarations) {
+            if (declaration.handle != null) {
+                if (declaration.image) {
+                    vma.destroyImage(allocator, new VkImage(declaration.handle), null);
+                } else {
+                    vma.destroyBuffer(allocator, new VkBuffer(declaration.handle), null);
+                }
+                declaration.handle = null;
+            }
+        }
+        for (VmaAllocation heap : heaps) {
+            vma.freeMemory(allocator, heap);
+        }
+        heaps.clear();
+        arena.close();
+    }
+
+    private int add(MemorySegment createInfo, long bytes, boolean image, int firstUse, int lastUse) {
+        if (plan != null) {
+            throw new IllegalStateException("Transient resources already built");
+        }
+        if (lastUse < firstUse) {
+            throw new IllegalArgumentException("lastUse " + lastUse + " is before firstUse " + firstUse);
+        }
+        MemorySegment copy = arena.allocate(bytes, 8);
+        copy.copyFrom(createInfo.asSlice(0, bytes));
+        declarations.add(new Declaration(copy, image, firstUse, lastUse));
+        return declarations.size() - 1;
+    }
+
+    private void queryRequirements(Declaration declaration, VkMemoryRequirements out, Arena scratch) {
+        if (declaration.image) {
+            VkImageCreateInfo createInfo = new VkImageCreateInfo(declaration.createInfo);
+            if (deviceCommands.HANDLE$vkGetDeviceImageMemoryRequirements != null) {
+                VkDeviceImageMemoryRequirements info = VkDeviceImageMemoryRequirements.allocate(scratch)
+                        .pCreateInfo(createInfo);
+                VkMemoryRequirements2 requirements2 = VkMemoryRequirements2.allocate(scratch);
+                deviceCommands.getDeviceImageMemoryRequirements(device, info, requirements2);
+                out.segment().copyFrom(requirements2.memoryRequirements().segment());
+                return;
+            }
+
+            VkImage.Ptr pImage = VkImage.Ptr.allocate(scratch);
+            int result = deviceCommands.createImage(device, createInfo, null, pImage);
+            if (result != VkResult.SUCCESS) {
+                throw new RuntimeException("Failed to create image: " + VkResult.explain(result));
+            }
+            VkImage image = Objects.requireNonNull(pImage.read());
+            deviceCommands.getImageMemoryRequirements(device, image, out);
+            deviceCommands.destroyImage(device, image, null);
+        } else {
+            VkBufferCreateInfo createInfo = new VkBufferCreateInfo(declaration.createInfo);
+            if (deviceCommands.HANDLE$vkGetDeviceBufferMemoryRequirements != null) {
+                VkDeviceBufferMemoryRequirements info = VkDeviceBufferMemoryRequirements.allocate(scratch)
+                        .pCreateInfo(createInfo);
+                VkMemoryRequirements2 requirements2 = VkMemoryRequirements2.allocate(scratch);
+                deviceCommands.getDeviceBufferMemoryRequirements(device, info, requirements2);
+                out.segment().copyFrom(requirements2.memoryRequirements().segment());
+                return;
+            }
+
+            VkBuffer.Ptr pBuffer = VkBuffer.Ptr.allocate(scratch);
+            int result = deviceCommands.createBuffer(device, createInfo, null, pBuffer);
+            if (result != VkResult.SUCCESS) {
+                throw new RuntimeException("Failed to create buffer: " + VkResult.explain(result));
+            }
+            VkBuffer buffer = Objects.requireNonNull(pBuffer.read());
+            deviceCommands.getBufferMemoryRequirements(device, buffer, out);
+            deviceCommands.destroyBuffer(device, buffer, null);
+        }
+    }
+
+    private Declaration built(int index) {
+        Declaration declaration = declarations.get(index);
+        if (declaration.handle == null) {
+            throw new IllegalStateException("Transient resources not built");
+        }
+        return declaration;
+    }
+
+    private static final class Declaration {
+        Declaration(MemorySegment createInfo, boolean image, int firstUse, int lastUse) {
+            this.createInfo = createInfo;
+            this.image = image;
+            this.firstUse = firstUse;
+            this.lastUse = lastUse;
+        }
+
+        final MemorySegment createInfo;
+        final boolean image;
+        final int firstUse;
+        final int lastUse;
+        @Nullable MemorySegment handle;
+    }
+
+    private final VkDeviceCommands deviceCommands;
+    private final VkDevice device;
+    private final VMA vma;
+    private final VmaAllocator allocator;
+    private final Arena arena = Arena.ofShared();
+    private final VmaAllocationCreateInfo allocationCreateInfo;
+    private final ArrayList<Declaration> declarations = new ArrayList<>();
+    private final ArrayList<VmaAllocation> heaps = new ArrayList<>();
+    private @Nullable AliasingPlanner.Plan plan;
+}
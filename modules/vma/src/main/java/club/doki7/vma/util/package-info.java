@@ -0,0 +1,5 @@
+/// Hand-written helpers built on top of the generated VMA bindings.
+///
+/// Unless otherwise noted, objects here do not own the {@link club.doki7.vma.handle.VmaAllocator}
+/// they are created with, and must be closed before the allocator is destroyed.
+package club.doki7.vma.util;
@@ -22,8 +22,10 @@ module club.doki7.vma {
     exports club.doki7.vma.datatype;
     exports club.doki7.vma.enumtype;
     exports club.doki7.vma.handle;
+    exports club.doki7.vma.util;
 
     requires org.jetbrains.annotations;
     requires club.doki7.ffm;
     requires club.doki7.vulkan;
+    requires jdk.jfr;
 }
@@ -0,0 +1,242 @@
+package club.doki7.vma.test.util;
+
+import club.doki7.vma.VMA;
+import club.doki7.vma.datatype.VmaDefragmentationMove;
+import club.doki7.vma.datatype.VmaDefragmentationPassMoveInfo;
+import club.doki7.vma.enumtype.VmaDefragmentationMoveOperation;
+import club.doki7.vma.handle.VmaAllocation;
+import club.doki7.vma.handle.VmaAllocator;
+import club.doki7.vma.util.VMADefragmenter;
+import club.doki7.vulkan.bitmask.VkBufferUsageFlags;
+import club.doki7.vulkan.command.VkDeviceCommands;
+import club.doki7.vulkan.datatype.VkBufferCopy;
+import club.doki7.vulkan.datatype.VkBufferCreateInfo;
+import club.doki7.vulkan.enumtype.VkResult;
+import club.doki7.vulkan.handle.VkBuffer;
+import club.doki7.vulkan.handle.VkCommandBuffer;
+import club.doki7.vulkan.handle.VkDevice;
+import club.doki7.vulkan.handle.VkImage;
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestVMADefragmenter {
+    @Test
+    void testRegisteredBufferIsMoved() throws Exception {
+        calls.clear();
+        List<String> remapped = new ArrayList<>();
+        VMADefragmenter.RemapListener listener = new VMADefragmenter.RemapListener() {
+            @Override
+            public void bufferMoved(VmaAllocation allocation, VkBuffer oldBuffer, VkBuffer newBuffer) {
+                remapped.add("buffer " + hex(allocation.segment()) + " " + hex(oldBuffer.segment())
+                        + " -> " + hex(newBuffer.segment()));
+            }
+
+            @Override
+            public void imageMoved(VmaAllocation allocation, VkImage oldImage, VkImage newImage) {
+                remapped.add("image " + hex(allocation.segment()));
+            }
+        };
+
+        try (Arena arena = Arena.ofConfined()) {
+            // one registered allocation and one VMA chose to move but nobody registered
+            moves = VmaDefragmentationMove.allocate(arena, 2);
+            move(moves.at(0), REGISTERED, REGISTERED_DESTINATION);
+            move(moves.at(1), UNREGISTERED, UNREGISTERED_DESTINATION);
+
+            VkBufferCreateInfo createInfo = VkBufferCreateInfo.allocate(arena)
+                    .size(4096)
+                    .usage(VkBufferUsageFlags.TRANSFER_SRC | VkBufferUsageFlags.TRANSFER_DST);
+            try (VMADefragmenter defragmenter = new VMADefragmenter(
+                    stubVMA(arena),
+                    ALLOCATOR,
+                    stubDeviceCommands(arena),
+                    DEVICE,
+                    listener
+            )) {
+                defragmenter.registerBuffer(
+                        new VmaAllocation(MemorySegment.ofAddress(REGISTERED)),
+                        new VkBuffer(MemorySegment.ofAddress(OLD_BUFFER)),
+                        createInfo
+                );
+                defragmenter.begin(null, 0, 0, 0, 0);
+                assertTrue(defragmenter.isActive());
+
+                assertEquals(1, defragmenter.recordPass(COMMAND_BUFFER, 7));
+                assertTrue(defragmenter.isPassPending());
+                assertEquals(VmaDefragmentationMoveOperation.COPY, moves.at(0).operation());
+                assertEquals(VmaDefragmentationMoveOperation.IGNORE, moves.at(1).operation());
+                assertEquals(List.of(
+                        "buffer 0xa100 0xb001 -> 0xb002"
+                ), remapped);
+
+                // the old buffer survives until the frame that copies from it has completed
+                assertFalse(defragmenter.collect(6));
+                assertTrue(defragmenter.collect(7));
+                assertFalse(defragmenter.isActive());
+            }
+        }
+
+        assertEquals(List.of(
+                "vmaBeginDefragmentation",
+                "vmaBeginDefragmentationPass",
+                "vkCreateBuffer 0xb002",
+                // bound to the destination allocation, not to an address inside the move array
+                "vmaBindBufferMemory 0xa200 0xb002",
+                "vkCmdPipelineBarrier",
+                "vkCmdCopyBuffer 0xb001 -> 0xb002 4096",
+                "vkCmdPipelineBarrier",
+                "vmaEndDefragmentationPass",
+                "vkDestroyBuffer 0xb001",
+                "vmaEndDefragmentation"
+        ), calls);
+    }
+
+    private static void move(VmaDefragmentationMove move, long source, long destination) {
+        move.operation(VmaDefragmentationMoveOperation.COPY);
+        move.segment().set(ValueLayout.ADDRESS, VmaDefragmentationMove.OFFSET$srcAllocation, MemorySegment.ofAddress(source));
+        move.segment().set(ValueLayout.ADDRESS, VmaDefragmentationMove.OFFSET$dstTmpAllocation, MemorySegment.ofAddress(destination));
+    }
+
+    private static VMA stubVMA(Arena arena) throws ReflectiveOperationException {
+        Map<String, MemorySegment> stubs = new HashMap<>();
+        stubs.put("vmaBeginDefragmentation", stub(
+                arena, "beginDefragmentation", VMA.Descriptors.DESCRIPTOR$vmaBeginDefragmentation
+        ));
+        stubs.put("vmaEndDefragmentation", stub(
+                arena, "endDefragmentation", VMA.Descriptors.DESCRIPTOR$vmaEndDefragmentation
+        ));
+        stubs.put("vmaBeginDefragmentationPass", stub(
+                arena, "beginDefragmentationPass", VMA.Descriptors.DESCRIPTOR$vmaBeginDefragmentationPass
+        ));
+        stubs.put("vmaEndDefragmentationPass", stub(
+                arena, "endDefragmentationPass", VMA.Descriptors.DESCRIPTOR$vmaEndDefragmentationPass
+        ));
+        stubs.put("vmaBindBufferMemory", stub(
+                arena, "bindBufferMemory", VMA.Descriptors.DESCRIPTOR$vmaBindBufferMemory
+        ));
+        return new VMA(name -> stubs.getOrDefault(name, MemorySegment.NULL));
+    }
+
+    private static VkDeviceCommands stubDeviceCommands(Arena arena) throws ReflectiveOperationException {
+        Map<String, MemorySegment> stubs = new HashMap<>();
+        stubs.put("vkCreateBuffer", stub(arena, "createBuffer", VkDeviceCommands.Descriptors.DESCRIPTOR$vkCreateBuffer));
+        stubs.put("vkDestroyBuffer", stub(arena, "destroyBuffer", VkDeviceCommands.Descriptors.DESCRIPTOR$vkDestroyBuffer));
+        stubs.put("vkCmdPipelineBarrier", stub(
+                arena, "cmdPipelineBarrier", VkDeviceCommands.Descriptors.DESCRIPTOR$vkCmdPipelineBarrier
+        ));
+        stubs.put("vkCmdCopyBuffer", stub(arena, "cmdCopyBuffer", VkDeviceCommands.Descriptors.DESCRIPTOR$vkCmdCopyBuffer));
+        return new VkDeviceCommands(name -> stubs.getOrDefault(name, MemorySegment.NULL));
+    }
+
+    private static MemorySegment stub(Arena arena, String name, FunctionDescriptor descriptor)
+            throws ReflectiveOperationException {
+        return Linker.nativeLinker().upcallStub(
+                MethodHandles.lookup().findStatic(TestVMADefragmenter.class, name, descriptor.toMethodType()),
+                descriptor,
+                arena
+        );
+    }
+
+    private static int beginDefragmentation(MemorySegment allocator, MemorySegment pInfo, MemorySegment pContext) {
+        calls.add("vmaBeginDefragmentation");
+        pContext.reinterpret(Long.BYTES).set(ValueLayout.JAVA_LONG, 0, 0x5000);
+        return VkResult.SUCCESS;
+    }
+
+    private static void endDefragmentation(MemorySegment allocator, MemorySegment context, MemorySegment pStats) {
+        calls.add("vmaEndDefragmentation");
+    }
+
+    private static int beginDefragmentationPass(MemorySegment allocator, MemorySegment context, MemorySegment pPassInfo) {
+        calls.add("vmaBeginDefragmentationPass");
+        VmaDefragmentationPassMoveInfo passInfo = new VmaDefragmentationPassMoveInfo(
+                pPassInfo.reinterpret(VmaDefragmentationPassMoveInfo.BYTES)
+        );
+        passInfo.moveCount((int) moves.size());
+        passInfo.pMovesRaw(moves.segment());
+        return VkResult.INCOMPLETE;
+    }
+
+    private static int endDefragmentationPass(MemorySegment allocator, MemorySegment context, MemorySegment pPassInfo) {
+        calls.add("vmaEndDefragmentationPass");
+        return VkResult.SUCCESS;
+    }
+
+    private static int bindBufferMemory(MemorySegment allocator, MemorySegment allocation, MemorySegment buffer) {
+        calls.add("vmaBindBufferMemory " + hex(allocation) + " " + hex(buffer));
+        return VkResult.SUCCESS;
+    }
+
+    private static int createBuffer(
+            MemorySegment device,
+            MemorySegment pCreateInfo,
+            MemorySegment pAllocator,
+            MemorySegment pBuffer
+    ) {
+        calls.add("vkCreateBuffer " + hex(MemorySegment.ofAddress(NEW_BUFFER)));
+        pBuffer.reinterpret(Long.BYTES).set(ValueLayout.JAVA_LONG, 0, NEW_BUFFER);
+        return VkResult.SUCCESS;
+    }
+
+    private static void destroyBuffer(MemorySegment device, MemorySegment buffer, MemorySegment pAllocator) {
+        calls.add("vkDestroyBuffer " + hex(buffer));
+    }
+
+    private static void cmdPipelineBarrier(
+            MemorySegment commandBuffer,
+            int srcStageMask,
+            int dstStageMask,
+            int dependencyFlags,
+            int memoryBarrierCount,
+            MemorySegment pMemoryBarriers,
+            int bufferMemoryBarrierCount,
+            MemorySegment pBufferMemoryBarriers,
+            int imageMemoryBarrierCount,
+            MemorySegment pImageMemoryBarriers
+    ) {
+        calls.add("vkCmdPipelineBarrier");
+    }
+
+    private static void cmdCopyBuffer(
+            MemorySegment commandBuffer,
+            MemorySegment srcBuffer,
+            MemorySegment dstBuffer,
+            int regionCount,
+            MemorySegment pRegions
+    ) {
+        assertEquals(1, regionCount);
+        VkBufferCopy region = new VkBufferCopy(pRegions.reinterpret(VkBufferCopy.BYTES));
+        calls.add("vkCmdCopyBuffer " + hex(srcBuffer) + " -> " + hex(dstBuffer) + " " + region.size());
+    }
+
+    private static String hex(MemorySegment handle) {
+        return "0x" + Long.toHexString(handle.address());
+    }
+
+    private static final long REGISTERED = 0xA100;
+    private static final long REGISTERED_DESTINATION = 0xA200;
+    private static final long UNREGISTERED = 0xA300;
+    private static final long UNREGISTERED_DESTINATION = 0xA400;
+    private static final long OLD_BUFFER = 0xB001;
+    private static final long NEW_BUFFER = 0xB002;
+
+    private static final VmaAllocator ALLOCATOR = new VmaAllocator(MemorySegment.ofAddress(0x100));
+    private static final VkDevice DEVICE = new VkDevice(MemorySegment.ofAddress(0x200));
+    private static final VkCommandBuffer COMMAND_BUFFER = new VkCommandBuffer(MemorySegment.ofAddress(0x300));
+    private static final List<String> calls = new ArrayList<>();
+    private static VmaDefragmentationMove.Ptr moves;
+}
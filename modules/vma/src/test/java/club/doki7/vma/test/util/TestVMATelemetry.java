@@ -0,0 +1,201 @@
+package club.doki7.vma.test.util;
+
+import club.doki7.vma.util.VMATelemetry;
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TestVMATelemetry {
+    @Test
+    void testParseFragmentation() {
+        List<VMATelemetry.PoolFragmentation> pools;
+        try (Arena arena = Arena.ofConfined()) {
+            // as returned by vmaBuildStatsString, NUL-terminated and followed by unrelated memory
+            MemorySegment json = nativeString(arena, STATS_STRING + "\0{garbage");
+            pools = VMATelemetry.parseFragmentation(json);
+        }
+
+        assertEquals(4, pools.size());
+        assertEquals(new VMATelemetry.PoolFragmentation(
+                "Default", 0, 2, 1_572_864, 1_245_184, 2, 3, 589_824, 1
+        ), pools.get(0));
+        assertEquals(new VMATelemetry.PoolFragmentation(
+                "Default", 2, 0, 0, 0, 0, 0, 0, 0
+        ), pools.get(1));
+        // the name is decoded, and an allocation named "FREE" is not a free range
+        assertEquals(new VMATelemetry.PoolFragmentation(
+                "Staging \"ring\" / uploads\né", 1, 1, 65_536, 16_384, 3, 2, 12_288, 0
+        ), pools.get(2));
+        assertEquals(new VMATelemetry.PoolFragmentation(
+                "Default", 1, 1, 32_768, 32_768, 0, 1, 32_768, 0
+        ), pools.get(3));
+
+        assertEquals(1.0 - 589_824.0 / 1_245_184.0, pools.get(0).fragmentation(), 1e-12);
+        assertEquals(0.0, pools.get(1).fragmentation());
+        assertEquals(0.25, pools.get(2).fragmentation(), 1e-12);
+        assertEquals(0.0, pools.get(3).fragmentation());
+    }
+
+    @Test
+    void testRejectMalformed() {
+        try (Arena arena = Arena.ofConfined()) {
+            assertThrows(
+                    IllegalArgumentException.class,
+                    () -> VMATelemetry.parseFragmentation(nativeString(arena, "[1, 2]"))
+            );
+            assertThrows(
+                    IllegalArgumentException.class,
+                    () -> VMATelemetry.parseFragmentation(nativeString(arena, "{\"DefaultPools\": {\"Type 0\": {\"Name"))
+            );
+            assertThrows(
+                    IllegalArgumentException.class,
+                    () -> VMATelemetry.parseFragmentation(nativeString(arena, "{\"General\": {\"GPU\": @}}"))
+            );
+        }
+    }
+
+    private static MemorySegment nativeString(Arena arena, String text) {
+        return arena.allocateFrom(text);
+    }
+
+    /// Laid out like the output of VMA 3.2.0 with {@code detailedMap}, including its escapes, trimmed
+    /// to three memory types
+    private static final String STATS_STRING = """
+            {
+             "General": {
+              "API": "Vulkan",
+              "apiVersion": "1.3.280",
+              "GPU": "Test GPU \\"Model\\u00ae\\" \\/ rev. 2",
+              "deviceType": 2,
+              "maxMemoryAllocationCount": 4096,
+              "bufferImageGranularity": 1024,
+              "nonCoherentAtomSize": 64,
+              "memoryHeapCount": 2,
+              "memoryTypeCount": 3
+             },
+             "Total": {
+              "BlockCount": 4,
+              "BlockBytes": 1671168,
+              "AllocationCount": 5,
+              "AllocationBytes": 376832,
+              "UnusedRangeCount": 6,
+              "AllocationSizeMin": 16384,
+              "AllocationSizeMax": 8388608,
+              "UnusedRangeSizeMin": 4096,
+              "UnusedRangeSizeMax": 589824
+             },
+             "MemoryInfo": {
+              "Heap 0": {
+               "Flags": ["DEVICE_LOCAL", "MULTI_INSTANCE"],
+               "Size": 8589934592,
+               "Budget": {
+                "BudgetBytes": 7730941132,
+                "UsageBytes": 9961472
+               },
+               "Stats": {
+                "BlockCount": 2,
+                "BlockBytes": 1572864,
+                "AllocationCount": 2,
+                "AllocationBytes": 327680
+               },
+               "MemoryPools": {
+                "Type 0": {
+                 "Flags": ["DEVICE_LOCAL"],
+                 "Stats": {
+                  "BlockCount": 2,
+                  "BlockBytes": 1572864
+                 }
+                }
+               }
+              }
+             },
+             "DefaultPools": {
+              "Type 0": {
+               "PreferredBlockSize": 268435456,
+               "Blocks": {
+                "0": {
+                 "MapRefCount": 0,
+                 "TotalBytes": 1048576,
+                 "UnusedBytes": 720896,
+                 "Allocations": 2,
+                 "UnusedRanges": 2,
+                 "Suballocations": [
+                  {"Offset": 0, "Type": "BUFFER", "Size": 65536, "Usage": 130},
+                  {"Offset": 65536, "Type": "FREE", "Size": 131072},
+                  {"Offset": 196608, "Type": "IMAGE", "Size": 262144, "Layout": 1, "Usage": 7, "CustomData": "0000000000000000"},
+                  {"Offset": 458752, "Type": "FREE", "Size": 589824}
+                 ]
+                },
+                "3": {
+                 "MapRefCount": 0,
+                 "TotalBytes": 524288,
+                 "UnusedBytes": 524288,
+                 "Allocations": 0,
+                 "UnusedRanges": 1,
+                 "Suballocations": [
+                  {"Offset": 0, "Type": "FREE", "Size": 524288}
+                 ]
+                }
+               },
+               "DedicatedAllocations": [
+                {"Type": "IMAGE", "Size": 8388608, "Name": "shadow map [0]", "Layout": 1, "Usage": 16}
+               ]
+              },
+              "Type 2": {
+               "PreferredBlockSize": 268435456,
+               "Blocks": {
+               },
+               "DedicatedAllocations": [
+               ]
+              }
+             },
+             "CustomPools": {
+              "Type 1": [
+               {
+                "Name": "Staging \\"ring\\" \\/ uploads\\n\\u00e9",
+                "PreferredBlockSize": 65536,
+                "Blocks": {
+                 "1": {
+                  "MapRefCount": 1,
+                  "TotalBytes": 65536,
+                  "UnusedBytes": 16384,
+                  "Allocations": 3,
+                  "UnusedRanges": 2,
+                  "Suballocations": [
+                   {"Offset": 0, "Type": "BUFFER", "Size": 16384, "Name": "vertex \\"data\\"\\t{0}", "Usage": 1},
+                   {"Offset": 16384, "Type": "FREE", "Size": 4096},
+                   {"Offset": 20480, "Type": "BUFFER", "Size": 16384, "Name": "FREE", "Usage": 1},
+                   {"Offset": 36864, "Type": "BUFFER", "Size": 16384, "Usage": 1},
+                   {"Offset": 53248, "Type": "FREE", "Size": 12288}
+                  ]
+                 }
+                },
+                "DedicatedAllocations": [
+                ]
+               },
+               {
+                "PreferredBlockSize": 32768,
+                "Blocks": {
+                 "2": {
+                  "MapRefCount": 0,
+                  "TotalBytes": 32768,
+                  "UnusedBytes": 32768,
+                  "Allocations": 0,
+                  "UnusedRanges": 1,
+                  "Suballocations": [
+                   {"Offset": 0, "Type": "FREE", "Size": 32768}
+                  ]
+                 }
+                },
+                "DedicatedAllocations": [
+                ]
+               }
+              ]
+             }
+            }""";
+}
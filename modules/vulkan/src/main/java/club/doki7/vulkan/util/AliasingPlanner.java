@@ -0,0 +1,334 @@
+package club.doki7.vulkan.util;
+
+import club.doki7.ffm.annotation.Unsigned;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/// Plans memory aliasing for transient resources whose lifetimes are known in advance, such as
+/// the render targets and scratch buffers of a frame graph.
+///
+/// Every resource is described by the interval of passes {@code [firstUse, lastUse]} using it and
+/// its {@code VkMemoryRequirements}. Resources whose intervals do not intersect may share memory.
+/// {@link #plan()} assigns each resource to a heap (one memory allocation) and an offset within
+/// it, so that resources alive at the same time never overlap:
+///
+/// - resources are placed largest first, which keeps small resources from fragmenting the space
+///   large ones need;
+/// - within a heap, a resource goes to the lowest aligned offset not overlapping any placed
+///   resource whose interval intersects its own (first fit over the interval graph neighbours);
+/// - among the heaps with compatible memory types, the one growing the least is chosen, and a new
+///   heap is only opened when no heap is compatible or all would exceed {@code maxHeapSize}.
+///
+/// Planning is pure CPU work over primitive arrays, so it can be tested and benchmarked without a
+/// device. To bind the plan with VMA, see {@code club.doki7.vma.util.VMATransientResources}.
+///
+/// When linear resources (buffers, linear images) and optimal-tiling images may share a heap,
+/// pass alignments of at least {@code VkPhysicalDeviceLimits::bufferImageGranularity} so that
+/// neighbours never share a granularity page.
+///
+/// {@snippet :
+/// AliasingPlanner planner = new AliasingPlanner(Long.MAX_VALUE);
+/// int gBuffer = planner.add(0, 2, requirements.size(), requirements.alignment(), requirements.memoryTypeBits());
+/// int bloom = planner.add(3, 4, bloomSize, bloomAlignment, bloomTypeBits);
+/// AliasingPlanner.Plan plan = planner.plan();
+/// long offset = plan.offsetOf(bloom);
+/// }
+public final class AliasingPlanner {
+    /// The result of {@link #plan()}.
+    public static final class Plan {
+        private Plan(
+                int heapCount,
+                long[] heapSizes,
+                long[] heapAlignments,
+                int[] heapMemoryTypeBits,
+                int[] heapOf,
+                long[] offsets,
+                long unaliasedSize
+        ) {
+            this.heapCount = heapCount;
+            this.heapSizes = heapSizes;
+            this.heapAlignments = heapAlignments;
+            this.heapMemoryTypeBits = heapMemoryTypeBits;
+            this.heapOf = heapOf;
+            this.offsets = offsets;
+            this.unaliasedSize = unaliasedSize;
+        }
+
+        public int heapCount() {
+            return heapCount;
+        }
+
+        /// Size to allocate for heap {@code heap}.
+        public @Unsigned long heapSize(int heap) {
+            return heapSizes[Objects.checkIndex(heap, heapCount)];
+        }
+
+        /// Largest alignment of the resources placed in heap {@code heap}.
+        public @Unsigned long heapAlignment(int heap) {
+            return heapAlignments[Objects.checkIndex(heap, heapCount)];
+        }
+
+        /// Memory types acceptable to every resource placed in heap {@code heap}.
+        public @Unsigned int heapMemoryTypeBits(int heap) {
+            return heapMemoryTypeBits[Objects.checkIndex(heap, heapCount)];
+        }
+
+        /// Heap of resource {@code resource}.
+        public int heapOf(int resource) {
+            return heapOf[resource];
+        }
+
+        /// Offset of resource {@code resource} within its heap.
+        public @Unsigned long offsetOf(int resource) {
+            return offsets[resource];
+        }
+
+        public int resourceCount() {
+            return heapOf.length;
+        }
+
+        /// Sum of all heap sizes.
+        public @Unsigned long totalSize() {
+            long total = 0;
+            for (int i = 0; i < heapCount; i++) {
+                total += heapSizes[i];
+            }
+            return total;
+        }
+
+        /// Memory needed without aliasing, i.e. the sum of all resource sizes.
+        public @Unsigned long unaliasedSize() {
+            return unaliasedSize;
+        }
+
+        private final int heapCount;
+        private final long[] heapSizes;
+        private final long[] heapAlignments;
+        private final int[] heapMemoryTypeBits;
+        private final int[] heapOf;
+        private final long[] offsets;
+        private final long unaliasedSize;
+    }
+
+    /// @param maxHeapSize largest heap the planner may create, e.g.
+    ///                    {@code VkPhysicalDeviceMaintenance3Properties::maxMemoryAllocationSize}
+    ///                    or a smaller block size, {@link Long#MAX_VALUE} for no limit
+    public AliasingPlanner(@Unsigned long maxHeapSize) {
+        this.maxHeapSize = maxHeapSize;
+    }
+
+    /// Adds a resource and returns its index.
+    ///
+    /// @param firstUse first pass using the resource
+    /// @param lastUse last pass using the resource, inclusive
+    /// @param size {@code VkMemoryRequirements::size}
+    /// @param alignment {@code VkMemoryRequirements::alignment}, a power of two
+    /// @param memoryTypeBits {@code VkMemoryRequirements::memoryTypeBits}
+    public int add(int firstUse, int lastUse, @Unsigned long size, @Unsigned long alignment, @Unsigned int memoryTypeBits) {
+        if (lastUse < firstUse) {
+            throw new IllegalArgumentException("lastUse " + lastUse + " is before firstUse " + firstUse);
+        }
+        if (alignment <= 0 || (alignment & (alignment - 1)) != 0) {
+            throw new IllegalArgumentException("Alignment must be a power of two, got " + alignment);
+        }
+        if (size <= 0 || Long.compareUnsigned(size, maxHeapSize) > 0) {
+            throw new IllegalArgumentException("Invalid resource size " + size);
+        }
+        if (memoryTypeBits == 0) {
+            throw new IllegalArgumentException("Resource has no acceptable memory type");
+        }
+
+        if (count == firstUses.length) {
+            int capacity = count * 2;
+            firstUses = Arrays.copyOf(firstUses, capacity);
+            lastUses = Arrays.copyOf(lastUses, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+            alignments = Arrays.copyOf(alignments, capacity);
+            typeBits = Arrays.copyOf(typeBits, capacity);
+        }
+        firstUses[count] = firstUse;
+        lastUses[count] = lastUse;
+        sizes[count] = size;
+        alignments[count] = alignment;
+        typeBits[count] = memoryTypeBits;
+        return count++;
+    }
+
+    public int resourceCount() {
+        return count;
+    }
+
+    /// Removes all resources.
+    public void clear() {
+        count = 0;
+    }
+
+    /// Computes the placement of all resources added so far.
+    public @NotNull Plan plan() {
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        sortBySizeDescending(order, 0, count - 1);
+
+        int[] heapOf = new int[count];
+        long[] offsets = new long[count];
+        long unaliasedSize = 0;
+
+        int heapCount = 0;
+        long[] heapSizes = new long[4];
+        long[] heapAlignments = new long[4];
+        int[] heapTypeBits = new int[4];
+        // members of each heap, sorted by offset
+        int[][] members = new int[4][];
+        int[] memberCounts = new int[4];
+
+        for (int r : order) {
+            unaliasedSize += sizes[r];
+
+            int bestHeap = -1;
+            long bestOffset = 0;
+            long bestGrowth = Long.MAX_VALUE;
+            for (int h = 0; h < heapCount; h++) {
+                if ((heapTypeBits[h] & typeBits[r]) == 0) {
+                    continue;
+                }
+                long offset = firstFit(r, members[h], memberCounts[h], offsets);
+                long end = offset + sizes[r];
+                if (Long.compareUnsigned(end, maxHeapSize) > 0) {
+                    continue;
+                }
+                long growth = Math.max(0, end - heapSizes[h]);
+                if (growth < bestGrowth) {
+                    bestHeap = h;
+                    bestOffset = offset;
+                    bestGrowth = growth;
+                    if (growth == 0) {
+                        break;
+                    }
+                }
+            }
+
+            if (bestHeap < 0) {
+                if (heapCount == heapSizes.length) {
+                    int capacity = heapCount * 2;
+                    heapSizes = Arrays.copyOf(heapSizes, capacity);
+                    heapAlignments = Arrays.copyOf(heapAlignments, capacity);
+                    heapTypeBits = Arrays.copyOf(heapTypeBits, capacity);
+                    members = Arrays.copyOf(members, capacity);
+                    memberCounts = Arrays.copyOf(memberCounts, capacity);
+                }
+                bestHeap = heapCount++;
+                heapTypeBits[bestHeap] = typeBits[r];
+                members[bestHeap] = new int[8];
+            }
+
+            int h = bestHeap;
+            heapOf[r] = h;
+            offsets[r] = bestOffset;
+            heapSizes[h] = Math.max(heapSizes[h], bestOffset + sizes[r]);
+            heapAlignments[h] = Math.max(heapAlignments[h], alignments[r]);
+            heapTypeBits[h] &= typeBits[r];
+            if (memberCounts[h] == members[h].length) {
+                members[h] = Arrays.copyOf(members[h], memberCounts[h] * 2);
+            }
+            int position = memberCounts[h];
+            while (position > 0 && offsets[members[h][position - 1]] > bestOffset) {
+                position--;
+            }
+            System.arraycopy(members[h], position, members[h], position + 1, memberCounts[h] - position);
+            members[h][position] = r;
+            memberCounts[h]++;
+        }
+
+        return new Plan(heapCount, heapSizes, heapAlignments, heapTypeBits, heapOf, offsets, unaliasedSize);
+    }
+
+    // lowest aligned offset for r not overlapping the heap members alive at the same time;
+    // members are sorted by offset, so the conflicting ones are visited in address order
+    private long firstFit(int r, int[] heapMembers, int memberCount, long[] offsets) {
+        long alignment = alignments[r];
+        long size = sizes[r];
+        long candidate = 0;
+        for (int i = 0; i < memberCount; i++) {
+            int m = heapMembers[i];
+            if (firstUses[m] > lastUses[r] || firstUses[r] > lastUses[m]) {
+                continue;
+            }
+            if (candidate + size <= offsets[m]) {
+                break;
+            }
+            candidate = Math.max(candidate, alignUp(offsets[m] + sizes[m], alignment));
+        }
+        return candidate;
+    }
+
+    private static long alignUp(long value, long alignment) {
+        return (value + alignment - 1) & -alignment;
+    }
+
+    private void sortBySizeDescending(int[] order, int lo, int hi) {
+        while (lo < hi) {
+            if (hi - lo < 16) {
+                for (int i = lo + 1; i <= hi; i++) {
+                    int x = order[i];
+                    int j = i;
+                    while (j > lo && before(x, order[j - 1])) {
+                        order[j] = order[j - 1];
+                        j--;
+                    }
+                    order[j] = x;
+                }
+                return;
+            }
+
+            int pivot = order[(lo + hi) >>> 1];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (before(order[i], pivot)) {
+                    i++;
+                }
+                while (before(pivot, order[j])) {
+                    j--;
+                }
+                if (i <= j) {
+                    int t = order[i];
+                    order[i] = order[j];
+                    order[j] = t;
+                    i++;
+                    j--;
+                }
+            }
+            // recurse into the smaller half to bound the stack depth
+            if (j - lo < hi - i) {
+                sortBySizeDescending(order, lo, j);
+                lo = i;
+            } else {
+                sortBySizeDescending(order, i, hi);
+                hi = j;
+            }
+        }
+    }
+
+    // larger first, then earlier first use, then index, so plans are deterministic
+    private boolean before(int a, int b) {
+        if (sizes[a] != sizes[b]) {
+            return sizes[a] > sizes[b];
+        }
+        if (firstUses[a] != firstUses[b]) {
+            return firstUses[a] < firstUses[b];
+        }
+        return a < b;
+    }
+
+    private final long maxHeapSize;
+    private int count;
+    private int[] firstUses = new int[16];
+    private int[] lastUses = new int[16];
+    private long[] sizes = new long[16];
+    private long[] alignments = new long[16];
+    private int[] typeBits = new int[16];
+}
@@ -0,0 +1,363 @@
+package club.doki7.vulkan.util;
+
+import club.doki7.ffm.annotation.EnumType;
+import club.doki7.ffm.annotation.NativeType;
+import club.doki7.ffm.annotation.Unsigned;
+import club.doki7.ffm.ptr.IntPtr;
+import club.doki7.vulkan.bitmask.VkDescriptorBindingFlags;
+import club.doki7.vulkan.bitmask.VkDescriptorPoolCreateFlags;
+import club.doki7.vulkan.bitmask.VkDescriptorSetLayoutCreateFlags;
+import club.doki7.vulkan.bitmask.VkShaderStageFlags;
+import club.doki7.vulkan.command.VkDeviceCommands;
+import club.doki7.vulkan.datatype.VkDescriptorPoolCreateInfo;
+import club.doki7.vulkan.datatype.VkDescriptorPoolSize;
+import club.doki7.vulkan.datatype.VkDescriptorSetAllocateInfo;
+import club.doki7.vulkan.datatype.VkDescriptorSetLayoutBinding;
+import club.doki7.vulkan.datatype.VkDescriptorSetLayoutBindingFlagsCreateInfo;
+import club.doki7.vulkan.datatype.VkDescriptorSetLayoutCreateInfo;
+import club.doki7.vulkan.enumtype.VkDescriptorType;
+import club.doki7.vulkan.enumtype.VkImageLayout;
+import club.doki7.vulkan.enumtype.VkResult;
+import club.doki7.vulkan.handle.VkBuffer;
+import club.doki7.vulkan.handle.VkDescriptorPool;
+import club.doki7.vulkan.handle.VkDescriptorSet;
+import club.doki7.vulkan.handle.VkDescriptorSetLayout;
+import club.doki7.vulkan.handle.VkDevice;
+import club.doki7.vulkan.handle.VkImageView;
+import club.doki7.vulkan.handle.VkSampler;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.foreign.Arena;
+import java.util.Objects;
+
+/// One large descriptor set for bindless rendering: shaders index descriptor arrays with an
+/// integer, typically passed as a push constant, instead of binding a descriptor set per draw.
+///
+/// Every {@link HeapBinding} becomes one binding of the set, numbered by its position in the
+/// constructor argument. All bindings are created with
+/// {@link VkDescriptorBindingFlags#UPDATE_AFTER_BIND},
+/// {@link VkDescriptorBindingFlags#UPDATE_UNUSED_WHILE_PENDING} and
+/// {@link VkDescriptorBindingFlags#PARTIALLY_BOUND} through
+/// {@link VkDescriptorSetLayoutBindingFlagsCreateInfo}, so slots can be written while the set is
+/// bound by in-flight command buffers, and unused slots need not be valid. The device must have
+/// the corresponding {@code descriptorIndexing} features enabled.
+///
+/// {@snippet :
+/// BindlessDescriptorHeap heap = new BindlessDescriptorHeap(deviceCommands, device, new BindlessDescriptorHeap.HeapBinding[] {
+///         new BindlessDescriptorHeap.HeapBinding(VkDescriptorType.COMBINED_IMAGE_SAMPLER, 16384),
+///         new BindlessDescriptorHeap.HeapBinding(VkDescriptorType.STORAGE_BUFFER, 4096)
+/// });
+///
+/// int textureIndex = heap.allocateImage(0, textureView, sampler, VkImageLayout.SHADER_READ_ONLY_OPTIMAL);
+///
+/// // once per frame, before submitting
+/// heap.flushWrites();
+/// heap.collect(frameNumber - MAX_FRAMES_IN_FLIGHT);
+///
+/// // when the texture goes away
+/// heap.release(0, textureIndex, frameNumber);
+/// }
+///
+/// Slot indices come from a {@link ConcurrentIndexAllocator} per binding. Released slots are only
+/// returned to it by {@link #collect} once the retire value passed to {@link #release} (e.g. the
+/// number of the last frame that used the slot) has been reached, so a slot is never rewritten
+/// while the GPU may still read it. Slot writes are batched and applied with one
+/// {@link VkDeviceCommands#updateDescriptorSets} call by {@link #flushWrites}.
+///
+/// All methods can be called from any thread.
+public final class BindlessDescriptorHeap implements AutoCloseable {
+    /// One descriptor array of the heap.
+    ///
+    /// @param type descriptor type, an image, sampler or uniform/storage buffer type
+    /// @param capacity number of descriptors in the array
+    public record HeapBinding(@EnumType(VkDescriptorType.class) int type, int capacity) {}
+
+    /// Creates the heap with descriptors visible to all shader stages.
+    public BindlessDescriptorHeap(
+            @NotNull VkDeviceCommands deviceCommands,
+            @NotNull VkDevice device,
+            HeapBinding @NotNull [] bindings
+    ) {
+        this(deviceCommands, device, bindings, VkShaderStageFlags.ALL);
+    }
+
+    /// @param deviceCommands device commands
+    /// @param device the device
+    /// @param bindings the descriptor arrays, binding {@code i} is {@code bindings[i]}
+    /// @param stageFlags shader stages that access the heap
+    /// @throws RuntimeException if creating the layout, pool or set fails
+    public BindlessDescriptorHeap(
+            @NotNull VkDeviceCommands deviceCommands,
+            @NotNull VkDevice device,
+            HeapBinding @NotNull [] bindings,
+            @EnumType(VkShaderStageFlags.class) int stageFlags
+    ) {
+        if (bindings.length == 0) {
+            throw new IllegalArgumentException("bindless heap requires at least one binding");
+        }
+
+        this.deviceCommands = deviceCommands;
+        this.device = device;
+        this.bindings = bindings.clone();
+        this.slotAllocators = new ConcurrentIndexAllocator[bindings.length];
+        for (int i = 0; i < bindings.length; i++) {
+            if (!isImageType(bindings[i].type()) && !isBufferType(bindings[i].type())) {
+                throw new IllegalArgumentException(
+                        "Unsupported bindless descriptor type: " + VkDescriptorType.explain(bindings[i].type())
+                );
+            }
+            slotAllocators[i] = new ConcurrentIndexAllocator(bindings[i].capacity());
+        }
+
+        try (Arena arena = Arena.ofConfined()) {
+            VkDescriptorSetLayoutBinding.Ptr layoutBindings = VkDescriptorSetLayoutBinding.allocate(arena, bindings.length);
+            VkDescriptorPoolSize.Ptr poolSizes = VkDescriptorPoolSize.allocate(arena, bindings.length);
+            IntPtr bindingFlags = IntPtr.allocate(arena, bindings.length);
+            for (int i = 0; i < bindings.length; i++) {
+                layoutBindings.at(i)
+                        .binding(i)
+                        .descriptorType(bindings[i].type())
+                        .descriptorCount(bindings[i].capacity())
+                        .stageFlags(stageFlags);
+                poolSizes.at(i)
+                        .type(bindings[i].type())
+                        .descriptorCount(bindings[i].capacity());
+                bindingFlags.write(
+                        i,
+                        VkDescriptorBindingFlags.UPDATE_AFTER_BIND
+                        | VkDescriptorBindingFlags.UPDATE_UNUSED_WHILE_PENDING
+                        | VkDescriptorBindingFlags.PARTIALLY_BOUND
+                );
+            }
+
+            VkDescriptorSetLayoutBindingFlagsCreateInfo bindingFlagsInfo = VkDescriptorSetLayoutBindingFlagsCreateInfo.allocate(arena)
+                    .bindingCount(bindings.length)
+                    .pBindingFlags(bindingFlags);
+            VkDescriptorSetLayoutCreateInfo layoutInfo = VkDescriptorSetLayoutCreateInfo.allocate(arena)
+                    .pNext(bindingFlagsInfo)
+                    .flags(VkDescriptorSetLayoutCreateFlags.UPDATE_AFTER_BIND_POOL)
+                    .bindingCount(bindings.length)
+                    .pBindings(layoutBindings);
+            VkDescriptorSetLayout.Ptr pLayout = VkDescriptorSetLayout.Ptr.allocate(arena);
+            int result = deviceCommands.createDescriptorSetLayout(device, layoutInfo, null, pLayout);
+            if (result != VkResult.SUCCESS) {
+                throw new RuntimeException("Failed to create bindless descriptor set layout: " + VkResult.explain(result));
+            }
+            this.layout = Objects.requireNonNull(pLayout.read());
+
+            VkDescriptorPoolCreateInfo poolInfo = VkDescriptorPoolCreateInfo.allocate(arena)
+                    .flags(VkDescriptorPoolCreateFlags.UPDATE_AFTER_BIND)
+                    .maxSets(1)
+                    .poolSizeCount(bindings.length)
+                    .pPoolSizes(poolSizes);
+            VkDescriptorPool.Ptr pPool = VkDescriptorPool.Ptr.allocate(arena);
+            result = deviceCommands.createDescriptorPool(device, poolInfo, null, pPool);
+            if (result != VkResult.SUCCESS) {
+                deviceCommands.destroyDescriptorSetLayout(device, layout, null);
+                throw new RuntimeException("Failed to create bindless descriptor pool: " + VkResult.explain(result));
+            }
+            this.pool = Objects.requireNonNull(pPool.read());
+
+            VkDescriptorSetAllocateInfo allocateInfo = VkDescriptorSetAllocateInfo.allocate(arena)
+                    .descriptorPool(pool)
+                    .descriptorSetCount(1)
+                    .pSetLayouts(pLayout);
+            VkDescriptorSet.Ptr pSet = VkDescriptorSet.Ptr.allocate(arena);
+            result = deviceCommands.allocateDescriptorSets(device, allocateInfo, pSet);
+            if (result != VkResult.SUCCESS) {
+                deviceCommands.destroyDescriptorPool(device, pool, null);
+                deviceCommands.destroyDescriptorSetLayout(device, layout, null);
+                throw new RuntimeException("Failed to allocate bindless descriptor set: " + VkResult.explain(result));
+            }
+            this.descriptorSet = Objects.requireNonNull(pSet.read());
+        }
+
+        this.writer = new DescriptorWriter(deviceCommands, device);
+    }
+
+    public @NotNull VkDescriptorSetLayout layout() {
+        return layout;
+    }
+
+    public @NotNull VkDescriptorSet descriptorSet() {
+        return descriptorSet;
+    }
+
+    /// Allocates a slot of {@code binding} without writing it.
+    ///
+    /// @return the slot index
+    /// @throws IllegalStateException if all slots of {@code binding} are in use
+    public int allocate(int binding) {
+        int slot = slotAllocators[binding].allocate();
+        if (slot == ConcurrentIndexAllocator.EXHAUSTED) {
+            throw new IllegalStateException(
+                    "Bindless heap binding " + binding + " is full (" + bindings[binding].capacity() + " slots)"
+            );
+        }
+        return slot;
+    }
+
+    /// Allocates a slot of an image or sampler binding and schedules a write to it.
+    ///
+    /// @return the slot index
+    public int allocateImage(
+            int binding,
+            @Nullable VkImageView imageView,
+            @Nullable VkSampler sampler,
+            @EnumType(VkImageLayout.class) int imageLayout
+    ) {
+        int slot = allocate(binding);
+        writeImage(binding, slot, imageView, sampler, imageLayout);
+        return slot;
+    }
+
+    /// Allocates a slot of a buffer binding and schedules a write to it.
+    ///
+    /// @return the slot index
+    public int allocateBuffer(
+            int binding,
+            @NotNull VkBuffer buffer,
+            @NativeType("VkDeviceSize") @Unsigned long offset,
+            @NativeType("VkDeviceSize") @Unsigned long range
+    ) {
+        int slot = allocate(binding);
+        writeBuffer(binding, slot, buffer, offset, range);
+        return slot;
+    }
+
+    /// Schedules a write of an image or sampler descriptor to {@code slot}, applied on the next
+    /// {@link #flushWrites}.
+    public void writeImage(
+            int binding,
+            int slot,
+            @Nullable VkImageView imageView,
+            @Nullable VkSampler sampler,
+            @EnumType(VkImageLayout.class) int imageLayout
+    ) {
+        int type = bindings[binding].type();
+        if (!isImageType(type)) {
+            throw new IllegalArgumentException("Binding " + binding + " is not an image or sampler binding");
+        }
+        synchronized (writer) {
+            writer.writeImage(descriptorSet, binding, slot, type, imageView, sampler, imageLayout);
+        }
+    }
+
+    /// Schedules a write of a buffer descriptor to {@code slot}, applied on the next
+    /// {@link #flushWrites}.
+    public void writeBuffer(
+            int binding,
+            int slot,
+            @NotNull VkBuffer buffer,
+            @NativeType("VkDeviceSize") @Unsigned long offset,
+            @NativeType("VkDeviceSize") @Unsigned long range
+    ) {
+        int type = bindings[binding].type();
+        if (!isBufferType(type)) {
+            throw new IllegalArgumentException("Binding " + binding + " is not a buffer binding");
+        }
+        synchronized (writer) {
+            writer.writeBuffer(descriptorSet, binding, slot, type, buffer, offset, range);
+        }
+    }
+
+    /// Applies all scheduled slot writes with one {@link VkDeviceCommands#updateDescriptorSets}
+    /// call. Must be called before submitting command buffers that read the new slots.
+    public void flushWrites() {
+        synchronized (writer) {
+            writer.flush();
+        }
+    }
+
+    /// Releases {@code slot}. It becomes available again after {@link #collect} is called with a
+    /// value not less than {@code retireValue}.
+    ///
+    /// @param binding the binding
+    /// @param slot the slot index returned by one of the {@code allocate} methods
+    /// @param retireValue e.g. the number of the last frame that used the slot
+    public synchronized void release(int binding, int slot, @Unsigned long retireValue) {
+        if (slot < 0 || slot >= bindings[binding].capacity()) {
+            throw new IndexOutOfBoundsException(slot);
+        }
+        if (retiredCount == retiredSlots.length) {
+            growRetired();
+        }
+        int tail = (retiredHead + retiredCount) & (retiredSlots.length - 1);
+        retiredSlots[tail] = ((long) binding << 32) | slot;
+        retiredValues[tail] = retireValue;
+        retiredCount++;
+    }
+
+    /// Returns released slots whose retire value is not greater than {@code completedValue} to
+    /// their bindings.
+    ///
+    /// @return number of recycled slots
+    public synchronized int collect(@Unsigned long completedValue) {
+        int recycled = 0;
+        while (retiredCount > 0 && Long.compareUnsigned(retiredValues[retiredHead], completedValue) <= 0) {
+            long packed = retiredSlots[retiredHead];
+            slotAllocators[(int) (packed >>> 32)].free((int) packed);
+            retiredHead = (retiredHead + 1) & (retiredSlots.length - 1);
+            retiredCount--;
+            recycled++;
+        }
+        return recycled;
+    }
+
+    /// Number of slots of {@code binding} allocated and not yet recycled.
+    public int slotsInUse(int binding) {
+        return slotAllocators[binding].inUseCount();
+    }
+
+    /// Destroys the descriptor pool, set and layout. The caller must make sure the GPU is done
+    /// with the descriptor set.
+    @Override
+    public void close() {
+        deviceCommands.destroyDescriptorPool(device, pool, null);
+        deviceCommands.destroyDescriptorSetLayout(device, layout, null);
+        writer.close();
+    }
+
+    private void growRetired() {
+        int oldCapacity = retiredSlots.length;
+        long[] newSlots = new long[oldCapacity * 2];
+        long[] newValues = new long[oldCapacity * 2];
+        for (int i = 0; i < retiredCount; i++) {
+            int index = (retiredHead + i) & (oldCapacity - 1);
+            newSlots[i] = retiredSlots[index];
+            newValues[i] = retiredValues[index];
+        }
+        retiredSlots = newSlots;
+        retiredValues = newValues;
+        retiredHead = 0;
+    }
+
+    private static boolean isImageType(@EnumType(VkDescriptorType.class) int type) {
+        return type == VkDescriptorType.SAMPLER
+               || type == VkDescriptorType.COMBINED_IMAGE_SAMPLER
+               || type == VkDescriptorType.SAMPLED_IMAGE
+               || type == VkDescriptorType.STORAGE_IMAGE;
+    }
+
+    private static boolean isBufferType(@EnumType(VkDescriptorType.class) int type) {
+        return type == VkDescriptorType.UNIFORM_BUFFER || type == VkDescriptorType.STORAGE_BUFFER;
+    }
+
+    private static final int INITIAL_RETIRED_CAPACITY = 256;
+
+    private final VkDeviceCommands deviceCommands;
+    private final VkDevice device;
+    private final HeapBinding[] bindings;
+    private final ConcurrentIndexAllocator[] slotAllocators;
+    private final VkDescriptorSetLayout layout;
+    private final VkDescriptorPool pool;
+    private final VkDescriptorSet descriptorSet;
+    private final DescriptorWriter writer;
+
+    // ring of released slots waiting for their retire value, packed as (binding << 32) | slot
+    private long[] retiredSlots = new long[INITIAL_RETIRED_CAPACITY];
+    private long[] retiredValues = new long[INITIAL_RETIRED_CAPACITY];
+    private int retiredHead;
+    private int retiredCount;
+}
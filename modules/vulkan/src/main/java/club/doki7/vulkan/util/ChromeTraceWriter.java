@@ -0,0 +1,158 @@
+package club.doki7.vulkan.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+/// Streams events in the Chrome trace event format (the JSON format read by
+/// {@code chrome://tracing}, Perfetto and Speedscope) to a {@link Writer}.
+///
+/// Timestamps are {@link System#nanoTime()} values. They are written relative to the first event,
+/// in microseconds as the format requires. Events may be written from any thread, the output is
+/// only well-formed after {@link #close()}.
+///
+/// @see GpuProfiler
+public final class ChromeTraceWriter implements AutoCloseable {
+    /// Process id used for CPU events.
+    public static final int PID_CPU = 1;
+    /// Process id used for GPU events.
+    public static final int PID_GPU = 2;
+
+    public ChromeTraceWriter(@NotNull Writer writer) {
+        this.writer = writer;
+        try {
+            writer.write("{\"traceEvents\":[\n");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /// Writes a complete ({@code "ph":"X"}) event.
+    ///
+    /// @param name event name
+    /// @param category comma separated categories
+    /// @param pid process lane, e.g. {@link #PID_CPU} or {@link #PID_GPU}
+    /// @param tid thread lane within {@code pid}
+    /// @param startNanos start, in {@link System#nanoTime()} domain
+    /// @param durationNanos duration in nanoseconds
+    public synchronized void completeEvent(
+            @NotNull String name,
+            @NotNull String category,
+            int pid,
+            long tid,
+            long startNanos,
+            long durationNanos
+    ) {
+        if (originNanos == Long.MIN_VALUE) {
+            originNanos = startNanos;
+        }
+
+        builder.setLength(0);
+        beginEvent(name, "X", pid, tid);
+        builder.append(",\"cat\":\"");
+        appendEscaped(category);
+        builder.append("\",\"ts\":");
+        appendMicros(startNanos - originNanos);
+        builder.append(",\"dur\":");
+        appendMicros(Math.max(0, durationNanos));
+        builder.append('}');
+        flushBuilder();
+    }
+
+    /// Writes a metadata event naming the lane {@code (pid, tid)}.
+    public synchronized void threadName(int pid, long tid, @NotNull String name) {
+        builder.setLength(0);
+        beginEvent("thread_name", "M", pid, tid);
+        builder.append(",\"args\":{\"name\":\"");
+        appendEscaped(name);
+        builder.append("\"}}");
+        flushBuilder();
+    }
+
+    /// Writes a metadata event naming the process lane {@code pid}.
+    public synchronized void processName(int pid, @NotNull String name) {
+        builder.setLength(0);
+        beginEvent("process_name", "M", pid, 0);
+        builder.append(",\"args\":{\"name\":\"");
+        appendEscaped(name);
+        builder.append("\"}}");
+        flushBuilder();
+    }
+
+    /// Terminates the JSON document and closes the underlying writer.
+    @Override
+    public synchronized void close() {
+        try {
+            writer.write("\n]}\n");
+            writer.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void beginEvent(String name, String phase, int pid, long tid) {
+        if (!first) {
+            builder.append(",\n");
+        }
+        first = false;
+        builder.append("{\"name\":\"");
+        appendEscaped(name);
+        builder.append("\",\"ph\":\"").append(phase)
+                .append("\",\"pid\":").append(pid)
+                .append(",\"tid\":").append(tid);
+    }
+
+    private void appendMicros(long nanos) {
+        if (nanos < 0) {
+            // GPU spans may start before the first event of the trace
+            builder.append('-');
+            nanos = -nanos;
+        }
+        builder.append(nanos / 1000).append('.');
+        long fraction = nanos % 1000;
+        if (fraction < 100) {
+            builder.append('0');
+        }
+        if (fraction < 10) {
+            builder.append('0');
+        }
+        builder.append(fraction);
+    }
+
+    private void appendEscaped(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> builder.append("\\\"");
+                case '\\' -> builder.append("\\\\");
+                case '\n' -> builder.append("\\n");
+                case '\r' -> builder.append("\\r");
+                case '\t' -> builder.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        builder.append("\\u00");
+                        builder.append(Character.forDigit(c >> 4, 16));
+                        builder.append(Character.forDigit(c & 0xF, 16));
+                    } else {
+                        builder.append(c);
+                    }
+                }
+            }
+        }
+    }
+
+    private void flushBuilder() {
+        try {
+            writer.append(builder);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private final Writer writer;
+    private final StringBuilder builder = new StringBuilder(256);
+    private long originNanos = Long.MIN_VALUE;
+    private boolean first = true;
+}
@@ -0,0 +1,95 @@
+package club.doki7.vulkan.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/// Lock-free allocator of integer indices in {@code [0, capacity)}.
+///
+/// Indices that have never been handed out are taken from a bump counter, so the allocator never
+/// needs to be pre-filled. Freed indices go to a Treiber stack whose links are stored in a
+/// primitive array and whose head is tagged with a version counter to rule out ABA. Neither
+/// {@link #allocate} nor {@link #free} allocates Java objects.
+///
+/// Freeing an index that is not currently allocated corrupts the allocator, callers are expected
+/// to own their indices.
+public final class ConcurrentIndexAllocator {
+    /// Returned by {@link #allocate} when all indices are in use.
+    public static final int EXHAUSTED = -1;
+
+    public ConcurrentIndexAllocator(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.next = new AtomicIntegerArray(capacity);
+    }
+
+    /// @return a free index, or {@link #EXHAUSTED}
+    public int allocate() {
+        while (true) {
+            long head = freeHead.get();
+            int index = (int) head;
+            if (index != EMPTY) {
+                long newHead = pack(version(head) + 1, next.get(index));
+                if (freeHead.compareAndSet(head, newHead)) {
+                    inUse.incrementAndGet();
+                    return index;
+                }
+                continue;
+            }
+
+            int bump = bumpCounter.get();
+            if (bump < capacity) {
+                if (bumpCounter.compareAndSet(bump, bump + 1)) {
+                    inUse.incrementAndGet();
+                    return bump;
+                }
+            } else if ((int) freeHead.get() == EMPTY) {
+                // an index freed concurrently after the first check is picked up by the retry
+                return EXHAUSTED;
+            }
+        }
+    }
+
+    /// Returns {@code index} to the allocator.
+    public void free(int index) {
+        if (index < 0 || index >= capacity) {
+            throw new IndexOutOfBoundsException(index);
+        }
+
+        while (true) {
+            long head = freeHead.get();
+            next.set(index, (int) head);
+            if (freeHead.compareAndSet(head, pack(version(head) + 1, index))) {
+                inUse.decrementAndGet();
+                return;
+            }
+        }
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /// Number of indices currently allocated. Only a snapshot when used concurrently.
+    public int inUseCount() {
+        return inUse.get();
+    }
+
+    private static long pack(int version, int index) {
+        return ((long) version << 32) | (index & 0xFFFF_FFFFL);
+    }
+
+    private static int version(long head) {
+        return (int) (head >>> 32);
+    }
+
+    private static final int EMPTY = -1;
+
+    private final int capacity;
+    private final AtomicIntegerArray next;
+    private final AtomicLong freeHead = new AtomicLong(pack(0, EMPTY));
+    private final AtomicInteger bumpCounter = new AtomicInteger();
+    private final AtomicInteger inUse = new AtomicInteger();
+}
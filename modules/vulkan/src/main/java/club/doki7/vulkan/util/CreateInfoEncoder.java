@@ -0,0 +1,344 @@
+package club.doki7.vulkan.util;
+
+import club.doki7.ffm.annotation.EnumType;
+import club.doki7.vulkan.enumtype.VkDescriptorType;
+import club.doki7.vulkan.enumtype.VkStructureType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.foreign.AddressLayout;
+import java.lang.foreign.GroupLayout;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.PaddingLayout;
+import java.lang.foreign.StructLayout;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/// Serializes a create-info structure, including everything reachable through its counted pointer
+/// members and its {@code pNext} chain, into a flat canonical byte sequence, and hashes it.
+///
+/// The layout of a structure is derived from the generated {@code LAYOUT} constant: value members
+/// are copied as-is, padding is skipped, and every pointer member is resolved with its
+/// {@link AddressLayout#targetLayout()} and a count member. The count member is found by naming
+/// convention ({@code pBindings} is counted by {@code bindingCount}), with {@link #COUNT_OVERRIDES}
+/// for the irregular ones. Handles, which have no target layout, and pointers to handles are
+/// encoded as the handle values themselves.
+///
+/// Encoding reads native memory directly through an unbounded segment and writes into a reusable
+/// {@code byte[]}, so it does not allocate once the buffer has reached its steady-state size.
+final class CreateInfoEncoder {
+    /// Compiled layout of one structure type.
+    static final class Schema {
+        private Schema(long byteSize, int[] kinds, long[] offsets, long[] sizes, long[] countOffsets,
+                       @Nullable Schema[] elements, long[] guardOffsets, int[][] guardValues) {
+            this.byteSize = byteSize;
+            this.kinds = kinds;
+            this.offsets = offsets;
+            this.sizes = sizes;
+            this.countOffsets = countOffsets;
+            this.elements = elements;
+            this.guardOffsets = guardOffsets;
+            this.guardValues = guardValues;
+        }
+
+        final long byteSize;
+        // per member: MEMBER_* kind, offset, size (value) or element size (pointer), count offset
+        // (-1 for single element pointers), nested schema for pointers to structures containing
+        // pointers, and an optional guard deciding whether the pointer is meaningful
+        final int[] kinds;
+        final long[] offsets;
+        final long[] sizes;
+        final long[] countOffsets;
+        final @Nullable Schema[] elements;
+        final long[] guardOffsets;
+        final int[] @Nullable [] guardValues;
+    }
+
+    /// Compiles {@code layout} into a schema.
+    ///
+    /// @throws IllegalArgumentException if a pointer member cannot be resolved
+    static @NotNull Schema compile(@NotNull StructLayout layout) {
+        List<MemoryLayout> members = layout.memberLayouts();
+        int n = members.size();
+        int[] kinds = new int[n];
+        long[] offsets = new long[n];
+        long[] sizes = new long[n];
+        long[] countOffsets = new long[n];
+        Schema[] elements = new Schema[n];
+        long[] guardOffsets = new long[n];
+        int[][] guardValues = new int[n][];
+
+        int count = 0;
+        long offset = 0;
+        for (MemoryLayout member : members) {
+            long memberOffset = offset;
+            offset += member.byteSize();
+            if (member instanceof PaddingLayout) {
+                continue;
+            }
+
+            String name = member.name().orElse("");
+            offsets[count] = memberOffset;
+            guardOffsets[count] = -1;
+            if (member instanceof AddressLayout address) {
+                if (name.equals("pNext")) {
+                    kinds[count] = MEMBER_PNEXT;
+                } else if (address.targetLayout().isEmpty()) {
+                    // handles are untyped addresses in the generated layouts, compare their values
+                    kinds[count] = MEMBER_VALUE;
+                    sizes[count] = address.byteSize();
+                } else {
+                    MemoryLayout target = address.targetLayout().get();
+                    kinds[count] = MEMBER_ARRAY;
+                    sizes[count] = target.byteSize();
+                    if (target instanceof StructLayout struct && containsPointer(struct)) {
+                        elements[count] = compile(struct);
+                    } else if (target instanceof GroupLayout && !(target instanceof StructLayout)) {
+                        throw new IllegalArgumentException("Pointer to union member " + name + " is not supported");
+                    }
+
+                    String countName = COUNT_OVERRIDES.getOrDefault(name, inferCountName(layout, name));
+                    if (countName == null) {
+                        throw new IllegalArgumentException("Cannot find count member of pointer member " + name);
+                    }
+                    countOffsets[count] = countName.equals(SINGLE)
+                            ? -1
+                            : layout.byteOffset(MemoryLayout.PathElement.groupElement(countName));
+
+                    if (name.equals("pImmutableSamplers")) {
+                        // only read for sampler descriptor types, may be garbage otherwise
+                        guardOffsets[count] = layout.byteOffset(MemoryLayout.PathElement.groupElement("descriptorType"));
+                        guardValues[count] = new int[] {
+                                VkDescriptorType.SAMPLER,
+                                VkDescriptorType.COMBINED_IMAGE_SAMPLER
+                        };
+                    }
+                }
+            } else if (member instanceof ValueLayout || member instanceof GroupLayout) {
+                if (member instanceof GroupLayout group && containsPointer(group)) {
+                    throw new IllegalArgumentException("Nested member " + name + " containing pointers is not supported");
+                }
+                kinds[count] = MEMBER_VALUE;
+                sizes[count] = member.byteSize();
+            } else {
+                throw new IllegalArgumentException("Unsupported member " + name);
+            }
+            count++;
+        }
+
+        return new Schema(
+                layout.byteSize(),
+                Arrays.copyOf(kinds, count),
+                Arrays.copyOf(offsets, count),
+                Arrays.copyOf(sizes, count),
+                Arrays.copyOf(countOffsets, count),
+                Arrays.copyOf(elements, count),
+                Arrays.copyOf(guardOffsets, count),
+                Arrays.copyOf(guardValues, count)
+        );
+    }
+
+    /// Registers a structure that may appear in {@code pNext} chains.
+    static synchronized void registerExtension(
+            @EnumType(VkStructureType.class) int sType,
+            @NotNull StructLayout layout
+    ) {
+        Schema schema = compile(layout);
+        Extensions current = extensions;
+        int index = Arrays.binarySearch(current.types, sType);
+        if (index >= 0) {
+            Schema[] schemas = current.schemas.clone();
+            schemas[index] = schema;
+            extensions = new Extensions(current.types, schemas);
+            return;
+        }
+
+        int insertAt = -index - 1;
+        int oldCount = current.types.length;
+        int[] types = new int[oldCount + 1];
+        Schema[] schemas = new Schema[oldCount + 1];
+        System.arraycopy(current.types, 0, types, 0, insertAt);
+        System.arraycopy(current.schemas, 0, schemas, 0, insertAt);
+        types[insertAt] = sType;
+        schemas[insertAt] = schema;
+        System.arraycopy(current.types, insertAt, types, insertAt + 1, oldCount - insertAt);
+        System.arraycopy(current.schemas, insertAt, schemas, insertAt + 1, oldCount - insertAt);
+        extensions = new Extensions(types, schemas);
+    }
+
+    /// Resets the encoder and writes {@code tag}, usually identifying the object type.
+    void begin(int tag) {
+        length = 0;
+        writeInt(tag);
+    }
+
+    /// Appends the encoding of the structure at {@code address}.
+    ///
+    /// @throws IllegalArgumentException if the {@code pNext} chain contains an unregistered
+    ///         structure
+    void encode(@NotNull Schema schema, long address) {
+        for (int i = 0; i < schema.kinds.length; i++) {
+            long memberAddress = address + schema.offsets[i];
+            switch (schema.kinds[i]) {
+                case MEMBER_VALUE -> copy(memberAddress, schema.sizes[i]);
+                case MEMBER_PNEXT -> encodeChain(NATIVE.get(ValueLayout.JAVA_LONG_UNALIGNED, memberAddress));
+                case MEMBER_ARRAY -> encodeArray(schema, i, address, NATIVE.get(ValueLayout.JAVA_LONG_UNALIGNED, memberAddress));
+                default -> throw new IllegalStateException();
+            }
+        }
+    }
+
+    /// 64-bit hash of the current encoding.
+    long hash() {
+        return Hash64.hash(bufferSegment, length);
+    }
+
+    /// Whether the current encoding equals {@code key}.
+    boolean matches(byte @NotNull [] key) {
+        return Arrays.equals(buffer, 0, length, key, 0, key.length);
+    }
+
+    /// Copy of the current encoding, used as a stored key.
+    byte @NotNull [] toKey() {
+        return Arrays.copyOf(buffer, length);
+    }
+
+    private void encodeChain(long next) {
+        if (next == 0) {
+            writeInt(0);
+            return;
+        }
+
+        int sType = NATIVE.get(ValueLayout.JAVA_INT_UNALIGNED, next);
+        Extensions current = extensions;
+        int index = Arrays.binarySearch(current.types, sType);
+        if (index < 0) {
+            throw new IllegalArgumentException("Unsupported pNext structure: " + VkStructureType.explain(sType));
+        }
+        writeInt(1);
+        // the extension schema encodes its own pNext member, which continues the chain
+        encode(current.schemas[index], next);
+    }
+
+    private void encodeArray(Schema schema, int member, long structAddress, long pointer) {
+        long countOffset = schema.countOffsets[member];
+        int count = countOffset < 0 ? 1 : NATIVE.get(ValueLayout.JAVA_INT_UNALIGNED, structAddress + countOffset);
+        int[] guard = schema.guardValues[member];
+        if (guard != null) {
+            int value = NATIVE.get(ValueLayout.JAVA_INT_UNALIGNED, structAddress + schema.guardOffsets[member]);
+            boolean pass = false;
+            for (int allowed : guard) {
+                pass |= value == allowed;
+            }
+            if (!pass) {
+                pointer = 0;
+            }
+        }
+
+        if (pointer == 0 || count == 0) {
+            writeInt(0);
+            return;
+        }
+        writeInt(count);
+        long elementSize = schema.sizes[member];
+        Schema element = schema.elements[member];
+        if (element == null) {
+            copy(pointer, elementSize * Integer.toUnsignedLong(count));
+        } else {
+            for (int i = 0; i < count; i++) {
+                encode(element, pointer + i * elementSize);
+            }
+        }
+    }
+
+    private void copy(long address, long size) {
+        ensureCapacity(size);
+        MemorySegment.copy(NATIVE, ValueLayout.JAVA_BYTE, address, buffer, length, (int) size);
+        length += (int) size;
+    }
+
+    private void writeInt(int value) {
+        ensureCapacity(Integer.BYTES);
+        INT_VIEW.set(buffer, length, value);
+        length += Integer.BYTES;
+    }
+
+    private void ensureCapacity(long extra) {
+        long required = length + extra;
+        if (required > buffer.length) {
+            if (required > Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException("Create info too large to encode");
+            }
+            buffer = Arrays.copyOf(buffer, (int) Math.max(required, buffer.length * 2L));
+            bufferSegment = MemorySegment.ofArray(buffer);
+        }
+    }
+
+    private static boolean containsPointer(GroupLayout layout) {
+        for (MemoryLayout member : layout.memberLayouts()) {
+            if (member instanceof AddressLayout
+                || (member instanceof GroupLayout group && containsPointer(group))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static @Nullable String inferCountName(StructLayout layout, String pointerName) {
+        if (!pointerName.startsWith("p") || pointerName.length() < 2) {
+            return null;
+        }
+        String base = Character.toLowerCase(pointerName.charAt(1)) + pointerName.substring(2);
+        String[] candidates = {
+                base.endsWith("ies") ? base.substring(0, base.length() - 3) + "yCount" : null,
+                base.endsWith("es") ? base.substring(0, base.length() - 2) + "Count" : null,
+                base.endsWith("s") ? base.substring(0, base.length() - 1) + "Count" : null,
+                base + "Count"
+        };
+        for (String candidate : candidates) {
+            if (candidate == null) {
+                continue;
+            }
+            for (MemoryLayout member : layout.memberLayouts()) {
+                if (member.name().orElse("").equals(candidate)) {
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static final int MEMBER_VALUE = 0;
+    private static final int MEMBER_PNEXT = 1;
+    private static final int MEMBER_ARRAY = 2;
+
+    private static final String SINGLE = "";
+    /// Pointer members whose count member does not follow the naming convention. {@code ""}
+    /// marks pointers to a single element.
+    private static final Map<String, String> COUNT_OVERRIDES = Map.of(
+            "pBindingFlags", "bindingCount",
+            "pResolveAttachments", "colorAttachmentCount",
+            "pDepthStencilAttachment", SINGLE,
+            "pImmutableSamplers", "descriptorCount",
+            "pViewMasks", "subpassCount",
+            "pViewOffsets", "dependencyCount",
+            "pCorrelationMasks", "correlationMaskCount"
+    );
+
+    private static final MemorySegment NATIVE = MemorySegment.NULL.reinterpret(Long.MAX_VALUE);
+    private static final VarHandle INT_VIEW = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    // sorted sType keys and their schemas, replaced wholesale on registration
+    private record Extensions(int[] types, Schema[] schemas) {}
+    private static volatile Extensions extensions = new Extensions(new int[0], new Schema[0]);
+
+    private byte[] buffer = new byte[512];
+    private MemorySegment bufferSegment = MemorySegment.ofArray(buffer);
+    private int length;
+}
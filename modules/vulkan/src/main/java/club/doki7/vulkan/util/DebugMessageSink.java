@@ -0,0 +1,189 @@
+package club.doki7.vulkan.util;
+
+import club.doki7.ffm.NativeLayout;
+import club.doki7.ffm.annotation.EnumType;
+import club.doki7.ffm.annotation.NativeType;
+import club.doki7.ffm.annotation.Pointer;
+import club.doki7.ffm.annotation.Unsigned;
+import club.doki7.vulkan.VkConstants;
+import club.doki7.vulkan.VkFunctionTypes;
+import club.doki7.vulkan.bitmask.VkDebugUtilsMessageSeverityFlagsEXT;
+import club.doki7.vulkan.bitmask.VkDebugUtilsMessageTypeFlagsEXT;
+import club.doki7.vulkan.datatype.VkDebugUtilsMessengerCallbackDataEXT;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+
+/// {@code VK_EXT_debug_utils} messenger callback that does nothing but copy the message into a
+/// native ring, leaving decoding, deduplication and logging to a background thread.
+///
+/// Validation layers call the messenger synchronously from whatever thread made the offending
+/// call, often many times per frame. The upcall stub of this sink, built from
+/// {@link VkFunctionTypes#PFN_vkDebugUtilsMessengerCallbackEXT}, only copies the severity, type,
+/// message ID and message bytes into a preallocated native ring; it does not allocate on the Java
+/// heap and never blocks. Messages longer than a slot are truncated, and messages arriving while
+/// the ring is full are dropped and counted.
+///
+/// The background thread hands messages to a {@link MessageHandler}, by default one writing to
+/// the {@link System.Logger} {@code club.doki7.vulkan.debug}. Each message ID is rate limited:
+/// after {@code repeatLimit} messages within {@code windowNanos}, further ones are suppressed until
+/// the window ends, and the next message passed on carries the number suppressed. Many layers
+/// report {@code messageIdNumber} 0, so such messages are told apart by type and
+/// {@code pMessageIdName} instead.
+///
+/// {@snippet :
+/// DebugMessageSink sink = new DebugMessageSink(1024, 5, 1_000_000_000L, DebugMessageSink.logger());
+/// VkDebugUtilsMessengerCreateInfoEXT createInfo = VkDebugUtilsMessengerCreateInfoEXT.allocate(arena)
+///         .messageSeverity(VkDebugUtilsMessageSeverityFlagsEXT.WARNING | VkDebugUtilsMessageSeverityFlagsEXT.ERROR)
+///         .messageType(VkDebugUtilsMessageTypeFlagsEXT.VALIDATION | VkDebugUtilsMessageTypeFlagsEXT.PERFORMANCE)
+///         .pfnUserCallback(sink.callback());
+///
+/// // on shutdown, after vkDestroyDebugUtilsMessengerEXT
+/// sink.close();
+/// }
+public final class DebugMessageSink implements AutoCloseable {
+    /// Receives decoded messages on the sink's background thread.
+    @FunctionalInterface
+    public interface MessageHandler {
+        /// @param suppressed number of messages with the same ID suppressed by rate limiting since
+        ///                   the previous one passed on
+        void handle(
+                @EnumType(VkDebugUtilsMessageSeverityFlagsEXT.class) int severity,
+                @EnumType(VkDebugUtilsMessageTypeFlagsEXT.class) int type,
+                int messageId,
+                @NotNull String message,
+                int suppressed
+        );
+    }
+
+    /// A handler writing to the {@link System.Logger} {@code club.doki7.vulkan.debug}, mapping
+    /// {@code ERROR}, {@code WARNING}, {@code INFO} and {@code VERBOSE} to the levels of the same
+    /// name and {@code DEBUG}.
+    public static @NotNull MessageHandler logger() {
+        System.Logger logger = System.getLogger("club.doki7.vulkan.debug");
+        return (severity, type, messageId, message, suppressed) -> {
+            System.Logger.Level level;
+            if ((severity & VkDebugUtilsMessageSeverityFlagsEXT.ERROR) != 0) {
+                level = System.Logger.Level.ERROR;
+            } else if ((severity & VkDebugUtilsMessageSeverityFlagsEXT.WARNING) != 0) {
+                level = System.Logger.Level.WARNING;
+            } else if ((severity & VkDebugUtilsMessageSeverityFlagsEXT.INFO) != 0) {
+                level = System.Logger.Level.INFO;
+            } else {
+                level = System.Logger.Level.DEBUG;
+            }
+            if (suppressed > 0) {
+                logger.log(level, "{0} ({1} similar messages suppressed)", message, suppressed);
+            } else {
+                logger.log(level, message);
+            }
+        };
+    }
+
+    /// @param capacity number of ring slots, a power of two
+    /// @param repeatLimit messages passed on per message ID within one window
+    /// @param windowNanos length of the rate limiting window
+    /// @param handler receives the messages on the background thread; must not throw
+    public DebugMessageSink(int capacity, int repeatLimit, long windowNanos, @NotNull MessageHandler handler) {
+        this.ring = new NativeMessageRing(
+                capacity,
+                repeatLimit,
+                windowNanos,
+                "vulkan4j-debug-messages",
+                (severity, type, messageId, _, message, suppressed) ->
+                        handler.handle(severity, type, messageId, message, suppressed)
+        );
+        this.arena = Arena.ofShared();
+        try {
+            MethodHandle handle = MethodHandles.lookup()
+                    .findVirtual(
+                            DebugMessageSink.class,
+                            "callback",
+                            VkFunctionTypes.PFN_vkDebugUtilsMessengerCallbackEXT.toMethodType()
+                    )
+                    .bindTo(this);
+            this.callback = Linker.nativeLinker()
+                    .upcallStub(handle, VkFunctionTypes.PFN_vkDebugUtilsMessengerCallbackEXT, arena);
+        } catch (ReflectiveOperationException e) {
+            arena.close();
+            ring.close();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /// The {@code pfnUserCallback} to register. Valid until {@link #close}.
+    public @NotNull MemorySegment callback() {
+        return callback;
+    }
+
+    /// Number of messages dropped because the ring was full.
+    public long droppedCount() {
+        return ring.droppedCount();
+    }
+
+    /// Number of messages suppressed by rate limiting. Updated on the background thread.
+    public long suppressedCount() {
+        return ring.suppressedCount();
+    }
+
+    /// Passes on the messages still in the ring, stops the background thread and frees the
+    /// callback. Destroy the messenger using {@link #callback} first.
+    @Override
+    public void close() {
+        ring.close();
+        arena.close();
+    }
+
+    private @NativeType("VkBool32") @Unsigned int callback(
+            @EnumType(VkDebugUtilsMessageSeverityFlagsEXT.class) int severity,
+            @EnumType(VkDebugUtilsMessageTypeFlagsEXT.class) int type,
+            @Pointer(target = VkDebugUtilsMessengerCallbackDataEXT.class) MemorySegment pCallbackData,
+            @Pointer(comment = "void*") MemorySegment pUserData
+    ) {
+        long data = pCallbackData.address();
+        int messageId = ALL.get(ValueLayout.JAVA_INT, data + VkDebugUtilsMessengerCallbackDataEXT.OFFSET$messageIdNumber);
+        long message = readPointer(data + VkDebugUtilsMessengerCallbackDataEXT.OFFSET$pMessage);
+
+        // non-zero IDs keep the upper half clear; the type has at least one bit set
+        long key = messageId != 0
+                ? Integer.toUnsignedLong(messageId)
+                : ((long) type << 32)
+                  | Integer.toUnsignedLong(nameHash(readPointer(data + VkDebugUtilsMessengerCallbackDataEXT.OFFSET$pMessageIdName)));
+        ring.offer(key, severity, type, messageId, 0, message, -1);
+        return VkConstants.FALSE;
+    }
+
+    /// FNV-1a hash of the NUL-terminated string at {@code address}, read in place
+    private static int nameHash(long address) {
+        int hash = 0x811C9DC5;
+        if (address == 0) {
+            return hash;
+        }
+        for (int i = 0; i < MAX_NAME_BYTES; i++) {
+            byte b = ALL.get(ValueLayout.JAVA_BYTE, address + i);
+            if (b == 0) {
+                break;
+            }
+            hash = (hash ^ (b & 0xFF)) * 0x01000193;
+        }
+        return hash;
+    }
+
+    private static long readPointer(long address) {
+        return NativeLayout.POINTER_SIZE == Long.BYTES
+                ? ALL.get(ValueLayout.JAVA_LONG_UNALIGNED, address)
+                : Integer.toUnsignedLong(ALL.get(ValueLayout.JAVA_INT_UNALIGNED, address));
+    }
+
+    private static final MemorySegment ALL = MemorySegment.NULL.reinterpret(Long.MAX_VALUE);
+    private static final int MAX_NAME_BYTES = 256;
+
+    private final NativeMessageRing ring;
+    private final Arena arena;
+    private final MemorySegment callback;
+}
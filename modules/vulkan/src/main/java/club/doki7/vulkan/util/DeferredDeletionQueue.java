@@ -0,0 +1,410 @@
+package club.doki7.vulkan.util;
+
+import club.doki7.ffm.IPointer;
+import club.doki7.ffm.annotation.Unsigned;
+import club.doki7.vulkan.command.VkDeviceCommands;
+import club.doki7.vulkan.datatype.VkAllocationCallbacks;
+import club.doki7.vulkan.handle.VkBuffer;
+import club.doki7.vulkan.handle.VkBufferView;
+import club.doki7.vulkan.handle.VkCommandPool;
+import club.doki7.vulkan.handle.VkDescriptorPool;
+import club.doki7.vulkan.handle.VkDescriptorSetLayout;
+import club.doki7.vulkan.handle.VkDevice;
+import club.doki7.vulkan.handle.VkDeviceMemory;
+import club.doki7.vulkan.handle.VkEvent;
+import club.doki7.vulkan.handle.VkFence;
+import club.doki7.vulkan.handle.VkFramebuffer;
+import club.doki7.vulkan.handle.VkImage;
+import club.doki7.vulkan.handle.VkImageView;
+import club.doki7.vulkan.handle.VkPipeline;
+import club.doki7.vulkan.handle.VkPipelineLayout;
+import club.doki7.vulkan.handle.VkQueryPool;
+import club.doki7.vulkan.handle.VkRenderPass;
+import club.doki7.vulkan.handle.VkSampler;
+import club.doki7.vulkan.handle.VkSemaphore;
+import club.doki7.vulkan.handle.VkShaderModule;
+import club.doki7.vulkan.handle.VkSwapchainKHR;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.foreign.MemorySegment;
+import java.util.Arrays;
+
+/// Defers destruction of Vulkan objects until the GPU is known to be done with them, so resources
+/// can be retired without {@code vkDeviceWaitIdle}.
+///
+/// Every destruction request is tagged with a <i>retire value</i>: a monotonically increasing
+/// counter such as an absolute frame number or a timeline semaphore value. Once the application
+/// knows the GPU has passed that value (e.g. the in-flight fence of that frame has been waited, or
+/// the timeline semaphore has reached it), it calls {@link #collect} and all requests up to that
+/// value are executed in one batch.
+///
+/// {@snippet :
+/// // instead of deviceWaitIdle + destroy
+/// deletionQueue.destroyImageView(oldImageView, frameNumber);
+/// deletionQueue.destroyImage(oldImage, frameNumber);
+///
+/// // at the beginning of every frame, after waiting the in-flight fence
+/// deletionQueue.collect(frameNumber - MAX_FRAMES_IN_FLIGHT);
+/// }
+///
+/// Requests are stored in a ring of primitive arrays (handle addresses, an optional auxiliary
+/// address, the retire value and a one-byte kind tag), so enqueueing does not allocate Java
+/// objects once the ring has grown to its steady-state size. Kinds for objects not destroyed by
+/// {@link VkDeviceCommands}, such as VMA allocations, can be added with {@link #registerKind}.
+///
+/// Requests are executed in enqueue order. Collecting stops at the first request whose retire
+/// value has not been reached yet, so a request enqueued with a smaller value than its
+/// predecessors is never destroyed early, only later than necessary.
+///
+/// Enqueueing methods can be called from any thread. {@link #collect}, {@link #collectAll} and
+/// {@link #close} should be called from one thread at a time.
+public final class DeferredDeletionQueue implements AutoCloseable {
+    public static final int KIND_BUFFER = 0;
+    public static final int KIND_BUFFER_VIEW = 1;
+    public static final int KIND_IMAGE = 2;
+    public static final int KIND_IMAGE_VIEW = 3;
+    public static final int KIND_SAMPLER = 4;
+    public static final int KIND_DEVICE_MEMORY = 5;
+    public static final int KIND_PIPELINE = 6;
+    public static final int KIND_PIPELINE_LAYOUT = 7;
+    public static final int KIND_DESCRIPTOR_SET_LAYOUT = 8;
+    public static final int KIND_DESCRIPTOR_POOL = 9;
+    public static final int KIND_FRAMEBUFFER = 10;
+    public static final int KIND_RENDER_PASS = 11;
+    public static final int KIND_SHADER_MODULE = 12;
+    public static final int KIND_SEMAPHORE = 13;
+    public static final int KIND_FENCE = 14;
+    public static final int KIND_EVENT = 15;
+    public static final int KIND_QUERY_POOL = 16;
+    public static final int KIND_COMMAND_POOL = 17;
+    public static final int KIND_SWAPCHAIN_KHR = 18;
+
+    /// The first kind returned by {@link #registerKind}.
+    public static final int FIRST_CUSTOM_KIND = 32;
+    /// Kinds are stored in a byte, so at most {@code 256 - FIRST_CUSTOM_KIND} custom kinds.
+    public static final int MAX_KIND = 255;
+
+    /// Destroys an object of a custom kind.
+    ///
+    /// @see #registerKind
+    @FunctionalInterface
+    public interface Destroyer {
+        /// @param handle the handle passed to {@link #enqueue}
+        /// @param aux the auxiliary handle passed to {@link #enqueue}, {@link MemorySegment#NULL}
+        ///            if not used
+        void destroy(@NotNull MemorySegment handle, @NotNull MemorySegment aux);
+    }
+
+    /// @param deviceCommands device commands
+    /// @param device the device owning the objects
+    /// @param allocator allocation callbacks passed to the {@code vkDestroyXxx} functions, must
+    ///                  match the ones used on creation
+    public DeferredDeletionQueue(
+            @NotNull VkDeviceCommands deviceCommands,
+            @NotNull VkDevice device,
+            @Nullable VkAllocationCallbacks allocator
+    ) {
+        this.deviceCommands = deviceCommands;
+        this.device = device;
+        this.allocator = allocator;
+    }
+
+    /// Registers a new kind of object, which will be destroyed by {@code destroyer}.
+    ///
+    /// @return the kind to pass to {@link #enqueue}
+    /// @throws IllegalStateException if too many kinds are registered
+    public synchronized int registerKind(@NotNull Destroyer destroyer) {
+        int kind = FIRST_CUSTOM_KIND + customKindCount;
+        if (kind > MAX_KIND) {
+            throw new IllegalStateException("Too many custom kinds registered");
+        }
+        customDestroyers[customKindCount++] = destroyer;
+        return kind;
+    }
+
+    /// Requests destruction of an object once {@code retireValue} has been reached.
+    ///
+    /// @param kind one of the {@code KIND_*} constants or a kind returned by {@link #registerKind}
+    /// @param handle the object handle
+    /// @param aux auxiliary handle for custom kinds (e.g. the VMA allocation of a buffer),
+    ///            {@code null} if not used
+    /// @param retireValue the frame number or timeline value after which the object is unused
+    public void enqueue(
+            int kind,
+            @NotNull IPointer handle,
+            @Nullable IPointer aux,
+            @Unsigned long retireValue
+    ) {
+        enqueueRaw(
+                kind,
+                handle.segment().address(),
+                aux == null ? 0 : aux.segment().address(),
+                retireValue
+        );
+    }
+
+    public void destroyBuffer(@Nullable VkBuffer buffer, @Unsigned long retireValue) {
+        enqueueBuiltin(KIND_BUFFER, buffer, retireValue);
+    }
+
+    public void destroyBufferView(@Nullable VkBufferView bufferView, @Unsigned long retireValue) {
+        enqueueBuiltin(KIND_BUFFER_VIEW, bufferView, retireValue);
+    }
+
+    public void destroyImage(@Nullable VkImage image, @Unsigned long retireValue) {
+        enqueueBuiltin(KIND_IMAGE, image, retireValue);
+    }
+
+    public void destroyImageView(@Nullable VkImageView imageView, @Unsigned long retireValue) {
+        enqueueBuiltin(KIND_IMAGE_VIEW, imageView, retireValue);
+    }
+
+    public void destroySampler(@Nullable VkSampler sampler, @Unsigned long retireValue) {
+        enqueueBuiltin(KIND_SAMPLER, sampler, retireValue);
+    }
+
+    public void freeMemory(@Nullable VkDeviceMemory memory, @Unsigned long retireValue) {
+        enqueueBuiltin(KIND_DEVICE_MEMORY, memory, retireValue);
+    }
+
+    public void destroyPipeline(@Nullable VkPipeline pipeline, @Unsigned long retireValue) {
+        enqueueBuiltin(KIND_PIPELINE, pipeline, retireValue);
+    }
+
+    public void destroyPipelineLayout(@Nullable VkPipelineLayout pipelineLayout, @Unsigned long retireValue) {
+        enqueueBuiltin(KIND_PIPELINE_LAYOUT, pipelineLayout, retireValue);
+    }
+
+    public void destroyDescriptorSetLayout(
+            @Nullable VkDescriptorSetLayout descriptorSetLayout,
+            @Unsigned long retireValue
+    ) {
+        enqueueBuiltin(KIND_DESCRIPTOR_SET_LAYOUT, descriptorSetLayout, retireValue);
+    }
+
+    public void destroyDescriptorPool(@Nullable VkDescriptorPool descriptorPool, @Unsigned long retireValue) {
+        enqueueBuiltin(KIND_DESCRIPTOR_POOL, descriptorPool, retireValue);
+    }
+
+    public void destroyFramebuffer(@Nullable VkFramebuffer framebuffer, @Unsigned long retireValue) {
+        enqueueBuiltin(KIND_FRAMEBUFFER, framebuffer, retireValue);
+    }
+
+    public void destroyRenderPass(@Nullable VkRenderPass renderPass, @Unsigned long retireValue) {
+        enqueueBuiltin(KIND_RENDER_PASS, renderPass, retireValue);
+    }
+
+    public void destroyShaderModule(@Nullable VkShaderModule shaderModule, @Unsigned long retireValue) {
+        enqueueBuiltin(KIND_SHADER_MODULE, shaderModule, retireValue);
+    }
+
+    public void destroySemaphore(@Nullable VkSemaphore semaphore, @Unsigned long retireValue) {
+        enqueueBuiltin(KIND_SEMAPHORE, semaphore, retireValue);
+    }
+
+    public void destroyFence(@Nullable VkFence fence, @Unsigned long retireValue) {
+        enqueueBuiltin(KIND_FENCE, fence, retireValue);
+    }
+
+    public void destroyEvent(@Nullable VkEvent event, @Unsigned long retireValue) {
+        enqueueBuiltin(KIND_EVENT, event, retireValue);
+    }
+
+    public void destroyQueryPool(@Nullable VkQueryPool queryPool, @Unsigned long retireValue) {
+        enqueueBuiltin(KIND_QUERY_POOL, queryPool, retireValue);
+    }
+
+    public void destroyCommandPool(@Nullable VkCommandPool commandPool, @Unsigned long retireValue) {
+        enqueueBuiltin(KIND_COMMAND_POOL, commandPool, retireValue);
+    }
+
+    public void destroySwapchainKHR(@Nullable VkSwapchainKHR swapchain, @Unsigned long retireValue) {
+        enqueueBuiltin(KIND_SWAPCHAIN_KHR, swapchain, retireValue);
+    }
+
+    /// Number of requests not executed yet.
+    public synchronized int pendingCount() {
+        return count;
+    }
+
+    /// Executes all requests whose retire value is less than or equal to {@code completedValue}.
+    ///
+    /// Requests are popped from the ring in batches and destroyed outside the internal lock, so
+    /// other threads can keep enqueueing while this method runs. If a destroyer throws, the rest of
+    /// its batch is still destroyed and the first exception is rethrown afterwards.
+    ///
+    /// @param completedValue the frame number or timeline value the GPU has reached, compared
+    ///                       as unsigned
+    /// @return number of objects destroyed
+    public int collect(@Unsigned long completedValue) {
+        int destroyed = 0;
+        while (true) {
+            int batchSize = popBatch(completedValue, false);
+            if (batchSize == 0) {
+                return destroyed;
+            }
+            destroyBatch(batchSize);
+            destroyed += batchSize;
+        }
+    }
+
+    /// Executes all pending requests regardless of their retire values. The caller must make sure
+    /// the GPU is idle, e.g. on shutdown after {@code vkDeviceWaitIdle}.
+    ///
+    /// @return number of objects destroyed
+    public int collectAll() {
+        int destroyed = 0;
+        while (true) {
+            int batchSize = popBatch(0, true);
+            if (batchSize == 0) {
+                return destroyed;
+            }
+            destroyBatch(batchSize);
+            destroyed += batchSize;
+        }
+    }
+
+    /// Equivalent to {@link #collectAll()}.
+    @Override
+    public void close() {
+        collectAll();
+    }
+
+    private void enqueueBuiltin(int kind, @Nullable IPointer handle, @Unsigned long retireValue) {
+        if (handle != null) {
+            enqueueRaw(kind, handle.segment().address(), 0, retireValue);
+        }
+    }
+
+    private synchronized void enqueueRaw(int kind, long handle, long aux, @Unsigned long retireValue) {
+        if (kind < 0
+            || kind > MAX_KIND
+            || (kind > KIND_SWAPCHAIN_KHR && kind < FIRST_CUSTOM_KIND)
+            || kind >= FIRST_CUSTOM_KIND + customKindCount) {
+            throw new IllegalArgumentException("Unknown deletion kind: " + kind);
+        }
+
+        if (count == kinds.length) {
+            grow();
+        }
+        int index = (head + count) & (kinds.length - 1);
+        kinds[index] = (byte) kind;
+        handles[index] = handle;
+        auxHandles[index] = aux;
+        retireValues[index] = retireValue;
+        count++;
+    }
+
+    private void grow() {
+        int oldCapacity = kinds.length;
+        int newCapacity = oldCapacity * 2;
+        byte[] newKinds = new byte[newCapacity];
+        long[] newHandles = new long[newCapacity];
+        long[] newAuxHandles = new long[newCapacity];
+        long[] newRetireValues = new long[newCapacity];
+        for (int i = 0; i < count; i++) {
+            int index = (head + i) & (oldCapacity - 1);
+            newKinds[i] = kinds[index];
+            newHandles[i] = handles[index];
+            newAuxHandles[i] = auxHandles[index];
+            newRetireValues[i] = retireValues[index];
+        }
+        kinds = newKinds;
+        handles = newHandles;
+        auxHandles = newAuxHandles;
+        retireValues = newRetireValues;
+        head = 0;
+    }
+
+    private synchronized int popBatch(@Unsigned long completedValue, boolean all) {
+        int batchSize = 0;
+        while (batchSize < BATCH_SIZE && count > 0) {
+            if (!all && Long.compareUnsigned(retireValues[head], completedValue) > 0) {
+                break;
+            }
+            batchKinds[batchSize] = kinds[head];
+            batchHandles[batchSize] = handles[head];
+            batchAuxHandles[batchSize] = auxHandles[head];
+            batchSize++;
+            head = (head + 1) & (kinds.length - 1);
+            count--;
+        }
+        return batchSize;
+    }
+
+    private void destroyBatch(int batchSize) {
+        // the batch is already off the ring, so a failing destroyer must not leak the rest of it
+        RuntimeException failure = null;
+        for (int i = 0; i < batchSize; i++) {
+            try {
+                destroy(batchKinds[i] & 0xFF, batchHandles[i], batchAuxHandles[i]);
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void destroy(int kind, long handleAddress, long auxAddress) {
+        MemorySegment handle = MemorySegment.ofAddress(handleAddress);
+        switch (kind) {
+            case KIND_BUFFER -> deviceCommands.destroyBuffer(device, new VkBuffer(handle), allocator);
+            case KIND_BUFFER_VIEW -> deviceCommands.destroyBufferView(device, new VkBufferView(handle), allocator);
+            case KIND_IMAGE -> deviceCommands.destroyImage(device, new VkImage(handle), allocator);
+            case KIND_IMAGE_VIEW -> deviceCommands.destroyImageView(device, new VkImageView(handle), allocator);
+            case KIND_SAMPLER -> deviceCommands.destroySampler(device, new VkSampler(handle), allocator);
+            case KIND_DEVICE_MEMORY -> deviceCommands.freeMemory(device, new VkDeviceMemory(handle), allocator);
+            case KIND_PIPELINE -> deviceCommands.destroyPipeline(device, new VkPipeline(handle), allocator);
+            case KIND_PIPELINE_LAYOUT ->
+                    deviceCommands.destroyPipelineLayout(device, new VkPipelineLayout(handle), allocator);
+            case KIND_DESCRIPTOR_SET_LAYOUT ->
+                    deviceCommands.destroyDescriptorSetLayout(device, new VkDescriptorSetLayout(handle), allocator);
+            case KIND_DESCRIPTOR_POOL ->
+                    deviceCommands.destroyDescriptorPool(device, new VkDescriptorPool(handle), allocator);
+            case KIND_FRAMEBUFFER -> deviceCommands.destroyFramebuffer(device, new VkFramebuffer(handle), allocator);
+            case KIND_RENDER_PASS -> deviceCommands.destroyRenderPass(device, new VkRenderPass(handle), allocator);
+            case KIND_SHADER_MODULE ->
+                    deviceCommands.destroyShaderModule(device, new VkShaderModule(handle), allocator);
+            case KIND_SEMAPHORE -> deviceCommands.destroySemaphore(device, new VkSemaphore(handle), allocator);
+            case KIND_FENCE -> deviceCommands.destroyFence(device, new VkFence(handle), allocator);
+            case KIND_EVENT -> deviceCommands.destroyEvent(device, new VkEvent(handle), allocator);
+            case KIND_QUERY_POOL -> deviceCommands.destroyQueryPool(device, new VkQueryPool(handle), allocator);
+            case KIND_COMMAND_POOL -> deviceCommands.destroyCommandPool(device, new VkCommandPool(handle), allocator);
+            case KIND_SWAPCHAIN_KHR ->
+                    deviceCommands.destroySwapchainKHR(device, new VkSwapchainKHR(handle), allocator);
+            default -> customDestroyers[kind - FIRST_CUSTOM_KIND].destroy(
+                    handle,
+                    MemorySegment.ofAddress(auxAddress)
+            );
+        }
+    }
+
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int BATCH_SIZE = 64;
+
+    private final VkDeviceCommands deviceCommands;
+    private final VkDevice device;
+    private final @Nullable VkAllocationCallbacks allocator;
+    private final Destroyer[] customDestroyers = new Destroyer[MAX_KIND - FIRST_CUSTOM_KIND + 1];
+    private int customKindCount;
+
+    // ring buffer, capacity is always a power of two
+    private byte[] kinds = new byte[INITIAL_CAPACITY];
+    private long[] handles = new long[INITIAL_CAPACITY];
+    private long[] auxHandles = new long[INITIAL_CAPACITY];
+    private long[] retireValues = new long[INITIAL_CAPACITY];
+    private int head;
+    private int count;
+
+    // only accessed by the collecting thread
+    private final byte[] batchKinds = new byte[BATCH_SIZE];
+    private final long[] batchHandles = new long[BATCH_SIZE];
+    private final long[] batchAuxHandles = new long[BATCH_SIZE];
+}
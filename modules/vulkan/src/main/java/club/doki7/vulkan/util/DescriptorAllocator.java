@@ -0,0 +1,201 @@
+package club.doki7.vulkan.util;
+
+import club.doki7.ffm.IPointer;
+import club.doki7.ffm.annotation.EnumType;
+import club.doki7.vulkan.bitmask.VkDescriptorPoolCreateFlags;
+import club.doki7.vulkan.command.VkDeviceCommands;
+import club.doki7.vulkan.datatype.VkDescriptorPoolCreateInfo;
+import club.doki7.vulkan.datatype.VkDescriptorPoolSize;
+import club.doki7.vulkan.datatype.VkDescriptorSetAllocateInfo;
+import club.doki7.vulkan.enumtype.VkDescriptorType;
+import club.doki7.vulkan.enumtype.VkResult;
+import club.doki7.vulkan.handle.VkDescriptorPool;
+import club.doki7.vulkan.handle.VkDescriptorSet;
+import club.doki7.vulkan.handle.VkDescriptorSetLayout;
+import club.doki7.vulkan.handle.VkDevice;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.ArrayList;
+import java.util.Objects;
+
+/// Allocates descriptor sets from a growing list of {@link VkDescriptorPool}s.
+///
+/// A fixed-size descriptor pool fails with {@link VkResult#ERROR_OUT_OF_POOL_MEMORY} or
+/// {@link VkResult#ERROR_FRAGMENTED_POOL} once exhausted. This allocator instead transparently
+/// creates a new pool (each one larger than the previous, up to a limit) and retries. Pool sizes
+/// are derived from {@link PoolSizeRatio}s: a ratio of {@code 2.0} for
+/// {@link VkDescriptorType#COMBINED_IMAGE_SAMPLER} means each pool can hold two such descriptors
+/// per set on average.
+///
+/// Individual sets are never freed. Instead {@link #resetPools()} recycles all pools at once
+/// with {@link VkDeviceCommands#resetDescriptorPool}, which is cheap and never fragments. For
+/// per-frame descriptor sets, keep one allocator per frame in flight and reset it after waiting
+/// the in-flight fence of that frame.
+///
+/// This class is not thread safe.
+public final class DescriptorAllocator implements AutoCloseable {
+    /// Number of descriptors of {@code type} per set, on average.
+    public record PoolSizeRatio(@EnumType(VkDescriptorType.class) int type, float ratio) {}
+
+    /// @param deviceCommands device commands
+    /// @param device the device
+    /// @param ratios descriptor counts per set
+    /// @param initialSetsPerPool {@code maxSets} of the first pool
+    /// @param maxSetsPerPool upper bound of {@code maxSets} when growing pools
+    /// @param poolFlags flags for pool creation, e.g.
+    ///                  {@link VkDescriptorPoolCreateFlags#UPDATE_AFTER_BIND}
+    public DescriptorAllocator(
+            @NotNull VkDeviceCommands deviceCommands,
+            @NotNull VkDevice device,
+            PoolSizeRatio @NotNull [] ratios,
+            int initialSetsPerPool,
+            int maxSetsPerPool,
+            @EnumType(VkDescriptorPoolCreateFlags.class) int poolFlags
+    ) {
+        if (ratios.length == 0 || initialSetsPerPool <= 0 || maxSetsPerPool < initialSetsPerPool) {
+            throw new IllegalArgumentException("Invalid descriptor allocator configuration");
+        }
+
+        this.deviceCommands = deviceCommands;
+        this.device = device;
+        this.ratios = ratios.clone();
+        this.maxSetsPerPool = maxSetsPerPool;
+        this.nextSetsPerPool = initialSetsPerPool;
+
+        this.arena = Arena.ofShared();
+        this.poolSizes = VkDescriptorPoolSize.allocate(arena, ratios.length);
+        this.poolCreateInfo = VkDescriptorPoolCreateInfo.allocate(arena)
+                .flags(poolFlags)
+                .poolSizeCount(ratios.length)
+                .pPoolSizes(poolSizes);
+        this.pPool = VkDescriptorPool.Ptr.allocate(arena);
+        this.pSetLayout = VkDescriptorSetLayout.Ptr.allocate(arena);
+        this.pSet = VkDescriptorSet.Ptr.allocate(arena);
+        this.allocateInfo = VkDescriptorSetAllocateInfo.allocate(arena)
+                .descriptorSetCount(1)
+                .pSetLayouts(pSetLayout);
+    }
+
+    /// Allocates one descriptor set with {@code layout}.
+    ///
+    /// @throws RuntimeException if allocation fails even from a brand-new pool
+    public @NotNull VkDescriptorSet allocate(@NotNull VkDescriptorSetLayout layout) {
+        return allocate(layout, null);
+    }
+
+    /// Allocates one descriptor set with {@code layout}.
+    ///
+    /// @param layout the descriptor set layout
+    /// @param pNext extension structure for {@link VkDescriptorSetAllocateInfo}, e.g.
+    ///              {@code VkDescriptorSetVariableDescriptorCountAllocateInfo}
+    /// @throws RuntimeException if allocation fails even from a brand-new pool
+    public @NotNull VkDescriptorSet allocate(@NotNull VkDescriptorSetLayout layout, @Nullable IPointer pNext) {
+        pSetLayout.write(layout);
+        allocateInfo.pNext(pNext);
+
+        if (currentPool == null) {
+            currentPool = acquirePool();
+        }
+        allocateInfo.descriptorPool(currentPool);
+        int result = deviceCommands.allocateDescriptorSets(device, allocateInfo, pSet);
+        if (result == VkResult.ERROR_OUT_OF_POOL_MEMORY || result == VkResult.ERROR_FRAGMENTED_POOL) {
+            fullPools.add(currentPool);
+            currentPool = acquirePool();
+            allocateInfo.descriptorPool(currentPool);
+            result = deviceCommands.allocateDescriptorSets(device, allocateInfo, pSet);
+        }
+
+        allocateInfo.pNext(MemorySegment.NULL);
+        if (result != VkResult.SUCCESS) {
+            throw new RuntimeException("Failed to allocate descriptor set: " + VkResult.explain(result));
+        }
+        return Objects.requireNonNull(pSet.read());
+    }
+
+    /// Resets every pool with {@link VkDeviceCommands#resetDescriptorPool}, returning all
+    /// descriptor sets allocated from this allocator to it at once.
+    ///
+    /// The caller must make sure no descriptor set allocated from this allocator is still in use
+    /// by the GPU.
+    ///
+    /// @throws RuntimeException if resetting fails
+    public void resetPools() {
+        if (currentPool != null) {
+            fullPools.add(currentPool);
+            currentPool = null;
+        }
+        for (VkDescriptorPool pool : fullPools) {
+            int result = deviceCommands.resetDescriptorPool(device, pool, 0);
+            if (result != VkResult.SUCCESS) {
+                throw new RuntimeException("Failed to reset descriptor pool: " + VkResult.explain(result));
+            }
+            readyPools.add(pool);
+        }
+        fullPools.clear();
+    }
+
+    /// Number of pools created so far.
+    public int poolCount() {
+        return readyPools.size() + fullPools.size() + (currentPool != null ? 1 : 0);
+    }
+
+    /// Destroys all pools, and thus all descriptor sets allocated from them.
+    @Override
+    public void close() {
+        if (currentPool != null) {
+            deviceCommands.destroyDescriptorPool(device, currentPool, null);
+            currentPool = null;
+        }
+        for (VkDescriptorPool pool : readyPools) {
+            deviceCommands.destroyDescriptorPool(device, pool, null);
+        }
+        for (VkDescriptorPool pool : fullPools) {
+            deviceCommands.destroyDescriptorPool(device, pool, null);
+        }
+        readyPools.clear();
+        fullPools.clear();
+        arena.close();
+    }
+
+    private VkDescriptorPool acquirePool() {
+        if (!readyPools.isEmpty()) {
+            return readyPools.removeLast();
+        }
+
+        int setCount = nextSetsPerPool;
+        for (int i = 0; i < ratios.length; i++) {
+            poolSizes.at(i)
+                    .type(ratios[i].type())
+                    .descriptorCount(Math.max(1, (int) Math.ceil(ratios[i].ratio() * setCount)));
+        }
+        poolCreateInfo.maxSets(setCount);
+
+        int result = deviceCommands.createDescriptorPool(device, poolCreateInfo, null, pPool);
+        if (result != VkResult.SUCCESS) {
+            throw new RuntimeException("Failed to create descriptor pool: " + VkResult.explain(result));
+        }
+        nextSetsPerPool = Math.min(maxSetsPerPool, setCount + setCount / 2);
+        return Objects.requireNonNull(pPool.read());
+    }
+
+    private final VkDeviceCommands deviceCommands;
+    private final VkDevice device;
+    private final PoolSizeRatio[] ratios;
+    private final int maxSetsPerPool;
+    private int nextSetsPerPool;
+
+    private final ArrayList<VkDescriptorPool> readyPools = new ArrayList<>();
+    private final ArrayList<VkDescriptorPool> fullPools = new ArrayList<>();
+    private @Nullable VkDescriptorPool currentPool;
+
+    private final Arena arena;
+    private final VkDescriptorPoolSize.Ptr poolSizes;
+    private final VkDescriptorPoolCreateInfo poolCreateInfo;
+    private final VkDescriptorPool.Ptr pPool;
+    private final VkDescriptorSetLayout.Ptr pSetLayout;
+    private final VkDescriptorSet.Ptr pSet;
+    private final VkDescriptorSetAllocateInfo allocateInfo;
+}
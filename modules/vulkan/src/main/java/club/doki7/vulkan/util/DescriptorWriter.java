@@ -0,0 +1,229 @@
+package club.doki7.vulkan.util;
+
+import club.doki7.ffm.annotation.EnumType;
+import club.doki7.ffm.annotation.NativeType;
+import club.doki7.ffm.annotation.Unsigned;
+import club.doki7.vulkan.command.VkDeviceCommands;
+import club.doki7.vulkan.datatype.VkDescriptorBufferInfo;
+import club.doki7.vulkan.datatype.VkDescriptorImageInfo;
+import club.doki7.vulkan.datatype.VkWriteDescriptorSet;
+import club.doki7.vulkan.enumtype.VkDescriptorType;
+import club.doki7.vulkan.enumtype.VkImageLayout;
+import club.doki7.vulkan.handle.VkBuffer;
+import club.doki7.vulkan.handle.VkDescriptorSet;
+import club.doki7.vulkan.handle.VkDevice;
+import club.doki7.vulkan.handle.VkImageView;
+import club.doki7.vulkan.handle.VkSampler;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.Arrays;
+
+/// Accumulates descriptor writes and applies them with a single
+/// {@link VkDeviceCommands#updateDescriptorSets} call.
+///
+/// {@link VkWriteDescriptorSet}, {@link VkDescriptorBufferInfo} and {@link VkDescriptorImageInfo}
+/// entries are kept in native arrays owned by the writer, which are reused after every
+/// {@link #flush} and only reallocated when they need to grow. Since the arrays may move while
+/// growing, the {@code pBufferInfo}/{@code pImageInfo} pointers are only patched in right before
+/// the update call.
+///
+/// Consecutive writes to consecutive array elements of the same binding are merged into one
+/// {@link VkWriteDescriptorSet} with a larger {@code descriptorCount}.
+///
+/// {@snippet :
+/// writer.writeBuffer(descriptorSet, 0, 0, VkDescriptorType.UNIFORM_BUFFER, uniformBuffer, 0, uboSize)
+///       .writeImage(descriptorSet, 1, 0, VkDescriptorType.COMBINED_IMAGE_SAMPLER,
+///                   textureImageView, textureSampler, VkImageLayout.SHADER_READ_ONLY_OPTIMAL)
+///       .flush();
+/// }
+///
+/// This class is not thread safe.
+public final class DescriptorWriter implements AutoCloseable {
+    public DescriptorWriter(@NotNull VkDeviceCommands deviceCommands, @NotNull VkDevice device) {
+        this.deviceCommands = deviceCommands;
+        this.device = device;
+        this.arena = Arena.ofShared();
+        this.writes = VkWriteDescriptorSet.allocate(arena, INITIAL_CAPACITY);
+        this.bufferInfos = VkDescriptorBufferInfo.allocate(arena, INITIAL_CAPACITY);
+        this.imageInfos = VkDescriptorImageInfo.allocate(arena, INITIAL_CAPACITY);
+    }
+
+    /// Adds a buffer descriptor write.
+    ///
+    /// @param dstSet destination descriptor set
+    /// @param binding destination binding
+    /// @param arrayElement destination array element
+    /// @param type one of the uniform/storage buffer descriptor types
+    /// @param buffer the buffer
+    /// @param offset offset into the buffer in bytes
+    /// @param range size in bytes, or {@code VK_WHOLE_SIZE}
+    public @NotNull DescriptorWriter writeBuffer(
+            @NotNull VkDescriptorSet dstSet,
+            @Unsigned int binding,
+            @Unsigned int arrayElement,
+            @EnumType(VkDescriptorType.class) int type,
+            @NotNull VkBuffer buffer,
+            @NativeType("VkDeviceSize") @Unsigned long offset,
+            @NativeType("VkDeviceSize") @Unsigned long range
+    ) {
+        if (bufferInfoCount == bufferInfos.size()) {
+            bufferInfos = growBufferInfos(bufferInfos);
+        }
+        bufferInfos.at(bufferInfoCount)
+                .buffer(buffer)
+                .offset(offset)
+                .range(range);
+        addWrite(dstSet, binding, arrayElement, type, INFO_BUFFER, bufferInfoCount);
+        bufferInfoCount++;
+        return this;
+    }
+
+    /// Adds an image, sampler or combined image sampler descriptor write.
+    ///
+    /// @param dstSet destination descriptor set
+    /// @param binding destination binding
+    /// @param arrayElement destination array element
+    /// @param type one of the image/sampler descriptor types
+    /// @param imageView the image view, {@code null} for {@link VkDescriptorType#SAMPLER}
+    /// @param sampler the sampler, {@code null} unless the type uses a sampler
+    /// @param imageLayout layout of the image when accessed through this descriptor
+    public @NotNull DescriptorWriter writeImage(
+            @NotNull VkDescriptorSet dstSet,
+            @Unsigned int binding,
+            @Unsigned int arrayElement,
+            @EnumType(VkDescriptorType.class) int type,
+            @Nullable VkImageView imageView,
+            @Nullable VkSampler sampler,
+            @EnumType(VkImageLayout.class) int imageLayout
+    ) {
+        if (imageInfoCount == imageInfos.size()) {
+            imageInfos = growImageInfos(imageInfos);
+        }
+        imageInfos.at(imageInfoCount)
+                .imageView(imageView)
+                .sampler(sampler)
+                .imageLayout(imageLayout);
+        addWrite(dstSet, binding, arrayElement, type, INFO_IMAGE, imageInfoCount);
+        imageInfoCount++;
+        return this;
+    }
+
+    /// Number of {@link VkWriteDescriptorSet} entries pending, after merging.
+    public int pendingWriteCount() {
+        return writeCount;
+    }
+
+    /// Applies all pending writes with one {@link VkDeviceCommands#updateDescriptorSets} call,
+    /// then clears the writer for reuse.
+    public void flush() {
+        if (writeCount == 0) {
+            return;
+        }
+
+        for (int i = 0; i < writeCount; i++) {
+            VkWriteDescriptorSet write = writes.at(i);
+            if (writeInfoKinds[i] == INFO_BUFFER) {
+                write.pBufferInfo(bufferInfos.offset(writeInfoIndices[i]));
+                write.pImageInfoRaw(MemorySegment.NULL);
+            } else {
+                write.pImageInfo(imageInfos.offset(writeInfoIndices[i]));
+                write.pBufferInfoRaw(MemorySegment.NULL);
+            }
+        }
+        deviceCommands.updateDescriptorSets(device, writeCount, writes, 0, null);
+        clear();
+    }
+
+    /// Discards all pending writes.
+    public void clear() {
+        // info pointers are left as-is, flush always overwrites them before use
+        writeCount = 0;
+        bufferInfoCount = 0;
+        imageInfoCount = 0;
+    }
+
+    @Override
+    public void close() {
+        arena.close();
+    }
+
+    private void addWrite(
+            VkDescriptorSet dstSet,
+            @Unsigned int binding,
+            @Unsigned int arrayElement,
+            @EnumType(VkDescriptorType.class) int type,
+            byte infoKind,
+            int infoIndex
+    ) {
+        if (writeCount > 0) {
+            int last = writeCount - 1;
+            VkWriteDescriptorSet lastWrite = writes.at(last);
+            if (writeInfoKinds[last] == infoKind
+                && lastWrite.dstBinding() == binding
+                && lastWrite.descriptorType() == type
+                && lastWrite.dstArrayElement() + lastWrite.descriptorCount() == arrayElement
+                && writeInfoIndices[last] + lastWrite.descriptorCount() == infoIndex
+                && writeSetAddresses[last] == dstSet.segment().address()) {
+                lastWrite.descriptorCount(lastWrite.descriptorCount() + 1);
+                return;
+            }
+        }
+
+        if (writeCount == writes.size()) {
+            growWrites();
+        }
+        writes.at(writeCount)
+                .dstSet(dstSet)
+                .dstBinding(binding)
+                .dstArrayElement(arrayElement)
+                .descriptorCount(1)
+                .descriptorType(type);
+        writeSetAddresses[writeCount] = dstSet.segment().address();
+        writeInfoKinds[writeCount] = infoKind;
+        writeInfoIndices[writeCount] = infoIndex;
+        writeCount++;
+    }
+
+    private void growWrites() {
+        int newCapacity = (int) writes.size() * 2;
+        VkWriteDescriptorSet.Ptr newWrites = VkWriteDescriptorSet.allocate(arena, newCapacity);
+        newWrites.segment().copyFrom(writes.segment());
+        writes = newWrites;
+        writeSetAddresses = Arrays.copyOf(writeSetAddresses, newCapacity);
+        writeInfoKinds = Arrays.copyOf(writeInfoKinds, newCapacity);
+        writeInfoIndices = Arrays.copyOf(writeInfoIndices, newCapacity);
+    }
+
+    private VkDescriptorBufferInfo.Ptr growBufferInfos(VkDescriptorBufferInfo.Ptr old) {
+        VkDescriptorBufferInfo.Ptr ret = VkDescriptorBufferInfo.allocate(arena, old.size() * 2);
+        ret.segment().copyFrom(old.segment());
+        return ret;
+    }
+
+    private VkDescriptorImageInfo.Ptr growImageInfos(VkDescriptorImageInfo.Ptr old) {
+        VkDescriptorImageInfo.Ptr ret = VkDescriptorImageInfo.allocate(arena, old.size() * 2);
+        ret.segment().copyFrom(old.segment());
+        return ret;
+    }
+
+    private static final int INITIAL_CAPACITY = 32;
+    private static final byte INFO_BUFFER = 0;
+    private static final byte INFO_IMAGE = 1;
+
+    private final VkDeviceCommands deviceCommands;
+    private final VkDevice device;
+    // grown arrays are only released on close, doubling keeps the waste bounded
+    private final Arena arena;
+    private VkWriteDescriptorSet.Ptr writes;
+    private VkDescriptorBufferInfo.Ptr bufferInfos;
+    private VkDescriptorImageInfo.Ptr imageInfos;
+    private long[] writeSetAddresses = new long[INITIAL_CAPACITY];
+    private byte[] writeInfoKinds = new byte[INITIAL_CAPACITY];
+    private int[] writeInfoIndices = new int[INITIAL_CAPACITY];
+    private int writeCount;
+    private int bufferInfoCount;
+    private int imageInfoCount;
+}
@@ -0,0 +1,715 @@
+package club.doki7.vulkan.util;
+
+import club.doki7.ffm.annotation.EnumType;
+import club.doki7.ffm.annotation.Unsigned;
+import club.doki7.ffm.ptr.IntPtr;
+import club.doki7.vulkan.Version;
+import club.doki7.vulkan.bitmask.VkFormatFeatureFlags;
+import club.doki7.vulkan.command.VkInstanceCommands;
+import club.doki7.vulkan.datatype.VkExtensionProperties;
+import club.doki7.vulkan.datatype.VkFormatProperties;
+import club.doki7.vulkan.datatype.VkPhysicalDeviceFeatures;
+import club.doki7.vulkan.datatype.VkPhysicalDeviceFeatures2;
+import club.doki7.vulkan.datatype.VkPhysicalDeviceIDProperties;
+import club.doki7.vulkan.datatype.VkPhysicalDeviceMemoryProperties;
+import club.doki7.vulkan.datatype.VkPhysicalDeviceProperties;
+import club.doki7.vulkan.datatype.VkPhysicalDeviceProperties2;
+import club.doki7.vulkan.datatype.VkPhysicalDeviceVulkan11Features;
+import club.doki7.vulkan.datatype.VkPhysicalDeviceVulkan11Properties;
+import club.doki7.vulkan.datatype.VkPhysicalDeviceVulkan12Features;
+import club.doki7.vulkan.datatype.VkPhysicalDeviceVulkan12Properties;
+import club.doki7.vulkan.datatype.VkPhysicalDeviceVulkan13Features;
+import club.doki7.vulkan.datatype.VkPhysicalDeviceVulkan13Properties;
+import club.doki7.vulkan.datatype.VkQueueFamilyProperties;
+import club.doki7.vulkan.enumtype.VkFormat;
+import club.doki7.vulkan.enumtype.VkResult;
+import club.doki7.vulkan.handle.VkPhysicalDevice;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/// An immutable snapshot of the capabilities of a physical device: properties, features (core and
+/// {@code Vulkan11/12/13}), memory properties, queue families, device extensions and the format
+/// properties of every {@link VkFormat} available on the device.
+///
+/// Gathering costs a few hundred downcalls, mostly format queries. The snapshot can be saved to a
+/// file keyed by the device UUID and driver version, so that later runs only query the key and
+/// map the file:
+///
+/// {@snippet :
+/// DeviceCapabilities capabilities = DeviceCapabilities.loadOrGather(
+///         instanceCommands, physicalDevice, cacheDirectory.resolve("device.caps")
+/// );
+/// if (capabilities.hasExtension("VK_EXT_mesh_shader")) { /* ... */ }
+/// int depthFormat = capabilities.findSupportedFormat(
+///         new int[] { VkFormat.D32_SFLOAT, VkFormat.D24_UNORM_S8_UINT }, true,
+///         VkFormatFeatureFlags.DEPTH_STENCIL_ATTACHMENT
+/// );
+/// }
+///
+/// The snapshot is a single native memory image in the same layout as the file: structures are
+/// read-only views into it (their setters throw), and a loaded snapshot reads them straight from
+/// the mapping. Format features are copied into an {@code int[]} indexed by format, so lookups of
+/// core formats are a single array access; extension formats are found by binary search over a
+/// short sorted array. {@code pNext} fields of the stored structures are always {@code NULL}.
+///
+/// Only formats of the core version reported by the device and of its supported extensions are
+/// queried; the others, including those of extensions newer than this class, report no features.
+///
+/// The {@code Vulkan11/12/13} structures are gathered when the device reports at least Vulkan 1.2
+/// (1.3 for the {@code Vulkan13} ones) and the instance has {@code vkGetPhysicalDeviceProperties2}
+/// or its KHR alias; otherwise the corresponding accessors return {@code null}.
+public final class DeviceCapabilities {
+    /// Queries every capability of {@code physicalDevice}.
+    public static @NotNull DeviceCapabilities gather(
+            @NotNull VkInstanceCommands instanceCommands,
+            @NotNull VkPhysicalDevice physicalDevice
+    ) {
+        try (Arena arena = Arena.ofConfined()) {
+            Key key = queryKey(instanceCommands, physicalDevice, arena);
+            return gather(instanceCommands, physicalDevice, key, arena);
+        }
+    }
+
+    /// Loads the snapshot saved in {@code file} if it was gathered from the same device and
+    /// driver, otherwise gathers a new one and saves it to {@code file}. The driver is only asked
+    /// for its properties when the file is valid.
+    ///
+    /// @throws IOException if the new snapshot cannot be written
+    public static @NotNull DeviceCapabilities loadOrGather(
+            @NotNull VkInstanceCommands instanceCommands,
+            @NotNull VkPhysicalDevice physicalDevice,
+            @NotNull Path file
+    ) throws IOException {
+        try (Arena arena = Arena.ofConfined()) {
+            Key key = queryKey(instanceCommands, physicalDevice, arena);
+            DeviceCapabilities loaded = load(file, key.driverVersion, key.uuid);
+            if (loaded != null) {
+                return loaded;
+            }
+
+            DeviceCapabilities gathered = gather(instanceCommands, physicalDevice, key, arena);
+            gathered.save(file);
+            return gathered;
+        }
+    }
+
+    /// Maps a snapshot saved by {@link #save}.
+    ///
+    /// @param driverVersion expected {@code VkPhysicalDeviceProperties::driverVersion}
+    /// @param deviceUUID expected {@link #deviceUUID()}
+    /// @return the snapshot, or {@code null} if the file does not exist, is not a snapshot of this
+    ///         format version, or was saved for another device or driver
+    /// @throws IOException if the file exists but cannot be read
+    public static @Nullable DeviceCapabilities load(
+            @NotNull Path file,
+            @Unsigned int driverVersion,
+            byte @NotNull [] deviceUUID
+    ) throws IOException {
+        MemorySegment data;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                return null;
+            }
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size, Arena.ofAuto());
+        } catch (NoSuchFileException _) {
+            return null;
+        }
+
+        if (data.get(ValueLayout.JAVA_LONG, H_MAGIC) != MAGIC
+            || data.get(ValueLayout.JAVA_INT, H_VERSION) != FORMAT_VERSION
+            || data.get(ValueLayout.JAVA_INT, H_LAYOUT_CHECK) != LAYOUT_CHECK
+            || data.get(ValueLayout.JAVA_INT, H_DRIVER_VERSION) != driverVersion
+            || !Arrays.equals(data.asSlice(H_UUID, UUID_SIZE).toArray(ValueLayout.JAVA_BYTE), deviceUUID)) {
+            return null;
+        }
+        Layout layout = Layout.of(data);
+        if (layout.size != data.byteSize()) {
+            return null;
+        }
+        return new DeviceCapabilities(data, layout, true);
+    }
+
+    /// Writes the snapshot to {@code file}, atomically replacing it when the file system allows.
+    public void save(@NotNull Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(
+                temp,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING
+        )) {
+            ByteBuffer buffer = data.asByteBuffer();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException _) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /// Whether the snapshot was loaded from a file rather than gathered.
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public @Unsigned int driverVersion() {
+        return properties.driverVersion();
+    }
+
+    /// {@code VkPhysicalDeviceIDProperties::deviceUUID}, or
+    /// {@code VkPhysicalDeviceProperties::pipelineCacheUUID} when the instance cannot query it.
+    public byte @NotNull [] deviceUUID() {
+        return data.asSlice(H_UUID, UUID_SIZE).toArray(ValueLayout.JAVA_BYTE);
+    }
+
+    public @NotNull VkPhysicalDeviceProperties properties() {
+        return properties;
+    }
+
+    public @NotNull VkPhysicalDeviceFeatures features() {
+        return features;
+    }
+
+    public @Nullable VkPhysicalDeviceVulkan11Features vulkan11Features() {
+        return vulkan11Features;
+    }
+
+    public @Nullable VkPhysicalDeviceVulkan12Features vulkan12Features() {
+        return vulkan12Features;
+    }
+
+    public @Nullable VkPhysicalDeviceVulkan13Features vulkan13Features() {
+        return vulkan13Features;
+    }
+
+    public @Nullable VkPhysicalDeviceVulkan11Properties vulkan11Properties() {
+        return vulkan11Properties;
+    }
+
+    public @Nullable VkPhysicalDeviceVulkan12Properties vulkan12Properties() {
+        return vulkan12Properties;
+    }
+
+    public @Nullable VkPhysicalDeviceVulkan13Properties vulkan13Properties() {
+        return vulkan13Properties;
+    }
+
+    public @NotNull VkPhysicalDeviceMemoryProperties memoryProperties() {
+        return memoryProperties;
+    }
+
+    public @NotNull VkQueueFamilyProperties.Ptr queueFamilies() {
+        return queueFamilies;
+    }
+
+    public boolean hasExtension(@NotNull String name) {
+        return extensions.containsKey(name);
+    }
+
+    /// @return the spec version of device extension {@code name}, or {@code 0} if unsupported
+    public @Unsigned int extensionSpecVersion(@NotNull String name) {
+        return extensions.getOrDefault(name, 0);
+    }
+
+    /// Names of all supported device extensions, sorted.
+    public @NotNull Set<String> extensions() {
+        return extensionNames;
+    }
+
+    public @EnumType(VkFormatFeatureFlags.class) int linearTilingFeatures(@EnumType(VkFormat.class) int format) {
+        return formatFeature(format, 0);
+    }
+
+    public @EnumType(VkFormatFeatureFlags.class) int optimalTilingFeatures(@EnumType(VkFormat.class) int format) {
+        return formatFeature(format, 1);
+    }
+
+    public @EnumType(VkFormatFeatureFlags.class) int bufferFeatures(@EnumType(VkFormat.class) int format) {
+        return formatFeature(format, 2);
+    }
+
+    /// Returns the first of {@code candidates} supporting all of {@code features}.
+    ///
+    /// @param optimalTiling whether to check {@link #optimalTilingFeatures} or
+    ///                      {@link #linearTilingFeatures}
+    /// @return the format, or {@link VkFormat#UNDEFINED} if none is supported
+    public @EnumType(VkFormat.class) int findSupportedFormat(
+            @EnumType(VkFormat.class) int @NotNull [] candidates,
+            boolean optimalTiling,
+            @EnumType(VkFormatFeatureFlags.class) int features
+    ) {
+        for (int format : candidates) {
+            int supported = formatFeature(format, optimalTiling ? 1 : 0);
+            if ((supported & features) == features) {
+                return format;
+            }
+        }
+        return VkFormat.UNDEFINED;
+    }
+
+    private int formatFeature(int format, int column) {
+        int index;
+        if (format >= 0 && format < coreFormatCount) {
+            index = format;
+        } else {
+            int i = Arrays.binarySearch(extensionFormats, format);
+            if (i < 0) {
+                return 0;
+            }
+            index = coreFormatCount + i;
+        }
+        return formatFeatures[index * 3 + column];
+    }
+
+    private record Key(
+            @Unsigned int apiVersion,
+            @Unsigned int driverVersion,
+            byte[] uuid,
+            boolean hasProperties2,
+            boolean khr
+    ) {}
+
+    // the file image: a header, then the sections listed in Layout, each 8 byte aligned
+    private record Layout(
+            long properties,
+            long features,
+            long memoryProperties,
+            long vulkan11Features,
+            long vulkan12Features,
+            long vulkan13Features,
+            long vulkan11Properties,
+            long vulkan12Properties,
+            long vulkan13Properties,
+            long queueFamilies,
+            long extensionFormats,
+            long formatFeatures,
+            long extensionVersions,
+            long extensionNames,
+            long size
+    ) {
+        static Layout of(int queueFamilyCount, int extensionCount, int nameBytes, int coreFormatCount, int extensionFormatCount) {
+            long offset = HEADER_SIZE;
+            long properties = offset;
+            offset = align(offset + VkPhysicalDeviceProperties.BYTES);
+            long features = offset;
+            offset = align(offset + VkPhysicalDeviceFeatures.BYTES);
+            long memoryProperties = offset;
+            offset = align(offset + VkPhysicalDeviceMemoryProperties.BYTES);
+            long vulkan11Features = offset;
+            offset = align(offset + VkPhysicalDeviceVulkan11Features.BYTES);
+            long vulkan12Features = offset;
+            offset = align(offset + VkPhysicalDeviceVulkan12Features.BYTES);
+            long vulkan13Features = offset;
+            offset = align(offset + VkPhysicalDeviceVulkan13Features.BYTES);
+            long vulkan11Properties = offset;
+            offset = align(offset + VkPhysicalDeviceVulkan11Properties.BYTES);
+            long vulkan12Properties = offset;
+            offset = align(offset + VkPhysicalDeviceVulkan12Properties.BYTES);
+            long vulkan13Properties = offset;
+            offset = align(offset + VkPhysicalDeviceVulkan13Properties.BYTES);
+            long queueFamilies = offset;
+            offset = align(offset + (long) queueFamilyCount * VkQueueFamilyProperties.BYTES);
+            long extensionFormats = offset;
+            offset = align(offset + (long) extensionFormatCount * Integer.BYTES);
+            long formatFeatures = offset;
+            offset = align(offset + 3L * (coreFormatCount + extensionFormatCount) * Integer.BYTES);
+            long extensionVersions = offset;
+            offset = align(offset + (long) extensionCount * Integer.BYTES);
+            long extensionNames = offset;
+            offset = align(offset + nameBytes);
+            return new Layout(
+                    properties, features, memoryProperties,
+                    vulkan11Features, vulkan12Features, vulkan13Features,
+                    vulkan11Properties, vulkan12Properties, vulkan13Properties,
+                    queueFamilies, extensionFormats, formatFeatures, extensionVersions, extensionNames,
+                    offset
+            );
+        }
+
+        static Layout of(MemorySegment data) {
+            return of(
+                    data.get(ValueLayout.JAVA_INT, H_QUEUE_FAMILY_COUNT),
+                    data.get(ValueLayout.JAVA_INT, H_EXTENSION_COUNT),
+                    data.get(ValueLayout.JAVA_INT, H_NAME_BYTES),
+                    data.get(ValueLayout.JAVA_INT, H_CORE_FORMAT_COUNT),
+                    data.get(ValueLayout.JAVA_INT, H_EXTENSION_FORMAT_COUNT)
+            );
+        }
+
+        private static long align(long offset) {
+            return (offset + 7) & -8;
+        }
+    }
+
+    private static Key queryKey(VkInstanceCommands instanceCommands, VkPhysicalDevice physicalDevice, Arena arena) {
+        boolean hasProperties2 = instanceCommands.HANDLE$vkGetPhysicalDeviceProperties2 != null;
+        boolean khr = !hasProperties2 && instanceCommands.HANDLE$vkGetPhysicalDeviceProperties2KHR != null;
+        if (!hasProperties2 && !khr) {
+            VkPhysicalDeviceProperties properties = VkPhysicalDeviceProperties.allocate(arena);
+            instanceCommands.getPhysicalDeviceProperties(physicalDevice, properties);
+            return new Key(
+                    properties.apiVersion(),
+                    properties.driverVersion(),
+                    properties.pipelineCacheUUIDRaw().toArray(ValueLayout.JAVA_BYTE),
+                    false,
+                    false
+            );
+        }
+
+        VkPhysicalDeviceIDProperties idProperties = VkPhysicalDeviceIDProperties.allocate(arena);
+        VkPhysicalDeviceProperties2 properties2 = VkPhysicalDeviceProperties2.allocate(arena).pNext(idProperties);
+        getProperties2(instanceCommands, physicalDevice, properties2, khr);
+        return new Key(
+                properties2.properties().apiVersion(),
+                properties2.properties().driverVersion(),
+                idProperties.deviceUUIDRaw().toArray(ValueLayout.JAVA_BYTE),
+                true,
+                khr
+        );
+    }
+
+    private static DeviceCapabilities gather(
+            VkInstanceCommands instanceCommands,
+            VkPhysicalDevice physicalDevice,
+            Key key,
+            Arena arena
+    ) {
+        Version version = Version.decode(key.apiVersion);
+        boolean vulkan12 = key.hasProperties2 && isAtLeast(version, 2);
+        boolean vulkan13 = key.hasProperties2 && isAtLeast(version, 3);
+
+        // properties and features
+        VkPhysicalDeviceProperties2 properties2 = VkPhysicalDeviceProperties2.allocate(arena);
+        VkPhysicalDeviceVulkan11Properties vulkan11Properties = VkPhysicalDeviceVulkan11Properties.allocate(arena);
+        VkPhysicalDeviceVulkan12Properties vulkan12Properties = VkPhysicalDeviceVulkan12Properties.allocate(arena);
+        VkPhysicalDeviceVulkan13Properties vulkan13Properties = VkPhysicalDeviceVulkan13Properties.allocate(arena);
+        VkPhysicalDeviceFeatures2 features2 = VkPhysicalDeviceFeatures2.allocate(arena);
+        VkPhysicalDeviceVulkan11Features vulkan11Features = VkPhysicalDeviceVulkan11Features.allocate(arena);
+        VkPhysicalDeviceVulkan12Features vulkan12Features = VkPhysicalDeviceVulkan12Features.allocate(arena);
+        VkPhysicalDeviceVulkan13Features vulkan13Features = VkPhysicalDeviceVulkan13Features.allocate(arena);
+        if (vulkan12) {
+            properties2.pNext(vulkan11Properties);
+            vulkan11Properties.pNext(vulkan12Properties);
+            features2.pNext(vulkan11Features);
+            vulkan11Features.pNext(vulkan12Features);
+            if (vulkan13) {
+                vulkan12Properties.pNext(vulkan13Properties);
+                vulkan12Features.pNext(vulkan13Features);
+            }
+            getProperties2(instanceCommands, physicalDevice, properties2, key.khr);
+            if (key.khr) {
+                instanceCommands.getPhysicalDeviceFeatures2KHR(physicalDevice, features2);
+            } else {
+                instanceCommands.getPhysicalDeviceFeatures2(physicalDevice, features2);
+            }
+        } else {
+            instanceCommands.getPhysicalDeviceProperties(physicalDevice, properties2.properties());
+            instanceCommands.getPhysicalDeviceFeatures(physicalDevice, features2.features());
+        }
+
+        VkPhysicalDeviceMemoryProperties memoryProperties = VkPhysicalDeviceMemoryProperties.allocate(arena);
+        instanceCommands.getPhysicalDeviceMemoryProperties(physicalDevice, memoryProperties);
+
+        // queue families
+        IntPtr pCount = IntPtr.allocate(arena);
+        instanceCommands.getPhysicalDeviceQueueFamilyProperties(physicalDevice, pCount, null);
+        int queueFamilyCount = pCount.read();
+        VkQueueFamilyProperties.Ptr queueFamilies = VkQueueFamilyProperties.allocate(arena, Math.max(1, queueFamilyCount));
+        instanceCommands.getPhysicalDeviceQueueFamilyProperties(physicalDevice, pCount, queueFamilies);
+        queueFamilyCount = pCount.read();
+
+        // extensions
+        int result = instanceCommands.enumerateDeviceExtensionProperties(physicalDevice, null, pCount, null);
+        if (result != VkResult.SUCCESS) {
+            throw new RuntimeException("Failed to enumerate device extensions: " + VkResult.explain(result));
+        }
+        int extensionCount = pCount.read();
+        VkExtensionProperties.Ptr extensionProperties = VkExtensionProperties.allocate(arena, Math.max(1, extensionCount));
+        result = instanceCommands.enumerateDeviceExtensionProperties(physicalDevice, null, pCount, extensionProperties);
+        if (result != VkResult.SUCCESS && result != VkResult.INCOMPLETE) {
+            throw new RuntimeException("Failed to enumerate device extensions: " + VkResult.explain(result));
+        }
+        extensionCount = pCount.read();
+        byte[][] names = new byte[extensionCount][];
+        HashSet<String> extensionSet = HashSet.newHashSet(extensionCount);
+        int nameBytes = 0;
+        for (int i = 0; i < extensionCount; i++) {
+            String name = extensionProperties.at(i).extensionName().readString();
+            extensionSet.add(name);
+            names[i] = name.getBytes(StandardCharsets.UTF_8);
+            nameBytes += names[i].length + 1;
+        }
+
+        // the image
+        Layout layout = Layout.of(queueFamilyCount, extensionCount, nameBytes, CORE_FORMAT_COUNT, EXTENSION_FORMATS.length);
+        MemorySegment data = Arena.ofAuto().allocate(layout.size, Long.BYTES);
+        data.set(ValueLayout.JAVA_LONG, H_MAGIC, MAGIC);
+        data.set(ValueLayout.JAVA_INT, H_VERSION, FORMAT_VERSION);
+        data.set(ValueLayout.JAVA_INT, H_LAYOUT_CHECK, LAYOUT_CHECK);
+        data.set(ValueLayout.JAVA_INT, H_DRIVER_VERSION, key.driverVersion);
+        data.set(ValueLayout.JAVA_INT, H_FLAGS, (vulkan12 ? FLAG_VULKAN_12 : 0) | (vulkan13 ? FLAG_VULKAN_13 : 0));
+        data.set(ValueLayout.JAVA_INT, H_QUEUE_FAMILY_COUNT, queueFamilyCount);
+        data.set(ValueLayout.JAVA_INT, H_EXTENSION_COUNT, extensionCount);
+        data.set(ValueLayout.JAVA_INT, H_NAME_BYTES, nameBytes);
+        data.set(ValueLayout.JAVA_INT, H_CORE_FORMAT_COUNT, CORE_FORMAT_COUNT);
+        data.set(ValueLayout.JAVA_INT, H_EXTENSION_FORMAT_COUNT, EXTENSION_FORMATS.length);
+        MemorySegment.copy(key.uuid, 0, data, ValueLayout.JAVA_BYTE, H_UUID, UUID_SIZE);
+
+        copyStruct(properties2.properties().segment(), data, layout.properties, false);
+        copyStruct(features2.features().segment(), data, layout.features, false);
+        copyStruct(memoryProperties.segment(), data, layout.memoryProperties, false);
+        if (vulkan12) {
+            copyStruct(vulkan11Features.segment(), data, layout.vulkan11Features, true);
+            copyStruct(vulkan12Features.segment(), data, layout.vulkan12Features, true);
+            copyStruct(vulkan11Properties.segment(), data, layout.vulkan11Properties, true);
+            copyStruct(vulkan12Properties.segment(), data, layout.vulkan12Properties, true);
+        }
+        if (vulkan13) {
+            copyStruct(vulkan13Features.segment(), data, layout.vulkan13Features, true);
+            copyStruct(vulkan13Properties.segment(), data, layout.vulkan13Properties, true);
+        }
+        MemorySegment.copy(
+                queueFamilies.segment(), 0,
+                data, layout.queueFamilies,
+                (long) queueFamilyCount * VkQueueFamilyProperties.BYTES
+        );
+
+        // formats
+        MemorySegment.copy(
+                EXTENSION_FORMATS, 0,
+                data, ValueLayout.JAVA_INT, layout.extensionFormats,
+                EXTENSION_FORMATS.length
+        );
+        VkFormatProperties formatProperties = VkFormatProperties.allocate(arena);
+        int formatCount = CORE_FORMAT_COUNT + EXTENSION_FORMATS.length;
+        for (int i = 0; i < formatCount; i++) {
+            int format = i < CORE_FORMAT_COUNT ? i : EXTENSION_FORMATS[i - CORE_FORMAT_COUNT];
+            if (format == VkFormat.UNDEFINED || !isFormatAvailable(format, version, extensionSet)) {
+                continue;
+            }
+            instanceCommands.getPhysicalDeviceFormatProperties(physicalDevice, format, formatProperties);
+            long offset = layout.formatFeatures + (long) i * 3 * Integer.BYTES;
+            data.set(ValueLayout.JAVA_INT, offset, formatProperties.linearTilingFeatures());
+            data.set(ValueLayout.JAVA_INT, offset + 4, formatProperties.optimalTilingFeatures());
+            data.set(ValueLayout.JAVA_INT, offset + 8, formatProperties.bufferFeatures());
+        }
+
+        // extensions
+        long nameOffset = layout.extensionNames;
+        for (int i = 0; i < extensionCount; i++) {
+            data.set(ValueLayout.JAVA_INT, layout.extensionVersions + (long) i * Integer.BYTES, extensionProperties.at(i).specVersion());
+            MemorySegment.copy(names[i], 0, data, ValueLayout.JAVA_BYTE, nameOffset, names[i].length);
+            nameOffset += names[i].length + 1;
+        }
+
+        return new DeviceCapabilities(data, layout, false);
+    }
+
+    /// Whether {@code format} belongs to the core version of the device or to one of its
+    /// extensions. Extension formats are numbered
+    /// {@code 1000000000 + (extension number - 1) * 1000 + n}.
+    private static boolean isFormatAvailable(int format, Version version, Set<String> extensions) {
+        if (format < CORE_FORMAT_LIMIT) {
+            return true;
+        }
+        return switch ((format - CORE_FORMAT_LIMIT) / 1000 + 1) {
+            case 55 -> extensions.contains("VK_IMG_format_pvrtc");
+            case 67 -> isAtLeast(version, 3) || extensions.contains("VK_EXT_texture_compression_astc_hdr");
+            case 157 -> isAtLeast(version, 1) || extensions.contains("VK_KHR_sampler_ycbcr_conversion");
+            case 331 -> isAtLeast(version, 3) || extensions.contains("VK_EXT_ycbcr_2plane_444_formats");
+            case 341 -> isAtLeast(version, 3) || extensions.contains("VK_EXT_4444_formats");
+            case 465 -> extensions.contains("VK_NV_optical_flow");
+            case 471 -> isAtLeast(version, 4) || extensions.contains("VK_KHR_maintenance5");
+            default -> false;
+        };
+    }
+
+    private static boolean isAtLeast(Version version, int minor) {
+        return version.major() > 1 || version.minor() >= minor;
+    }
+
+    private static void getProperties2(
+            VkInstanceCommands instanceCommands,
+            VkPhysicalDevice physicalDevice,
+            VkPhysicalDeviceProperties2 properties2,
+            boolean khr
+    ) {
+        if (khr) {
+            instanceCommands.getPhysicalDeviceProperties2KHR(physicalDevice, properties2);
+        } else {
+            instanceCommands.getPhysicalDeviceProperties2(physicalDevice, properties2);
+        }
+    }
+
+    private static void copyStruct(MemorySegment source, MemorySegment data, long offset, boolean clearNext) {
+        MemorySegment.copy(source, 0, data, offset, source.byteSize());
+        if (clearNext) {
+            data.set(ValueLayout.ADDRESS, offset + Long.BYTES, MemorySegment.NULL);
+        }
+    }
+
+    private DeviceCapabilities(MemorySegment data, Layout layout, boolean loaded) {
+        this.data = data;
+        this.loaded = loaded;
+        MemorySegment view = data.asReadOnly();
+        int flags = data.get(ValueLayout.JAVA_INT, H_FLAGS);
+        boolean vulkan12 = (flags & FLAG_VULKAN_12) != 0;
+        boolean vulkan13 = (flags & FLAG_VULKAN_13) != 0;
+
+        properties = new VkPhysicalDeviceProperties(view.asSlice(layout.properties, VkPhysicalDeviceProperties.BYTES));
+        features = new VkPhysicalDeviceFeatures(view.asSlice(layout.features, VkPhysicalDeviceFeatures.BYTES));
+        memoryProperties = new VkPhysicalDeviceMemoryProperties(
+                view.asSlice(layout.memoryProperties, VkPhysicalDeviceMemoryProperties.BYTES)
+        );
+        vulkan11Features = vulkan12 ? new VkPhysicalDeviceVulkan11Features(
+                view.asSlice(layout.vulkan11Features, VkPhysicalDeviceVulkan11Features.BYTES)
+        ) : null;
+        vulkan12Features = vulkan12 ? new VkPhysicalDeviceVulkan12Features(
+                view.asSlice(layout.vulkan12Features, VkPhysicalDeviceVulkan12Features.BYTES)
+        ) : null;
+        vulkan13Features = vulkan13 ? new VkPhysicalDeviceVulkan13Features(
+                view.asSlice(layout.vulkan13Features, VkPhysicalDeviceVulkan13Features.BYTES)
+        ) : null;
+        vulkan11Properties = vulkan12 ? new VkPhysicalDeviceVulkan11Properties(
+                view.asSlice(layout.vulkan11Properties, VkPhysicalDeviceVulkan11Properties.BYTES)
+        ) : null;
+        vulkan12Properties = vulkan12 ? new VkPhysicalDeviceVulkan12Properties(
+                view.asSlice(layout.vulkan12Properties, VkPhysicalDeviceVulkan12Properties.BYTES)
+        ) : null;
+        vulkan13Properties = vulkan13 ? new VkPhysicalDeviceVulkan13Properties(
+                view.asSlice(layout.vulkan13Properties, VkPhysicalDeviceVulkan13Properties.BYTES)
+        ) : null;
+
+        int queueFamilyCount = data.get(ValueLayout.JAVA_INT, H_QUEUE_FAMILY_COUNT);
+        queueFamilies = new VkQueueFamilyProperties.Ptr(
+                view.asSlice(layout.queueFamilies, (long) queueFamilyCount * VkQueueFamilyProperties.BYTES)
+        );
+
+        coreFormatCount = data.get(ValueLayout.JAVA_INT, H_CORE_FORMAT_COUNT);
+        int extensionFormatCount = data.get(ValueLayout.JAVA_INT, H_EXTENSION_FORMAT_COUNT);
+        extensionFormats = data.asSlice(layout.extensionFormats, (long) extensionFormatCount * Integer.BYTES)
+                .toArray(ValueLayout.JAVA_INT);
+        formatFeatures = data.asSlice(layout.formatFeatures, 3L * (coreFormatCount + extensionFormatCount) * Integer.BYTES)
+                .toArray(ValueLayout.JAVA_INT);
+
+        int extensionCount = data.get(ValueLayout.JAVA_INT, H_EXTENSION_COUNT);
+        extensions = HashMap.newHashMap(extensionCount);
+        long nameOffset = layout.extensionNames;
+        for (int i = 0; i < extensionCount; i++) {
+            String name = data.getString(nameOffset);
+            extensions.put(name, data.get(ValueLayout.JAVA_INT, layout.extensionVersions + (long) i * Integer.BYTES));
+            nameOffset += name.getBytes(StandardCharsets.UTF_8).length + 1;
+        }
+        extensionNames = Collections.unmodifiableSet(new TreeSet<>(extensions.keySet()));
+    }
+
+    private static final long MAGIC = 0x5350_4143_4a34_4b56L; // "VK4JCAPS" little endian
+    private static final int FORMAT_VERSION = 2;
+    private static final int UUID_SIZE = 16;
+    private static final int CORE_FORMAT_LIMIT = 1_000_000_000;
+    private static final int FLAG_VULKAN_12 = 1;
+    private static final int FLAG_VULKAN_13 = 2;
+
+    private static final long H_MAGIC = 0;
+    private static final long H_VERSION = 8;
+    private static final long H_LAYOUT_CHECK = 12;
+    private static final long H_DRIVER_VERSION = 16;
+    private static final long H_FLAGS = 20;
+    private static final long H_QUEUE_FAMILY_COUNT = 24;
+    private static final long H_EXTENSION_COUNT = 28;
+    private static final long H_NAME_BYTES = 32;
+    private static final long H_CORE_FORMAT_COUNT = 36;
+    private static final long H_EXTENSION_FORMAT_COUNT = 40;
+    private static final long H_UUID = 48;
+    private static final long HEADER_SIZE = 64;
+
+    /// Changes when a binding update changes the size of a stored structure.
+    private static final int LAYOUT_CHECK = Arrays.hashCode(new long[] {
+            VkPhysicalDeviceProperties.BYTES,
+            VkPhysicalDeviceFeatures.BYTES,
+            VkPhysicalDeviceMemoryProperties.BYTES,
+            VkPhysicalDeviceVulkan11Features.BYTES,
+            VkPhysicalDeviceVulkan12Features.BYTES,
+            VkPhysicalDeviceVulkan13Features.BYTES,
+            VkPhysicalDeviceVulkan11Properties.BYTES,
+            VkPhysicalDeviceVulkan12Properties.BYTES,
+            VkPhysicalDeviceVulkan13Properties.BYTES,
+            VkQueueFamilyProperties.BYTES,
+    });
+
+    /// Core formats are numbered densely from {@code 0}, extension formats are sparse.
+    private static final int CORE_FORMAT_COUNT;
+    private static final int[] EXTENSION_FORMATS;
+
+    static {
+        int maxCore = 0;
+        TreeSet<Integer> extensionFormats = new TreeSet<>();
+        for (Field field : VkFormat.class.getFields()) {
+            int modifiers = field.getModifiers();
+            if (field.getType() != int.class || !Modifier.isStatic(modifiers) || !Modifier.isFinal(modifiers)) {
+                continue;
+            }
+            int value;
+            try {
+                value = field.getInt(null);
+            } catch (IllegalAccessException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+            if (value < CORE_FORMAT_LIMIT) {
+                maxCore = Math.max(maxCore, value);
+            } else {
+                extensionFormats.add(value);
+            }
+        }
+        CORE_FORMAT_COUNT = maxCore + 1;
+        EXTENSION_FORMATS = extensionFormats.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private final MemorySegment data;
+    private final boolean loaded;
+    private final VkPhysicalDeviceProperties properties;
+    private final VkPhysicalDeviceFeatures features;
+    private final VkPhysicalDeviceMemoryProperties memoryProperties;
+    private final @Nullable VkPhysicalDeviceVulkan11Features vulkan11Features;
+    private final @Nullable VkPhysicalDeviceVulkan12Features vulkan12Features;
+    private final @Nullable VkPhysicalDeviceVulkan13Features vulkan13Features;
+    private final @Nullable VkPhysicalDeviceVulkan11Properties vulkan11Properties;
+    private final @Nullable VkPhysicalDeviceVulkan12Properties vulkan12Properties;
+    private final @Nullable VkPhysicalDeviceVulkan13Properties vulkan13Properties;
+    private final VkQueueFamilyProperties.Ptr queueFamilies;
+    private final int coreFormatCount;
+    private final int[] extensionFormats;
+    private final int[] formatFeatures;
+    private final Map<String, Integer> extensions;
+    private final Set<String> extensionNames;
+}
@@ -0,0 +1,128 @@
+package club.doki7.vulkan.util;
+
+import club.doki7.ffm.annotation.Unsigned;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/// A set of disjoint byte ranges {@code [start, end)}, kept sorted, with overlapping and adjacent
+/// ranges merged on insertion.
+///
+/// Every range added is widened to multiples of {@code alignment} first, which is what
+/// {@code vkFlushMappedMemoryRanges} requires from offsets and sizes of non-coherent memory
+/// ({@code VkPhysicalDeviceLimits::nonCoherentAtomSize}). Widening also makes neighbouring
+/// small writes collapse into one range.
+///
+/// Ranges are stored in two {@code long[]} arrays, so adding a range does not allocate unless the
+/// set grows beyond its largest size so far. Not thread safe.
+///
+/// @see MappedMemoryView
+public final class DirtyRangeSet {
+    /// @param alignment power of two all ranges are widened to, {@code 1} for no alignment
+    public DirtyRangeSet(@Unsigned long alignment) {
+        if (alignment <= 0 || (alignment & (alignment - 1)) != 0) {
+            throw new IllegalArgumentException("Alignment must be a power of two, got " + alignment);
+        }
+        this.alignment = alignment;
+    }
+
+    /// Adds {@code [offset, offset + size)}, widened to the alignment.
+    public void add(@Unsigned long offset, @Unsigned long size) {
+        if (size == 0) {
+            return;
+        }
+        long start = offset & -alignment;
+        long end = offset + size;
+        end = (end + alignment - 1) & -alignment;
+
+        // first range that ends at or after start can be merged with or follows the new range
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ends[mid] < start) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+
+        int first = lo;
+        int last = first;
+        while (last < count && starts[last] <= end) {
+            last++;
+        }
+
+        if (first == last) {
+            // nothing to merge with, insert
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            System.arraycopy(starts, first, starts, first + 1, count - first);
+            System.arraycopy(ends, first, ends, first + 1, count - first);
+            starts[first] = start;
+            ends[first] = end;
+            count++;
+            return;
+        }
+
+        starts[first] = Math.min(start, starts[first]);
+        ends[first] = Math.max(end, ends[last - 1]);
+        int removed = last - first - 1;
+        if (removed > 0) {
+            System.arraycopy(starts, last, starts, first + 1, count - last);
+            System.arraycopy(ends, last, ends, first + 1, count - last);
+            count -= removed;
+        }
+    }
+
+    /// Adds all ranges of {@code other}.
+    public void addAll(@NotNull DirtyRangeSet other) {
+        for (int i = 0; i < other.count; i++) {
+            add(other.starts[i], other.ends[i] - other.starts[i]);
+        }
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /// Number of disjoint ranges.
+    public int count() {
+        return count;
+    }
+
+    /// Start of the {@code index}-th range, in ascending order.
+    public @Unsigned long start(int index) {
+        return starts[Objects.checkIndex(index, count)];
+    }
+
+    /// End (exclusive) of the {@code index}-th range.
+    public @Unsigned long end(int index) {
+        return ends[Objects.checkIndex(index, count)];
+    }
+
+    /// Total number of bytes covered.
+    public @Unsigned long totalBytes() {
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            total += ends[i] - starts[i];
+        }
+        return total;
+    }
+
+    public @Unsigned long alignment() {
+        return alignment;
+    }
+
+    public void clear() {
+        count = 0;
+    }
+
+    private final long alignment;
+    private long[] starts = new long[8];
+    private long[] ends = new long[8];
+    private int count;
+}
@@ -0,0 +1,1095 @@
+package club.doki7.vulkan.util;
+
+import club.doki7.ffm.annotation.EnumType;
+import club.doki7.vulkan.VkConstants;
+import club.doki7.vulkan.bitmask.VkAccessFlags2;
+import club.doki7.vulkan.bitmask.VkImageAspectFlags;
+import club.doki7.vulkan.bitmask.VkPipelineStageFlags2;
+import club.doki7.vulkan.command.VkDeviceCommands;
+import club.doki7.vulkan.datatype.VkDependencyInfo;
+import club.doki7.vulkan.datatype.VkImageMemoryBarrier2;
+import club.doki7.vulkan.datatype.VkMemoryBarrier2;
+import club.doki7.vulkan.enumtype.VkImageLayout;
+import club.doki7.vulkan.handle.VkCommandBuffer;
+import club.doki7.vulkan.handle.VkImage;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Objects;
+
+/// A frame graph: passes declare which images and buffers they read and write, and
+/// {@link #compile} derives the synchronization between them.
+///
+/// {@snippet :
+/// FrameGraph graph = new FrameGraph();
+/// int swapchain = graph.importImage("swapchain", VkImageAspectFlags.COLOR, VkImageLayout.UNDEFINED);
+/// graph.setFinalLayout(swapchain, VkImageLayout.PRESENT_SRC_KHR);
+/// int hdr = graph.createImage("hdr", VkImageAspectFlags.COLOR);
+///
+/// int scene = graph.addPass("scene", FrameGraph.QUEUE_GRAPHICS, cmd -> drawScene(cmd));
+/// graph.write(scene, hdr, VkPipelineStageFlags2.COLOR_ATTACHMENT_OUTPUT,
+///         VkAccessFlags2.COLOR_ATTACHMENT_WRITE, VkImageLayout.COLOR_ATTACHMENT_OPTIMAL);
+///
+/// int tonemap = graph.addPass("tonemap", FrameGraph.QUEUE_GRAPHICS, cmd -> drawTonemap(cmd));
+/// graph.read(tonemap, hdr, VkPipelineStageFlags2.FRAGMENT_SHADER,
+///         VkAccessFlags2.SHADER_SAMPLED_READ, VkImageLayout.SHADER_READ_ONLY_OPTIMAL);
+/// graph.write(tonemap, swapchain, VkPipelineStageFlags2.COLOR_ATTACHMENT_OUTPUT,
+///         VkAccessFlags2.COLOR_ATTACHMENT_WRITE, VkImageLayout.COLOR_ATTACHMENT_OPTIMAL);
+///
+/// FrameGraph.Compiled compiled = graph.compile(false);
+///
+/// // every frame
+/// graph.bindImage(swapchain, swapchainImages[imageIndex]);
+/// compiled.record(deviceCommands, 0, commandBuffer);
+/// }
+///
+/// ## Compilation
+///
+/// - **Culling**: passes are visited from last to first. A pass is kept if it has side effects
+///   ({@link #setSideEffects}) or writes a resource that a kept later pass reads, or that is an
+///   output ({@link #markOutput}, {@link #setFinalLayout}). A write not declared as a read too is
+///   assumed to overwrite the whole resource, so earlier writers are not needed by it; declare
+///   read-modify-writes (blending, {@code LOAD_OP_LOAD}) with both {@link #read} and
+///   {@link #write}.
+/// - **Barriers**: for every kept pass, read-after-write, write-after-write and write-after-read
+///   hazards against earlier passes are computed per resource, and a read already made visible
+///   to the same stages and accesses does not get a second barrier. Hazards without layout change
+///   are folded into a single global {@link VkMemoryBarrier2}; only layout transitions become
+///   {@link VkImageMemoryBarrier2}s. Everything needed before a pass is recorded with one
+///   {@code vkCmdPipelineBarrier2}, so each pass boundary costs at most one call. Write-only
+///   uses transition from {@code UNDEFINED}, discarding contents that will be overwritten anyway.
+/// - **Async compute**: with {@code compile(true)}, passes added with
+///   {@link #QUEUE_ASYNC_COMPUTE} run on a second queue. Passes are then grouped into
+///   submissions; a submission waits for the submissions of the other queue it depends on
+///   (see {@link Compiled#submissionWaits}), which the caller implements with semaphores, waiting
+///   at {@link Compiled#submissionWaitStages}. Resources used by both queues must either be
+///   created with {@code VK_SHARING_MODE_CONCURRENT} or belong to queues of the same family; no
+///   ownership transfers are generated. With {@code compile(false)}, all passes run on the
+///   graphics queue in one submission.
+///
+/// Compilation is deterministic and does not touch the device, so graphs can be compiled and
+/// inspected in unit tests. Barriers cover whole images (all mip levels and array layers).
+/// Imported resources are assumed to be synchronized with earlier work by the caller, e.g. by
+/// waiting for the swapchain acquire semaphore at the stage of the first use.
+///
+/// Building the graph is not thread safe.
+public final class FrameGraph {
+    /// The graphics (or universal) queue.
+    public static final int QUEUE_GRAPHICS = 0;
+    /// An asynchronous compute queue, used by {@link #compile compile(true)}.
+    public static final int QUEUE_ASYNC_COMPUTE = 1;
+
+    /// Records the commands of a pass.
+    @FunctionalInterface
+    public interface PassRecorder {
+        void record(@NotNull VkCommandBuffer commandBuffer);
+    }
+
+    /// An image layout transition of a compiled graph.
+    public record ImageBarrier(
+            int resource,
+            @EnumType(VkImageLayout.class) int oldLayout,
+            @EnumType(VkImageLayout.class) int newLayout,
+            @EnumType(VkPipelineStageFlags2.class) long srcStageMask,
+            @EnumType(VkAccessFlags2.class) long srcAccessMask,
+            @EnumType(VkPipelineStageFlags2.class) long dstStageMask,
+            @EnumType(VkAccessFlags2.class) long dstAccessMask
+    ) {}
+
+    /// A global memory barrier of a compiled graph.
+    public record MemoryBarrier(
+            @EnumType(VkPipelineStageFlags2.class) long srcStageMask,
+            @EnumType(VkAccessFlags2.class) long srcAccessMask,
+            @EnumType(VkPipelineStageFlags2.class) long dstStageMask,
+            @EnumType(VkAccessFlags2.class) long dstAccessMask
+    ) {}
+
+    /// Declares an image whose contents and layout come from outside the graph.
+    ///
+    /// @param aspectMask aspects covered by barriers
+    /// @param initialLayout layout of the image when the graph starts executing
+    /// @return the resource index
+    public int importImage(
+            @NotNull String name,
+            @EnumType(VkImageAspectFlags.class) int aspectMask,
+            @EnumType(VkImageLayout.class) int initialLayout
+    ) {
+        return addResource(name, true, true, aspectMask, initialLayout);
+    }
+
+    /// Declares an image living only within the graph, whose contents are undefined at the start.
+    ///
+    /// @return the resource index
+    public int createImage(@NotNull String name, @EnumType(VkImageAspectFlags.class) int aspectMask) {
+        return addResource(name, true, false, aspectMask, VkImageLayout.UNDEFINED);
+    }
+
+    /// Declares a buffer whose contents come from outside the graph.
+    ///
+    /// @return the resource index
+    public int importBuffer(@NotNull String name) {
+        return addResource(name, false, true, 0, VkImageLayout.UNDEFINED);
+    }
+
+    /// Declares a buffer living only within the graph.
+    ///
+    /// @return the resource index
+    public int createBuffer(@NotNull String name) {
+        return addResource(name, false, false, 0, VkImageLayout.UNDEFINED);
+    }
+
+    /// Marks {@code resource} as used after the graph, so passes producing it are not culled.
+    public void markOutput(int resource) {
+        resourceOutput[Objects.checkIndex(resource, resourceCount)] = true;
+    }
+
+    /// Transitions image {@code resource} to {@code layout} at the end of the graph (e.g.
+    /// {@code PRESENT_SRC_KHR}) and marks it as output.
+    public void setFinalLayout(int resource, @EnumType(VkImageLayout.class) int layout) {
+        if (!resourceIsImage[Objects.checkIndex(resource, resourceCount)]) {
+            throw new IllegalArgumentException("Resource " + resourceNames.get(resource) + " is not an image");
+        }
+        resourceFinalLayout[resource] = layout;
+        resourceOutput[resource] = true;
+    }
+
+    /// Sets the {@link VkImage} of image {@code resource}, used when recording. May be changed
+    /// between frames without recompiling.
+    public void bindImage(int resource, @NotNull VkImage image) {
+        if (!resourceIsImage[Objects.checkIndex(resource, resourceCount)]) {
+            throw new IllegalArgumentException("Resource " + resourceNames.get(resource) + " is not an image");
+        }
+        imageHandles[resource] = image.segment();
+    }
+
+    /// Adds a pass and returns its index. Passes execute in the order they are added.
+    ///
+    /// @param queue {@link #QUEUE_GRAPHICS} or {@link #QUEUE_ASYNC_COMPUTE}
+    public int addPass(@NotNull String name, int queue, @NotNull PassRecorder recorder) {
+        if (queue != QUEUE_GRAPHICS && queue != QUEUE_ASYNC_COMPUTE) {
+            throw new IllegalArgumentException("Invalid queue " + queue);
+        }
+        if (passCount == passQueues.length) {
+            passQueues = Arrays.copyOf(passQueues, passCount * 2);
+            passSideEffects = Arrays.copyOf(passSideEffects, passCount * 2);
+        }
+        passNames.add(name);
+        passRecorders.add(recorder);
+        passQueues[passCount] = queue;
+        return passCount++;
+    }
+
+    /// Keeps pass {@code pass} even if nothing reads what it writes.
+    public void setSideEffects(int pass) {
+        passSideEffects[Objects.checkIndex(pass, passCount)] = true;
+    }
+
+    /// Declares that {@code pass} reads image {@code resource} in {@code layout}.
+    public void read(
+            int pass,
+            int resource,
+            @EnumType(VkPipelineStageFlags2.class) long stageMask,
+            @EnumType(VkAccessFlags2.class) long accessMask,
+            @EnumType(VkImageLayout.class) int layout
+    ) {
+        addUse(pass, resource, stageMask, accessMask, layout, USE_READ, true);
+    }
+
+    /// Declares that {@code pass} reads buffer {@code resource}.
+    public void read(
+            int pass,
+            int resource,
+            @EnumType(VkPipelineStageFlags2.class) long stageMask,
+            @EnumType(VkAccessFlags2.class) long accessMask
+    ) {
+        addUse(pass, resource, stageMask, accessMask, VkImageLayout.UNDEFINED, USE_READ, false);
+    }
+
+    /// Declares that {@code pass} writes image {@code resource} in {@code layout}.
+    public void write(
+            int pass,
+            int resource,
+            @EnumType(VkPipelineStageFlags2.class) long stageMask,
+            @EnumType(VkAccessFlags2.class) long accessMask,
+            @EnumType(VkImageLayout.class) int layout
+    ) {
+        addUse(pass, resource, stageMask, accessMask, layout, USE_WRITE, true);
+    }
+
+    /// Declares that {@code pass} writes buffer {@code resource}.
+    public void write(
+            int pass,
+            int resource,
+            @EnumType(VkPipelineStageFlags2.class) long stageMask,
+            @EnumType(VkAccessFlags2.class) long accessMask
+    ) {
+        addUse(pass, resource, stageMask, accessMask, VkImageLayout.UNDEFINED, USE_WRITE, false);
+    }
+
+    public int passCount() {
+        return passCount;
+    }
+
+    public int resourceCount() {
+        return resourceCount;
+    }
+
+    public @NotNull String passName(int pass) {
+        return passNames.get(pass);
+    }
+
+    public @NotNull String resourceName(int resource) {
+        return resourceNames.get(resource);
+    }
+
+    /// Culls passes, computes barriers and, if {@code asyncCompute} is set, splits the passes
+    /// into submissions for the graphics and async compute queues.
+    ///
+    /// @throws IllegalArgumentException if a pass uses an image in two different layouts
+    public @NotNull Compiled compile(boolean asyncCompute) {
+        return new Compiler(asyncCompute).run();
+    }
+
+    /// The result of {@link #compile}. Inspection methods are meant for tests and debugging;
+    /// {@link #record} is what a renderer calls every frame.
+    public final class Compiled implements AutoCloseable {
+        /// Whether {@code pass} was culled.
+        public boolean isCulled(int pass) {
+            return passSubmission[Objects.checkIndex(pass, passSubmission.length)] < 0;
+        }
+
+        public int submissionCount() {
+            return submissionQueues.length;
+        }
+
+        /// Queue of submission {@code submission}, {@link #QUEUE_GRAPHICS} or
+        /// {@link #QUEUE_ASYNC_COMPUTE}.
+        public int submissionQueue(int submission) {
+            return submissionQueues[submission];
+        }
+
+        /// Passes of {@code submission}, in execution order.
+        public int @NotNull [] submissionPasses(int submission) {
+            return submissionPassLists[submission].clone();
+        }
+
+        /// Earlier submissions (of the other queue) that {@code submission} must wait for.
+        public int @NotNull [] submissionWaits(int submission) {
+            return submissionWaitLists[submission].clone();
+        }
+
+        /// Stage masks to wait at, parallel to {@link #submissionWaits}.
+        public long @NotNull [] submissionWaitStages(int submission) {
+            return submissionWaitStageLists[submission].clone();
+        }
+
+        /// Whether another submission waits for {@code submission}, i.e. it needs to signal a
+        /// semaphore.
+        public boolean submissionSignals(int submission) {
+            return submissionSignal[submission];
+        }
+
+        /// Global memory barrier recorded before {@code pass}, or {@code null}.
+        public @Nullable MemoryBarrier memoryBarrier(int pass) {
+            if (memSrcStage[pass] == 0 && memDstStage[pass] == 0) {
+                return null;
+            }
+            return new MemoryBarrier(memSrcStage[pass], memSrcAccess[pass], memDstStage[pass], memDstAccess[pass]);
+        }
+
+        /// Image barriers recorded before {@code pass}.
+        public @NotNull ImageBarrier @NotNull [] imageBarriers(int pass) {
+            return barriers.toArray(passBarrierStart[pass], passBarrierCount[pass]);
+        }
+
+        /// Image barriers recorded at the end of {@code submission}, i.e. final layouts.
+        public @NotNull ImageBarrier @NotNull [] finalBarriers(int submission) {
+            return barriers.toArray(submissionBarrierStart[submission], submissionBarrierCount[submission]);
+        }
+
+        /// Number of {@code vkCmdPipelineBarrier2} calls recording the whole graph makes.
+        public int pipelineBarrierCount() {
+            int count = 0;
+            for (int p = 0; p < passSubmission.length; p++) {
+                if (passSubmission[p] >= 0 && (passBarrierCount[p] > 0 || memSrcStage[p] != 0 || memDstStage[p] != 0)) {
+                    count++;
+                }
+            }
+            for (int count1 : submissionBarrierCount) {
+                if (count1 > 0) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /// Records {@code submission}: for each pass, its barriers in one
+        /// {@code vkCmdPipelineBarrier2} call followed by the pass itself, then the final
+        /// layout transitions. Uses {@code vkCmdPipelineBarrier2KHR} when the core command is not
+        /// loaded. Not thread safe.
+        ///
+        /// @throws IllegalStateException if an image needing a barrier has not been bound
+        public void record(@NotNull VkDeviceCommands deviceCommands, int submission, @NotNull VkCommandBuffer commandBuffer) {
+            for (int pass : submissionPassLists[submission]) {
+                recordBarriers(
+                        deviceCommands,
+                        commandBuffer,
+                        memSrcStage[pass], memSrcAccess[pass], memDstStage[pass], memDstAccess[pass],
+                        passBarrierStart[pass], passBarrierCount[pass]
+                );
+                passRecorders.get(pass).record(commandBuffer);
+            }
+            recordBarriers(
+                    deviceCommands,
+                    commandBuffer,
+                    0, 0, 0, 0,
+                    submissionBarrierStart[submission], submissionBarrierCount[submission]
+            );
+        }
+
+        @Override
+        public void close() {
+            if (arena != null) {
+                arena.close();
+                arena = null;
+            }
+        }
+
+        /// Human readable listing of submissions, passes and barriers.
+        @Override
+        public @NotNull String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (int p = 0; p < passSubmission.length; p++) {
+                if (passSubmission[p] < 0) {
+                    sb.append("culled ").append(passNames.get(p)).append('\n');
+                }
+            }
+            for (int s = 0; s < submissionQueues.length; s++) {
+                sb.append("submission ").append(s)
+                        .append(submissionQueues[s] == QUEUE_GRAPHICS ? " graphics" : " compute");
+                for (int w = 0; w < submissionWaitLists[s].length; w++) {
+                    sb.append(" wait ").append(submissionWaitLists[s][w])
+                            .append("@0x").append(Long.toHexString(submissionWaitStageLists[s][w]));
+                }
+                if (submissionSignal[s]) {
+                    sb.append(" signal");
+                }
+                sb.append('\n');
+                for (int p : submissionPassLists[s]) {
+                    MemoryBarrier memoryBarrier = memoryBarrier(p);
+                    if (memoryBarrier != null) {
+                        sb.append("  ").append(memoryBarrier).append('\n');
+                    }
+                    for (ImageBarrier barrier : imageBarriers(p)) {
+                        sb.append("  ").append(resourceNames.get(barrier.resource())).append(' ').append(barrier).append('\n');
+                    }
+                    sb.append("  pass ").append(passNames.get(p)).append('\n');
+                }
+                for (ImageBarrier barrier : finalBarriers(s)) {
+                    sb.append("  final ").append(resourceNames.get(barrier.resource())).append(' ').append(barrier).append('\n');
+                }
+            }
+            return sb.toString();
+        }
+
+        private void recordBarriers(
+                VkDeviceCommands deviceCommands,
+                VkCommandBuffer commandBuffer,
+                long srcStage,
+                long srcAccess,
+                long dstStage,
+                long dstAccess,
+                int barrierStart,
+                int barrierCount
+        ) {
+            boolean hasMemoryBarrier = srcStage != 0 || dstStage != 0;
+            if (!hasMemoryBarrier && barrierCount == 0) {
+                return;
+            }
+
+            if (arena == null) {
+                arena = Arena.ofShared();
+                dependencyInfo = VkDependencyInfo.allocate(arena);
+                memoryBarrierStruct = VkMemoryBarrier2.allocate(arena);
+                imageBarrierArray = VkImageMemoryBarrier2.allocate(arena, Math.max(1, maxBarrierBatch));
+            }
+
+            dependencyInfo.memoryBarrierCount(hasMemoryBarrier ? 1 : 0);
+            dependencyInfo.pMemoryBarriers(hasMemoryBarrier ? memoryBarrierStruct : null);
+            if (hasMemoryBarrier) {
+                memoryBarrierStruct
+                        .srcStageMask(srcStage)
+                        .srcAccessMask(srcAccess)
+                        .dstStageMask(dstStage)
+                        .dstAccessMask(dstAccess);
+            }
+
+            for (int i = 0; i < barrierCount; i++) {
+                int b = barrierStart + i;
+                int resource = barriers.resource[b];
+                MemorySegment handle = imageHandles[resource];
+                if (handle == null) {
+                    throw new IllegalStateException("Image " + resourceNames.get(resource) + " not bound");
+                }
+                imageBarrierArray.at(i)
+                        .srcStageMask(barriers.srcStage[b])
+                        .srcAccessMask(barriers.srcAccess[b])
+                        .dstStageMask(barriers.dstStage[b])
+                        .dstAccessMask(barriers.dstAccess[b])
+                        .oldLayout(barriers.oldLayout[b])
+                        .newLayout(barriers.newLayout[b])
+                        .srcQueueFamilyIndex(VkConstants.QUEUE_FAMILY_IGNORED)
+                        .dstQueueFamilyIndex(VkConstants.QUEUE_FAMILY_IGNORED)
+                        .image(new VkImage(handle))
+                        .subresourceRange(range -> range
+                                .aspectMask(resourceAspects[resource])
+                                .baseMipLevel(0)
+                                .levelCount(VkConstants.REMAINING_MIP_LEVELS)
+                                .baseArrayLayer(0)
+                                .layerCount(VkConstants.REMAINING_ARRAY_LAYERS));
+            }
+            dependencyInfo.imageMemoryBarrierCount(barrierCount);
+            dependencyInfo.pImageMemoryBarriers(barrierCount > 0 ? imageBarrierArray : null);
+
+            if (deviceCommands.HANDLE$vkCmdPipelineBarrier2 != null) {
+                deviceCommands.cmdPipelineBarrier2(commandBuffer, dependencyInfo);
+            } else {
+                deviceCommands.cmdPipelineBarrier2KHR(commandBuffer, dependencyInfo);
+            }
+        }
+
+        private Compiled(
+                int[] passSubmission,
+                long[] memSrcStage,
+                long[] memSrcAccess,
+                long[] memDstStage,
+                long[] memDstAccess,
+                int[] passBarrierStart,
+                int[] passBarrierCount,
+                BarrierList barriers,
+                int[] submissionQueues,
+                int[][] submissionPassLists,
+                int[][] submissionWaitLists,
+                long[][] submissionWaitStageLists,
+                boolean[] submissionSignal,
+                int[] submissionBarrierStart,
+                int[] submissionBarrierCount
+        ) {
+            this.passSubmission = passSubmission;
+            this.memSrcStage = memSrcStage;
+            this.memSrcAccess = memSrcAccess;
+            this.memDstStage = memDstStage;
+            this.memDstAccess = memDstAccess;
+            this.passBarrierStart = passBarrierStart;
+            this.passBarrierCount = passBarrierCount;
+            this.barriers = barriers;
+            this.submissionQueues = submissionQueues;
+            this.submissionPassLists = submissionPassLists;
+            this.submissionWaitLists = submissionWaitLists;
+            this.submissionWaitStageLists = submissionWaitStageLists;
+            this.submissionSignal = submissionSignal;
+            this.submissionBarrierStart = submissionBarrierStart;
+            this.submissionBarrierCount = submissionBarrierCount;
+
+            int max = 0;
+            for (int count : passBarrierCount) {
+                max = Math.max(max, count);
+            }
+            for (int count : submissionBarrierCount) {
+                max = Math.max(max, count);
+            }
+            this.maxBarrierBatch = max;
+        }
+
+        private final int[] passSubmission;
+        private final long[] memSrcStage;
+        private final long[] memSrcAccess;
+        private final long[] memDstStage;
+        private final long[] memDstAccess;
+        private final int[] passBarrierStart;
+        private final int[] passBarrierCount;
+        private final BarrierList barriers;
+        private final int[] submissionQueues;
+        private final int[][] submissionPassLists;
+        private final int[][] submissionWaitLists;
+        private final long[][] submissionWaitStageLists;
+        private final boolean[] submissionSignal;
+        private final int[] submissionBarrierStart;
+        private final int[] submissionBarrierCount;
+        private final int maxBarrierBatch;
+
+        private @Nullable Arena arena;
+        private VkDependencyInfo dependencyInfo;
+        private VkMemoryBarrier2 memoryBarrierStruct;
+        private VkImageMemoryBarrier2.Ptr imageBarrierArray;
+    }
+
+    private final class Compiler {
+        Compiler(boolean asyncCompute) {
+            this.asyncCompute = asyncCompute;
+        }
+
+        Compiled run() {
+            mergeUses();
+            cull();
+
+            int r = resourceCount;
+            layout = Arrays.copyOf(resourceInitialLayout, r);
+            writePass = new int[r];
+            writeQueue = new int[r];
+            writeStage = new long[r];
+            writeAccess = new long[r];
+            readPass = new int[][] { new int[r], new int[r] };
+            readStages = new long[][] { new long[r], new long[r] };
+            visibleStages = new long[][] { new long[r], new long[r] };
+            visibleAccess = new long[][] { new long[r], new long[r] };
+            waitedStages = new long[][] { new long[r], new long[r] };
+            touched = new boolean[r];
+            lastUsePass = new int[r];
+            Arrays.fill(writePass, -1);
+            Arrays.fill(readPass[0], -1);
+            Arrays.fill(readPass[1], -1);
+            Arrays.fill(lastUsePass, -1);
+
+            passSubmission = new int[passCount];
+            Arrays.fill(passSubmission, -1);
+            memSrcStage = new long[passCount];
+            memSrcAccess = new long[passCount];
+            memDstStage = new long[passCount];
+            memDstAccess = new long[passCount];
+            passBarrierStart = new int[passCount];
+            passBarrierCount = new int[passCount];
+
+            for (int p = 0; p < passCount; p++) {
+                if (live[p]) {
+                    schedule(p);
+                }
+            }
+            return finish();
+        }
+
+        // sorts uses by pass and merges uses of the same resource by the same pass
+        private void mergeUses() {
+            int[] counts = new int[passCount + 1];
+            for (int u = 0; u < useCount; u++) {
+                counts[usePass[u] + 1]++;
+            }
+            for (int p = 0; p < passCount; p++) {
+                counts[p + 1] += counts[p];
+            }
+            int[] sorted = new int[useCount];
+            int[] cursor = Arrays.copyOf(counts, passCount);
+            for (int u = 0; u < useCount; u++) {
+                sorted[cursor[usePass[u]]++] = u;
+            }
+
+            mergedStart = new int[passCount + 1];
+            mergedResource = new int[useCount];
+            mergedStage = new long[useCount];
+            mergedAccess = new long[useCount];
+            mergedLayout = new int[useCount];
+            mergedFlags = new int[useCount];
+            int m = 0;
+            for (int p = 0; p < passCount; p++) {
+                mergedStart[p] = m;
+                for (int i = counts[p]; i < counts[p + 1]; i++) {
+                    int u = sorted[i];
+                    int existing = -1;
+                    for (int k = mergedStart[p]; k < m; k++) {
+                        if (mergedResource[k] == useResource[u]) {
+                            existing = k;
+                            break;
+                        }
+                    }
+                    if (existing < 0) {
+                        mergedResource[m] = useResource[u];
+                        mergedStage[m] = useStage[u];
+                        mergedAccess[m] = useAccess[u];
+                        mergedLayout[m] = useLayout[u];
+                        mergedFlags[m] = useFlags[u];
+                        m++;
+                    } else {
+                        if (resourceIsImage[useResource[u]] && mergedLayout[existing] != useLayout[u]) {
+                            throw new IllegalArgumentException(
+                                    "Pass " + passNames.get(p) + " uses image " + resourceNames.get(useResource[u])
+                                    + " in both " + VkImageLayout.explain(mergedLayout[existing])
+                                    + " and " + VkImageLayout.explain(useLayout[u])
+                            );
+                        }
+                        mergedStage[existing] |= useStage[u];
+                        mergedAccess[existing] |= useAccess[u];
+                        mergedFlags[existing] |= useFlags[u];
+                    }
+                }
+            }
+            mergedStart[passCount] = m;
+        }
+
+        private void cull() {
+            live = new boolean[passCount];
+            boolean[] needed = Arrays.copyOf(resourceOutput, resourceCount);
+            for (int p = passCount - 1; p >= 0; p--) {
+                boolean keep = passSideEffects[p];
+                for (int k = mergedStart[p]; k < mergedStart[p + 1] && !keep; k++) {
+                    keep = (mergedFlags[k] & USE_WRITE) != 0 && needed[mergedResource[k]];
+                }
+                if (!keep) {
+                    continue;
+                }
+                live[p] = true;
+                for (int k = mergedStart[p]; k < mergedStart[p + 1]; k++) {
+                    if (mergedFlags[k] == USE_WRITE) {
+                        needed[mergedResource[k]] = false;
+                    }
+                }
+                for (int k = mergedStart[p]; k < mergedStart[p + 1]; k++) {
+                    if ((mergedFlags[k] & USE_READ) != 0) {
+                        needed[mergedResource[k]] = true;
+                    }
+                }
+            }
+        }
+
+        private void schedule(int p) {
+            int q = asyncCompute ? passQueues[p] : QUEUE_GRAPHICS;
+            int oq = 1 - q;
+            waitCount = 0;
+            int barrierStart = barriers.count;
+
+            long srcStageSum = 0;
+            long srcAccessSum = 0;
+            long dstStageSum = 0;
+            long dstAccessSum = 0;
+
+            for (int k = mergedStart[p]; k < mergedStart[p + 1]; k++) {
+                int r = mergedResource[k];
+                long stage = mergedStage[k];
+                long access = mergedAccess[k];
+                boolean read = (mergedFlags[k] & USE_READ) != 0;
+                boolean write = (mergedFlags[k] & USE_WRITE) != 0;
+                boolean image = resourceIsImage[r];
+                boolean layoutChange = image && layout[r] != mergedLayout[k];
+                boolean modifies = write || layoutChange;
+
+                // dependencies on the other queue are resolved by semaphores, which make all
+                // memory available and visible to the waiting stages
+                boolean crossQueue = false;
+                if (writePass[r] >= 0 && writeQueue[r] != q) {
+                    // a wait earlier on this queue also covers later submissions at its stages
+                    if ((stage & ~waitedStages[q][r]) != 0) {
+                        addWait(writePass[r], stage);
+                        waitedStages[q][r] |= stage;
+                    }
+                    crossQueue = true;
+                }
+                if (modifies && readPass[oq][r] >= 0) {
+                    addWait(readPass[oq][r], stage);
+                    crossQueue = true;
+                }
+
+                long srcStage = 0;
+                long srcAccess = 0;
+                if (writePass[r] >= 0 && writeQueue[r] == q) {
+                    if (modifies) {
+                        srcStage |= writeStage[r];
+                        srcAccess |= writeAccess[r];
+                    } else if ((stage & ~visibleStages[q][r]) != 0 || (access & ~visibleAccess[q][r]) != 0) {
+                        srcStage |= writeStage[r];
+                        srcAccess |= writeAccess[r];
+                    }
+                }
+                if (modifies) {
+                    srcStage |= readStages[q][r];
+                }
+
+                if (layoutChange) {
+                    if (crossQueue || (!touched[r] && resourceImported[r])) {
+                        // chain with the semaphore wait at this stage
+                        srcStage |= stage;
+                    }
+                    int oldLayout = read ? layout[r] : VkImageLayout.UNDEFINED;
+                    barriers.add(r, oldLayout, mergedLayout[k], srcStage, srcAccess, stage, access);
+                } else if (srcStage != 0) {
+                    srcStageSum |= srcStage;
+                    srcAccessSum |= srcAccess;
+                    dstStageSum |= stage;
+                    if (srcAccess != 0) {
+                        dstAccessSum |= access;
+                    }
+                }
+
+                // state after this pass
+                touched[r] = true;
+                lastUsePass[r] = p;
+                if (image) {
+                    layout[r] = mergedLayout[k];
+                }
+                if (crossQueue) {
+                    visibleStages[q][r] = ~0L;
+                    visibleAccess[q][r] = ~0L;
+                }
+                if (modifies) {
+                    writePass[r] = p;
+                    writeQueue[r] = q;
+                    writeStage[r] = stage;
+                    writeAccess[r] = write ? access : 0;
+                    for (int queue = 0; queue < 2; queue++) {
+                        readPass[queue][r] = -1;
+                        readStages[queue][r] = 0;
+                        visibleStages[queue][r] = 0;
+                        visibleAccess[queue][r] = 0;
+                        waitedStages[queue][r] = 0;
+                    }
+                    if (!write) {
+                        // only a layout transition, which is visible to this use
+                        visibleStages[q][r] = stage;
+                        visibleAccess[q][r] = access;
+                    }
+                }
+                if (read) {
+                    readPass[q][r] = p;
+                    readStages[q][r] |= stage;
+                    if (!write) {
+                        visibleStages[q][r] |= stage;
+                        visibleAccess[q][r] |= access;
+                    }
+                }
+            }
+
+            memSrcStage[p] = srcStageSum;
+            memSrcAccess[p] = srcAccessSum;
+            memDstStage[p] = dstStageSum;
+            memDstAccess[p] = dstAccessSum;
+            passBarrierStart[p] = barrierStart;
+            passBarrierCount[p] = barriers.count - barrierStart;
+
+            assignSubmission(p, q);
+        }
+
+        private void addWait(int producerPass, long stage) {
+            for (int i = 0; i < waitCount; i++) {
+                if (waitPasses[i] == producerPass) {
+                    waitStages[i] |= stage;
+                    return;
+                }
+            }
+            if (waitCount == waitPasses.length) {
+                waitPasses = Arrays.copyOf(waitPasses, waitCount * 2);
+                waitStages = Arrays.copyOf(waitStages, waitCount * 2);
+            }
+            waitPasses[waitCount] = producerPass;
+            waitStages[waitCount] = stage;
+            waitCount++;
+        }
+
+        // a submission can only wait at its start, so a pass depending on the other queue opens
+        // a new submission, and the producing submission is closed so it can signal
+        private void assignSubmission(int p, int q) {
+            if (waitCount > 0) {
+                for (int i = 0; i < waitCount; i++) {
+                    Submission producer = submissions.get(passSubmission[waitPasses[i]]);
+                    if (open[producer.queue] == producer) {
+                        close(producer.queue);
+                    }
+                }
+                if (open[q] != null) {
+                    close(q);
+                }
+            }
+            if (open[q] == null) {
+                Submission submission = new Submission(q, submissions.size());
+                submissions.add(submission);
+                open[q] = submission;
+            }
+
+            Submission current = open[q];
+            for (int i = 0; i < waitCount; i++) {
+                Submission producer = submissions.get(passSubmission[waitPasses[i]]);
+                current.addWait(producer, waitStages[i]);
+                producer.signals = true;
+            }
+            current.addPass(p);
+            passSubmission[p] = current.id;
+        }
+
+        private void close(int q) {
+            Submission submission = open[q];
+            submission.order = closedCount++;
+            open[q] = null;
+        }
+
+        private Compiled finish() {
+            // final layout transitions go to the submission that used the image last
+            for (int r = 0; r < resourceCount; r++) {
+                int finalLayout = resourceFinalLayout[r];
+                if (finalLayout < 0 || finalLayout == layout[r] || lastUsePass[r] < 0) {
+                    continue;
+                }
+                Submission submission = submissions.get(passSubmission[lastUsePass[r]]);
+                int q = submission.queue;
+                long srcStage = readStages[q][r];
+                long srcAccess = 0;
+                if (writePass[r] >= 0) {
+                    srcStage |= writeStage[r];
+                    srcAccess |= writeAccess[r];
+                }
+                submission.finalBarriers.add(new long[] {
+                        r, layout[r], finalLayout, srcStage, srcAccess,
+                        VkPipelineStageFlags2.NONE, VkAccessFlags2.NONE
+                });
+            }
+            for (int q = 0; q < 2; q++) {
+                if (open[q] != null) {
+                    close(q);
+                }
+            }
+
+            int count = submissions.size();
+            int[] queues = new int[count];
+            int[][] passLists = new int[count][];
+            int[][] waitLists = new int[count][];
+            long[][] waitStageLists = new long[count][];
+            boolean[] signal = new boolean[count];
+            int[] finalStart = new int[count];
+            int[] finalCount = new int[count];
+            for (Submission submission : submissions) {
+                int s = submission.order;
+                queues[s] = submission.queue;
+                passLists[s] = Arrays.copyOf(submission.passes, submission.passCount);
+                waitLists[s] = new int[submission.waits.size()];
+                waitStageLists[s] = new long[submission.waits.size()];
+                for (int i = 0; i < submission.waits.size(); i++) {
+                    waitLists[s][i] = submission.waits.get(i).order;
+                    waitStageLists[s][i] = submission.waitStages[i];
+                }
+                signal[s] = submission.signals;
+            }
+            // final barriers are appended in submission order so each submission's are contiguous
+            Submission[] byOrder = new Submission[count];
+            for (Submission submission : submissions) {
+                byOrder[submission.order] = submission;
+            }
+            for (int s = 0; s < count; s++) {
+                finalStart[s] = barriers.count;
+                for (long[] b : byOrder[s].finalBarriers) {
+                    barriers.add((int) b[0], (int) b[1], (int) b[2], b[3], b[4], b[5], b[6]);
+                }
+                finalCount[s] = barriers.count - finalStart[s];
+            }
+
+            int[] orderedPassSubmission = new int[passCount];
+            for (int p = 0; p < passCount; p++) {
+                orderedPassSubmission[p] = passSubmission[p] < 0 ? -1 : submissions.get(passSubmission[p]).order;
+            }
+
+            return new Compiled(
+                    orderedPassSubmission,
+                    memSrcStage, memSrcAccess, memDstStage, memDstAccess,
+                    passBarrierStart, passBarrierCount,
+                    barriers,
+                    queues, passLists, waitLists, waitStageLists, signal,
+                    finalStart, finalCount
+            );
+        }
+
+        private final boolean asyncCompute;
+
+        private int[] mergedStart;
+        private int[] mergedResource;
+        private long[] mergedStage;
+        private long[] mergedAccess;
+        private int[] mergedLayout;
+        private int[] mergedFlags;
+        private boolean[] live;
+
+        private int[] layout;
+        private int[] writePass;
+        private int[] writeQueue;
+        private long[] writeStage;
+        private long[] writeAccess;
+        private int[][] readPass;
+        private long[][] readStages;
+        private long[][] visibleStages;
+        private long[][] visibleAccess;
+        /// Stages of each queue already waiting on a semaphore signaled after the current write
+        private long[][] waitedStages;
+        private boolean[] touched;
+        private int[] lastUsePass;
+
+        private int[] passSubmission;
+        private long[] memSrcStage;
+        private long[] memSrcAccess;
+        private long[] memDstStage;
+        private long[] memDstAccess;
+        private int[] passBarrierStart;
+        private int[] passBarrierCount;
+        private final BarrierList barriers = new BarrierList();
+
+        private int[] waitPasses = new int[4];
+        private long[] waitStages = new long[4];
+        private int waitCount;
+
+        private final ArrayList<Submission> submissions = new ArrayList<>();
+        private final Submission[] open = new Submission[2];
+        private int closedCount;
+    }
+
+    private static final class Submission {
+        Submission(int queue, int id) {
+            this.queue = queue;
+            this.id = id;
+        }
+
+        void addPass(int pass) {
+            if (passCount == passes.length) {
+                passes = Arrays.copyOf(passes, passCount * 2);
+            }
+            passes[passCount++] = pass;
+        }
+
+        void addWait(Submission producer, long stage) {
+            int index = waits.indexOf(producer);
+            if (index < 0) {
+                waits.add(producer);
+                waitStages = Arrays.copyOf(waitStages, waits.size());
+                index = waits.size() - 1;
+            }
+            waitStages[index] |= stage;
+        }
+
+        final int queue;
+        final int id;
+        int order = -1;
+        int[] passes = new int[8];
+        int passCount;
+        final ArrayList<Submission> waits = new ArrayList<>();
+        long[] waitStages = new long[0];
+        boolean signals;
+        final ArrayList<long[]> finalBarriers = new ArrayList<>();
+    }
+
+    private static final class BarrierList {
+        void add(int r, int oldLayout, int newLayout, long srcStage, long srcAccess, long dstStage, long dstAccess) {
+            if (count == resource.length) {
+                int capacity = count * 2;
+                resource = Arrays.copyOf(resource, capacity);
+                this.oldLayout = Arrays.copyOf(this.oldLayout, capacity);
+                this.newLayout = Arrays.copyOf(this.newLayout, capacity);
+                this.srcStage = Arrays.copyOf(this.srcStage, capacity);
+                this.srcAccess = Arrays.copyOf(this.srcAccess, capacity);
+                this.dstStage = Arrays.copyOf(this.dstStage, capacity);
+                this.dstAccess = Arrays.copyOf(this.dstAccess, capacity);
+            }
+            resource[count] = r;
+            this.oldLayout[count] = oldLayout;
+            this.newLayout[count] = newLayout;
+            this.srcStage[count] = srcStage;
+            this.srcAccess[count] = srcAccess;
+            this.dstStage[count] = dstStage;
+            this.dstAccess[count] = dstAccess;
+            count++;
+        }
+
+        ImageBarrier[] toArray(int start, int length) {
+            ImageBarrier[] result = new ImageBarrier[length];
+            for (int i = 0; i < length; i++) {
+                int b = start + i;
+                result[i] = new ImageBarrier(
+                        resource[b], oldLayout[b], newLayout[b],
+                        srcStage[b], srcAccess[b], dstStage[b], dstAccess[b]
+                );
+            }
+            return result;
+        }
+
+        int count;
+        int[] resource = new int[16];
+        int[] oldLayout = new int[16];
+        int[] newLayout = new int[16];
+        long[] srcStage = new long[16];
+        long[] srcAccess = new long[16];
+        long[] dstStage = new long[16];
+        long[] dstAccess = new long[16];
+    }
+
+    private int addResource(String name, boolean image, boolean imported, int aspectMask, int initialLayout) {
+        if (resourceCount == resourceIsImage.length) {
+            int capacity = resourceCount * 2;
+            resourceIsImage = Arrays.copyOf(resourceIsImage, capacity);
+            resourceImported = Arrays.copyOf(resourceImported, capacity);
+            resourceOutput = Arrays.copyOf(resourceOutput, capacity);
+            resourceAspects = Arrays.copyOf(resourceAspects, capacity);
+            resourceInitialLayout = Arrays.copyOf(resourceInitialLayout, capacity);
+            resourceFinalLayout = Arrays.copyOf(resourceFinalLayout, capacity);
+            imageHandles = Arrays.copyOf(imageHandles, capacity);
+        }
+        int r = resourceCount++;
+        resourceNames.add(name);
+        resourceIsImage[r] = image;
+        resourceImported[r] = imported;
+        resourceAspects[r] = aspectMask;
+        resourceInitialLayout[r] = initialLayout;
+        resourceFinalLayout[r] = -1;
+        return r;
+    }
+
+    private void addUse(int pass, int resource, long stageMask, long accessMask, int layout, int flags, boolean image) {
+        Objects.checkIndex(pass, passCount);
+        Objects.checkIndex(resource, resourceCount);
+        if (resourceIsImage[resource] != image) {
+            throw new IllegalArgumentException(
+                    "Resource " + resourceNames.get(resource) + (image ? " is not an image" : " is an image, a layout is required")
+            );
+        }
+        if (stageMask == 0) {
+            throw new IllegalArgumentException("Stage mask must not be empty");
+        }
+        if (useCount == usePass.length) {
+            int capacity = useCount * 2;
+            usePass = Arrays.copyOf(usePass, capacity);
+            useResource = Arrays.copyOf(useResource, capacity);
+            useStage = Arrays.copyOf(useStage, capacity);
+            useAccess = Arrays.copyOf(useAccess, capacity);
+            useLayout = Arrays.copyOf(useLayout, capacity);
+            useFlags = Arrays.copyOf(useFlags, capacity);
+        }
+        usePass[useCount] = pass;
+        useResource[useCount] = resource;
+        useStage[useCount] = stageMask;
+        useAccess[useCount] = accessMask;
+        useLayout[useCount] = layout;
+        useFlags[useCount] = flags;
+        useCount++;
+    }
+
+    private static final int USE_READ = 1;
+    private static final int USE_WRITE = 2;
+
+    private final ArrayList<String> resourceNames = new ArrayList<>();
+    private int resourceCount;
+    private boolean[] resourceIsImage = new boolean[16];
+    private boolean[] resourceImported = new boolean[16];
+    private boolean[] resourceOutput = new boolean[16];
+    private int[] resourceAspects = new int[16];
+    private int[] resourceInitialLayout = new int[16];
+    private int[] resourceFinalLayout = new int[16];
+    private MemorySegment[] imageHandles = new MemorySegment[16];
+
+    private final ArrayList<String> passNames = new ArrayList<>();
+    private final ArrayList<PassRecorder> passRecorders = new ArrayList<>();
+    private int passCount;
+    private int[] passQueues = new int[16];
+    private boolean[] passSideEffects = new boolean[16];
+
+    private int useCount;
+    private int[] usePass = new int[64];
+    private int[] useResource = new int[64];
+    private long[] useStage = new long[64];
+    private long[] useAccess = new long[64];
+    private int[] useLayout = new int[64];
+    private int[] useFlags = new int[64];
+}
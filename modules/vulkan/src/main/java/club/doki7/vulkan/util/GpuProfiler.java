@@ -0,0 +1,394 @@
+package club.doki7.vulkan.util;
+
+import club.doki7.ffm.annotation.EnumType;
+import club.doki7.ffm.annotation.Unsigned;
+import club.doki7.ffm.ptr.LongPtr;
+import club.doki7.vulkan.bitmask.VkPipelineStageFlags2;
+import club.doki7.vulkan.bitmask.VkQueryResultFlags;
+import club.doki7.vulkan.command.VkDeviceCommands;
+import club.doki7.vulkan.datatype.VkCalibratedTimestampInfoKHR;
+import club.doki7.vulkan.datatype.VkQueryPoolCreateInfo;
+import club.doki7.vulkan.enumtype.VkQueryType;
+import club.doki7.vulkan.enumtype.VkResult;
+import club.doki7.vulkan.enumtype.VkTimeDomainKHR;
+import club.doki7.vulkan.handle.VkCommandBuffer;
+import club.doki7.vulkan.handle.VkDevice;
+import club.doki7.vulkan.handle.VkQueryPool;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.foreign.Arena;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/// Measures GPU execution time of named scopes with {@link VkDeviceCommands#cmdWriteTimestamp2}.
+///
+/// The profiler owns one {@link VkQueryPool} per frame in flight. {@link #beginFrame} is called
+/// after the in-flight fence of a frame slot has been waited: it reads the timestamps written by
+/// the previous use of that slot with {@link VkDeviceCommands#getQueryPoolResults} (without
+/// {@link VkQueryResultFlags#WAIT}, so it never stalls), then resets the pool, either on the host
+/// with {@link VkDeviceCommands#resetQueryPool} or by recording
+/// {@link VkDeviceCommands#cmdResetQueryPool} into the given command buffer.
+///
+/// {@snippet :
+/// GpuProfiler profiler = new GpuProfiler(
+///         deviceCommands, device, MAX_FRAMES_IN_FLIGHT, 256,
+///         limits.timestampPeriod(), queueFamilyProperties.timestampValidBits(), false
+/// );
+/// profiler.setTraceWriter(new ChromeTraceWriter(Files.newBufferedWriter(Path.of("trace.json"))));
+///
+/// // after waiting inFlightFences[currentFrame], in the first command buffer of the frame
+/// profiler.beginFrame(commandBuffer, currentFrame, frameNumber);
+/// int scope = profiler.beginScope(commandBuffer, "shadow pass");
+/// // ... record the pass
+/// profiler.endScope(commandBuffer, scope);
+/// }
+///
+/// Resolved scopes are reported three ways, each optional: a {@link ScopeListener}, a JFR event
+/// ({@code club.doki7.vulkan.GpuScope}, enabled like any other JFR event) and a
+/// {@link ChromeTraceWriter}. For the trace, GPU timestamps are converted to the
+/// {@link System#nanoTime()} domain so that GPU spans line up with CPU spans written by
+/// {@link #cpuSpan}. The conversion uses {@link #calibrate()} ({@code VK_KHR_calibrated_timestamps})
+/// or {@link #setCalibration} when available. Otherwise the first resolved scope is anchored to the
+/// CPU time of its {@link #beginFrame} call, which is good enough to tell which passes are GPU bound,
+/// but drifts over long captures.
+///
+/// {@link #beginScope} and {@link #endScope} can be called from any thread recording a command
+/// buffer of the current frame. All other methods should be called from the thread driving the
+/// frame loop.
+public final class GpuProfiler implements AutoCloseable {
+    /// Returned by {@link #beginScope} when the frame has run out of queries. Passing it to
+    /// {@link #endScope} is a no-op.
+    public static final int NO_SCOPE = -1;
+
+    /// Receives resolved GPU scopes.
+    @FunctionalInterface
+    public interface ScopeListener {
+        /// @param frameNumber the frame number passed to {@link #beginFrame}
+        /// @param name scope name
+        /// @param startNanos scope start, in {@link System#nanoTime()} domain
+        /// @param durationNanos GPU execution time of the scope
+        void onScope(long frameNumber, @NotNull String name, long startNanos, long durationNanos);
+    }
+
+    /// @param deviceCommands device commands
+    /// @param device the device
+    /// @param framesInFlight number of frames in flight, one query pool is created per frame
+    /// @param maxScopesPerFrame maximum number of scopes per frame, further scopes are dropped
+    /// @param timestampPeriod {@code VkPhysicalDeviceLimits::timestampPeriod}, nanoseconds per tick
+    /// @param timestampValidBits {@code VkQueueFamilyProperties::timestampValidBits} of the queue
+    ///                           the profiled command buffers are submitted to
+    /// @param hostReset reset query pools with {@link VkDeviceCommands#resetQueryPool}, which
+    ///                  requires the {@code hostQueryReset} feature
+    /// @throws RuntimeException if creating the query pools fails
+    public GpuProfiler(
+            @NotNull VkDeviceCommands deviceCommands,
+            @NotNull VkDevice device,
+            int framesInFlight,
+            int maxScopesPerFrame,
+            float timestampPeriod,
+            @Unsigned int timestampValidBits,
+            boolean hostReset
+    ) {
+        if (framesInFlight <= 0 || maxScopesPerFrame <= 0) {
+            throw new IllegalArgumentException("framesInFlight and maxScopesPerFrame must be positive");
+        }
+        if (timestampValidBits == 0) {
+            throw new IllegalArgumentException("Queue family does not support timestamps");
+        }
+
+        this.deviceCommands = deviceCommands;
+        this.device = device;
+        this.maxScopesPerFrame = maxScopesPerFrame;
+        this.queryCount = maxScopesPerFrame * 2;
+        this.timestampPeriod = timestampPeriod;
+        this.validBitsShift = 64 - Math.min(64, timestampValidBits);
+        this.hostReset = hostReset;
+
+        this.arena = Arena.ofShared();
+        this.results = LongPtr.allocate(arena, (long) queryCount * 2);
+        this.frames = new FrameSlot[framesInFlight];
+
+        VkQueryPoolCreateInfo createInfo = VkQueryPoolCreateInfo.allocate(arena)
+                .queryType(VkQueryType.TIMESTAMP)
+                .queryCount(queryCount);
+        VkQueryPool.Ptr pQueryPool = VkQueryPool.Ptr.allocate(arena);
+        for (int i = 0; i < framesInFlight; i++) {
+            int result = deviceCommands.createQueryPool(device, createInfo, null, pQueryPool);
+            if (result != VkResult.SUCCESS) {
+                for (int j = 0; j < i; j++) {
+                    deviceCommands.destroyQueryPool(device, frames[j].queryPool, null);
+                }
+                arena.close();
+                throw new RuntimeException("Failed to create timestamp query pool: " + VkResult.explain(result));
+            }
+            frames[i] = new FrameSlot(Objects.requireNonNull(pQueryPool.read()), maxScopesPerFrame);
+        }
+    }
+
+    public void setListener(@Nullable ScopeListener listener) {
+        this.listener = listener;
+    }
+
+    /// Sets the trace writer receiving GPU spans and the CPU spans passed to {@link #cpuSpan}.
+    /// The profiler does not close it.
+    public void setTraceWriter(@Nullable ChromeTraceWriter traceWriter) {
+        this.traceWriter = traceWriter;
+        if (traceWriter != null) {
+            traceWriter.processName(ChromeTraceWriter.PID_CPU, "CPU");
+            traceWriter.processName(ChromeTraceWriter.PID_GPU, "GPU");
+            traceWriter.threadName(ChromeTraceWriter.PID_GPU, 0, "queue");
+        }
+    }
+
+    /// Starts a frame on slot {@code frameIndex}, first resolving the scopes of the previous frame
+    /// that used the slot.
+    ///
+    /// The caller must have waited the in-flight fence of the slot. When not using host reset, the
+    /// reset command is recorded into {@code commandBuffer}, which must be submitted before any
+    /// other command buffer of the frame that contains profiler scopes.
+    ///
+    /// @param commandBuffer command buffer to record the reset into, may be {@code null} with host
+    ///                      reset
+    /// @param frameIndex frame slot, in {@code [0, framesInFlight)}
+    /// @param frameNumber absolute frame number, reported with the scopes of this frame
+    public void beginFrame(@Nullable VkCommandBuffer commandBuffer, int frameIndex, long frameNumber) {
+        FrameSlot frame = frames[frameIndex];
+        if (frame.used) {
+            resolve(frame);
+        }
+
+        if (hostReset) {
+            deviceCommands.resetQueryPool(device, frame.queryPool, 0, queryCount);
+        } else {
+            deviceCommands.cmdResetQueryPool(Objects.requireNonNull(commandBuffer), frame.queryPool, 0, queryCount);
+        }
+        frame.frameNumber = frameNumber;
+        frame.cpuBeginNanos = System.nanoTime();
+        frame.scopeCount.set(0);
+        frame.used = true;
+        currentFrame = frame;
+    }
+
+    /// Begins a scope with {@link VkPipelineStageFlags2#ALL_COMMANDS}.
+    public int beginScope(@NotNull VkCommandBuffer commandBuffer, @NotNull String name) {
+        return beginScope(commandBuffer, name, VkPipelineStageFlags2.ALL_COMMANDS);
+    }
+
+    /// Records the start timestamp of a scope.
+    ///
+    /// @return scope id to pass to {@link #endScope}, or {@link #NO_SCOPE} if the frame has run out
+    ///         of queries
+    public int beginScope(
+            @NotNull VkCommandBuffer commandBuffer,
+            @NotNull String name,
+            @EnumType(VkPipelineStageFlags2.class) long stage
+    ) {
+        FrameSlot frame = Objects.requireNonNull(currentFrame, "beginFrame not called");
+        int scope = frame.scopeCount.getAndIncrement();
+        if (scope >= maxScopesPerFrame) {
+            return NO_SCOPE;
+        }
+        frame.names[scope] = name;
+        deviceCommands.cmdWriteTimestamp2(commandBuffer, stage, frame.queryPool, scope * 2);
+        return scope;
+    }
+
+    /// Ends a scope with {@link VkPipelineStageFlags2#ALL_COMMANDS}.
+    public void endScope(@NotNull VkCommandBuffer commandBuffer, int scope) {
+        endScope(commandBuffer, scope, VkPipelineStageFlags2.ALL_COMMANDS);
+    }
+
+    /// Records the end timestamp of a scope.
+    public void endScope(
+            @NotNull VkCommandBuffer commandBuffer,
+            int scope,
+            @EnumType(VkPipelineStageFlags2.class) long stage
+    ) {
+        if (scope == NO_SCOPE) {
+            return;
+        }
+        FrameSlot frame = Objects.requireNonNull(currentFrame, "beginFrame not called");
+        deviceCommands.cmdWriteTimestamp2(commandBuffer, stage, frame.queryPool, scope * 2 + 1);
+    }
+
+    /// Writes a CPU span of the calling thread to the trace writer, if any.
+    ///
+    /// @param name span name
+    /// @param startNanos {@link System#nanoTime()} at the start of the span
+    /// @param endNanos {@link System#nanoTime()} at the end of the span
+    public void cpuSpan(@NotNull String name, long startNanos, long endNanos) {
+        ChromeTraceWriter writer = traceWriter;
+        if (writer != null) {
+            writer.completeEvent(
+                    name,
+                    "cpu",
+                    ChromeTraceWriter.PID_CPU,
+                    Thread.currentThread().threadId(),
+                    startNanos,
+                    endNanos - startNanos
+            );
+        }
+    }
+
+    /// Correlates GPU timestamps with {@link System#nanoTime()} using
+    /// {@link VkDeviceCommands#getCalibratedTimestampsKHR} (or the EXT variant) with
+    /// {@link VkTimeDomainKHR#CLOCK_MONOTONIC}, which is what {@link System#nanoTime()} uses on
+    /// Linux.
+    ///
+    /// Calling it every few seconds compensates clock drift.
+    ///
+    /// @return whether calibration succeeded; {@code false} if the extension is not enabled, the
+    ///         platform is not Linux, or the time domain is not supported
+    public boolean calibrate() {
+        boolean khr = deviceCommands.HANDLE$vkGetCalibratedTimestampsKHR != null;
+        boolean ext = deviceCommands.HANDLE$vkGetCalibratedTimestampsEXT != null;
+        if ((!khr && !ext) || !System.getProperty("os.name", "").toLowerCase().contains("linux")) {
+            return false;
+        }
+
+        try (Arena local = Arena.ofConfined()) {
+            VkCalibratedTimestampInfoKHR.Ptr infos = VkCalibratedTimestampInfoKHR.allocate(local, 2);
+            infos.at(0).timeDomain(VkTimeDomainKHR.DEVICE);
+            infos.at(1).timeDomain(VkTimeDomainKHR.CLOCK_MONOTONIC);
+            LongPtr timestamps = LongPtr.allocate(local, 2);
+            LongPtr maxDeviation = LongPtr.allocate(local);
+
+            int result = khr
+                    ? deviceCommands.getCalibratedTimestampsKHR(device, 2, infos, timestamps, maxDeviation)
+                    : deviceCommands.getCalibratedTimestampsEXT(device, 2, infos, timestamps, maxDeviation);
+            if (result != VkResult.SUCCESS) {
+                return false;
+            }
+            setCalibration(timestamps.read(0), timestamps.read(1));
+            return true;
+        }
+    }
+
+    /// Declares that GPU timestamp {@code gpuTicks} was taken at CPU time {@code cpuNanos}.
+    public void setCalibration(long gpuTicks, long cpuNanos) {
+        calibrationTicks = gpuTicks;
+        calibrationNanos = cpuNanos;
+        calibrated = true;
+    }
+
+    /// Number of scopes not reported so far, because a frame ran out of queries or their results
+    /// were not available when resolved.
+    public long droppedScopes() {
+        return droppedScopes;
+    }
+
+    /// Destroys the query pools. The caller must make sure the GPU is done with them. Scopes not
+    /// resolved yet are lost.
+    @Override
+    public void close() {
+        for (FrameSlot frame : frames) {
+            deviceCommands.destroyQueryPool(device, frame.queryPool, null);
+        }
+        arena.close();
+    }
+
+    private void resolve(FrameSlot frame) {
+        int requested = frame.scopeCount.get();
+        int scopeCount = Math.min(requested, maxScopesPerFrame);
+        droppedScopes += requested - scopeCount;
+        if (scopeCount == 0) {
+            return;
+        }
+
+        // each query yields (value, availability), so the stride is two longs
+        int result = deviceCommands.getQueryPoolResults(
+                device,
+                frame.queryPool,
+                0,
+                scopeCount * 2,
+                (long) scopeCount * 2 * 2 * Long.BYTES,
+                results.segment(),
+                2 * Long.BYTES,
+                VkQueryResultFlags._64 | VkQueryResultFlags.WITH_AVAILABILITY
+        );
+        if (result != VkResult.SUCCESS && result != VkResult.NOT_READY) {
+            throw new RuntimeException("Failed to get timestamp query results: " + VkResult.explain(result));
+        }
+
+        for (int i = 0; i < scopeCount; i++) {
+            String name = frame.names[i];
+            frame.names[i] = null;
+            int base = i * 4;
+            if (results.read(base + 1) == 0 || results.read(base + 3) == 0) {
+                droppedScopes++;
+                continue;
+            }
+
+            long beginTicks = results.read(base);
+            long endTicks = results.read(base + 2);
+            if (!calibrated) {
+                setCalibration(beginTicks, frame.cpuBeginNanos);
+            }
+            long startNanos = calibrationNanos + ticksToNanos(beginTicks - calibrationTicks);
+            long durationNanos = ticksToNanos(endTicks - beginTicks);
+            report(frame.frameNumber, Objects.requireNonNull(name), startNanos, durationNanos);
+        }
+    }
+
+    private void report(long frameNumber, String name, long startNanos, long durationNanos) {
+        ScopeListener listener = this.listener;
+        if (listener != null) {
+            listener.onScope(frameNumber, name, startNanos, durationNanos);
+        }
+
+        GpuScopeEvent event = new GpuScopeEvent();
+        if (event.shouldCommit()) {
+            event.name = name;
+            event.frame = frameNumber;
+            event.gpuStart = startNanos;
+            event.gpuDuration = durationNanos;
+            event.commit();
+        }
+
+        ChromeTraceWriter writer = traceWriter;
+        if (writer != null) {
+            writer.completeEvent(name, "gpu", ChromeTraceWriter.PID_GPU, 0, startNanos, durationNanos);
+        }
+    }
+
+    private long ticksToNanos(long tickDelta) {
+        // sign-extend from timestampValidBits so that wrapped counters still give small deltas
+        long delta = (tickDelta << validBitsShift) >> validBitsShift;
+        return (long) (delta * (double) timestampPeriod);
+    }
+
+    private static final class FrameSlot {
+        FrameSlot(VkQueryPool queryPool, int maxScopes) {
+            this.queryPool = queryPool;
+            this.names = new String[maxScopes];
+        }
+
+        final VkQueryPool queryPool;
+        final String[] names;
+        final AtomicInteger scopeCount = new AtomicInteger();
+        long frameNumber;
+        long cpuBeginNanos;
+        boolean used;
+    }
+
+    private final VkDeviceCommands deviceCommands;
+    private final VkDevice device;
+    private final int maxScopesPerFrame;
+    private final int queryCount;
+    private final float timestampPeriod;
+    private final int validBitsShift;
+    private final boolean hostReset;
+    private final Arena arena;
+    private final LongPtr results;
+    private final FrameSlot[] frames;
+
+    private volatile @Nullable FrameSlot currentFrame;
+    private volatile @Nullable ScopeListener listener;
+    private volatile @Nullable ChromeTraceWriter traceWriter;
+
+    private long calibrationTicks;
+    private long calibrationNanos;
+    private boolean calibrated;
+    private long droppedScopes;
+}
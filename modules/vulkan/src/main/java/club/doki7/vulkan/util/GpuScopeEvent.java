@@ -0,0 +1,35 @@
+package club.doki7.vulkan.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/// JFR event committed by {@link GpuProfiler} for every resolved GPU scope.
+///
+/// The JFR timestamp of the event is the time the scope was resolved on the CPU, the GPU timing
+/// itself is carried in {@link #gpuStart} and {@link #gpuDuration}.
+@Name("club.doki7.vulkan.GpuScope")
+@Label("GPU Scope")
+@Category({"vulkan4j", "GPU"})
+@Description("Execution time of a profiled scope on the GPU")
+@StackTrace(false)
+final class GpuScopeEvent extends jdk.jfr.Event {
+    @Label("Name")
+    String name;
+
+    @Label("Frame")
+    long frame;
+
+    // a System.nanoTime() value has no fixed origin, so it is neither a JFR @Timestamp nor a
+    // @Timespan, and is left unannotated
+    @Label("GPU Start")
+    @Description("Start of the scope, calibrated to System.nanoTime()")
+    long gpuStart;
+
+    @Label("GPU Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long gpuDuration;
+}
@@ -0,0 +1,45 @@
+package club.doki7.vulkan.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/// 64-bit hash of a byte sequence, used to key the content-addressed caches of this package.
+///
+/// The bytes are consumed eight at a time with the MurmurHash3 x64 block mixing, and the result
+/// goes through the MurmurHash3 finalizer. Not stable across versions; never persist it.
+final class Hash64 {
+    private Hash64() {}
+
+    /// Hashes the contents of {@code data}, which may be a heap or a native segment.
+    static long hash(@NotNull MemorySegment data) {
+        return hash(data, data.byteSize());
+    }
+
+    /// Hashes the first {@code size} bytes of {@code data}.
+    static long hash(@NotNull MemorySegment data, long size) {
+        long h = SEED ^ size;
+        long i = 0;
+        for (; i + Long.BYTES <= size; i += Long.BYTES) {
+            long k = data.get(ValueLayout.JAVA_LONG_UNALIGNED, i) * C1;
+            h = Long.rotateLeft(h ^ Long.rotateLeft(k, 31) * C2, 27) * 5 + 0x52dce729;
+        }
+        long tail = 0;
+        for (int shift = 0; i < size; i++, shift += 8) {
+            tail |= (data.get(ValueLayout.JAVA_BYTE, i) & 0xFFL) << shift;
+        }
+        h ^= Long.rotateLeft(tail * C1, 31) * C2;
+
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static final long SEED = 0x9E3779B97F4A7C15L;
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+}
@@ -0,0 +1,57 @@
+package club.doki7.vulkan.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+/// Periodic JFR event emitted by {@link PooledHostAllocator}, one per allocation scope that has
+/// seen any activity.
+@Name("club.doki7.vulkan.HostMemory")
+@Label("Vulkan Host Memory")
+@Category({"vulkan4j", "Memory"})
+@Description("Host memory allocated by the Vulkan implementation through VkAllocationCallbacks")
+@StackTrace(false)
+@Period("1 s")
+final class HostMemoryEvent extends jdk.jfr.Event {
+    @Label("Allocator")
+    String allocator;
+
+    @Label("Scope")
+    String scope;
+
+    @Label("Allocations")
+    long allocations;
+
+    @Label("Reallocations")
+    long reallocations;
+
+    @Label("Frees")
+    long frees;
+
+    @Label("Live Size")
+    @DataAmount
+    long liveBytes;
+
+    @Label("Peak Size")
+    @Description("High-water mark of the live size")
+    @DataAmount
+    long peakBytes;
+
+    @Label("Internal Live Size")
+    @Description("Memory the implementation allocated itself and reported through pfnInternalAllocation")
+    @DataAmount
+    long internalBytes;
+
+    @Label("Internal Peak Size")
+    @DataAmount
+    long internalPeakBytes;
+
+    @Label("Reserved Size")
+    @Description("Native memory held by the pool, shared by all scopes")
+    @DataAmount
+    long reservedBytes;
+}
@@ -0,0 +1,132 @@
+package club.doki7.vulkan.util;
+
+import club.doki7.ffm.annotation.Unsigned;
+import club.doki7.ffm.ptr.BytePtr;
+import club.doki7.ffm.ptr.FloatPtr;
+import club.doki7.ffm.ptr.IntPtr;
+import club.doki7.vulkan.handle.VkDeviceMemory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.foreign.MemorySegment;
+import java.util.function.Function;
+
+/// Typed write access to a host-visible memory mapping, remembering which bytes were written so
+/// they can be flushed with as few and as small {@code VkMappedMemoryRange}s as possible.
+///
+/// The {@code write*} methods return views into the mapping and record the viewed bytes as
+/// dirty in a {@link DirtyRangeSet} aligned to {@code nonCoherentAtomSize}. Dirty ranges are
+/// flushed by a {@link MappedRangeFlusher} (or {@code VMAMappedRangeFlusher} for VMA
+/// allocations), which gathers the ranges of all its views into a single flush call. For
+/// {@code HOST_COHERENT} memory nothing is recorded and flushing is free.
+///
+/// {@snippet :
+/// MappedMemoryView view = new MappedMemoryView(memory, mapped, 0, limits.nonCoherentAtomSize(), false);
+/// flusher.register(view);
+///
+/// // every frame
+/// view.writeFloats(frameOffset, 16).write(modelMatrix);
+/// VkDrawIndirectCommand.Ptr commands = view.writeView(
+///         commandOffset,
+///         VkDrawIndirectCommand.BYTES * drawCount,
+///         VkDrawIndirectCommand.Ptr::new
+/// );
+/// flusher.flush();
+/// }
+///
+/// Offsets are relative to the start of the mapping, which should itself be a multiple of
+/// {@code nonCoherentAtomSize} (mapping a whole {@code VkDeviceMemory} always is). Not thread
+/// safe.
+public final class MappedMemoryView {
+    /// @param memory the mapped memory, or {@code null} if the flusher identifies the mapping by
+    ///               other means (e.g. a VMA allocation)
+    /// @param mapped the mapping, as returned by {@code vkMapMemory} and reinterpreted to the
+    ///               mapped size
+    /// @param mapOffset offset of the mapping within {@code memory}
+    /// @param nonCoherentAtomSize {@code VkPhysicalDeviceLimits::nonCoherentAtomSize}
+    /// @param coherent whether the memory type is {@code HOST_COHERENT}
+    public MappedMemoryView(
+            @Nullable VkDeviceMemory memory,
+            @NotNull MemorySegment mapped,
+            @Unsigned long mapOffset,
+            @Unsigned long nonCoherentAtomSize,
+            boolean coherent
+    ) {
+        this.memory = memory;
+        this.mapped = mapped;
+        this.mapOffset = mapOffset;
+        this.coherent = coherent;
+        this.dirty = new DirtyRangeSet(nonCoherentAtomSize);
+    }
+
+    /// Returns {@code count} floats starting at {@code byteOffset}, marked dirty.
+    public @NotNull FloatPtr writeFloats(@Unsigned long byteOffset, long count) {
+        return new FloatPtr(writeBytes(byteOffset, count * Float.BYTES));
+    }
+
+    /// Returns {@code count} ints starting at {@code byteOffset}, marked dirty.
+    public @NotNull IntPtr writeInts(@Unsigned long byteOffset, long count) {
+        return new IntPtr(writeBytes(byteOffset, count * Integer.BYTES));
+    }
+
+    /// Returns {@code size} bytes starting at {@code byteOffset}, marked dirty.
+    public @NotNull BytePtr writeBytePtr(@Unsigned long byteOffset, long size) {
+        return new BytePtr(writeBytes(byteOffset, size));
+    }
+
+    /// Returns {@code byteSize} bytes starting at {@code byteOffset}, marked dirty, wrapped with
+    /// {@code wrap}, typically a struct {@code Ptr} constructor like
+    /// {@code VkDrawIndexedIndirectCommand.Ptr::new}.
+    public <P> @NotNull P writeView(
+            @Unsigned long byteOffset,
+            long byteSize,
+            @NotNull Function<MemorySegment, P> wrap
+    ) {
+        return wrap.apply(writeBytes(byteOffset, byteSize));
+    }
+
+    /// Returns {@code size} bytes starting at {@code byteOffset}, marked dirty.
+    public @NotNull MemorySegment writeBytes(@Unsigned long byteOffset, long size) {
+        MemorySegment slice = mapped.asSlice(byteOffset, size);
+        markDirty(byteOffset, size);
+        return slice;
+    }
+
+    /// Records {@code [byteOffset, byteOffset + size)} as written, for writes done through
+    /// {@link #segment()} or views obtained earlier.
+    public void markDirty(@Unsigned long byteOffset, @Unsigned long size) {
+        if (!coherent) {
+            dirty.add(byteOffset, size);
+        }
+    }
+
+    /// The whole mapping, writes through it are not tracked.
+    public @NotNull MemorySegment segment() {
+        return mapped;
+    }
+
+    public @Nullable VkDeviceMemory memory() {
+        return memory;
+    }
+
+    public @Unsigned long mapOffset() {
+        return mapOffset;
+    }
+
+    public boolean isCoherent() {
+        return coherent;
+    }
+
+    /// Dirty ranges since the last flush, relative to the start of the mapping. A range may end
+    /// past the end of the mapping when its size is not a multiple of the atom size, flushers
+    /// then flush up to the end of the mapping.
+    public @NotNull DirtyRangeSet dirtyRanges() {
+        return dirty;
+    }
+
+    private final @Nullable VkDeviceMemory memory;
+    private final MemorySegment mapped;
+    private final long mapOffset;
+    private final boolean coherent;
+    private final DirtyRangeSet dirty;
+}
@@ -0,0 +1,106 @@
+package club.doki7.vulkan.util;
+
+import club.doki7.vulkan.VkConstants;
+import club.doki7.vulkan.command.VkDeviceCommands;
+import club.doki7.vulkan.datatype.VkMappedMemoryRange;
+import club.doki7.vulkan.enumtype.VkResult;
+import club.doki7.vulkan.handle.VkDevice;
+import club.doki7.vulkan.handle.VkDeviceMemory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.foreign.Arena;
+import java.util.ArrayList;
+
+/// Flushes the dirty ranges of several {@link MappedMemoryView}s with a single
+/// {@code vkFlushMappedMemoryRanges} call.
+///
+/// {@snippet :
+/// MappedRangeFlusher flusher = new MappedRangeFlusher(deviceCommands, device);
+/// flusher.register(uniformView);
+/// flusher.register(instanceView);
+///
+/// // once per frame, before queue submission
+/// flusher.flush();
+/// }
+///
+/// The {@link VkMappedMemoryRange} array is kept between flushes and only reallocated when more
+/// ranges are dirty than ever before. Not thread safe.
+public final class MappedRangeFlusher implements AutoCloseable {
+    public MappedRangeFlusher(@NotNull VkDeviceCommands deviceCommands, @NotNull VkDevice device) {
+        this.deviceCommands = deviceCommands;
+        this.device = device;
+    }
+
+    /// Adds {@code view}, which must have been created with a non-null {@link VkDeviceMemory}.
+    /// Coherent views are accepted and ignored.
+    public void register(@NotNull MappedMemoryView view) {
+        if (view.memory() == null) {
+            throw new IllegalArgumentException("View has no VkDeviceMemory");
+        }
+        if (!view.isCoherent()) {
+            views.add(view);
+        }
+    }
+
+    public void unregister(@NotNull MappedMemoryView view) {
+        views.remove(view);
+    }
+
+    /// Flushes and clears the dirty ranges of all registered views.
+    ///
+    /// @return number of ranges flushed
+    /// @throws RuntimeException if {@code vkFlushMappedMemoryRanges} fails
+    public int flush() {
+        int total = 0;
+        for (MappedMemoryView view : views) {
+            total += view.dirtyRanges().count();
+        }
+        if (total == 0) {
+            return 0;
+        }
+        ensureCapacity(total);
+
+        int index = 0;
+        for (MappedMemoryView view : views) {
+            DirtyRangeSet dirty = view.dirtyRanges();
+            long mappedSize = view.segment().byteSize();
+            VkDeviceMemory memory = view.memory();
+            for (int i = 0; i < dirty.count(); i++) {
+                long start = dirty.start(i);
+                long end = dirty.end(i);
+                ranges.at(index++)
+                        .memory(memory)
+                        .offset(view.mapOffset() + start)
+                        .size(end > mappedSize ? VkConstants.WHOLE_SIZE : end - start);
+            }
+            dirty.clear();
+        }
+
+        int result = deviceCommands.flushMappedMemoryRanges(device, total, ranges);
+        if (result != VkResult.SUCCESS) {
+            throw new RuntimeException("Failed to flush mapped memory ranges: " + VkResult.explain(result));
+        }
+        return total;
+    }
+
+    @Override
+    public void close() {
+        arena.close();
+    }
+
+    private void ensureCapacity(int count) {
+        if (ranges != null && ranges.size() >= count) {
+            return;
+        }
+        arena.close();
+        arena = Arena.ofShared();
+        ranges = VkMappedMemoryRange.allocate(arena, Math.max(16, Integer.highestOneBit(count - 1) << 1));
+    }
+
+    private final VkDeviceCommands deviceCommands;
+    private final VkDevice device;
+    private final ArrayList<MappedMemoryView> views = new ArrayList<>();
+    private Arena arena = Arena.ofShared();
+    private @Nullable VkMappedMemoryRange.Ptr ranges;
+}
@@ -0,0 +1,253 @@
+package club.doki7.vulkan.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/// A bounded lock-free ring carrying short text messages from native callbacks to a background
+/// thread, which decodes, rate limits and passes them on.
+///
+/// Debug callbacks of graphics APIs are called synchronously from whatever thread made the
+/// offending call. {@link #offer}, meant to be called from such an upcall, only claims a slot of a
+/// preallocated native ring and copies four integer fields and the message bytes into it; it
+/// does not allocate on the Java heap and never blocks. Messages longer than a slot are
+/// truncated, and messages arriving while the ring is full are dropped and counted.
+///
+/// The background thread parks while the ring is empty and is unparked by {@link #offer}. It hands
+/// messages to a {@link Receiver}, with truncated ones ending in {@code "..."}. Messages are rate
+/// limited per key: after {@code repeatLimit} messages within {@code windowNanos}, further ones are
+/// suppressed until the window ends, and the next message passed on carries the number
+/// suppressed.
+final class NativeMessageRing implements AutoCloseable {
+    /// Receives decoded messages on the ring's background thread.
+    @FunctionalInterface
+    interface Receiver {
+        /// @param field0 first field passed to {@link #offer}, and so on
+        /// @param suppressed number of messages with the same key suppressed by rate limiting
+        ///                   since the previous one passed on
+        void receive(int field0, int field1, int field2, int field3, @NotNull String message, int suppressed);
+    }
+
+    /// @param capacity number of slots, a power of two
+    /// @param repeatLimit messages passed on per key within one window
+    /// @param windowNanos length of the rate limiting window
+    /// @param threadName name of the background thread
+    /// @param receiver receives the messages on the background thread; must not throw
+    NativeMessageRing(
+            int capacity,
+            int repeatLimit,
+            long windowNanos,
+            @NotNull String threadName,
+            @NotNull Receiver receiver
+    ) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("Capacity must be a power of two, got " + capacity);
+        }
+        if (repeatLimit <= 0 || windowNanos <= 0) {
+            throw new IllegalArgumentException("Invalid rate limit of " + repeatLimit + " per " + windowNanos + " ns");
+        }
+
+        this.capacity = capacity;
+        this.repeatLimit = repeatLimit;
+        this.windowNanos = windowNanos;
+        this.receiver = receiver;
+        this.arena = Arena.ofShared();
+        this.ring = arena.allocate((long) capacity * SLOT_BYTES, Long.BYTES);
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+        this.consumer = Thread.ofPlatform().daemon().name(threadName).start(this::consume);
+    }
+
+    /// Copies a message into the ring. Thread safe and lock free.
+    ///
+    /// @param key rate limiting key
+    /// @param message address of the message bytes, may be {@code 0} for an empty message
+    /// @param length number of bytes of {@code message}, or a negative value if it is
+    ///               NUL-terminated
+    /// @return {@code false} if the ring was full and the message was dropped
+    boolean offer(
+            long key,
+            int field0,
+            int field1,
+            int field2,
+            int field3,
+            long message,
+            int length
+    ) {
+        long position = enqueuePosition.get();
+        int index;
+        while (true) {
+            index = (int) (position & (capacity - 1));
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (enqueuePosition.compareAndSet(position, position + 1)) {
+                    break;
+                }
+                position = enqueuePosition.get();
+            } else if (difference < 0) {
+                dropped.incrementAndGet();
+                return false;
+            } else {
+                position = enqueuePosition.get();
+            }
+        }
+
+        long slot = (long) index * SLOT_BYTES;
+        int copied = 0;
+        boolean truncated = false;
+        if (message != 0) {
+            if (length < 0) {
+                while (copied < MESSAGE_BYTES && ALL.get(ValueLayout.JAVA_BYTE, message + copied) != 0) {
+                    copied++;
+                }
+                truncated = copied == MESSAGE_BYTES && ALL.get(ValueLayout.JAVA_BYTE, message + copied) != 0;
+            } else {
+                copied = Math.min(length, MESSAGE_BYTES);
+                truncated = length > MESSAGE_BYTES;
+            }
+            MemorySegment.copy(ALL, message, ring, slot + HEADER_BYTES, copied);
+        }
+        ring.set(ValueLayout.JAVA_LONG, slot, key);
+        ring.set(ValueLayout.JAVA_INT, slot + 8, field0);
+        ring.set(ValueLayout.JAVA_INT, slot + 12, field1);
+        ring.set(ValueLayout.JAVA_INT, slot + 16, field2);
+        ring.set(ValueLayout.JAVA_INT, slot + 20, field3);
+        ring.set(ValueLayout.JAVA_INT, slot + 24, truncated ? -copied : copied);
+        sequences.set(index, position + 1);
+
+        if (consumerParked) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    /// Number of messages dropped because the ring was full.
+    long droppedCount() {
+        return dropped.get();
+    }
+
+    /// Number of messages suppressed by rate limiting. Updated on the background thread.
+    long suppressedCount() {
+        return suppressed;
+    }
+
+    /// Passes on the messages still in the ring, stops the background thread and frees the ring.
+    /// No {@link #offer} may be running or follow.
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(consumer);
+        boolean interrupted = false;
+        while (consumer.isAlive()) {
+            try {
+                consumer.join();
+            } catch (InterruptedException _) {
+                interrupted = true;
+            }
+        }
+        arena.close();
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void consume() {
+        while (running) {
+            if (drain()) {
+                continue;
+            }
+
+            // offer publishes the slot before reading consumerParked, and this thread sets
+            // consumerParked before checking the ring again, so a message is never left waiting
+            consumerParked = true;
+            if (running && !hasMessage()) {
+                LockSupport.park(this);
+            }
+            consumerParked = false;
+        }
+        drain();
+    }
+
+    private boolean hasMessage() {
+        return sequences.get((int) (dequeuePosition & (capacity - 1))) == dequeuePosition + 1;
+    }
+
+    /// @return whether any message was taken
+    private boolean drain() {
+        boolean any = false;
+        while (hasMessage()) {
+            int index = (int) (dequeuePosition & (capacity - 1));
+            long slot = (long) index * SLOT_BYTES;
+            long key = ring.get(ValueLayout.JAVA_LONG, slot);
+            int field0 = ring.get(ValueLayout.JAVA_INT, slot + 8);
+            int field1 = ring.get(ValueLayout.JAVA_INT, slot + 12);
+            int field2 = ring.get(ValueLayout.JAVA_INT, slot + 16);
+            int field3 = ring.get(ValueLayout.JAVA_INT, slot + 20);
+            int length = ring.get(ValueLayout.JAVA_INT, slot + 24);
+            String message = new String(
+                    ring.asSlice(slot + HEADER_BYTES, Math.abs(length)).toArray(ValueLayout.JAVA_BYTE),
+                    StandardCharsets.UTF_8
+            );
+            sequences.set(index, dequeuePosition + capacity);
+            dequeuePosition++;
+            any = true;
+
+            long now = System.nanoTime();
+            long[] state = rates.computeIfAbsent(key, _ -> new long[] { now, 0, 0 });
+            if (now - state[RATE_WINDOW_START] >= windowNanos) {
+                state[RATE_WINDOW_START] = now;
+                state[RATE_COUNT] = 0;
+            }
+            if (state[RATE_COUNT] >= repeatLimit) {
+                state[RATE_SUPPRESSED]++;
+                suppressed++;
+                continue;
+            }
+            state[RATE_COUNT]++;
+            int suppressedSinceLast = (int) state[RATE_SUPPRESSED];
+            state[RATE_SUPPRESSED] = 0;
+            receiver.receive(
+                    field0, field1, field2, field3,
+                    length < 0 ? message + "..." : message,
+                    suppressedSinceLast
+            );
+        }
+        return any;
+    }
+
+    private static final MemorySegment ALL = MemorySegment.NULL.reinterpret(Long.MAX_VALUE);
+    private static final int SLOT_BYTES = 1024;
+    /// Key, four fields and length; the length is negated when the message was truncated
+    private static final int HEADER_BYTES = 32;
+    private static final int MESSAGE_BYTES = SLOT_BYTES - HEADER_BYTES;
+    private static final int RATE_WINDOW_START = 0;
+    private static final int RATE_COUNT = 1;
+    private static final int RATE_SUPPRESSED = 2;
+
+    private final int capacity;
+    private final int repeatLimit;
+    private final long windowNanos;
+    private final Receiver receiver;
+    private final Arena arena;
+    private final MemorySegment ring;
+    private final AtomicLongArray sequences;
+    private final AtomicLong enqueuePosition = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread consumer;
+    private volatile boolean running = true;
+    private volatile boolean consumerParked;
+
+    // accessed by the background thread only
+    private long dequeuePosition;
+    private final HashMap<Long, long[]> rates = new HashMap<>();
+    private volatile long suppressed;
+}
@@ -0,0 +1,390 @@
+package club.doki7.vulkan.util;
+
+import club.doki7.ffm.annotation.EnumType;
+import club.doki7.ffm.annotation.Unsigned;
+import club.doki7.ffm.ptr.IntPtr;
+import club.doki7.vulkan.bitmask.VkCommandBufferUsageFlags;
+import club.doki7.vulkan.bitmask.VkCommandPoolCreateFlags;
+import club.doki7.vulkan.bitmask.VkSampleCountFlags;
+import club.doki7.vulkan.command.VkDeviceCommands;
+import club.doki7.vulkan.datatype.VkCommandBufferAllocateInfo;
+import club.doki7.vulkan.datatype.VkCommandBufferBeginInfo;
+import club.doki7.vulkan.datatype.VkCommandBufferInheritanceInfo;
+import club.doki7.vulkan.datatype.VkCommandBufferInheritanceRenderingInfo;
+import club.doki7.vulkan.datatype.VkCommandPoolCreateInfo;
+import club.doki7.vulkan.enumtype.VkCommandBufferLevel;
+import club.doki7.vulkan.enumtype.VkFormat;
+import club.doki7.vulkan.enumtype.VkResult;
+import club.doki7.vulkan.handle.VkCommandBuffer;
+import club.doki7.vulkan.handle.VkCommandPool;
+import club.doki7.vulkan.handle.VkDevice;
+import club.doki7.vulkan.handle.VkFramebuffer;
+import club.doki7.vulkan.handle.VkRenderPass;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.foreign.Arena;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/// Records secondary command buffers on multiple threads and stitches them into a primary command
+/// buffer with {@link VkDeviceCommands#cmdExecuteCommands}.
+///
+/// Each worker slot owns one {@link VkCommandPool} per frame in flight, so no two threads ever
+/// touch the same pool. Instead of resetting individual command buffers, {@link #beginFrame}
+/// resets all pools of that frame with {@link VkDeviceCommands#resetCommandPool}, which is the
+/// cheapest way to recycle command memory. Secondary command buffers are allocated once and then
+/// reused in later frames.
+///
+/// A {@link #record} call splits {@code taskCount} tasks into at most {@code workerCount}
+/// contiguous ranges. Every range is recorded into one secondary command buffer on the given
+/// {@link Executor}, and the resulting buffers are executed in range order. So the final command
+/// stream is always the same as if all tasks were recorded serially in index order, no matter how
+/// the executor schedules the work.
+///
+/// {@snippet :
+/// // on frame start, after the in-flight fence of currentFrame has been waited
+/// recorder.beginFrame(currentFrame);
+///
+/// deviceCommands.cmdBeginRenderPass(primary, renderPassInfo, VkSubpassContents.SECONDARY_COMMAND_BUFFERS);
+/// recorder.record(
+///         primary,
+///         inheritanceInfo, // see ParallelCommandRecorder#renderPassInheritance
+///         VkCommandBufferUsageFlags.ONE_TIME_SUBMIT | VkCommandBufferUsageFlags.RENDER_PASS_CONTINUE,
+///         drawCount,
+///         (commandBuffer, drawIndex) -> recordDraw(commandBuffer, drawIndex)
+/// );
+/// deviceCommands.cmdEndRenderPass(primary);
+/// }
+///
+/// This class itself is not thread safe: {@link #beginFrame}, {@link #record} and {@link #close}
+/// should be called from the thread that owns the primary command buffer.
+public final class ParallelCommandRecorder implements AutoCloseable {
+    /// Records the commands of one task into the given secondary command buffer.
+    ///
+    /// Implementations are called concurrently from worker threads, but tasks sharing a command
+    /// buffer are always called sequentially and in ascending {@code taskIndex} order.
+    @FunctionalInterface
+    public interface RecordTask {
+        void record(@NotNull VkCommandBuffer commandBuffer, int taskIndex);
+    }
+
+    /// Creates a recorder using {@link Runtime#availableProcessors()} workers on
+    /// {@link ForkJoinPool#commonPool()}.
+    public ParallelCommandRecorder(
+            @NotNull VkDeviceCommands deviceCommands,
+            @NotNull VkDevice device,
+            @Unsigned int queueFamilyIndex,
+            int framesInFlight
+    ) {
+        this(
+                deviceCommands,
+                device,
+                queueFamilyIndex,
+                framesInFlight,
+                Runtime.getRuntime().availableProcessors(),
+                ForkJoinPool.commonPool()
+        );
+    }
+
+    /// @param deviceCommands device commands
+    /// @param device the device to create command pools on
+    /// @param queueFamilyIndex queue family of the primary command buffers the results will be
+    ///                         executed in
+    /// @param framesInFlight number of frames that may be recorded before the first one completes
+    /// @param workerCount maximum number of secondary command buffers recorded in parallel
+    /// @param executor executor running the recording tasks, e.g. a {@link ForkJoinPool} or
+    ///                 {@link java.util.concurrent.Executors#newVirtualThreadPerTaskExecutor()}
+    /// @throws IllegalArgumentException if {@code framesInFlight} or {@code workerCount} is not
+    ///                                  positive
+    /// @throws RuntimeException if command pool creation fails
+    public ParallelCommandRecorder(
+            @NotNull VkDeviceCommands deviceCommands,
+            @NotNull VkDevice device,
+            @Unsigned int queueFamilyIndex,
+            int framesInFlight,
+            int workerCount,
+            @NotNull Executor executor
+    ) {
+        if (framesInFlight <= 0 || workerCount <= 0) {
+            throw new IllegalArgumentException("framesInFlight and workerCount must be positive");
+        }
+
+        this.deviceCommands = deviceCommands;
+        this.device = device;
+        this.executor = executor;
+        this.arena = Arena.ofShared();
+        this.slots = new WorkerSlot[framesInFlight][workerCount];
+        this.pExecuteList = VkCommandBuffer.Ptr.allocate(arena, workerCount);
+
+        try (Arena tempArena = Arena.ofConfined()) {
+            VkCommandPoolCreateInfo createInfo = VkCommandPoolCreateInfo.allocate(tempArena)
+                    .flags(VkCommandPoolCreateFlags.TRANSIENT)
+                    .queueFamilyIndex(queueFamilyIndex);
+            VkCommandPool.Ptr pCommandPool = VkCommandPool.Ptr.allocate(tempArena);
+            for (int frame = 0; frame < framesInFlight; frame++) {
+                for (int worker = 0; worker < workerCount; worker++) {
+                    int result = deviceCommands.createCommandPool(device, createInfo, null, pCommandPool);
+                    if (result != VkResult.SUCCESS) {
+                        close();
+                        throw new RuntimeException("Failed to create command pool: " + VkResult.explain(result));
+                    }
+                    slots[frame][worker] = new WorkerSlot(Objects.requireNonNull(pCommandPool.read()), arena);
+                }
+            }
+        }
+    }
+
+    public int framesInFlight() {
+        return slots.length;
+    }
+
+    public int workerCount() {
+        return slots[0].length;
+    }
+
+    /// Starts recording a new frame, recycling all secondary command buffers handed out the last
+    /// time {@code frameIndex} was recorded.
+    ///
+    /// The caller must guarantee that the GPU has finished executing every command buffer recorded
+    /// for {@code frameIndex} before, typically by waiting for the in-flight fence of that frame.
+    ///
+    /// @param frameIndex index of the frame in flight, in range {@code [0, framesInFlight)}
+    /// @throws RuntimeException if resetting any command pool fails
+    public void beginFrame(int frameIndex) {
+        currentFrame = frameIndex;
+        for (WorkerSlot slot : slots[frameIndex]) {
+            if (slot.used == 0) {
+                continue;
+            }
+
+            int result = deviceCommands.resetCommandPool(device, slot.commandPool, 0);
+            if (result != VkResult.SUCCESS) {
+                throw new RuntimeException("Failed to reset command pool: " + VkResult.explain(result));
+            }
+            slot.used = 0;
+        }
+    }
+
+    /// Records {@code taskCount} tasks in parallel into secondary command buffers, and executes
+    /// them in task order in {@code primary} with a single {@link VkDeviceCommands#cmdExecuteCommands}
+    /// call.
+    ///
+    /// May be called multiple times per frame, e.g. once per render pass. If the secondary command
+    /// buffers are executed inside a render pass instance, the primary command buffer must have
+    /// begun it with {@code VK_SUBPASS_CONTENTS_SECONDARY_COMMAND_BUFFERS} (or
+    /// {@code VK_RENDERING_CONTENTS_SECONDARY_COMMAND_BUFFERS_BIT} for dynamic rendering), and
+    /// {@code usageFlags} should include {@link VkCommandBufferUsageFlags#RENDER_PASS_CONTINUE}.
+    ///
+    /// @param primary the primary command buffer in recording state
+    /// @param inheritanceInfo inheritance info for the secondary command buffers, see
+    ///                        {@link #renderPassInheritance} and {@link #renderingInheritance}. It
+    ///                        is read concurrently by all workers and must not be modified until
+    ///                        this method returns
+    /// @param usageFlags usage flags for the secondary command buffers
+    /// @param taskCount number of tasks
+    /// @param task the task recording function
+    /// @throws RuntimeException if any of the Vulkan calls fails, or if {@code task} throws
+    public void record(
+            @NotNull VkCommandBuffer primary,
+            @NotNull VkCommandBufferInheritanceInfo inheritanceInfo,
+            @EnumType(VkCommandBufferUsageFlags.class) int usageFlags,
+            int taskCount,
+            @NotNull RecordTask task
+    ) {
+        if (taskCount <= 0) {
+            return;
+        }
+
+        WorkerSlot[] frameSlots = slots[currentFrame];
+        int rangeCount = Math.min(taskCount, frameSlots.length);
+        VkCommandBuffer[] recorded = new VkCommandBuffer[rangeCount];
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[rangeCount - 1];
+
+        for (int range = 1; range < rangeCount; range++) {
+            int rangeIndex = range;
+            futures[range - 1] = CompletableFuture.runAsync(
+                    () -> recorded[rangeIndex] = recordRange(
+                            frameSlots[rangeIndex],
+                            inheritanceInfo,
+                            usageFlags,
+                            rangeStart(rangeIndex, rangeCount, taskCount),
+                            rangeStart(rangeIndex + 1, rangeCount, taskCount),
+                            task
+                    ),
+                    executor
+            );
+        }
+
+        // the calling thread would be idle anyway, let it record the first range
+        RuntimeException firstError = null;
+        try {
+            recorded[0] = recordRange(
+                    frameSlots[0],
+                    inheritanceInfo,
+                    usageFlags,
+                    0,
+                    rangeStart(1, rangeCount, taskCount),
+                    task
+            );
+        } catch (RuntimeException e) {
+            firstError = e;
+        }
+
+        try {
+            CompletableFuture.allOf(futures).join();
+        } catch (CompletionException e) {
+            if (firstError == null) {
+                firstError = e.getCause() instanceof RuntimeException re ? re : e;
+            }
+        }
+        if (firstError != null) {
+            throw firstError;
+        }
+
+        pExecuteList.write(recorded);
+        deviceCommands.cmdExecuteCommands(primary, rangeCount, pExecuteList);
+    }
+
+    /// Allocates inheritance info for secondary command buffers executed inside a subpass of a
+    /// render pass instance.
+    ///
+    /// @param arena the arena to allocate the structure from
+    /// @param renderPass the render pass
+    /// @param subpass index of the subpass
+    /// @param framebuffer the framebuffer, may be {@code null} if not known at recording time
+    public static @NotNull VkCommandBufferInheritanceInfo renderPassInheritance(
+            @NotNull Arena arena,
+            @NotNull VkRenderPass renderPass,
+            @Unsigned int subpass,
+            @Nullable VkFramebuffer framebuffer
+    ) {
+        return VkCommandBufferInheritanceInfo.allocate(arena)
+                .renderPass(renderPass)
+                .subpass(subpass)
+                .framebuffer(framebuffer);
+    }
+
+    /// Allocates inheritance info for secondary command buffers executed inside a dynamic
+    /// rendering instance ({@code VK_KHR_dynamic_rendering} or Vulkan 1.3).
+    ///
+    /// @param arena the arena to allocate the structures from
+    /// @param colorAttachmentFormats formats of color attachments, in attachment order
+    /// @param depthAttachmentFormat format of depth attachment, or {@link VkFormat#UNDEFINED}
+    /// @param stencilAttachmentFormat format of stencil attachment, or {@link VkFormat#UNDEFINED}
+    /// @param rasterizationSamples sample count of the attachments
+    public static @NotNull VkCommandBufferInheritanceInfo renderingInheritance(
+            @NotNull Arena arena,
+            @EnumType(VkFormat.class) int @NotNull [] colorAttachmentFormats,
+            @EnumType(VkFormat.class) int depthAttachmentFormat,
+            @EnumType(VkFormat.class) int stencilAttachmentFormat,
+            @EnumType(VkSampleCountFlags.class) int rasterizationSamples
+    ) {
+        VkCommandBufferInheritanceRenderingInfo renderingInfo = VkCommandBufferInheritanceRenderingInfo.allocate(arena)
+                .colorAttachmentCount(colorAttachmentFormats.length)
+                .pColorAttachmentFormats(
+                        colorAttachmentFormats.length == 0
+                                ? null
+                                : IntPtr.allocate(arena, colorAttachmentFormats)
+                )
+                .depthAttachmentFormat(depthAttachmentFormat)
+                .stencilAttachmentFormat(stencilAttachmentFormat)
+                .rasterizationSamples(rasterizationSamples);
+        return VkCommandBufferInheritanceInfo.allocate(arena).pNext(renderingInfo);
+    }
+
+    @Override
+    public void close() {
+        for (WorkerSlot[] frameSlots : slots) {
+            for (WorkerSlot slot : frameSlots) {
+                if (slot != null) {
+                    // destroying the pool frees all command buffers allocated from it
+                    deviceCommands.destroyCommandPool(device, slot.commandPool, null);
+                }
+            }
+            Arrays.fill(frameSlots, null);
+        }
+        arena.close();
+    }
+
+    private VkCommandBuffer recordRange(
+            WorkerSlot slot,
+            VkCommandBufferInheritanceInfo inheritanceInfo,
+            @EnumType(VkCommandBufferUsageFlags.class) int usageFlags,
+            int startTask,
+            int endTask,
+            RecordTask task
+    ) {
+        VkCommandBuffer commandBuffer = slot.acquire(deviceCommands, device);
+        slot.beginInfo.flags(usageFlags).pInheritanceInfo(inheritanceInfo);
+
+        int result = deviceCommands.beginCommandBuffer(commandBuffer, slot.beginInfo);
+        if (result != VkResult.SUCCESS) {
+            throw new RuntimeException("Failed to begin secondary command buffer: " + VkResult.explain(result));
+        }
+
+        for (int i = startTask; i < endTask; i++) {
+            task.record(commandBuffer, i);
+        }
+
+        result = deviceCommands.endCommandBuffer(commandBuffer);
+        if (result != VkResult.SUCCESS) {
+            throw new RuntimeException("Failed to end secondary command buffer: " + VkResult.explain(result));
+        }
+        return commandBuffer;
+    }
+
+    private static int rangeStart(int range, int rangeCount, int taskCount) {
+        return (int) ((long) range * taskCount / rangeCount);
+    }
+
+    /// Per-thread, per-frame recording state. Only accessed by one thread at a time.
+    private static final class WorkerSlot {
+        WorkerSlot(VkCommandPool commandPool, Arena arena) {
+            this.commandPool = commandPool;
+            this.allocateInfo = VkCommandBufferAllocateInfo.allocate(arena)
+                    .commandPool(commandPool)
+                    .level(VkCommandBufferLevel.SECONDARY)
+                    .commandBufferCount(1);
+            this.beginInfo = VkCommandBufferBeginInfo.allocate(arena);
+            this.pCommandBuffer = VkCommandBuffer.Ptr.allocate(arena);
+        }
+
+        VkCommandBuffer acquire(VkDeviceCommands deviceCommands, VkDevice device) {
+            if (used == commandBuffers.length) {
+                commandBuffers = Arrays.copyOf(commandBuffers, Math.max(4, used * 2));
+            }
+
+            VkCommandBuffer commandBuffer = commandBuffers[used];
+            if (commandBuffer == null) {
+                int result = deviceCommands.allocateCommandBuffers(device, allocateInfo, pCommandBuffer);
+                if (result != VkResult.SUCCESS) {
+                    throw new RuntimeException("Failed to allocate secondary command buffer: " + VkResult.explain(result));
+                }
+                commandBuffer = Objects.requireNonNull(pCommandBuffer.read());
+                commandBuffers[used] = commandBuffer;
+            }
+            used++;
+            return commandBuffer;
+        }
+
+        final VkCommandPool commandPool;
+        final VkCommandBufferAllocateInfo allocateInfo;
+        final VkCommandBufferBeginInfo beginInfo;
+        final VkCommandBuffer.Ptr pCommandBuffer;
+        VkCommandBuffer[] commandBuffers = new VkCommandBuffer[0];
+        int used;
+    }
+
+    private final VkDeviceCommands deviceCommands;
+    private final VkDevice device;
+    private final Executor executor;
+    private final Arena arena;
+    private final WorkerSlot[][] slots;
+    private final VkCommandBuffer.Ptr pExecuteList;
+    private int currentFrame;
+}
@@ -0,0 +1,481 @@
+package club.doki7.vulkan.util;
+
+import club.doki7.ffm.annotation.EnumType;
+import club.doki7.ffm.annotation.Unsigned;
+import club.doki7.vulkan.VkFunctionTypes;
+import club.doki7.vulkan.datatype.VkAllocationCallbacks;
+import club.doki7.vulkan.enumtype.VkSystemAllocationScope;
+import jdk.jfr.FlightRecorder;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/// {@link VkAllocationCallbacks} implemented in Java, serving driver host allocations from a
+/// pooled native allocator and keeping statistics per {@link VkSystemAllocationScope}.
+///
+/// {@snippet :
+/// PooledHostAllocator hostAllocator = new PooledHostAllocator("main");
+/// VkAllocationCallbacks callbacks = hostAllocator.callbacks();
+/// staticCommands.createInstance(instanceCreateInfo, callbacks, pInstance);
+/// // ... pass the same callbacks to every create/destroy call
+/// System.out.println(hostAllocator.peakBytes(VkSystemAllocationScope.OBJECT));
+/// }
+///
+/// ## Allocator
+///
+/// Requests up to 8 KiB (including a 16 byte header and alignment padding) are served from
+/// power-of-two size classes, each a free list threaded through 64 KiB chunks obtained from
+/// {@code malloc}. Blocks are aligned to their size, so any alignment up to the block size costs
+/// nothing extra. Chunks are only returned to the system by {@link #close}. Larger requests go to
+/// {@code malloc} directly. Each size class has its own lock, so drivers allocating from several
+/// threads rarely contend.
+///
+/// ## Upcall path
+///
+/// The upcalls do not allocate on the Java heap: their descriptors use {@code long} instead of
+/// {@link ValueLayout#ADDRESS} for pointers and {@code size_t} (which is ABI compatible on 64-bit
+/// platforms, the only ones supported), so the linker creates no {@link MemorySegment}s, and
+/// native memory is accessed through a single segment spanning the address space. The upcalls
+/// never throw: a failed allocation returns {@code NULL}, which the implementation reports as
+/// {@code VK_ERROR_OUT_OF_HOST_MEMORY}.
+///
+/// ## Statistics
+///
+/// For each scope, the number of allocations, reallocations and frees, the live size and its
+/// high-water mark are tracked, as well as the memory the implementation reports through
+/// {@code pfnInternalAllocation}. Sizes are the requested sizes, {@link #reservedBytes} is the
+/// native memory held by the pool. Besides the accessors, a periodic JFR event
+/// ({@code club.doki7.vulkan.HostMemory}, every second by default) is emitted per active scope.
+///
+/// The allocator must outlive every Vulkan object created with its callbacks.
+public final class PooledHostAllocator implements AutoCloseable {
+    /// @param name name reported in JFR events, to tell several allocators apart
+    /// @throws UnsupportedOperationException on a 32-bit platform
+    public PooledHostAllocator(@NotNull String name) {
+        if (ValueLayout.ADDRESS.byteSize() != Long.BYTES) {
+            throw new UnsupportedOperationException("PooledHostAllocator requires a 64-bit platform");
+        }
+        this.name = name;
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            locks[i] = new Object();
+        }
+
+        Linker linker = Linker.nativeLinker();
+        this.arena = Arena.ofShared();
+        this.callbacks = VkAllocationCallbacks.allocate(arena);
+        callbacks.pfnAllocation(linker.upcallStub(ALLOCATION.bindTo(this), ALLOCATION_DESCRIPTOR, arena));
+        callbacks.pfnReallocation(linker.upcallStub(REALLOCATION.bindTo(this), REALLOCATION_DESCRIPTOR, arena));
+        callbacks.pfnFree(linker.upcallStub(FREE.bindTo(this), FREE_DESCRIPTOR, arena));
+        callbacks.pfnInternalAllocation(linker.upcallStub(INTERNAL_ALLOCATION.bindTo(this), INTERNAL_DESCRIPTOR, arena));
+        callbacks.pfnInternalFree(linker.upcallStub(INTERNAL_FREE.bindTo(this), INTERNAL_DESCRIPTOR, arena));
+
+        this.jfrHook = this::emitEvents;
+        FlightRecorder.addPeriodicEvent(HostMemoryEvent.class, jfrHook);
+    }
+
+    /// The callbacks to pass as {@code pAllocator}. Valid until {@link #close}.
+    public @NotNull VkAllocationCallbacks callbacks() {
+        return callbacks;
+    }
+
+    public long allocationCount(@EnumType(VkSystemAllocationScope.class) int scope) {
+        return stat(scope, ALLOCATIONS);
+    }
+
+    public long reallocationCount(@EnumType(VkSystemAllocationScope.class) int scope) {
+        return stat(scope, REALLOCATIONS);
+    }
+
+    public long freeCount(@EnumType(VkSystemAllocationScope.class) int scope) {
+        return stat(scope, FREES);
+    }
+
+    /// Bytes currently allocated in {@code scope}.
+    public @Unsigned long liveBytes(@EnumType(VkSystemAllocationScope.class) int scope) {
+        return stat(scope, LIVE);
+    }
+
+    /// High-water mark of {@link #liveBytes} since creation or {@link #resetPeaks}.
+    public @Unsigned long peakBytes(@EnumType(VkSystemAllocationScope.class) int scope) {
+        return stat(scope, PEAK);
+    }
+
+    /// Bytes the implementation currently holds through its own allocators, as reported by
+    /// {@code pfnInternalAllocation}.
+    public @Unsigned long internalBytes(@EnumType(VkSystemAllocationScope.class) int scope) {
+        return stat(scope, INTERNAL_LIVE);
+    }
+
+    /// High-water mark of {@link #internalBytes}.
+    public @Unsigned long internalPeakBytes(@EnumType(VkSystemAllocationScope.class) int scope) {
+        return stat(scope, INTERNAL_PEAK);
+    }
+
+    /// Native memory held by the size class pool, plus live large allocations.
+    public @Unsigned long reservedBytes() {
+        return reserved.get();
+    }
+
+    /// Resets every high-water mark to the current live size, e.g. between loading phases.
+    public void resetPeaks() {
+        for (int scope = 0; scope < SCOPE_COUNT; scope++) {
+            stats.set(scope * STRIDE + PEAK, stats.get(scope * STRIDE + LIVE));
+            stats.set(scope * STRIDE + INTERNAL_PEAK, stats.get(scope * STRIDE + INTERNAL_LIVE));
+        }
+    }
+
+    /// Frees the pooled memory and the upcall stubs. Every object created with
+    /// {@link #callbacks} must have been destroyed.
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        FlightRecorder.removePeriodicEvent(jfrHook);
+
+        long node = chunks;
+        while (node != 0) {
+            long raw = ALL.get(ValueLayout.JAVA_LONG, node);
+            long next = ALL.get(ValueLayout.JAVA_LONG, node + 8);
+            systemFree(raw);
+            node = next;
+        }
+        chunks = 0;
+        arena.close();
+    }
+
+    // upcall targets
+
+    private long allocation(long pUserData, long size, long alignment, int scope) {
+        int s = clampScope(scope);
+        long p = allocate(size, alignment, s);
+        if (p != 0) {
+            stats.getAndIncrement(s * STRIDE + ALLOCATIONS);
+            addLive(s, LIVE, PEAK, header(p, SIZE));
+        }
+        return p;
+    }
+
+    private long reallocation(long pUserData, long pOriginal, long size, long alignment, int scope) {
+        if (pOriginal == 0) {
+            return allocation(pUserData, size, alignment, scope);
+        }
+        if (size == 0) {
+            free(pUserData, pOriginal);
+            return 0;
+        }
+
+        int s = clampScope(scope);
+        int sizeClass = ALL.get(ValueLayout.JAVA_INT, pOriginal - HEADER_SIZE);
+        int oldScope = ALL.get(ValueLayout.JAVA_INT, pOriginal - HEADER_SIZE + 4);
+        long oldSize = header(pOriginal, SIZE);
+
+        if (sizeClass != LARGE_CLASS && (pOriginal & (alignment - 1)) == 0) {
+            long blockSize = 1L << (sizeClass + MIN_CLASS_SHIFT);
+            long offset = pOriginal & (blockSize - 1);
+            if (size <= blockSize - offset) {
+                ALL.set(ValueLayout.JAVA_INT, pOriginal - HEADER_SIZE + 4, s);
+                ALL.set(ValueLayout.JAVA_LONG, pOriginal - HEADER_SIZE + 8, size);
+                stats.getAndIncrement(s * STRIDE + REALLOCATIONS);
+                stats.getAndAdd(oldScope * STRIDE + LIVE, -oldSize);
+                addLive(s, LIVE, PEAK, size);
+                return pOriginal;
+            }
+        }
+
+        // on failure the original allocation stays valid, as the specification requires
+        long p = allocate(size, alignment, s);
+        if (p == 0) {
+            return 0;
+        }
+        MemorySegment.copy(ALL, pOriginal, ALL, p, Math.min(oldSize, size));
+        stats.getAndIncrement(s * STRIDE + REALLOCATIONS);
+        stats.getAndAdd(oldScope * STRIDE + LIVE, -oldSize);
+        addLive(s, LIVE, PEAK, size);
+        release(pOriginal, sizeClass);
+        return p;
+    }
+
+    private void free(long pUserData, long pMemory) {
+        if (pMemory == 0) {
+            return;
+        }
+        int sizeClass = ALL.get(ValueLayout.JAVA_INT, pMemory - HEADER_SIZE);
+        int scope = ALL.get(ValueLayout.JAVA_INT, pMemory - HEADER_SIZE + 4);
+        stats.getAndIncrement(scope * STRIDE + FREES);
+        stats.getAndAdd(scope * STRIDE + LIVE, -header(pMemory, SIZE));
+        release(pMemory, sizeClass);
+    }
+
+    private void internalAllocation(long pUserData, long size, int allocationType, int scope) {
+        addLive(clampScope(scope), INTERNAL_LIVE, INTERNAL_PEAK, size);
+    }
+
+    private void internalFree(long pUserData, long size, int allocationType, int scope) {
+        stats.getAndAdd(clampScope(scope) * STRIDE + INTERNAL_LIVE, -size);
+    }
+
+    // native allocator
+
+    private long allocate(long size, long alignment, int scope) {
+        if (alignment <= 0 || (alignment & (alignment - 1)) != 0 || size < 0 || size > MAX_SIZE) {
+            return 0;
+        }
+        size = Math.max(size, 1);
+        long offset = Math.max(HEADER_SIZE, alignment);
+
+        long p;
+        int sizeClass;
+        if (offset + size <= MAX_BLOCK_SIZE) {
+            sizeClass = Math.max(MIN_CLASS_SHIFT, 64 - Long.numberOfLeadingZeros(offset + size - 1)) - MIN_CLASS_SHIFT;
+            long block = pop(sizeClass);
+            if (block == 0) {
+                return 0;
+            }
+            p = block + offset;
+        } else {
+            sizeClass = LARGE_CLASS;
+            long total = size + offset + LARGE_HEADER_SIZE;
+            long raw = systemMalloc(total);
+            if (raw == 0) {
+                return 0;
+            }
+            p = (raw + LARGE_HEADER_SIZE + offset - 1) & -offset;
+            ALL.set(ValueLayout.JAVA_LONG, p - HEADER_SIZE - Long.BYTES, raw);
+            ALL.set(ValueLayout.JAVA_LONG, p - HEADER_SIZE - 2 * Long.BYTES, total);
+            reserved.getAndAdd(total);
+        }
+
+        ALL.set(ValueLayout.JAVA_INT, p - HEADER_SIZE, sizeClass);
+        ALL.set(ValueLayout.JAVA_INT, p - HEADER_SIZE + 4, scope);
+        ALL.set(ValueLayout.JAVA_LONG, p - HEADER_SIZE + 8, size);
+        return p;
+    }
+
+    private void release(long p, int sizeClass) {
+        if (sizeClass == LARGE_CLASS) {
+            long raw = ALL.get(ValueLayout.JAVA_LONG, p - HEADER_SIZE - Long.BYTES);
+            reserved.getAndAdd(-ALL.get(ValueLayout.JAVA_LONG, p - HEADER_SIZE - 2 * Long.BYTES));
+            systemFree(raw);
+            return;
+        }
+
+        long block = p & -(1L << (sizeClass + MIN_CLASS_SHIFT));
+        synchronized (locks[sizeClass]) {
+            ALL.set(ValueLayout.JAVA_LONG, block, heads[sizeClass]);
+            heads[sizeClass] = block;
+        }
+    }
+
+    private long pop(int sizeClass) {
+        synchronized (locks[sizeClass]) {
+            long block = heads[sizeClass];
+            if (block == 0) {
+                block = refill(sizeClass);
+                if (block == 0) {
+                    return 0;
+                }
+            }
+            heads[sizeClass] = ALL.get(ValueLayout.JAVA_LONG, block);
+            return block;
+        }
+    }
+
+    // carves a new chunk into blocks of the size class and returns the first one, with the rest
+    // linked behind it; the chunk list node lives in the slack after the aligned chunk
+    private long refill(int sizeClass) {
+        long total = CHUNK_SIZE + MAX_BLOCK_SIZE + 2 * Long.BYTES;
+        long raw = systemMalloc(total);
+        if (raw == 0) {
+            return 0;
+        }
+        reserved.getAndAdd(total);
+
+        long base = (raw + MAX_BLOCK_SIZE - 1) & -MAX_BLOCK_SIZE;
+        long node = base + CHUNK_SIZE;
+        synchronized (chunkLock) {
+            ALL.set(ValueLayout.JAVA_LONG, node, raw);
+            ALL.set(ValueLayout.JAVA_LONG, node + 8, chunks);
+            chunks = node;
+        }
+
+        long blockSize = 1L << (sizeClass + MIN_CLASS_SHIFT);
+        for (long block = base; block < base + CHUNK_SIZE; block += blockSize) {
+            long next = block + blockSize;
+            ALL.set(ValueLayout.JAVA_LONG, block, next < base + CHUNK_SIZE ? next : 0);
+        }
+        return base;
+    }
+
+    private void addLive(int scope, int liveField, int peakField, long size) {
+        long live = stats.addAndGet(scope * STRIDE + liveField, size);
+        int peakIndex = scope * STRIDE + peakField;
+        long peak = stats.get(peakIndex);
+        while (live > peak && !stats.compareAndSet(peakIndex, peak, live)) {
+            peak = stats.get(peakIndex);
+        }
+    }
+
+    private long stat(int scope, int field) {
+        if (scope < 0 || scope >= SCOPE_COUNT) {
+            throw new IllegalArgumentException("Invalid allocation scope " + scope);
+        }
+        return stats.get(scope * STRIDE + field);
+    }
+
+    private void emitEvents() {
+        for (int scope = 0; scope < SCOPE_COUNT; scope++) {
+            int base = scope * STRIDE;
+            if (stats.get(base + ALLOCATIONS) == 0 && stats.get(base + INTERNAL_PEAK) == 0) {
+                continue;
+            }
+            HostMemoryEvent event = new HostMemoryEvent();
+            if (event.shouldCommit()) {
+                event.allocator = name;
+                event.scope = VkSystemAllocationScope.explain(scope);
+                event.allocations = stats.get(base + ALLOCATIONS);
+                event.reallocations = stats.get(base + REALLOCATIONS);
+                event.frees = stats.get(base + FREES);
+                event.liveBytes = stats.get(base + LIVE);
+                event.peakBytes = stats.get(base + PEAK);
+                event.internalBytes = stats.get(base + INTERNAL_LIVE);
+                event.internalPeakBytes = stats.get(base + INTERNAL_PEAK);
+                event.reservedBytes = reserved.get();
+                event.commit();
+            }
+        }
+    }
+
+    private static long header(long p, int offset) {
+        return ALL.get(ValueLayout.JAVA_LONG, p - HEADER_SIZE + offset);
+    }
+
+    private static int clampScope(int scope) {
+        return Math.clamp(scope, 0, SCOPE_COUNT - 1);
+    }
+
+    private static long systemMalloc(long size) {
+        try {
+            return (long) MALLOC.invokeExact(size);
+        } catch (Throwable _) {
+            return 0;
+        }
+    }
+
+    private static void systemFree(long p) {
+        try {
+            FREE_NATIVE.invokeExact(p);
+        } catch (Throwable _) {
+            // free does not fail
+        }
+    }
+
+    // the whole address space, so native memory can be accessed without creating segments
+    private static final MemorySegment ALL = MemorySegment.NULL.reinterpret(Long.MAX_VALUE);
+
+    private static final int SCOPE_COUNT = VkSystemAllocationScope.INSTANCE + 1;
+    private static final int ALLOCATIONS = 0;
+    private static final int REALLOCATIONS = 1;
+    private static final int FREES = 2;
+    private static final int LIVE = 3;
+    private static final int PEAK = 4;
+    private static final int INTERNAL_LIVE = 5;
+    private static final int INTERNAL_PEAK = 6;
+    // one cache line per scope
+    private static final int STRIDE = 8;
+
+    // header before every allocation: int size class, int scope, long size; large allocations
+    // additionally store the malloc pointer and size right before it
+    private static final long HEADER_SIZE = 16;
+    private static final long LARGE_HEADER_SIZE = HEADER_SIZE + 2 * Long.BYTES;
+    private static final int SIZE = 8;
+    private static final int LARGE_CLASS = -1;
+    private static final int MIN_CLASS_SHIFT = 5;
+    private static final int MAX_CLASS_SHIFT = 13;
+    private static final int CLASS_COUNT = MAX_CLASS_SHIFT - MIN_CLASS_SHIFT + 1;
+    private static final long MAX_BLOCK_SIZE = 1L << MAX_CLASS_SHIFT;
+    private static final long CHUNK_SIZE = 64 * 1024;
+    private static final long MAX_SIZE = Long.MAX_VALUE / 4;
+
+    /// Same as {@link VkFunctionTypes#PFN_vkAllocationFunction} with pointers and {@code size_t}
+    /// passed as {@code long}.
+    private static final FunctionDescriptor ALLOCATION_DESCRIPTOR = FunctionDescriptor.of(
+            ValueLayout.JAVA_LONG,
+            ValueLayout.JAVA_LONG,
+            ValueLayout.JAVA_LONG,
+            ValueLayout.JAVA_LONG,
+            ValueLayout.JAVA_INT
+    );
+    private static final FunctionDescriptor REALLOCATION_DESCRIPTOR = FunctionDescriptor.of(
+            ValueLayout.JAVA_LONG,
+            ValueLayout.JAVA_LONG,
+            ValueLayout.JAVA_LONG,
+            ValueLayout.JAVA_LONG,
+            ValueLayout.JAVA_LONG,
+            ValueLayout.JAVA_INT
+    );
+    private static final FunctionDescriptor FREE_DESCRIPTOR = FunctionDescriptor.ofVoid(
+            ValueLayout.JAVA_LONG,
+            ValueLayout.JAVA_LONG
+    );
+    private static final FunctionDescriptor INTERNAL_DESCRIPTOR = FunctionDescriptor.ofVoid(
+            ValueLayout.JAVA_LONG,
+            ValueLayout.JAVA_LONG,
+            ValueLayout.JAVA_INT,
+            ValueLayout.JAVA_INT
+    );
+
+    private static final MethodHandle ALLOCATION;
+    private static final MethodHandle REALLOCATION;
+    private static final MethodHandle FREE;
+    private static final MethodHandle INTERNAL_ALLOCATION;
+    private static final MethodHandle INTERNAL_FREE;
+    private static final MethodHandle MALLOC;
+    private static final MethodHandle FREE_NATIVE;
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        Class<?> c = PooledHostAllocator.class;
+        try {
+            ALLOCATION = lookup.findVirtual(c, "allocation", ALLOCATION_DESCRIPTOR.toMethodType());
+            REALLOCATION = lookup.findVirtual(c, "reallocation", REALLOCATION_DESCRIPTOR.toMethodType());
+            FREE = lookup.findVirtual(c, "free", FREE_DESCRIPTOR.toMethodType());
+            INTERNAL_ALLOCATION = lookup.findVirtual(c, "internalAllocation", INTERNAL_DESCRIPTOR.toMethodType());
+            INTERNAL_FREE = lookup.findVirtual(c, "internalFree", INTERNAL_DESCRIPTOR.toMethodType());
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+
+        Linker linker = Linker.nativeLinker();
+        MALLOC = linker.downcallHandle(
+                linker.defaultLookup().find("malloc").orElseThrow(),
+                FunctionDescriptor.of(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG)
+        );
+        FREE_NATIVE = linker.downcallHandle(
+                linker.defaultLookup().find("free").orElseThrow(),
+                FunctionDescriptor.ofVoid(ValueLayout.JAVA_LONG)
+        );
+    }
+
+    private final String name;
+    private final Arena arena;
+    private final VkAllocationCallbacks callbacks;
+    private final Runnable jfrHook;
+    private final AtomicLongArray stats = new AtomicLongArray(SCOPE_COUNT * STRIDE);
+    private final AtomicLong reserved = new AtomicLong();
+    private final Object[] locks = new Object[CLASS_COUNT];
+    // free list heads, guarded by locks[sizeClass]
+    private final long[] heads = new long[CLASS_COUNT];
+    private final Object chunkLock = new Object();
+    private long chunks;
+    private boolean closed;
+}
@@ -0,0 +1,369 @@
+package club.doki7.vulkan.util;
+
+import club.doki7.ffm.NativeLayout;
+import club.doki7.ffm.annotation.EnumType;
+import club.doki7.ffm.annotation.Unsigned;
+import club.doki7.ffm.ptr.LongPtr;
+import club.doki7.vulkan.bitmask.VkPipelineStageFlags2;
+import club.doki7.vulkan.command.VkDeviceCommands;
+import club.doki7.vulkan.datatype.VkCommandBufferSubmitInfo;
+import club.doki7.vulkan.datatype.VkSemaphoreCreateInfo;
+import club.doki7.vulkan.datatype.VkSemaphoreSubmitInfo;
+import club.doki7.vulkan.datatype.VkSemaphoreTypeCreateInfo;
+import club.doki7.vulkan.datatype.VkSemaphoreWaitInfo;
+import club.doki7.vulkan.datatype.VkSubmitInfo2;
+import club.doki7.vulkan.enumtype.VkResult;
+import club.doki7.vulkan.enumtype.VkSemaphoreType;
+import club.doki7.vulkan.handle.VkCommandBuffer;
+import club.doki7.vulkan.handle.VkDevice;
+import club.doki7.vulkan.handle.VkQueue;
+import club.doki7.vulkan.handle.VkSemaphore;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.foreign.Arena;
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/// Aggregates queue submissions from multiple threads into as few
+/// {@link VkDeviceCommands#queueSubmit2} calls as possible.
+///
+/// Producers hand in {@link Submission}s through {@link #enqueue} or {@link #submit}. Enqueueing
+/// never blocks: submissions go into a lock-free multi-producer queue. Whoever calls
+/// {@link #flush} (or {@link #submit}) and finds no other thread submitting becomes the single
+/// submitter: it drains every pending submission, translates them into a {@link VkSubmitInfo2}
+/// array living in a reusable native buffer, and issues one {@link VkDeviceCommands#queueSubmit2}.
+/// If another thread is already submitting, the call returns immediately and the active submitter
+/// picks the work up before it leaves, so no submission is ever left behind.
+///
+/// Every drained batch signals an internal timeline semaphore with a new, monotonically increasing
+/// value. Each producer receives a {@link CompletableFuture} which completes with that value once
+/// its work has been submitted. The value can then be waited with {@link #waitValue}, compared
+/// against {@link #completedValue}, or used as a wait operation on {@link #timelineSemaphore()}
+/// in a later submission. Since semaphore signal operations wait for all commands earlier in
+/// submission order, a completed value also implies all earlier values have completed.
+///
+/// Requires Vulkan 1.3 (or {@code VK_KHR_synchronization2} and {@code VK_KHR_timeline_semaphore}).
+/// All other submissions to the same queue, including {@code vkQueuePresentKHR}, must go through
+/// {@link #runExclusive} since Vulkan requires queue access to be externally synchronized.
+public final class QueueSubmitAggregator implements AutoCloseable {
+    /// A semaphore wait or signal operation of a {@link Submission}.
+    ///
+    /// @param semaphore the semaphore
+    /// @param value the timeline value to wait or signal, ignored for binary semaphores
+    /// @param stageMask the pipeline stages that wait for / are waited by the operation
+    public record SemaphoreOp(
+            @NotNull VkSemaphore semaphore,
+            @Unsigned long value,
+            @EnumType(VkPipelineStageFlags2.class) long stageMask
+    ) {
+        public static @NotNull SemaphoreOp binary(
+                @NotNull VkSemaphore semaphore,
+                @EnumType(VkPipelineStageFlags2.class) long stageMask
+        ) {
+            return new SemaphoreOp(semaphore, 0, stageMask);
+        }
+    }
+
+    /// One unit of work, becomes one {@link VkSubmitInfo2} in the aggregated submission.
+    public record Submission(
+            VkCommandBuffer @NotNull [] commandBuffers,
+            SemaphoreOp @NotNull [] waits,
+            SemaphoreOp @NotNull [] signals
+    ) {
+        public static @NotNull Submission of(VkCommandBuffer @NotNull ...commandBuffers) {
+            return new Submission(commandBuffers, new SemaphoreOp[0], new SemaphoreOp[0]);
+        }
+    }
+
+    /// @param deviceCommands device commands
+    /// @param device the device owning {@code queue}
+    /// @param queue the queue to submit to
+    /// @throws RuntimeException if the timeline semaphore cannot be created
+    public QueueSubmitAggregator(
+            @NotNull VkDeviceCommands deviceCommands,
+            @NotNull VkDevice device,
+            @NotNull VkQueue queue
+    ) {
+        this.deviceCommands = deviceCommands;
+        this.device = device;
+        this.queue = queue;
+
+        try (Arena arena = Arena.ofConfined()) {
+            VkSemaphoreTypeCreateInfo typeCreateInfo = VkSemaphoreTypeCreateInfo.allocate(arena)
+                    .semaphoreType(VkSemaphoreType.TIMELINE)
+                    .initialValue(0);
+            VkSemaphoreCreateInfo createInfo = VkSemaphoreCreateInfo.allocate(arena).pNext(typeCreateInfo);
+            VkSemaphore.Ptr pSemaphore = VkSemaphore.Ptr.allocate(arena);
+            int result = deviceCommands.createSemaphore(device, createInfo, null, pSemaphore);
+            if (result != VkResult.SUCCESS) {
+                throw new RuntimeException("Failed to create timeline semaphore: " + VkResult.explain(result));
+            }
+            this.timelineSemaphore = Objects.requireNonNull(pSemaphore.read());
+        }
+
+        reserve(16, 16, 16);
+    }
+
+    /// The timeline semaphore signaled by every aggregated submission.
+    public @NotNull VkSemaphore timelineSemaphore() {
+        return timelineSemaphore;
+    }
+
+    /// Adds {@code submission} to the pending queue without submitting it.
+    ///
+    /// This method is lock-free and can be called from any thread. The work is submitted by the
+    /// next {@link #flush} or {@link #submit} call from any thread.
+    ///
+    /// @return a future completing with the timeline value signaled when the work finishes
+    public @NotNull CompletableFuture<Long> enqueue(@NotNull Submission submission) {
+        PendingSubmission pending = new PendingSubmission(submission, new CompletableFuture<>());
+        pendingQueue.add(pending);
+        return pending.future;
+    }
+
+    /// Equivalent to {@link #enqueue} followed by {@link #flush}.
+    public @NotNull CompletableFuture<Long> submit(@NotNull Submission submission) {
+        CompletableFuture<Long> future = enqueue(submission);
+        flush();
+        return future;
+    }
+
+    /// Submits all pending submissions, unless another thread is submitting right now, in which
+    /// case that thread will submit them.
+    ///
+    /// If {@code vkQueueSubmit2} fails, the futures of the affected submissions complete
+    /// exceptionally, this method itself does not throw.
+    public void flush() {
+        while (!pendingQueue.isEmpty()) {
+            if (!queueLock.tryLock()) {
+                return;
+            }
+            try {
+                drainAndSubmit();
+            } finally {
+                queueLock.unlock();
+            }
+            // a producer may have enqueued after our last poll and failed tryLock, re-check
+        }
+    }
+
+    /// Runs {@code action} while holding exclusive access to the queue, after submitting all
+    /// pending submissions. Use this for other operations on the queue, such as
+    /// {@code vkQueuePresentKHR} or {@code vkQueueWaitIdle}.
+    public void runExclusive(@NotNull Runnable action) {
+        queueLock.lock();
+        try {
+            drainAndSubmit();
+            action.run();
+        } finally {
+            queueLock.unlock();
+        }
+        flush();
+    }
+
+    /// The timeline value of the most recent aggregated submission, {@code 0} if nothing has been
+    /// submitted yet.
+    public @Unsigned long lastSubmittedValue() {
+        return lastSubmittedValue;
+    }
+
+    /// Queries the timeline value the GPU has reached with {@code vkGetSemaphoreCounterValue}.
+    ///
+    /// @throws RuntimeException if the query fails
+    public @Unsigned long completedValue() {
+        try (Arena arena = Arena.ofConfined()) {
+            LongPtr pValue = LongPtr.allocate(arena);
+            int result = deviceCommands.getSemaphoreCounterValue(device, timelineSemaphore, pValue);
+            if (result != VkResult.SUCCESS) {
+                throw new RuntimeException("Failed to get semaphore counter value: " + VkResult.explain(result));
+            }
+            return pValue.read();
+        }
+    }
+
+    /// Waits on the host until the timeline semaphore reaches {@code value}.
+    ///
+    /// @param value the timeline value, typically obtained from a future returned by this class
+    /// @param timeoutNanos timeout in nanoseconds
+    /// @return {@code true} if the value was reached, {@code false} on timeout
+    /// @throws RuntimeException if the wait fails
+    public boolean waitValue(@Unsigned long value, @Unsigned long timeoutNanos) {
+        try (Arena arena = Arena.ofConfined()) {
+            VkSemaphoreWaitInfo waitInfo = VkSemaphoreWaitInfo.allocate(arena)
+                    .semaphoreCount(1)
+                    .pSemaphores(VkSemaphore.Ptr.allocateV(arena, timelineSemaphore))
+                    .pValues(LongPtr.allocateV(arena, value));
+            int result = deviceCommands.waitSemaphores(device, waitInfo, timeoutNanos);
+            if (result == VkResult.TIMEOUT) {
+                return false;
+            }
+            if (result != VkResult.SUCCESS) {
+                throw new RuntimeException("Failed to wait timeline semaphore: " + VkResult.explain(result));
+            }
+            return true;
+        }
+    }
+
+    /// Flushes pending submissions, waits on the host until all submissions made through this
+    /// aggregator have completed, then destroys the timeline semaphore.
+    ///
+    /// Other users of {@link #timelineSemaphore()}, e.g. submissions waiting on it that were not
+    /// made through this aggregator, must have completed before calling this method.
+    ///
+    /// @throws RuntimeException if waiting for the timeline semaphore fails
+    @Override
+    public void close() {
+        queueLock.lock();
+        try {
+            drainAndSubmit();
+            if (lastSubmittedValue != 0) {
+                // the flush above may have signaled the semaphore again, so wait here rather than
+                // leaving it to the caller
+                waitValue(lastSubmittedValue, NativeLayout.UINT64_MAX);
+            }
+            deviceCommands.destroySemaphore(device, timelineSemaphore, null);
+            storageArena.close();
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    private void drainAndSubmit() {
+        PendingSubmission pending;
+        while ((pending = pendingQueue.poll()) != null) {
+            drained.add(pending);
+        }
+        if (drained.isEmpty()) {
+            return;
+        }
+
+        int submitCount = drained.size() + 1;
+        int commandBufferCount = 0;
+        int semaphoreCount = 1;
+        for (PendingSubmission p : drained) {
+            commandBufferCount += p.submission.commandBuffers().length;
+            semaphoreCount += p.submission.waits().length + p.submission.signals().length;
+        }
+        reserve(submitCount, commandBufferCount, semaphoreCount);
+
+        int commandBufferIndex = 0;
+        int semaphoreIndex = 0;
+        for (int i = 0; i < drained.size(); i++) {
+            Submission submission = drained.get(i).submission;
+            VkSubmitInfo2 submitInfo = submitInfos.at(i);
+
+            VkCommandBuffer[] commandBuffers = submission.commandBuffers();
+            for (int j = 0; j < commandBuffers.length; j++) {
+                commandBufferInfos.at(commandBufferIndex + j)
+                        .commandBuffer(commandBuffers[j])
+                        .deviceMask(0);
+            }
+            submitInfo.commandBufferInfoCount(commandBuffers.length)
+                    .pCommandBufferInfos(commandBufferInfos.offset(commandBufferIndex));
+            commandBufferIndex += commandBuffers.length;
+
+            SemaphoreOp[] waits = submission.waits();
+            writeSemaphoreOps(waits, semaphoreIndex);
+            submitInfo.waitSemaphoreInfoCount(waits.length)
+                    .pWaitSemaphoreInfos(semaphoreInfos.offset(semaphoreIndex));
+            semaphoreIndex += waits.length;
+
+            SemaphoreOp[] signals = submission.signals();
+            writeSemaphoreOps(signals, semaphoreIndex);
+            submitInfo.signalSemaphoreInfoCount(signals.length)
+                    .pSignalSemaphoreInfos(semaphoreInfos.offset(semaphoreIndex));
+            semaphoreIndex += signals.length;
+        }
+
+        // trailing batch without command buffers, only signaling the timeline semaphore
+        long timelineValue = lastSubmittedValue + 1;
+        semaphoreInfos.at(semaphoreIndex)
+                .semaphore(timelineSemaphore)
+                .value(timelineValue)
+                .stageMask(VkPipelineStageFlags2.ALL_COMMANDS)
+                .deviceIndex(0);
+        submitInfos.at(drained.size())
+                .waitSemaphoreInfoCount(0)
+                .pWaitSemaphoreInfos(null)
+                .commandBufferInfoCount(0)
+                .pCommandBufferInfos(null)
+                .signalSemaphoreInfoCount(1)
+                .pSignalSemaphoreInfos(semaphoreInfos.offset(semaphoreIndex));
+
+        int result = deviceCommands.queueSubmit2(queue, submitCount, submitInfos, null);
+        if (result == VkResult.SUCCESS) {
+            lastSubmittedValue = timelineValue;
+            for (PendingSubmission p : drained) {
+                p.future.complete(timelineValue);
+            }
+        } else {
+            RuntimeException e = new RuntimeException("Failed to submit to queue: " + VkResult.explain(result));
+            for (PendingSubmission p : drained) {
+                p.future.completeExceptionally(e);
+            }
+        }
+        drained.clear();
+    }
+
+    private void writeSemaphoreOps(SemaphoreOp[] ops, int startIndex) {
+        for (int i = 0; i < ops.length; i++) {
+            SemaphoreOp op = ops[i];
+            semaphoreInfos.at(startIndex + i)
+                    .semaphore(op.semaphore())
+                    .value(op.value())
+                    .stageMask(op.stageMask())
+                    .deviceIndex(0);
+        }
+    }
+
+    private void reserve(int submitCount, int commandBufferCount, int semaphoreCount) {
+        if (submitInfos != null
+            && submitInfos.size() >= submitCount
+            && commandBufferInfos.size() >= commandBufferCount
+            && semaphoreInfos.size() >= semaphoreCount) {
+            return;
+        }
+
+        // old buffers are not referenced by any pending Vulkan call, so they can be freed safely
+        Arena newArena = Arena.ofShared();
+        int newSubmitCapacity = submitInfos == null ? submitCount : growCapacity(submitInfos.size(), submitCount);
+        int newCommandBufferCapacity = commandBufferInfos == null
+                ? commandBufferCount
+                : growCapacity(commandBufferInfos.size(), commandBufferCount);
+        int newSemaphoreCapacity = semaphoreInfos == null
+                ? semaphoreCount
+                : growCapacity(semaphoreInfos.size(), semaphoreCount);
+        submitInfos = VkSubmitInfo2.allocate(newArena, newSubmitCapacity);
+        commandBufferInfos = VkCommandBufferSubmitInfo.allocate(newArena, newCommandBufferCapacity);
+        semaphoreInfos = VkSemaphoreSubmitInfo.allocate(newArena, newSemaphoreCapacity);
+
+        if (storageArena != null) {
+            storageArena.close();
+        }
+        storageArena = newArena;
+    }
+
+    private static int growCapacity(long current, int required) {
+        return (int) Math.max(required, Math.min(Integer.MAX_VALUE, current * 2));
+    }
+
+    private record PendingSubmission(Submission submission, CompletableFuture<Long> future) {}
+
+    private final VkDeviceCommands deviceCommands;
+    private final VkDevice device;
+    private final VkQueue queue;
+    private final VkSemaphore timelineSemaphore;
+    private final ConcurrentLinkedQueue<PendingSubmission> pendingQueue = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock queueLock = new ReentrantLock();
+
+    // following fields are only accessed while holding queueLock
+    private final ArrayList<PendingSubmission> drained = new ArrayList<>();
+    private Arena storageArena;
+    private VkSubmitInfo2.Ptr submitInfos;
+    private VkCommandBufferSubmitInfo.Ptr commandBufferInfos;
+    private VkSemaphoreSubmitInfo.Ptr semaphoreInfos;
+    private volatile long lastSubmittedValue;
+}
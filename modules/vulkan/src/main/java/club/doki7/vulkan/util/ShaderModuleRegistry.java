@@ -0,0 +1,276 @@
+package club.doki7.vulkan.util;
+
+import club.doki7.ffm.ptr.IntPtr;
+import club.doki7.vulkan.command.VkDeviceCommands;
+import club.doki7.vulkan.datatype.VkAllocationCallbacks;
+import club.doki7.vulkan.datatype.VkShaderModuleCreateInfo;
+import club.doki7.vulkan.enumtype.VkResult;
+import club.doki7.vulkan.handle.VkDevice;
+import club.doki7.vulkan.handle.VkShaderModule;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/// Shares {@link VkShaderModule}s between identical SPIR-V binaries.
+///
+/// {@link #acquire(IntPtr)} hashes the SPIR-V words directly from native memory, and returns the
+/// existing module if the same code was acquired before, otherwise creates one. Modules are
+/// reference counted: every {@code acquire} must be paired with a {@link #release}, and a module
+/// is destroyed when its count drops to zero. Since a shader module is no longer needed once the
+/// pipelines using it have been created, modules can usually be released right after pipeline
+/// creation.
+///
+/// {@snippet :
+/// VkShaderModule vertexShader = registry.acquire(Path.of("shaders/mesh.vert.spv"));
+/// // ... create the pipeline variants
+/// registry.release(vertexShader);
+/// }
+///
+/// To compare candidates with equal hashes, the registry keeps a native copy of the code of every
+/// live module, it never copies SPIR-V to the Java heap. All methods are thread safe.
+public final class ShaderModuleRegistry implements AutoCloseable {
+    /// Snapshot of the registry counters.
+    ///
+    /// @param requests number of {@code acquire} calls
+    /// @param hits number of {@code acquire} calls answered with an existing module
+    /// @param bytesSaved total SPIR-V size of the hits, i.e. code not passed to the driver again
+    /// @param liveModules number of modules currently alive
+    /// @param liveBytes total SPIR-V size of the live modules
+    public record Statistics(long requests, long hits, long bytesSaved, int liveModules, long liveBytes) {
+        public double hitRate() {
+            return requests == 0 ? 0.0 : (double) hits / requests;
+        }
+    }
+
+    /// @param deviceCommands device commands
+    /// @param device the device
+    /// @param allocator allocation callbacks used to create and destroy the modules
+    public ShaderModuleRegistry(
+            @NotNull VkDeviceCommands deviceCommands,
+            @NotNull VkDevice device,
+            @Nullable VkAllocationCallbacks allocator
+    ) {
+        this.deviceCommands = deviceCommands;
+        this.device = device;
+        this.allocator = allocator;
+    }
+
+    /// Returns a module for the SPIR-V code in {@code code}, whose size in bytes is
+    /// {@code code.size() * 4}.
+    ///
+    /// @throws IllegalArgumentException if the code does not start with the SPIR-V magic number
+    /// @throws RuntimeException if creating the shader module fails
+    public @NotNull VkShaderModule acquire(@NotNull IntPtr code) {
+        return acquire(code.segment());
+    }
+
+    /// Returns a module for the SPIR-V file {@code path}, which is memory mapped for hashing and
+    /// module creation.
+    ///
+    /// @throws IOException if the file cannot be read
+    /// @throws IllegalArgumentException if the file is not a SPIR-V binary
+    /// @throws RuntimeException if creating the shader module fails
+    public @NotNull VkShaderModule acquire(@NotNull Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+             Arena arena = Arena.ofConfined()) {
+            MemorySegment mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+            return acquire(mapped);
+        }
+    }
+
+    /// Returns a module for the SPIR-V code in {@code code}.
+    ///
+    /// @throws IllegalArgumentException if {@code code} is not a SPIR-V binary
+    /// @throws RuntimeException if creating the shader module fails
+    public @NotNull VkShaderModule acquire(@NotNull MemorySegment code) {
+        long size = code.byteSize();
+        if (size < 20 || size % Integer.BYTES != 0 || code.get(ValueLayout.JAVA_INT_UNALIGNED, 0) != SPIRV_MAGIC) {
+            throw new IllegalArgumentException("Not a SPIR-V binary (" + size + " bytes)");
+        }
+        long hash = Hash64.hash(code);
+
+        synchronized (this) {
+            requests++;
+            for (Entry e = byHash[hashBucket(hash)]; e != null; e = e.nextByHash) {
+                if (e.hash == hash && e.code.byteSize() == size && e.code.mismatch(code) == -1) {
+                    e.refCount++;
+                    hits++;
+                    bytesSaved += size;
+                    return e.module;
+                }
+            }
+
+            Arena arena = Arena.ofShared();
+            try {
+                MemorySegment copy = arena.allocate(size, Integer.BYTES);
+                copy.copyFrom(code);
+
+                VkShaderModuleCreateInfo createInfo = VkShaderModuleCreateInfo.allocate(arena)
+                        .codeSize(size)
+                        .pCode(new IntPtr(copy));
+                VkShaderModule.Ptr pModule = VkShaderModule.Ptr.allocate(arena);
+                int result = deviceCommands.createShaderModule(device, createInfo, allocator, pModule);
+                if (result != VkResult.SUCCESS) {
+                    throw new RuntimeException("Failed to create shader module: " + VkResult.explain(result));
+                }
+
+                VkShaderModule module = Objects.requireNonNull(pModule.read());
+                if (liveModules >= byHash.length - (byHash.length >> 2)) {
+                    grow();
+                }
+                insert(new Entry(hash, module, copy, arena));
+                liveModules++;
+                liveBytes += size;
+                return module;
+            } catch (RuntimeException e) {
+                arena.close();
+                throw e;
+            }
+        }
+    }
+
+    /// Adds a reference to {@code module}, which must have been returned by this registry.
+    public synchronized void retain(@NotNull VkShaderModule module) {
+        entryOf(module).refCount++;
+    }
+
+    /// Drops a reference to {@code module}, destroying it when no reference is left.
+    ///
+    /// @throws IllegalArgumentException if {@code module} is not alive in this registry
+    public synchronized void release(@NotNull VkShaderModule module) {
+        Entry entry = entryOf(module);
+        if (--entry.refCount > 0) {
+            return;
+        }
+
+        int hashBucket = hashBucket(entry.hash);
+        if (byHash[hashBucket] == entry) {
+            byHash[hashBucket] = entry.nextByHash;
+        } else {
+            Entry prev = byHash[hashBucket];
+            while (prev.nextByHash != entry) {
+                prev = prev.nextByHash;
+            }
+            prev.nextByHash = entry.nextByHash;
+        }
+        int handleBucket = handleBucket(entry.handle);
+        if (byHandle[handleBucket] == entry) {
+            byHandle[handleBucket] = entry.nextByHandle;
+        } else {
+            Entry prev = byHandle[handleBucket];
+            while (prev.nextByHandle != entry) {
+                prev = prev.nextByHandle;
+            }
+            prev.nextByHandle = entry.nextByHandle;
+        }
+        liveModules--;
+        destroy(entry);
+    }
+
+    public synchronized @NotNull Statistics statistics() {
+        return new Statistics(requests, hits, bytesSaved, liveModules, liveBytes);
+    }
+
+    /// Destroys all live modules regardless of their reference counts.
+    @Override
+    public synchronized void close() {
+        for (Entry head : byHandle) {
+            for (Entry e = head; e != null; e = e.nextByHandle) {
+                destroy(e);
+            }
+        }
+        byHash = new Entry[INITIAL_TABLE_SIZE];
+        byHandle = new Entry[INITIAL_TABLE_SIZE];
+        liveModules = 0;
+    }
+
+    private Entry entryOf(VkShaderModule module) {
+        long handle = module.segment().address();
+        for (Entry e = byHandle[handleBucket(handle)]; e != null; e = e.nextByHandle) {
+            if (e.handle == handle) {
+                return e;
+            }
+        }
+        throw new IllegalArgumentException("Shader module not owned by this registry");
+    }
+
+    private void insert(Entry entry) {
+        int hashBucket = hashBucket(entry.hash);
+        entry.nextByHash = byHash[hashBucket];
+        byHash[hashBucket] = entry;
+        int handleBucket = handleBucket(entry.handle);
+        entry.nextByHandle = byHandle[handleBucket];
+        byHandle[handleBucket] = entry;
+    }
+
+    private void grow() {
+        Entry[] oldTable = byHandle;
+        byHash = new Entry[oldTable.length * 2];
+        byHandle = new Entry[oldTable.length * 2];
+        for (Entry head : oldTable) {
+            for (Entry e = head; e != null; ) {
+                Entry next = e.nextByHandle;
+                insert(e);
+                e = next;
+            }
+        }
+    }
+
+    private int hashBucket(long hash) {
+        return (int) hash & (byHash.length - 1);
+    }
+
+    private int handleBucket(long handle) {
+        // handles are often aligned addresses, so the low bits alone would cluster
+        return (int) ((handle * 0x9E3779B97F4A7C15L) >>> 32) & (byHandle.length - 1);
+    }
+
+    private void destroy(Entry entry) {
+        deviceCommands.destroyShaderModule(device, entry.module, allocator);
+        liveBytes -= entry.code.byteSize();
+        entry.arena.close();
+    }
+
+    private static final class Entry {
+        Entry(long hash, VkShaderModule module, MemorySegment code, Arena arena) {
+            this.hash = hash;
+            this.module = module;
+            this.handle = module.segment().address();
+            this.code = code;
+            this.arena = arena;
+        }
+
+        final long hash;
+        final VkShaderModule module;
+        final long handle;
+        final MemorySegment code;
+        final Arena arena;
+        // intrusive chains of the two tables, so neither key is boxed
+        @Nullable Entry nextByHash;
+        @Nullable Entry nextByHandle;
+        int refCount = 1;
+    }
+
+    private static final int SPIRV_MAGIC = 0x07230203;
+    private static final int INITIAL_TABLE_SIZE = 16;
+
+    private final VkDeviceCommands deviceCommands;
+    private final VkDevice device;
+    private final @Nullable VkAllocationCallbacks allocator;
+
+    private Entry[] byHash = new Entry[INITIAL_TABLE_SIZE];
+    private Entry[] byHandle = new Entry[INITIAL_TABLE_SIZE];
+    private int liveModules;
+    private long requests;
+    private long hits;
+    private long bytesSaved;
+    private long liveBytes;
+}
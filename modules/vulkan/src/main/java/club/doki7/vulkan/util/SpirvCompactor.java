@@ -0,0 +1,623 @@
+package club.doki7.vulkan.util;
+
+import club.doki7.ffm.ptr.IntPtr;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/// Shrinks SPIR-V binaries before they are handed to
+/// {@link club.doki7.vulkan.command.VkDeviceCommands#createShaderModule}.
+///
+/// The compactor
+///
+/// - removes debug instructions ({@code OpSource*}, {@code OpName}, {@code OpMemberName},
+///   {@code OpString}, {@code OpLine}, {@code OpNoLine}, {@code OpModuleProcessed}),
+/// - removes non-semantic instructions ({@code OpExtInst} of {@code NonSemantic.*} sets, e.g.
+///   {@code NonSemantic.Shader.DebugInfo.100}, and the set imports themselves),
+/// - removes types and constants no longer referenced, together with their decorations,
+/// - renumbers the remaining IDs densely from 1 and lowers the ID bound accordingly.
+///
+/// The module is analysed once to compute liveness, then streamed once into the output; both
+/// passes only use primitive arrays indexed by ID. Operand positions are looked up in a compact
+/// table of instruction grammars. If the module contains an instruction not in the table, IDs are
+/// left unchanged (everything else still applies), so unknown extensions never produce a broken
+/// module.
+///
+/// Specialization constants and constants decorated with {@code BuiltIn} are always kept.
+///
+/// {@snippet :
+/// try (Arena arena = Arena.ofConfined()) {
+///     IntPtr compacted = SpirvCompactor.compact(code, arena);
+///     VkShaderModuleCreateInfo createInfo = VkShaderModuleCreateInfo.allocate(arena)
+///             .codeSize(compacted.size() * Integer.BYTES)
+///             .pCode(compacted);
+/// }
+/// }
+public final class SpirvCompactor {
+    /// Summary of {@link #compactDirectory}.
+    ///
+    /// @param modules number of modules processed
+    /// @param inputBytes total size of the input modules
+    /// @param outputBytes total size of the output modules
+    public record DirectoryReport(int modules, long inputBytes, long outputBytes) {}
+
+    /// Compacts the SPIR-V module {@code code}.
+    ///
+    /// @param code the module
+    /// @param arena arena to allocate the result from
+    /// @return the compacted module
+    /// @throws IllegalArgumentException if {@code code} is not a valid SPIR-V binary
+    public static @NotNull IntPtr compact(@NotNull IntPtr code, @NotNull Arena arena) {
+        MemorySegment output = arena.allocate(code.segment().byteSize(), Integer.BYTES);
+        long words = new Module(code.segment()).compactInto(output);
+        return new IntPtr(output.asSlice(0, words * Integer.BYTES));
+    }
+
+    /// Compacts every {@code .spv} file of {@code inputDirectory} in parallel, writing the results
+    /// with the same file names to {@code outputDirectory}.
+    ///
+    /// @throws IOException if reading or writing a file fails
+    /// @throws IllegalArgumentException if a file is not a valid SPIR-V binary
+    public static @NotNull DirectoryReport compactDirectory(
+            @NotNull Path inputDirectory,
+            @NotNull Path outputDirectory
+    ) throws IOException {
+        Files.createDirectories(outputDirectory);
+        List<Path> files;
+        try (Stream<Path> list = Files.list(inputDirectory)) {
+            files = list.filter(p -> p.getFileName().toString().endsWith(".spv") && Files.isRegularFile(p)).toList();
+        }
+
+        AtomicLong inputBytes = new AtomicLong();
+        AtomicLong outputBytes = new AtomicLong();
+        try {
+            files.parallelStream().forEach(file -> {
+                try {
+                    long[] sizes = compactFile(file, outputDirectory.resolve(file.getFileName()));
+                    inputBytes.addAndGet(sizes[0]);
+                    outputBytes.addAndGet(sizes[1]);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return new DirectoryReport(files.size(), inputBytes.get(), outputBytes.get());
+    }
+
+    private static long[] compactFile(Path input, Path output) throws IOException {
+        try (Arena arena = Arena.ofConfined();
+             FileChannel in = FileChannel.open(input, StandardOpenOption.READ)) {
+            MemorySegment mapped = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size(), arena);
+            MemorySegment result = arena.allocate(mapped.byteSize(), Integer.BYTES);
+            long words = new Module(mapped).compactInto(result);
+            try (FileChannel out = FileChannel.open(
+                    output,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING
+            )) {
+                var buffer = result.asSlice(0, words * Integer.BYTES).asByteBuffer();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+            }
+            return new long[] { mapped.byteSize(), words * Integer.BYTES };
+        }
+    }
+
+    private static final class Module {
+        Module(MemorySegment code) {
+            long size = code.byteSize();
+            if (size < HEADER_WORDS * Integer.BYTES || size % Integer.BYTES != 0) {
+                throw new IllegalArgumentException("Not a SPIR-V binary (" + size + " bytes)");
+            }
+            if (code.get(WORD, 0) != MAGIC) {
+                throw new IllegalArgumentException("Not a SPIR-V binary, or not in host byte order");
+            }
+            this.code = code;
+            this.wordCount = size / Integer.BYTES;
+            this.bound = code.getAtIndex(WORD, 3);
+            if (bound <= 0) {
+                throw new IllegalArgumentException("Invalid SPIR-V ID bound " + bound);
+            }
+
+            this.live = new boolean[bound];
+            this.removable = new boolean[bound];
+            this.nonSemanticSet = new boolean[bound];
+            this.typeOf = new int[bound];
+            this.intWidth = new int[bound];
+        }
+
+        long compactInto(MemorySegment output) {
+            analyse();
+            propagate();
+            return emit(output);
+        }
+
+        // pass 1: find definitions of types and constants and mark everything else uses
+        private void analyse() {
+            long offset = HEADER_WORDS;
+            while (offset < wordCount) {
+                int word0 = code.getAtIndex(WORD, offset);
+                int opcode = word0 & 0xFFFF;
+                int count = word0 >>> 16;
+                if (count == 0 || offset + count > wordCount) {
+                    throw new IllegalArgumentException("Malformed SPIR-V instruction at word " + offset);
+                }
+
+                String grammar = grammarOf(opcode);
+                if (grammar == null) {
+                    renumber = false;
+                } else if (opcode == OP_SPEC_CONSTANT_OP && count > 3) {
+                    int embedded = code.getAtIndex(WORD, offset + 3);
+                    if (embedded == OP_VECTOR_SHUFFLE || embedded == OP_COMPOSITE_EXTRACT || embedded == OP_COMPOSITE_INSERT) {
+                        // these carry literal operands not described by the table
+                        renumber = false;
+                    }
+                }
+
+                if (isDebug(opcode)) {
+                    offset += count;
+                    continue;
+                }
+
+                switch (opcode) {
+                    case OP_EXT_INST_IMPORT -> {
+                        if (startsWithNonSemantic(offset + 2, offset + count)) {
+                            nonSemanticSet[id(offset + 1)] = true;
+                        }
+                    }
+                    case OP_EXT_INST -> {
+                        if (!nonSemanticSet[id(offset + 3)]) {
+                            markOperands(offset, count, grammar);
+                        }
+                    }
+                    case OP_DECORATE -> {
+                        if (count > 2 && code.getAtIndex(WORD, offset + 2) == DECORATION_BUILT_IN) {
+                            mark(code.getAtIndex(WORD, offset + 1));
+                        }
+                    }
+                    case OP_MEMBER_DECORATE, OP_DECORATE_STRING, OP_MEMBER_DECORATE_STRING -> {}
+                    case OP_DECORATE_ID -> {
+                        for (long i = offset + 3; i < offset + count; i++) {
+                            mark(code.getAtIndex(WORD, i));
+                        }
+                    }
+                    default -> {
+                        if (isRemovableType(opcode) || isRemovableConstant(opcode)) {
+                            int result = code.getAtIndex(WORD, offset + (isRemovableConstant(opcode) ? 2 : 1));
+                            checkId(result);
+                            removable[result] = true;
+                            definitions = append(definitions, definitionCount++, offset);
+                            if (opcode == OP_TYPE_INT) {
+                                intWidth[result] = code.getAtIndex(WORD, offset + 2);
+                            } else if (isRemovableConstant(opcode)) {
+                                typeOf[result] = code.getAtIndex(WORD, offset + 1);
+                            }
+                        } else if (opcode == OP_TYPE_FORWARD_POINTER) {
+                            definitions = append(definitions, definitionCount++, offset);
+                        } else {
+                            markOperands(offset, count, grammar);
+                            if (grammar != null && grammar.startsWith("TR")) {
+                                typeOf[id(offset + 2)] = code.getAtIndex(WORD, offset + 1);
+                            }
+                        }
+                    }
+                }
+                offset += count;
+            }
+        }
+
+        // marks operands of live types and constants until nothing changes; usually one round,
+        // more only with forward pointers
+        private void propagate() {
+            boolean[] done = new boolean[definitionCount];
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (int i = definitionCount - 1; i >= 0; i--) {
+                    if (done[i]) {
+                        continue;
+                    }
+                    long offset = definitions[i];
+                    int word0 = code.getAtIndex(WORD, offset);
+                    int opcode = word0 & 0xFFFF;
+                    int defined = opcode == OP_TYPE_FORWARD_POINTER
+                            ? code.getAtIndex(WORD, offset + 1)
+                            : code.getAtIndex(WORD, offset + (isRemovableConstant(opcode) ? 2 : 1));
+                    if (!live[defined]) {
+                        continue;
+                    }
+                    done[i] = true;
+                    marked = false;
+                    walkIds(offset, word0 >>> 16, grammarOf(opcode), MODE_MARK, null);
+                    changed |= marked;
+                }
+            }
+        }
+
+        // pass 2: stream kept instructions into the output, renumbering IDs
+        private long emit(MemorySegment output) {
+            int[] newIds = renumber ? new int[bound] : null;
+            nextId = 1;
+
+            long outOffset = HEADER_WORDS;
+            long offset = HEADER_WORDS;
+            while (offset < wordCount) {
+                int word0 = code.getAtIndex(WORD, offset);
+                int opcode = word0 & 0xFFFF;
+                int count = word0 >>> 16;
+                if (keep(opcode, offset, count)) {
+                    MemorySegment.copy(code, offset * Integer.BYTES, output, outOffset * Integer.BYTES, (long) count * Integer.BYTES);
+                    if (newIds != null) {
+                        remapOutput = output;
+                        remapBase = outOffset - offset;
+                        remap = newIds;
+                        walkIds(offset, count, grammarOf(opcode), MODE_REMAP, output);
+                    }
+                    outOffset += count;
+                }
+                offset += count;
+            }
+
+            MemorySegment.copy(code, 0, output, 0, HEADER_WORDS * Integer.BYTES);
+            if (newIds != null) {
+                output.setAtIndex(WORD, 3, nextId);
+            }
+            return outOffset;
+        }
+
+        private boolean keep(int opcode, long offset, int count) {
+            if (isDebug(opcode)) {
+                return false;
+            }
+            return switch (opcode) {
+                case OP_EXT_INST_IMPORT -> !nonSemanticSet[id(offset + 1)];
+                case OP_EXT_INST -> !nonSemanticSet[id(offset + 3)];
+                case OP_DECORATE, OP_MEMBER_DECORATE, OP_DECORATE_STRING, OP_MEMBER_DECORATE_STRING, OP_DECORATE_ID ->
+                        isLive(code.getAtIndex(WORD, offset + 1));
+                case OP_TYPE_FORWARD_POINTER -> isLive(code.getAtIndex(WORD, offset + 1));
+                default -> {
+                    if (isRemovableType(opcode)) {
+                        yield isLive(code.getAtIndex(WORD, offset + 1));
+                    } else if (isRemovableConstant(opcode)) {
+                        yield isLive(code.getAtIndex(WORD, offset + 2));
+                    }
+                    yield count > 0;
+                }
+            };
+        }
+
+        private boolean isLive(int id) {
+            return id <= 0 || id >= bound || !removable[id] || live[id];
+        }
+
+        private void markOperands(long offset, int count, String grammar) {
+            if (grammar != null) {
+                walkIds(offset, count, grammar, MODE_MARK, null);
+            } else {
+                // unknown instruction: any word might be an ID
+                for (long i = offset + 1; i < offset + count; i++) {
+                    mark(code.getAtIndex(WORD, i));
+                }
+            }
+        }
+
+        private void mark(int id) {
+            if (id > 0 && id < bound && !live[id]) {
+                live[id] = true;
+                marked = true;
+            }
+        }
+
+        // visits every ID operand of the instruction at offset, following its grammar
+        private void walkIds(long offset, int count, String grammar, int mode, MemorySegment output) {
+            if (grammar == null) {
+                return;
+            }
+
+            long end = offset + count;
+            long pos = offset + 1;
+            for (int g = 0; g < grammar.length() && pos < end; g++) {
+                char c = grammar.charAt(g);
+                switch (c) {
+                    case 'T', 'R', 'I' -> visit(pos++, mode);
+                    case 'L' -> pos++;
+                    case 'S' -> pos = skipString(pos, end);
+                    case '*' -> {
+                        char rest = grammar.charAt(++g);
+                        if (rest == 'I') {
+                            while (pos < end) {
+                                visit(pos++, mode);
+                            }
+                        } else {
+                            pos = end;
+                        }
+                    }
+                    case 'O' -> {
+                        // optional image operands: a mask followed by IDs only
+                        pos++;
+                        while (pos < end) {
+                            visit(pos++, mode);
+                        }
+                    }
+                    case 'M' -> {
+                        // memory operands, possibly twice for OpCopyMemory*
+                        while (pos < end) {
+                            int mask = code.getAtIndex(WORD, pos++);
+                            if ((mask & MEMORY_ACCESS_ALIGNED) != 0) {
+                                pos++;
+                            }
+                            if ((mask & MEMORY_ACCESS_MAKE_POINTER_AVAILABLE) != 0 && pos < end) {
+                                visit(pos++, mode);
+                            }
+                            if ((mask & MEMORY_ACCESS_MAKE_POINTER_VISIBLE) != 0 && pos < end) {
+                                visit(pos++, mode);
+                            }
+                        }
+                    }
+                    case 'P' -> {
+                        while (pos + 1 < end) {
+                            visit(pos, mode);
+                            pos += 2;
+                        }
+                        pos = end;
+                    }
+                    case 'W' -> {
+                        int selector = code.getAtIndex(WORD, pos);
+                        visit(pos++, mode);
+                        visit(pos++, mode);
+                        int literalWords = 1;
+                        if (selector > 0 && selector < bound) {
+                            int type = typeOf[selector];
+                            if (type > 0 && type < bound && intWidth[type] > 32) {
+                                literalWords = intWidth[type] / 32;
+                            }
+                        }
+                        while (pos + literalWords < end) {
+                            pos += literalWords;
+                            visit(pos++, mode);
+                        }
+                    }
+                    default -> throw new IllegalStateException("Bad grammar " + grammar);
+                }
+            }
+        }
+
+        private void visit(long pos, int mode) {
+            int id = code.getAtIndex(WORD, pos);
+            if (mode == MODE_MARK) {
+                mark(id);
+            } else {
+                checkId(id);
+                int newId = remap[id];
+                if (newId == 0) {
+                    newId = nextId++;
+                    remap[id] = newId;
+                }
+                remapOutput.setAtIndex(WORD, pos + remapBase, newId);
+            }
+        }
+
+        private long skipString(long pos, long end) {
+            while (pos < end) {
+                int word = code.getAtIndex(WORD, pos++);
+                if ((word & 0xFF) == 0
+                    || (word & 0xFF00) == 0
+                    || (word & 0xFF0000) == 0
+                    || (word & 0xFF000000) == 0) {
+                    break;
+                }
+            }
+            return pos;
+        }
+
+        private boolean startsWithNonSemantic(long pos, long end) {
+            int length = NON_SEMANTIC_PREFIX.length();
+            if ((end - pos) * 4 < length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                int word = code.getAtIndex(WORD, pos + i / 4);
+                int b = (word >>> ((i % 4) * 8)) & 0xFF;
+                if (b != NON_SEMANTIC_PREFIX.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int id(long pos) {
+            int id = code.getAtIndex(WORD, pos);
+            checkId(id);
+            return id;
+        }
+
+        private void checkId(int id) {
+            if (id <= 0 || id >= bound) {
+                throw new IllegalArgumentException("SPIR-V ID " + id + " out of bound " + bound);
+            }
+        }
+
+        private static long[] append(long[] array, int index, long value) {
+            if (index == array.length) {
+                array = Arrays.copyOf(array, array.length * 2);
+            }
+            array[index] = value;
+            return array;
+        }
+
+        private final MemorySegment code;
+        private final long wordCount;
+        private final int bound;
+        private final boolean[] live;
+        private final boolean[] removable;
+        private final boolean[] nonSemanticSet;
+        private final int[] typeOf;
+        private final int[] intWidth;
+        private long[] definitions = new long[64];
+        private int definitionCount;
+        private boolean renumber = true;
+        private boolean marked;
+
+        private int[] remap;
+        private MemorySegment remapOutput;
+        private long remapBase;
+        private int nextId;
+    }
+
+    private static boolean isDebug(int opcode) {
+        return (opcode >= OP_SOURCE_CONTINUED && opcode <= OP_LINE) || opcode == OP_NO_LINE || opcode == OP_MODULE_PROCESSED;
+    }
+
+    private static boolean isRemovableType(int opcode) {
+        return (opcode >= OP_TYPE_VOID && opcode <= OP_TYPE_PIPE)
+               || opcode == OP_TYPE_RAY_QUERY_KHR
+               || opcode == OP_TYPE_ACCELERATION_STRUCTURE_KHR;
+    }
+
+    private static boolean isRemovableConstant(int opcode) {
+        return opcode >= OP_CONSTANT_TRUE && opcode <= OP_CONSTANT_NULL;
+    }
+
+    private static String grammarOf(int opcode) {
+        return opcode < GRAMMAR.length ? GRAMMAR[opcode] : null;
+    }
+
+    private static void define(String grammar, int... opcodes) {
+        for (int opcode : opcodes) {
+            GRAMMAR[opcode] = grammar;
+        }
+    }
+
+    private static void defineRange(String grammar, int first, int last) {
+        for (int opcode = first; opcode <= last; opcode++) {
+            GRAMMAR[opcode] = grammar;
+        }
+    }
+
+    private static final ValueLayout.OfInt WORD = ValueLayout.JAVA_INT;
+    private static final int MAGIC = 0x07230203;
+    private static final int HEADER_WORDS = 5;
+    private static final String NON_SEMANTIC_PREFIX = "NonSemantic.";
+
+    private static final int MODE_MARK = 0;
+    private static final int MODE_REMAP = 1;
+
+    private static final int DECORATION_BUILT_IN = 11;
+    private static final int MEMORY_ACCESS_ALIGNED = 0x2;
+    private static final int MEMORY_ACCESS_MAKE_POINTER_AVAILABLE = 0x8;
+    private static final int MEMORY_ACCESS_MAKE_POINTER_VISIBLE = 0x10;
+
+    private static final int OP_SOURCE_CONTINUED = 2;
+    private static final int OP_LINE = 8;
+    private static final int OP_EXT_INST_IMPORT = 11;
+    private static final int OP_EXT_INST = 12;
+    private static final int OP_TYPE_VOID = 19;
+    private static final int OP_TYPE_INT = 21;
+    private static final int OP_TYPE_PIPE = 38;
+    private static final int OP_TYPE_FORWARD_POINTER = 39;
+    private static final int OP_CONSTANT_TRUE = 41;
+    private static final int OP_CONSTANT_NULL = 46;
+    private static final int OP_SPEC_CONSTANT_OP = 52;
+    private static final int OP_DECORATE = 71;
+    private static final int OP_MEMBER_DECORATE = 72;
+    private static final int OP_VECTOR_SHUFFLE = 79;
+    private static final int OP_COMPOSITE_EXTRACT = 81;
+    private static final int OP_COMPOSITE_INSERT = 82;
+    private static final int OP_NO_LINE = 317;
+    private static final int OP_MODULE_PROCESSED = 330;
+    private static final int OP_DECORATE_ID = 332;
+    private static final int OP_TYPE_RAY_QUERY_KHR = 4472;
+    private static final int OP_TYPE_ACCELERATION_STRUCTURE_KHR = 5341;
+    private static final int OP_DECORATE_STRING = 5632;
+    private static final int OP_MEMBER_DECORATE_STRING = 5633;
+
+    /// Operand layout per opcode: {@code T} result type, {@code R} result ID, {@code I} ID,
+    /// {@code L} literal word, {@code S} literal string, {@code *I}/{@code *L} all remaining
+    /// operands, {@code O} optional image operands, {@code M} memory operands, {@code P}
+    /// (ID, literal) pairs, {@code W} {@code OpSwitch} operands. {@code null} for unknown opcodes.
+    private static final String[] GRAMMAR = new String[6200];
+
+    static {
+        define("", 0, 56, 218, 219, 252, 253, 255, 4416, 4448, 4449, 5380);
+        define("TR", 1, 41, 42, 46, 48, 49, 55, 5381);
+        define("S", 10);
+        define("RS", 11);
+        define("TRIL*I", 12);
+        define("*L", 14, 17);
+        define("LIS*I", 15);
+        define("I*L", 16, 71, 5632);
+        define("R", 19, 20, 26, 34, 35, 36, 37, 73, 248, 4472, 5341);
+        define("RLL", 21);
+        define("R*L", 22);
+        define("RIL", 23, 24);
+        define("RI*L", 25);
+        define("RI", 27, 29);
+        define("RII", 28);
+        define("R*I", 30, 33);
+        define("RS", 31);
+        define("RLI", 32);
+        define("RL", 38);
+        define("IL", 39, 247, 256, 257);
+        define("TR*L", 43, 50);
+        define("TR*I", 44, 51, 57, 60, 65, 66, 67, 70, 77, 78, 80, 83, 84, 86, 245, 400, 401, 402, 403);
+        define("TRLLL", 45);
+        define("TRL*I", 52);
+        define("TRLI", 54);
+        define("TRL*I", 59);
+        define("TRIM", 61);
+        define("IIM", 62, 63);
+        define("IIIM", 64);
+        define("TRIL", 68, 123);
+        define("TRI", 69, 100);
+        define("IL*L", 72, 5633);
+        define("*I", 74, 224, 225, 228, 4445, 4446, 4473, 4474, 4475, 4476, 5294, 5295);
+        define("IP", 75);
+        define("TRII*L", 79, 82);
+        define("TRI*L", 81);
+        define("TRIIO", 87, 88, 91, 92, 95, 98, 305, 306, 313, 320);
+        define("TRIIIO", 89, 90, 93, 94, 96, 97, 307, 308, 314, 315);
+        define("IIIO", 99);
+        defineRange("TR*I", 101, 107);
+        defineRange("TR*I", 109, 122);
+        defineRange("TR*I", 124, 124);
+        defineRange("TR*I", 126, 152);
+        defineRange("TR*I", 154, 191);
+        defineRange("TR*I", 194, 205);
+        defineRange("TR*I", 207, 215);
+        define("I", 220, 221, 249, 254);
+        define("TR*I", 227);
+        defineRange("TR*I", 229, 242);
+        define("II*L", 246);
+        define("III*L", 250);
+        define("W", 251);
+        define("TR*I", 316, 333, 334, 335, 336, 337, 338, 339, 340, 341, 343, 344, 345, 346, 347, 348, 365, 366);
+        define("TRIL*I", 342);
+        defineRange("TRIL*I", 349, 364);
+        define("IL*I", 331, 332);
+        define("TR*I", 4421, 4422, 4431, 4447, 4477, 4479, 5334);
+        // debug instructions are never emitted, their grammar only matters for completeness
+        define("L*L", 3);
+        define("*L", 2, 4, 330);
+        define("I*L", 5);
+        define("IL*L", 6);
+        define("RS", 7);
+        define("I*L", 8);
+        define("", 317);
+    }
+}
@@ -0,0 +1,137 @@
+package club.doki7.vulkan.util;
+
+import club.doki7.ffm.annotation.Unsigned;
+import club.doki7.ffm.ptr.FloatPtr;
+import club.doki7.vulkan.handle.VkBuffer;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.foreign.MemorySegment;
+import java.util.concurrent.atomic.AtomicLong;
+
+/// Per-frame linear allocator of uniform (or storage) data in one persistently mapped buffer,
+/// meant to be bound once as a {@code UNIFORM_BUFFER_DYNAMIC} descriptor and selected per draw
+/// with a dynamic offset.
+///
+/// The buffer is split into one region per frame in flight. {@link #allocate} bumps an atomic
+/// pointer within the current frame's region, so any number of recording threads can allocate
+/// concurrently, and returns the offset to pass in {@code pDynamicOffsets} of
+/// {@code vkCmdBindDescriptorSets}. {@link #beginFrame} resets the region of a frame once its
+/// fence has been waited.
+///
+/// {@snippet :
+/// UniformArena arena = new UniformArena(
+///         uniformBuffer, uniformMapped, limits.minUniformBufferOffsetAlignment(), MAX_FRAMES_IN_FLIGHT
+/// );
+/// // descriptor: UNIFORM_BUFFER_DYNAMIC, buffer = arena.buffer(), offset = 0, range = UniformBufferObject.BYTES
+///
+/// arena.beginFrame(currentFrame);
+/// // on any recording thread
+/// long offset = arena.allocate(UniformBufferObject.BYTES);
+/// ubo.writeToFloatPtr(arena.floats(offset, UniformBufferObject.FLOATS));
+/// dynamicOffset.write((int) offset);
+/// dCmd.cmdBindDescriptorSets(cmd, GRAPHICS, pipelineLayout, 0, 1, pDescriptorSet, 1, dynamicOffset);
+/// }
+///
+/// The memory should be {@code HOST_COHERENT}; otherwise flush {@link #frameOffset()} to
+/// {@code frameOffset() + usedBytes()} before submitting.
+public final class UniformArena {
+    /// Returned by {@link #allocate} when the frame's region is full.
+    public static final long EXHAUSTED = -1;
+
+    /// @param buffer the buffer, created with {@code UNIFORM_BUFFER} or {@code STORAGE_BUFFER}
+    ///               usage
+    /// @param mapped the persistent mapping of the whole buffer
+    /// @param alignment {@code minUniformBufferOffsetAlignment} or
+    ///                  {@code minStorageBufferOffsetAlignment}, a power of two
+    /// @param framesInFlight number of regions the buffer is split into
+    public UniformArena(
+            @NotNull VkBuffer buffer,
+            @NotNull MemorySegment mapped,
+            @Unsigned long alignment,
+            int framesInFlight
+    ) {
+        if (alignment <= 0 || (alignment & (alignment - 1)) != 0) {
+            throw new IllegalArgumentException("Alignment must be a power of two, got " + alignment);
+        }
+        if (framesInFlight <= 0) {
+            throw new IllegalArgumentException("Invalid number of frames in flight " + framesInFlight);
+        }
+        long frameSize = (mapped.byteSize() / framesInFlight) & -alignment;
+        if (frameSize == 0) {
+            throw new IllegalArgumentException("Buffer too small for " + framesInFlight + " frames");
+        }
+        this.buffer = buffer;
+        this.mapped = mapped;
+        this.alignment = alignment;
+        this.frameSize = frameSize;
+    }
+
+    public @NotNull VkBuffer buffer() {
+        return buffer;
+    }
+
+    /// The mapping of the whole buffer; offsets returned by {@link #allocate} index into it.
+    public @NotNull MemorySegment mapped() {
+        return mapped;
+    }
+
+    /// Makes {@code frameIndex} the current frame and discards everything allocated in it last
+    /// time. Must not run concurrently with {@link #allocate}.
+    public void beginFrame(int frameIndex) {
+        long offset = frameIndex * frameSize;
+        if (frameIndex < 0 || offset + frameSize > mapped.byteSize()) {
+            throw new IndexOutOfBoundsException("Invalid frame index " + frameIndex);
+        }
+        frameOffset = offset;
+        bump.set(0);
+    }
+
+    /// Allocates {@code size} bytes in the current frame. Thread safe.
+    ///
+    /// @return offset of the allocation within the buffer, aligned to the alignment, or
+    ///         {@link #EXHAUSTED}
+    public long allocate(@Unsigned long size) {
+        long alignedSize = (size + alignment - 1) & -alignment;
+        long start = bump.getAndAdd(alignedSize);
+        if (start + size > frameSize) {
+            return EXHAUSTED;
+        }
+        return frameOffset + start;
+    }
+
+    /// The {@code size} bytes at {@code offset} of the mapping.
+    public @NotNull MemorySegment segment(@Unsigned long offset, @Unsigned long size) {
+        return mapped.asSlice(offset, size);
+    }
+
+    /// The {@code count} floats at {@code offset} of the mapping.
+    public @NotNull FloatPtr floats(@Unsigned long offset, long count) {
+        return new FloatPtr(mapped.asSlice(offset, count * Float.BYTES));
+    }
+
+    public @Unsigned long alignment() {
+        return alignment;
+    }
+
+    /// Size of the region of each frame.
+    public @Unsigned long frameSize() {
+        return frameSize;
+    }
+
+    /// Offset of the current frame's region within the buffer.
+    public @Unsigned long frameOffset() {
+        return frameOffset;
+    }
+
+    /// Bytes allocated in the current frame, including alignment padding.
+    public @Unsigned long usedBytes() {
+        return Math.min(bump.get(), frameSize);
+    }
+
+    private final VkBuffer buffer;
+    private final MemorySegment mapped;
+    private final long alignment;
+    private final long frameSize;
+    private volatile long frameOffset;
+    private final AtomicLong bump = new AtomicLong();
+}
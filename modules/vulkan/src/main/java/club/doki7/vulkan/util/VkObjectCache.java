@@ -0,0 +1,302 @@
+package club.doki7.vulkan.util;
+
+import club.doki7.ffm.annotation.EnumType;
+import club.doki7.vulkan.command.VkDeviceCommands;
+import club.doki7.vulkan.datatype.VkAllocationCallbacks;
+import club.doki7.vulkan.datatype.VkDescriptorSetLayoutBindingFlagsCreateInfo;
+import club.doki7.vulkan.datatype.VkDescriptorSetLayoutCreateInfo;
+import club.doki7.vulkan.datatype.VkMutableDescriptorTypeCreateInfoEXT;
+import club.doki7.vulkan.datatype.VkPipelineLayoutCreateInfo;
+import club.doki7.vulkan.datatype.VkRenderPassCreateInfo;
+import club.doki7.vulkan.datatype.VkRenderPassFragmentDensityMapCreateInfoEXT;
+import club.doki7.vulkan.datatype.VkRenderPassInputAttachmentAspectCreateInfo;
+import club.doki7.vulkan.datatype.VkRenderPassMultiviewCreateInfo;
+import club.doki7.vulkan.datatype.VkSamplerBorderColorComponentMappingCreateInfoEXT;
+import club.doki7.vulkan.datatype.VkSamplerCreateInfo;
+import club.doki7.vulkan.datatype.VkSamplerCustomBorderColorCreateInfoEXT;
+import club.doki7.vulkan.datatype.VkSamplerReductionModeCreateInfo;
+import club.doki7.vulkan.datatype.VkSamplerYcbcrConversionInfo;
+import club.doki7.vulkan.enumtype.VkResult;
+import club.doki7.vulkan.enumtype.VkStructureType;
+import club.doki7.vulkan.handle.VkDescriptorSetLayout;
+import club.doki7.vulkan.handle.VkDevice;
+import club.doki7.vulkan.handle.VkPipelineLayout;
+import club.doki7.vulkan.handle.VkRenderPass;
+import club.doki7.vulkan.handle.VkSampler;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.foreign.ValueLayout;
+import java.util.concurrent.atomic.LongAdder;
+
+/// Deduplicates {@link VkSampler}s, {@link VkDescriptorSetLayout}s, {@link VkPipelineLayout}s and
+/// {@link VkRenderPass}es by the content of their create-info structures.
+///
+/// Requesting an object with a create-info equal to an earlier request returns the existing
+/// handle instead of creating a new one. Equality is decided on the native contents of the
+/// create-info, including arrays reachable through counted pointer members ({@code pBindings},
+/// {@code pSetLayouts}, subpass attachment references, ...) and the {@code pNext} chain, so two
+/// create-infos built independently by different subsystems still match. The walk is driven by the
+/// generated {@code LAYOUT} of each structure, see {@link #registerExtension} for {@code pNext}
+/// structures not known to the cache.
+///
+/// Objects returned by the cache are owned by it: callers must not destroy them, they are
+/// destroyed by {@link #close()}.
+///
+/// {@snippet :
+/// VkObjectCache cache = new VkObjectCache(deviceCommands, device, null);
+/// VkSampler sampler = cache.sampler(samplerCreateInfo);
+/// VkSampler same = cache.sampler(samplerCreateInfoFromAnotherSubsystem);  // sampler == same
+/// }
+///
+/// Lookups encode and hash the create-info into a per-thread buffer without allocating and go to
+/// one of several independently locked stripes, so many threads can share one cache. A miss
+/// creates the object while holding the lock of its stripe, which guarantees that concurrent
+/// requests for the same description create only one object.
+public final class VkObjectCache implements AutoCloseable {
+    /// @param deviceCommands device commands
+    /// @param device the device
+    /// @param allocator allocation callbacks used to create and destroy the objects
+    public VkObjectCache(
+            @NotNull VkDeviceCommands deviceCommands,
+            @NotNull VkDevice device,
+            @Nullable VkAllocationCallbacks allocator
+    ) {
+        this.deviceCommands = deviceCommands;
+        this.device = device;
+        this.allocator = allocator;
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /// Makes a structure acceptable in the {@code pNext} chain of cached create-infos. Structures
+    /// used by core Vulkan and common extensions for the cached object types are registered by
+    /// default.
+    ///
+    /// {@snippet :
+    /// VkObjectCache.registerExtension(VkStructureType.SAMPLER_YCBCR_CONVERSION_INFO, VkSamplerYcbcrConversionInfo.LAYOUT);
+    /// }
+    ///
+    /// @param sType the {@code sType} of the structure
+    /// @param layout the generated {@code LAYOUT} of the structure
+    /// @throws IllegalArgumentException if a pointer member of the structure cannot be resolved
+    public static void registerExtension(@EnumType(VkStructureType.class) int sType, @NotNull StructLayout layout) {
+        CreateInfoEncoder.registerExtension(sType, layout);
+    }
+
+    /// Returns a sampler created from an equal create-info, or creates one.
+    ///
+    /// @throws IllegalArgumentException if the {@code pNext} chain contains an unregistered
+    ///         structure
+    /// @throws RuntimeException if creating the sampler fails
+    public @NotNull VkSampler sampler(@NotNull VkSamplerCreateInfo createInfo) {
+        return new VkSampler(lookup(KIND_SAMPLER, SAMPLER_SCHEMA, createInfo.segment()));
+    }
+
+    /// Returns a descriptor set layout created from an equal create-info, or creates one.
+    ///
+    /// @throws IllegalArgumentException if the {@code pNext} chain contains an unregistered
+    ///         structure
+    /// @throws RuntimeException if creating the descriptor set layout fails
+    public @NotNull VkDescriptorSetLayout descriptorSetLayout(@NotNull VkDescriptorSetLayoutCreateInfo createInfo) {
+        return new VkDescriptorSetLayout(lookup(KIND_DESCRIPTOR_SET_LAYOUT, DESCRIPTOR_SET_LAYOUT_SCHEMA, createInfo.segment()));
+    }
+
+    /// Returns a pipeline layout created from an equal create-info, or creates one.
+    ///
+    /// Descriptor set layouts are compared by handle, so pipeline layouts deduplicate best when the
+    /// set layouts themselves come from {@link #descriptorSetLayout}.
+    ///
+    /// @throws IllegalArgumentException if the {@code pNext} chain contains an unregistered
+    ///         structure
+    /// @throws RuntimeException if creating the pipeline layout fails
+    public @NotNull VkPipelineLayout pipelineLayout(@NotNull VkPipelineLayoutCreateInfo createInfo) {
+        return new VkPipelineLayout(lookup(KIND_PIPELINE_LAYOUT, PIPELINE_LAYOUT_SCHEMA, createInfo.segment()));
+    }
+
+    /// Returns a render pass created from an equal create-info, or creates one.
+    ///
+    /// @throws IllegalArgumentException if the {@code pNext} chain contains an unregistered
+    ///         structure
+    /// @throws RuntimeException if creating the render pass fails
+    public @NotNull VkRenderPass renderPass(@NotNull VkRenderPassCreateInfo createInfo) {
+        return new VkRenderPass(lookup(KIND_RENDER_PASS, RENDER_PASS_SCHEMA, createInfo.segment()));
+    }
+
+    /// Number of lookups answered with an existing object.
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    /// Number of lookups that created a new object.
+    public long missCount() {
+        return misses.sum();
+    }
+
+    /// Number of objects in the cache.
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    /// Destroys all cached objects. The caller must make sure the GPU is done with them.
+    @Override
+    public void close() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (Entry head : stripe.table) {
+                    for (Entry e = head; e != null; e = e.next) {
+                        destroy(e.kind, MemorySegment.ofAddress(e.handle));
+                    }
+                }
+                stripe.table = new Entry[INITIAL_TABLE_SIZE];
+                stripe.size = 0;
+            }
+        }
+    }
+
+    private MemorySegment lookup(int kind, CreateInfoEncoder.Schema schema, MemorySegment createInfo) {
+        CreateInfoEncoder encoder = ENCODER.get();
+        encoder.begin(kind);
+        encoder.encode(schema, createInfo.address());
+        long hash = encoder.hash();
+
+        Stripe stripe = stripes[(int) (hash >>> (64 - STRIPE_BITS))];
+        synchronized (stripe) {
+            Entry[] table = stripe.table;
+            for (Entry e = table[(int) hash & (table.length - 1)]; e != null; e = e.next) {
+                if (e.hash == hash && encoder.matches(e.key)) {
+                    hits.increment();
+                    return MemorySegment.ofAddress(e.handle);
+                }
+            }
+
+            long handle = create(kind, createInfo);
+            if (stripe.size >= table.length - (table.length >> 2)) {
+                table = stripe.grow();
+            }
+            int bucket = (int) hash & (table.length - 1);
+            table[bucket] = new Entry(hash, encoder.toKey(), kind, handle, table[bucket]);
+            stripe.size++;
+            misses.increment();
+            return MemorySegment.ofAddress(handle);
+        }
+    }
+
+    private long create(int kind, MemorySegment createInfo) {
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment pHandle = arena.allocate(ValueLayout.ADDRESS);
+            int result = switch (kind) {
+                case KIND_SAMPLER -> deviceCommands.createSampler(
+                        device, new VkSamplerCreateInfo(createInfo), allocator, new VkSampler.Ptr(pHandle)
+                );
+                case KIND_DESCRIPTOR_SET_LAYOUT -> deviceCommands.createDescriptorSetLayout(
+                        device, new VkDescriptorSetLayoutCreateInfo(createInfo), allocator, new VkDescriptorSetLayout.Ptr(pHandle)
+                );
+                case KIND_PIPELINE_LAYOUT -> deviceCommands.createPipelineLayout(
+                        device, new VkPipelineLayoutCreateInfo(createInfo), allocator, new VkPipelineLayout.Ptr(pHandle)
+                );
+                case KIND_RENDER_PASS -> deviceCommands.createRenderPass(
+                        device, new VkRenderPassCreateInfo(createInfo), allocator, new VkRenderPass.Ptr(pHandle)
+                );
+                default -> throw new IllegalStateException("Unknown object kind " + kind);
+            };
+            if (result != VkResult.SUCCESS) {
+                throw new RuntimeException("Failed to create cached object: " + VkResult.explain(result));
+            }
+            return pHandle.get(ValueLayout.ADDRESS, 0).address();
+        }
+    }
+
+    private void destroy(int kind, MemorySegment handle) {
+        switch (kind) {
+            case KIND_SAMPLER -> deviceCommands.destroySampler(device, new VkSampler(handle), allocator);
+            case KIND_DESCRIPTOR_SET_LAYOUT -> deviceCommands.destroyDescriptorSetLayout(
+                    device, new VkDescriptorSetLayout(handle), allocator
+            );
+            case KIND_PIPELINE_LAYOUT -> deviceCommands.destroyPipelineLayout(device, new VkPipelineLayout(handle), allocator);
+            case KIND_RENDER_PASS -> deviceCommands.destroyRenderPass(device, new VkRenderPass(handle), allocator);
+            default -> throw new IllegalStateException("Unknown object kind " + kind);
+        }
+    }
+
+    private record Entry(long hash, byte[] key, int kind, long handle, @Nullable Entry next) {}
+
+    private static final class Stripe {
+        Entry[] grow() {
+            Entry[] newTable = new Entry[table.length * 2];
+            for (Entry head : table) {
+                for (Entry e = head; e != null; e = e.next) {
+                    int bucket = (int) e.hash & (newTable.length - 1);
+                    newTable[bucket] = new Entry(e.hash, e.key, e.kind, e.handle, newTable[bucket]);
+                }
+            }
+            table = newTable;
+            return newTable;
+        }
+
+        Entry[] table = new Entry[INITIAL_TABLE_SIZE];
+        int size;
+    }
+
+    private static final int KIND_SAMPLER = 0;
+    private static final int KIND_DESCRIPTOR_SET_LAYOUT = 1;
+    private static final int KIND_PIPELINE_LAYOUT = 2;
+    private static final int KIND_RENDER_PASS = 3;
+
+    private static final int STRIPE_BITS = 5;
+    private static final int STRIPE_COUNT = 1 << STRIPE_BITS;
+    private static final int INITIAL_TABLE_SIZE = 16;
+
+    private static final ThreadLocal<CreateInfoEncoder> ENCODER = ThreadLocal.withInitial(CreateInfoEncoder::new);
+
+    private static final CreateInfoEncoder.Schema SAMPLER_SCHEMA = CreateInfoEncoder.compile(VkSamplerCreateInfo.LAYOUT);
+    private static final CreateInfoEncoder.Schema DESCRIPTOR_SET_LAYOUT_SCHEMA =
+            CreateInfoEncoder.compile(VkDescriptorSetLayoutCreateInfo.LAYOUT);
+    private static final CreateInfoEncoder.Schema PIPELINE_LAYOUT_SCHEMA =
+            CreateInfoEncoder.compile(VkPipelineLayoutCreateInfo.LAYOUT);
+    private static final CreateInfoEncoder.Schema RENDER_PASS_SCHEMA = CreateInfoEncoder.compile(VkRenderPassCreateInfo.LAYOUT);
+
+    static {
+        registerExtension(VkStructureType.SAMPLER_REDUCTION_MODE_CREATE_INFO, VkSamplerReductionModeCreateInfo.LAYOUT);
+        registerExtension(VkStructureType.SAMPLER_YCBCR_CONVERSION_INFO, VkSamplerYcbcrConversionInfo.LAYOUT);
+        registerExtension(
+                VkStructureType.SAMPLER_CUSTOM_BORDER_COLOR_CREATE_INFO_EXT,
+                VkSamplerCustomBorderColorCreateInfoEXT.LAYOUT
+        );
+        registerExtension(
+                VkStructureType.SAMPLER_BORDER_COLOR_COMPONENT_MAPPING_CREATE_INFO_EXT,
+                VkSamplerBorderColorComponentMappingCreateInfoEXT.LAYOUT
+        );
+        registerExtension(
+                VkStructureType.DESCRIPTOR_SET_LAYOUT_BINDING_FLAGS_CREATE_INFO,
+                VkDescriptorSetLayoutBindingFlagsCreateInfo.LAYOUT
+        );
+        registerExtension(VkStructureType.MUTABLE_DESCRIPTOR_TYPE_CREATE_INFO_EXT, VkMutableDescriptorTypeCreateInfoEXT.LAYOUT);
+        registerExtension(VkStructureType.RENDER_PASS_MULTIVIEW_CREATE_INFO, VkRenderPassMultiviewCreateInfo.LAYOUT);
+        registerExtension(
+                VkStructureType.RENDER_PASS_INPUT_ATTACHMENT_ASPECT_CREATE_INFO,
+                VkRenderPassInputAttachmentAspectCreateInfo.LAYOUT
+        );
+        registerExtension(
+                VkStructureType.RENDER_PASS_FRAGMENT_DENSITY_MAP_CREATE_INFO_EXT,
+                VkRenderPassFragmentDensityMapCreateInfoEXT.LAYOUT
+        );
+    }
+
+    private final VkDeviceCommands deviceCommands;
+    private final VkDevice device;
+    private final @Nullable VkAllocationCallbacks allocator;
+    private final Stripe[] stripes = new Stripe[STRIPE_COUNT];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+}
@@ -0,0 +1,7 @@
+/// Hand-written helpers built on top of the generated Vulkan bindings.
+///
+/// Classes in this package do not introduce new native dependencies; everything is implemented
+/// in terms of {@link club.doki7.vulkan.command.VkDeviceCommands VkDeviceCommands} and friends.
+/// Unless otherwise noted, objects here do not own the {@link club.doki7.vulkan.handle.VkDevice}
+/// they are created with, and must be closed before the device is destroyed.
+package club.doki7.vulkan.util;
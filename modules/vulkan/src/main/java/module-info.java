@@ -22,6 +22,7 @@
 module club.doki7.vulkan {
     requires club.doki7.ffm;
     requires org.jetbrains.annotations;
+    requires jdk.jfr;
 
     exports club.doki7.vulkan;
     exports club.doki7.vulkan.bitmask;
@@ -29,4 +30,5 @@ module club.doki7.vulkan {
     exports club.doki7.vulkan.datatype;
     exports club.doki7.vulkan.enumtype;
     exports club.doki7.vulkan.handle;
+    exports club.doki7.vulkan.util;
 }
@@ -0,0 +1,119 @@
+package club.doki7.vulkan.test.util;
+
+import club.doki7.vulkan.util.AliasingPlanner;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestAliasingPlanner {
+    @Test
+    void testSequentialResourcesShareMemory() {
+        AliasingPlanner planner = new AliasingPlanner(Long.MAX_VALUE);
+        int a = planner.add(0, 1, 1024, 256, 0b11);
+        int b = planner.add(2, 3, 1024, 256, 0b01);
+        int c = planner.add(4, 5, 512, 256, 0b11);
+
+        AliasingPlanner.Plan plan = planner.plan();
+        assertEquals(1, plan.heapCount());
+        assertEquals(1024, plan.heapSize(0));
+        assertEquals(0b01, plan.heapMemoryTypeBits(0));
+        assertEquals(0, plan.offsetOf(a));
+        assertEquals(0, plan.offsetOf(b));
+        assertEquals(0, plan.offsetOf(c));
+        assertEquals(2560, plan.unaliasedSize());
+    }
+
+    @Test
+    void testOverlappingResourcesAreSeparated() {
+        AliasingPlanner planner = new AliasingPlanner(Long.MAX_VALUE);
+        int a = planner.add(0, 4, 1000, 1, 1);
+        int b = planner.add(2, 6, 100, 4096, 1);
+        int c = planner.add(5, 8, 900, 1, 1);
+
+        AliasingPlanner.Plan plan = planner.plan();
+        assertEquals(1, plan.heapCount());
+        assertEquals(0, plan.offsetOf(a));
+        assertEquals(4096, plan.offsetOf(b));
+        // c does not overlap a in time, reuses its space
+        assertEquals(0, plan.offsetOf(c));
+        assertEquals(4196, plan.heapSize(0));
+        assertEquals(4096, plan.heapAlignment(0));
+    }
+
+    @Test
+    void testIncompatibleMemoryTypesAndHeapLimit() {
+        AliasingPlanner planner = new AliasingPlanner(2048);
+        int a = planner.add(0, 0, 1024, 1, 0b01);
+        int b = planner.add(1, 1, 1024, 1, 0b10);
+        int c = planner.add(0, 0, 1024, 1, 0b01);
+        int d = planner.add(0, 0, 1024, 1, 0b01);
+
+        AliasingPlanner.Plan plan = planner.plan();
+        assertEquals(3, plan.heapCount());
+        assertNotEquals(plan.heapOf(a), plan.heapOf(b));
+        assertEquals(plan.heapOf(a), plan.heapOf(c));
+        assertNotEquals(plan.heapOf(a), plan.heapOf(d));
+        for (int h = 0; h < plan.heapCount(); h++) {
+            assertTrue(plan.heapSize(h) <= 2048);
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> planner.add(0, 0, 4096, 1, 1));
+        assertThrows(IllegalArgumentException.class, () -> planner.add(1, 0, 16, 1, 1));
+        assertThrows(IllegalArgumentException.class, () -> planner.add(0, 0, 16, 3, 1));
+    }
+
+    @Test
+    void testRandomGraph() {
+        Random random = new Random(7);
+        AliasingPlanner planner = new AliasingPlanner(Long.MAX_VALUE);
+        int count = 3000;
+        for (int i = 0; i < count; i++) {
+            int first = random.nextInt(500);
+            int last = first + random.nextInt(random.nextInt(10) == 0 ? 200 : 10);
+            long size = (1L + random.nextInt(1 << 12)) << random.nextInt(10);
+            long alignment = 1L << random.nextInt(17);
+            int typeBits = random.nextInt(8) == 0 ? 0b10 : 0b11;
+            planner.add(first, last, size, alignment, typeBits);
+        }
+
+        AliasingPlanner.Plan plan = planner.plan();
+        assertTrue(plan.totalSize() < plan.unaliasedSize());
+
+        // replay the inputs to validate the plan
+        random = new Random(7);
+        int[] firsts = new int[count];
+        int[] lasts = new int[count];
+        long[] sizes = new long[count];
+        long[] alignments = new long[count];
+        int[] typeBits = new int[count];
+        for (int i = 0; i < count; i++) {
+            firsts[i] = random.nextInt(500);
+            lasts[i] = firsts[i] + random.nextInt(random.nextInt(10) == 0 ? 200 : 10);
+            sizes[i] = (1L + random.nextInt(1 << 12)) << random.nextInt(10);
+            alignments[i] = 1L << random.nextInt(17);
+            typeBits[i] = random.nextInt(8) == 0 ? 0b10 : 0b11;
+        }
+
+        for (int i = 0; i < count; i++) {
+            int heap = plan.heapOf(i);
+            long offset = plan.offsetOf(i);
+            assertEquals(0, offset % alignments[i]);
+            assertTrue(offset + sizes[i] <= plan.heapSize(heap));
+            assertNotEquals(0, plan.heapMemoryTypeBits(heap) & typeBits[i]);
+            for (int j = i + 1; j < count; j++) {
+                if (plan.heapOf(j) != heap || firsts[j] > lasts[i] || firsts[i] > lasts[j]) {
+                    continue;
+                }
+                long otherOffset = plan.offsetOf(j);
+                boolean overlap = offset < otherOffset + sizes[j] && otherOffset < offset + sizes[i];
+                assertFalse(overlap, "resources " + i + " and " + j + " overlap");
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package club.doki7.vulkan.test.util;
+
+import club.doki7.vulkan.util.ChromeTraceWriter;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class TestChromeTraceWriter {
+    @Test
+    void testEmptyTrace() {
+        StringWriter out = new StringWriter();
+        new ChromeTraceWriter(out).close();
+        assertEquals("{\"traceEvents\":[\n\n]}\n", out.toString());
+    }
+
+    @Test
+    void testEvents() {
+        StringWriter out = new StringWriter();
+        try (ChromeTraceWriter writer = new ChromeTraceWriter(out)) {
+            writer.processName(ChromeTraceWriter.PID_GPU, "GPU");
+            writer.threadName(ChromeTraceWriter.PID_GPU, 0, "queue \"main\"");
+            // the first complete event is the origin of the timestamps
+            writer.completeEvent("frame", "cpu", ChromeTraceWriter.PID_CPU, 7, 1_000_000_000L, 16_667_001L);
+            writer.completeEvent("shadow\\pass\n", "gpu,render", ChromeTraceWriter.PID_GPU, 0, 1_000_002_050L, 999L);
+            // GPU work may start before the origin, and negative durations are clamped
+            writer.completeEvent("upload\u0001", "gpu", ChromeTraceWriter.PID_GPU, 0, 999_999_000L, -5L);
+        }
+
+        String expected = "{\"traceEvents\":[\n"
+                + "{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":2,\"tid\":0,\"args\":{\"name\":\"GPU\"}},\n"
+                + "{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":2,\"tid\":0,\"args\":{\"name\":\"queue \\\"main\\\"\"}},\n"
+                + "{\"name\":\"frame\",\"ph\":\"X\",\"pid\":1,\"tid\":7,\"cat\":\"cpu\",\"ts\":0.000,\"dur\":16667.001},\n"
+                + "{\"name\":\"shadow\\\\pass\\n\",\"ph\":\"X\",\"pid\":2,\"tid\":0,\"cat\":\"gpu,render\","
+                + "\"ts\":2.050,\"dur\":0.999},\n"
+                + "{\"name\":\"upload\\u0001\",\"ph\":\"X\",\"pid\":2,\"tid\":0,\"cat\":\"gpu\",\"ts\":-1.000,\"dur\":0.000}"
+                + "\n]}\n";
+        assertEquals(expected, out.toString());
+    }
+}
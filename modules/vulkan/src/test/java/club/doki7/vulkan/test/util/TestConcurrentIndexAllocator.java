@@ -0,0 +1,111 @@
+package club.doki7.vulkan.test.util;
+
+import club.doki7.vulkan.util.ConcurrentIndexAllocator;
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestConcurrentIndexAllocator {
+    @Test
+    void testSingleThreaded() {
+        assertThrows(IllegalArgumentException.class, () -> new ConcurrentIndexAllocator(0));
+
+        ConcurrentIndexAllocator allocator = new ConcurrentIndexAllocator(4);
+        assertEquals(4, allocator.capacity());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, allocator.allocate());
+        }
+        assertEquals(ConcurrentIndexAllocator.EXHAUSTED, allocator.allocate());
+        assertEquals(4, allocator.inUseCount());
+
+        // freed indices are reused, most recently freed first
+        allocator.free(1);
+        allocator.free(3);
+        assertEquals(2, allocator.inUseCount());
+        assertEquals(3, allocator.allocate());
+        assertEquals(1, allocator.allocate());
+        assertEquals(ConcurrentIndexAllocator.EXHAUSTED, allocator.allocate());
+
+        assertThrows(IndexOutOfBoundsException.class, () -> allocator.free(-1));
+        assertThrows(IndexOutOfBoundsException.class, () -> allocator.free(4));
+        assertEquals(4, allocator.inUseCount());
+    }
+
+    @Test
+    void testConcurrentAllocateFree() throws Exception {
+        int capacity = 64;
+        int threadCount = 8;
+        int iterations = 200_000;
+        ConcurrentIndexAllocator allocator = new ConcurrentIndexAllocator(capacity);
+        // 1 while an index is held by some thread; two holders of one index would trip the CAS
+        AtomicIntegerArray owned = new AtomicIntegerArray(capacity);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch start = new CountDownLatch(1);
+
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            threads[t] = Thread.ofPlatform().start(() -> {
+                try {
+                    start.await();
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    // each thread holds up to 16 indices, so 8 threads can exhaust the 64
+                    int[] held = new int[16];
+                    int heldCount = 0;
+                    for (int i = 0; i < iterations; i++) {
+                        if (heldCount < held.length && (heldCount == 0 || random.nextBoolean())) {
+                            int index = allocator.allocate();
+                            if (index == ConcurrentIndexAllocator.EXHAUSTED) {
+                                continue;
+                            }
+                            if (index < 0 || index >= capacity || !owned.compareAndSet(index, 0, 1)) {
+                                throw new AssertionError("Index " + index + " handed out twice");
+                            }
+                            held[heldCount++] = index;
+                        } else {
+                            int slot = random.nextInt(heldCount);
+                            int index = held[slot];
+                            held[slot] = held[--heldCount];
+                            owned.set(index, 0);
+                            allocator.free(index);
+                        }
+                    }
+                    while (heldCount > 0) {
+                        int index = held[--heldCount];
+                        owned.set(index, 0);
+                        allocator.free(index);
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(failure.get());
+        assertEquals(0, allocator.inUseCount());
+
+        // no index was lost or duplicated in the free list
+        BitSet seen = new BitSet(capacity);
+        for (int i = 0; i < capacity; i++) {
+            int index = allocator.allocate();
+            assertTrue(index >= 0 && index < capacity);
+            assertFalse(seen.get(index), "Index " + index + " allocated twice");
+            seen.set(index);
+        }
+        assertEquals(ConcurrentIndexAllocator.EXHAUSTED, allocator.allocate());
+        assertEquals(capacity, allocator.inUseCount());
+    }
+}
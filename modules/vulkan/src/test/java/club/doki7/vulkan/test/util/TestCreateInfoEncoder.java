@@ -0,0 +1,204 @@
+package club.doki7.vulkan.test.util;
+
+import club.doki7.ffm.ptr.IntPtr;
+import club.doki7.vulkan.bitmask.VkDescriptorBindingFlags;
+import club.doki7.vulkan.bitmask.VkShaderStageFlags;
+import club.doki7.vulkan.command.VkDeviceCommands;
+import club.doki7.vulkan.datatype.VkDescriptorSetLayoutBinding;
+import club.doki7.vulkan.datatype.VkDescriptorSetLayoutBindingFlagsCreateInfo;
+import club.doki7.vulkan.datatype.VkDescriptorSetLayoutCreateInfo;
+import club.doki7.vulkan.datatype.VkMemoryAllocateFlagsInfo;
+import club.doki7.vulkan.datatype.VkSamplerCreateInfo;
+import club.doki7.vulkan.enumtype.VkDescriptorType;
+import club.doki7.vulkan.enumtype.VkFilter;
+import club.doki7.vulkan.enumtype.VkResult;
+import club.doki7.vulkan.handle.VkDescriptorSetLayout;
+import club.doki7.vulkan.handle.VkDevice;
+import club.doki7.vulkan.handle.VkSampler;
+import club.doki7.vulkan.util.VkObjectCache;
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TestCreateInfoEncoder {
+    @Test
+    void testEqualCreateInfosShareObjects() throws Exception {
+        try (Arena arena = Arena.ofConfined()) {
+            VkObjectCache cache = new VkObjectCache(stubDeviceCommands(arena), DEVICE, null);
+            long createdBefore = created.get();
+            long destroyedBefore = destroyed.get();
+
+            // built independently, in separate allocations
+            VkSampler linear = cache.sampler(sampler(arena, VkFilter.LINEAR, 0.0f));
+            VkSampler sameLinear = cache.sampler(sampler(arena, VkFilter.LINEAR, 0.0f));
+            VkSampler nearest = cache.sampler(sampler(arena, VkFilter.NEAREST, 0.0f));
+            VkSampler biased = cache.sampler(sampler(arena, VkFilter.LINEAR, 0.5f));
+            assertEquals(linear.segment().address(), sameLinear.segment().address());
+            assertNotEquals(linear.segment().address(), nearest.segment().address());
+            assertNotEquals(linear.segment().address(), biased.segment().address());
+
+            VkDescriptorSetLayout layout = cache.descriptorSetLayout(setLayout(arena, 1, 4, null));
+            assertEquals(layout, cache.descriptorSetLayout(setLayout(arena, 1, 4, null)));
+            // the pointed-to bindings are compared, not the pBindings pointer
+            assertNotEquals(layout, cache.descriptorSetLayout(setLayout(arena, 1, 5, null)));
+            assertNotEquals(layout, cache.descriptorSetLayout(setLayout(arena, 2, 4, null)));
+
+            assertEquals(2, cache.hitCount());
+            assertEquals(6, cache.missCount());
+            assertEquals(6, cache.size());
+            assertEquals(6, created.get() - createdBefore);
+
+            cache.close();
+            assertEquals(6, destroyed.get() - destroyedBefore);
+        }
+    }
+
+    @Test
+    void testImmutableSamplersFollowDescriptorType() throws Exception {
+        try (Arena arena = Arena.ofConfined()) {
+            VkObjectCache cache = new VkObjectCache(stubDeviceCommands(arena), DEVICE, null);
+
+            // pImmutableSamplers is only meaningful for sampler descriptors, so garbage is ignored
+            VkDescriptorSetLayoutCreateInfo clean = setLayout(arena, 1, 4, null);
+            VkDescriptorSetLayoutCreateInfo garbage = setLayout(arena, 1, 4, null);
+            garbage.pBindings().pImmutableSamplersRaw(MemorySegment.ofAddress(0xDEAD0));
+            VkDescriptorSetLayout layout = cache.descriptorSetLayout(clean);
+            assertEquals(layout, cache.descriptorSetLayout(garbage));
+
+            // for sampler descriptors, the sampler handles are compared
+            VkDescriptorSetLayout withSamplers = cache.descriptorSetLayout(samplerLayout(arena, 0x100, 0x200));
+            assertEquals(withSamplers, cache.descriptorSetLayout(samplerLayout(arena, 0x100, 0x200)));
+            assertNotEquals(withSamplers, cache.descriptorSetLayout(samplerLayout(arena, 0x100, 0x300)));
+
+            assertEquals(2, cache.hitCount());
+            assertEquals(3, cache.missCount());
+            cache.close();
+        }
+    }
+
+    @Test
+    void testPNextChain() throws Exception {
+        try (Arena arena = Arena.ofConfined()) {
+            VkObjectCache cache = new VkObjectCache(stubDeviceCommands(arena), DEVICE, null);
+
+            VkDescriptorSetLayout plain = cache.descriptorSetLayout(setLayout(arena, 1, 4, null));
+            VkDescriptorSetLayout partiallyBound = cache.descriptorSetLayout(
+                    setLayout(arena, 1, 4, bindingFlags(arena, VkDescriptorBindingFlags.PARTIALLY_BOUND))
+            );
+            assertNotEquals(plain, partiallyBound);
+            assertEquals(partiallyBound, cache.descriptorSetLayout(
+                    setLayout(arena, 1, 4, bindingFlags(arena, VkDescriptorBindingFlags.PARTIALLY_BOUND))
+            ));
+            assertNotEquals(partiallyBound, cache.descriptorSetLayout(
+                    setLayout(arena, 1, 4, bindingFlags(arena, VkDescriptorBindingFlags.UPDATE_AFTER_BIND))
+            ));
+
+            VkDescriptorSetLayoutCreateInfo unregistered = setLayout(arena, 1, 4, null);
+            unregistered.pNext(VkMemoryAllocateFlagsInfo.allocate(arena));
+            assertThrows(IllegalArgumentException.class, () -> cache.descriptorSetLayout(unregistered));
+
+            assertEquals(1, cache.hitCount());
+            assertEquals(3, cache.size());
+            cache.close();
+        }
+    }
+
+    private static VkSamplerCreateInfo sampler(Arena arena, int filter, float mipLodBias) {
+        return VkSamplerCreateInfo.allocate(arena)
+                .magFilter(filter)
+                .minFilter(filter)
+                .mipLodBias(mipLodBias)
+                .maxLod(1000.0f);
+    }
+
+    private static VkDescriptorSetLayoutCreateInfo setLayout(
+            Arena arena,
+            int binding,
+            int descriptorCount,
+            VkDescriptorSetLayoutBindingFlagsCreateInfo next
+    ) {
+        VkDescriptorSetLayoutBinding bindingInfo = VkDescriptorSetLayoutBinding.allocate(arena)
+                .binding(binding)
+                .descriptorType(VkDescriptorType.UNIFORM_BUFFER)
+                .descriptorCount(descriptorCount)
+                .stageFlags(VkShaderStageFlags.VERTEX);
+        return VkDescriptorSetLayoutCreateInfo.allocate(arena)
+                .pNext(next)
+                .bindingCount(1)
+                .pBindings(bindingInfo);
+    }
+
+    private static VkDescriptorSetLayoutCreateInfo samplerLayout(Arena arena, long sampler0, long sampler1) {
+        VkSampler.Ptr samplers = VkSampler.Ptr.allocate(arena, 2);
+        samplers.writeRaw(0, MemorySegment.ofAddress(sampler0));
+        samplers.writeRaw(1, MemorySegment.ofAddress(sampler1));
+        VkDescriptorSetLayoutBinding bindingInfo = VkDescriptorSetLayoutBinding.allocate(arena)
+                .descriptorType(VkDescriptorType.COMBINED_IMAGE_SAMPLER)
+                .descriptorCount(2)
+                .stageFlags(VkShaderStageFlags.FRAGMENT)
+                .pImmutableSamplers(samplers);
+        return VkDescriptorSetLayoutCreateInfo.allocate(arena)
+                .bindingCount(1)
+                .pBindings(bindingInfo);
+    }
+
+    private static VkDescriptorSetLayoutBindingFlagsCreateInfo bindingFlags(Arena arena, int flags) {
+        return VkDescriptorSetLayoutBindingFlagsCreateInfo.allocate(arena)
+                .bindingCount(1)
+                .pBindingFlags(IntPtr.allocateV(arena, flags));
+    }
+
+    private static VkDeviceCommands stubDeviceCommands(Arena arena) throws ReflectiveOperationException {
+        Map<String, MemorySegment> stubs = new HashMap<>();
+        stubs.put("vkCreateSampler", stub(arena, "create", VkDeviceCommands.Descriptors.DESCRIPTOR$vkCreateSampler));
+        stubs.put("vkDestroySampler", stub(arena, "destroy", VkDeviceCommands.Descriptors.DESCRIPTOR$vkDestroySampler));
+        stubs.put("vkCreateDescriptorSetLayout", stub(
+                arena, "create", VkDeviceCommands.Descriptors.DESCRIPTOR$vkCreateDescriptorSetLayout
+        ));
+        stubs.put("vkDestroyDescriptorSetLayout", stub(
+                arena, "destroy", VkDeviceCommands.Descriptors.DESCRIPTOR$vkDestroyDescriptorSetLayout
+        ));
+        return new VkDeviceCommands(name -> stubs.getOrDefault(name, MemorySegment.NULL));
+    }
+
+    private static MemorySegment stub(Arena arena, String name, FunctionDescriptor descriptor)
+            throws ReflectiveOperationException {
+        MethodType type = descriptor.toMethodType();
+        return Linker.nativeLinker().upcallStub(
+                MethodHandles.lookup().findStatic(TestCreateInfoEncoder.class, name, type),
+                descriptor,
+                arena
+        );
+    }
+
+    private static int create(
+            MemorySegment device,
+            MemorySegment pCreateInfo,
+            MemorySegment pAllocator,
+            MemorySegment pHandle
+    ) {
+        pHandle.reinterpret(Long.BYTES).set(ValueLayout.JAVA_LONG, 0, 0x1000 + created.incrementAndGet() * 0x10);
+        return VkResult.SUCCESS;
+    }
+
+    private static void destroy(MemorySegment device, MemorySegment handle, MemorySegment pAllocator) {
+        destroyed.incrementAndGet();
+    }
+
+    private static final VkDevice DEVICE = new VkDevice(MemorySegment.ofAddress(0x2000));
+    private static final AtomicLong created = new AtomicLong();
+    private static final AtomicLong destroyed = new AtomicLong();
+}
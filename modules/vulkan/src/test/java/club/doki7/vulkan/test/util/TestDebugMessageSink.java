@@ -0,0 +1,108 @@
+package club.doki7.vulkan.test.util;
+
+import club.doki7.ffm.ptr.BytePtr;
+import club.doki7.vulkan.VkConstants;
+import club.doki7.vulkan.VkFunctionTypes;
+import club.doki7.vulkan.bitmask.VkDebugUtilsMessageSeverityFlagsEXT;
+import club.doki7.vulkan.bitmask.VkDebugUtilsMessageTypeFlagsEXT;
+import club.doki7.vulkan.datatype.VkDebugUtilsMessengerCallbackDataEXT;
+import club.doki7.vulkan.util.DebugMessageSink;
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestDebugMessageSink {
+    @Test
+    void testRateLimitAndTruncation() throws Throwable {
+        List<String> received = Collections.synchronizedList(new ArrayList<>());
+        DebugMessageSink sink = new DebugMessageSink(
+                64,
+                2,
+                Long.MAX_VALUE,
+                (severity, type, messageId, message, suppressed) ->
+                        received.add(messageId + ":" + suppressed + ":" + message)
+        );
+
+        try (Arena arena = Arena.ofConfined()) {
+            MethodHandle callback = Linker.nativeLinker().downcallHandle(
+                    sink.callback(),
+                    VkFunctionTypes.PFN_vkDebugUtilsMessengerCallbackEXT
+            );
+            for (int i = 0; i < 5; i++) {
+                assertEquals(VkConstants.FALSE, invoke(callback, arena, 7, "repeated " + i));
+            }
+            invoke(callback, arena, 8, "x".repeat(5000));
+        }
+        sink.close();
+
+        assertEquals(3, received.size());
+        assertEquals("7:0:repeated 0", received.get(0));
+        assertEquals("7:0:repeated 1", received.get(1));
+        assertTrue(received.get(2).startsWith("8:0:xxx"));
+        assertTrue(received.get(2).endsWith("..."));
+        assertTrue(received.get(2).length() < 5000);
+        assertEquals(3, sink.suppressedCount());
+        assertEquals(0, sink.droppedCount());
+    }
+
+    @Test
+    void testZeroIdRateLimitedByName() throws Throwable {
+        List<String> received = Collections.synchronizedList(new ArrayList<>());
+        DebugMessageSink sink = new DebugMessageSink(
+                64,
+                2,
+                Long.MAX_VALUE,
+                (severity, type, messageId, message, suppressed) -> received.add(message)
+        );
+
+        try (Arena arena = Arena.ofConfined()) {
+            MethodHandle callback = Linker.nativeLinker().downcallHandle(
+                    sink.callback(),
+                    VkFunctionTypes.PFN_vkDebugUtilsMessengerCallbackEXT
+            );
+            // without an ID number, messages with different names are limited separately
+            for (int i = 0; i < 3; i++) {
+                invokeNamed(callback, arena, "VUID-first", "first " + i);
+            }
+            invokeNamed(callback, arena, "VUID-second", "second");
+        }
+        sink.close();
+
+        assertEquals(List.of("first 0", "first 1", "second"), received);
+        assertEquals(1, sink.suppressedCount());
+    }
+
+    private static int invoke(MethodHandle callback, Arena arena, int messageId, String message) throws Throwable {
+        VkDebugUtilsMessengerCallbackDataEXT data = VkDebugUtilsMessengerCallbackDataEXT.allocate(arena)
+                .messageIdNumber(messageId)
+                .pMessage(BytePtr.allocateString(arena, message));
+        return (int) callback.invokeExact(
+                VkDebugUtilsMessageSeverityFlagsEXT.WARNING,
+                VkDebugUtilsMessageTypeFlagsEXT.VALIDATION,
+                data.segment(),
+                MemorySegment.NULL
+        );
+    }
+
+    private static void invokeNamed(MethodHandle callback, Arena arena, String name, String message) throws Throwable {
+        VkDebugUtilsMessengerCallbackDataEXT data = VkDebugUtilsMessengerCallbackDataEXT.allocate(arena)
+                .pMessageIdName(BytePtr.allocateString(arena, name))
+                .pMessage(BytePtr.allocateString(arena, message));
+        int result = (int) callback.invokeExact(
+                VkDebugUtilsMessageSeverityFlagsEXT.WARNING,
+                VkDebugUtilsMessageTypeFlagsEXT.VALIDATION,
+                data.segment(),
+                MemorySegment.NULL
+        );
+        assertEquals(VkConstants.FALSE, result);
+    }
+}
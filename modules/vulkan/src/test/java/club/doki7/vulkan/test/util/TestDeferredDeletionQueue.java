@@ -0,0 +1,135 @@
+package club.doki7.vulkan.test.util;
+
+import club.doki7.ffm.IPointer;
+import club.doki7.vulkan.command.VkDeviceCommands;
+import club.doki7.vulkan.handle.VkDevice;
+import club.doki7.vulkan.util.DeferredDeletionQueue;
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.MemorySegment;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TestDeferredDeletionQueue {
+    @Test
+    void testRetireOrder() {
+        List<Long> destroyed = new ArrayList<>();
+        List<Long> aux = new ArrayList<>();
+        DeferredDeletionQueue queue = newQueue();
+        int kind = queue.registerKind((handle, auxHandle) -> {
+            destroyed.add(handle.address());
+            aux.add(auxHandle.address());
+        });
+        assertEquals(DeferredDeletionQueue.FIRST_CUSTOM_KIND, kind);
+        assertThrows(IllegalArgumentException.class, () -> queue.enqueue(kind + 1, handle(1), null, 0));
+        assertThrows(IllegalArgumentException.class, () -> queue.enqueue(20, handle(1), null, 0));
+
+        queue.enqueue(kind, handle(1), handle(0x100), 1);
+        queue.enqueue(kind, handle(2), null, 2);
+        queue.enqueue(kind, handle(3), null, 2);
+        queue.enqueue(kind, handle(4), null, 5);
+        // enqueued with a smaller value than its predecessor, so it waits for it
+        queue.enqueue(kind, handle(5), null, 3);
+        assertEquals(5, queue.pendingCount());
+
+        assertEquals(0, queue.collect(0));
+        assertEquals(3, queue.collect(2));
+        assertEquals(List.of(1L, 2L, 3L), destroyed);
+        assertEquals(List.of(0x100L, 0L, 0L), aux);
+
+        assertEquals(0, queue.collect(3));
+        assertEquals(2, queue.collect(5));
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L), destroyed);
+        assertEquals(0, queue.pendingCount());
+
+        // collectAll ignores retire values
+        queue.enqueue(kind, handle(6), null, 100);
+        queue.close();
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L, 6L), destroyed);
+    }
+
+    @Test
+    void testUnsignedRetireValues() {
+        List<Long> destroyed = new ArrayList<>();
+        DeferredDeletionQueue queue = newQueue();
+        int kind = queue.registerKind((handle, _) -> destroyed.add(handle.address()));
+
+        // 2^63 and 2^64 - 1, both negative as signed values
+        queue.enqueue(kind, handle(1), null, Long.MIN_VALUE);
+        queue.enqueue(kind, handle(2), null, -1L);
+
+        assertEquals(0, queue.collect(Long.MAX_VALUE));
+        assertEquals(1, queue.collect(Long.MIN_VALUE));
+        assertEquals(0, queue.collect(-2L));
+        assertEquals(1, queue.collect(-1L));
+        assertEquals(List.of(1L, 2L), destroyed);
+    }
+
+    @Test
+    void testRingGrowth() {
+        List<Long> destroyed = new ArrayList<>();
+        DeferredDeletionQueue queue = newQueue();
+        int kind = queue.registerKind((handle, _) -> destroyed.add(handle.address()));
+
+        // move the head off zero so that growing has to unwrap the ring
+        for (int i = 0; i < 200; i++) {
+            queue.enqueue(kind, handle(i), null, i);
+        }
+        assertEquals(100, queue.collect(99));
+        for (int i = 200; i < 1200; i++) {
+            queue.enqueue(kind, handle(i), null, i);
+        }
+        assertEquals(1100, queue.pendingCount());
+
+        assertEquals(500, queue.collect(599));
+        assertEquals(600, queue.collectAll());
+        assertEquals(1200, destroyed.size());
+        for (int i = 0; i < 1200; i++) {
+            assertEquals(i, (long) destroyed.get(i));
+        }
+    }
+
+    @Test
+    void testDestroyerThrows() {
+        List<Long> destroyed = new ArrayList<>();
+        DeferredDeletionQueue queue = newQueue();
+        int kind = queue.registerKind((handle, _) -> {
+            destroyed.add(handle.address());
+            if (handle.address() % 2 == 0) {
+                throw new IllegalStateException("Failed to destroy " + handle.address());
+            }
+        });
+
+        for (int i = 1; i <= 5; i++) {
+            queue.enqueue(kind, handle(i), null, 1);
+        }
+        queue.enqueue(kind, handle(7), null, 2);
+
+        // the rest of the batch is still destroyed, and the first failure is reported
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> queue.collect(1));
+        assertEquals("Failed to destroy 2", e.getMessage());
+        assertEquals(1, e.getSuppressed().length);
+        assertEquals("Failed to destroy 4", e.getSuppressed()[0].getMessage());
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L), destroyed);
+        assertEquals(1, queue.pendingCount());
+
+        assertEquals(1, queue.collect(2));
+        assertEquals(0, queue.pendingCount());
+    }
+
+    private static DeferredDeletionQueue newQueue() {
+        // only custom kinds are used, so no device command is ever called
+        VkDeviceCommands deviceCommands = new VkDeviceCommands(_ -> MemorySegment.NULL);
+        return new DeferredDeletionQueue(deviceCommands, DEVICE, null);
+    }
+
+    private static IPointer handle(long address) {
+        MemorySegment segment = MemorySegment.ofAddress(address);
+        return () -> segment;
+    }
+
+    private static final VkDevice DEVICE = new VkDevice(MemorySegment.ofAddress(0x100));
+}
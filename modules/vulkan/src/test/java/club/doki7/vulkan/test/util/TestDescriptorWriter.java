@@ -0,0 +1,205 @@
+package club.doki7.vulkan.test.util;
+
+import club.doki7.vulkan.command.VkDeviceCommands;
+import club.doki7.vulkan.datatype.VkDescriptorBufferInfo;
+import club.doki7.vulkan.datatype.VkDescriptorImageInfo;
+import club.doki7.vulkan.datatype.VkWriteDescriptorSet;
+import club.doki7.vulkan.enumtype.VkDescriptorType;
+import club.doki7.vulkan.enumtype.VkImageLayout;
+import club.doki7.vulkan.handle.VkBuffer;
+import club.doki7.vulkan.handle.VkDescriptorSet;
+import club.doki7.vulkan.handle.VkDevice;
+import club.doki7.vulkan.handle.VkImageView;
+import club.doki7.vulkan.handle.VkSampler;
+import club.doki7.vulkan.util.DescriptorWriter;
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class TestDescriptorWriter {
+    @Test
+    void testMergeAdjacentWrites() throws Exception {
+        updates.clear();
+        try (Arena arena = Arena.ofConfined();
+             DescriptorWriter writer = new DescriptorWriter(stubDeviceCommands(arena), DEVICE)) {
+            int uniform = VkDescriptorType.UNIFORM_BUFFER;
+            int storage = VkDescriptorType.STORAGE_BUFFER;
+            int sampled = VkDescriptorType.COMBINED_IMAGE_SAMPLER;
+            int layout = VkImageLayout.SHADER_READ_ONLY_OPTIMAL;
+
+            // consecutive array elements of one binding are merged
+            writer.writeBuffer(SET_A, 0, 0, uniform, buffer(1), 0, 64)
+                    .writeBuffer(SET_A, 0, 1, uniform, buffer(2), 64, 64)
+                    .writeBuffer(SET_A, 0, 2, uniform, buffer(3), 128, 64);
+            assertEquals(1, writer.pendingWriteCount());
+
+            // a gap in the array elements, another binding, type or set starts a new write
+            writer.writeBuffer(SET_A, 0, 4, uniform, buffer(4), 0, 16)
+                    .writeBuffer(SET_A, 1, 5, uniform, buffer(5), 0, 16)
+                    .writeBuffer(SET_A, 1, 6, storage, buffer(6), 0, 16)
+                    .writeBuffer(SET_B, 1, 7, storage, buffer(7), 0, 16);
+            assertEquals(5, writer.pendingWriteCount());
+
+            // image writes are merged too, but never with buffer writes
+            writer.writeImage(SET_B, 1, 8, sampled, view(1), sampler(1), layout)
+                    .writeImage(SET_B, 2, 0, sampled, view(2), sampler(1), layout)
+                    .writeImage(SET_B, 2, 1, sampled, view(3), sampler(2), layout);
+            assertEquals(7, writer.pendingWriteCount());
+
+            // an interleaved image write breaks the run of buffer infos
+            writer.writeBuffer(SET_B, 3, 0, uniform, buffer(8), 0, 32)
+                    .writeImage(SET_B, 4, 0, sampled, view(4), sampler(3), layout)
+                    .writeBuffer(SET_B, 3, 1, uniform, buffer(9), 0, 32);
+            assertEquals(10, writer.pendingWriteCount());
+
+            writer.flush();
+            assertEquals(0, writer.pendingWriteCount());
+        }
+
+        assertEquals(List.of(List.of(
+                "A 0[0] " + uniform() + " buffer(1,0,64) buffer(2,64,64) buffer(3,128,64)",
+                "A 0[4] " + uniform() + " buffer(4,0,16)",
+                "A 1[5] " + uniform() + " buffer(5,0,16)",
+                "A 1[6] " + storage() + " buffer(6,0,16)",
+                "B 1[7] " + storage() + " buffer(7,0,16)",
+                "B 1[8] " + sampled() + " image(1,1)",
+                "B 2[0] " + sampled() + " image(2,1) image(3,2)",
+                "B 3[0] " + uniform() + " buffer(8,0,32)",
+                "B 4[0] " + sampled() + " image(4,3)",
+                "B 3[1] " + uniform() + " buffer(9,0,32)"
+        )), updates);
+    }
+
+    @Test
+    void testGrowAndReuse() throws Exception {
+        updates.clear();
+        try (Arena arena = Arena.ofConfined();
+             DescriptorWriter writer = new DescriptorWriter(stubDeviceCommands(arena), DEVICE)) {
+            // more infos than the initial capacity, merged into one write across the growth
+            for (int i = 0; i < 100; i++) {
+                writer.writeBuffer(SET_A, 0, i, VkDescriptorType.STORAGE_BUFFER, buffer(i + 1), i, 4);
+            }
+            // more writes than the initial capacity, none merged
+            for (int i = 0; i < 50; i++) {
+                writer.writeBuffer(SET_A, i + 1, 0, VkDescriptorType.UNIFORM_BUFFER, buffer(i + 1), 0, 8);
+            }
+            assertEquals(51, writer.pendingWriteCount());
+            writer.flush();
+
+            // the arrays are reused after a flush
+            writer.writeBuffer(SET_B, 0, 0, VkDescriptorType.UNIFORM_BUFFER, buffer(1), 0, 8);
+            writer.flush();
+            // flushing nothing does not call the driver
+            writer.flush();
+        }
+
+        assertEquals(2, updates.size());
+        List<String> first = updates.getFirst();
+        assertEquals(51, first.size());
+        StringBuilder merged = new StringBuilder("A 0[0] " + storage());
+        for (int i = 0; i < 100; i++) {
+            merged.append(" buffer(").append(i + 1).append(',').append(i).append(",4)");
+        }
+        assertEquals(merged.toString(), first.getFirst());
+        for (int i = 0; i < 50; i++) {
+            assertEquals("A " + (i + 1) + "[0] " + uniform() + " buffer(" + (i + 1) + ",0,8)", first.get(i + 1));
+        }
+        assertEquals(List.of("B 0[0] " + uniform() + " buffer(1,0,8)"), updates.get(1));
+    }
+
+    private static VkDeviceCommands stubDeviceCommands(Arena arena) throws ReflectiveOperationException {
+        FunctionDescriptor descriptor = VkDeviceCommands.Descriptors.DESCRIPTOR$vkUpdateDescriptorSets;
+        MemorySegment stub = Linker.nativeLinker().upcallStub(
+                MethodHandles.lookup().findStatic(TestDescriptorWriter.class, "updateDescriptorSets", descriptor.toMethodType()),
+                descriptor,
+                arena
+        );
+        return new VkDeviceCommands(name -> name.equals("vkUpdateDescriptorSets") ? stub : MemorySegment.NULL);
+    }
+
+    private static void updateDescriptorSets(
+            MemorySegment device,
+            int writeCount,
+            MemorySegment pWrites,
+            int copyCount,
+            MemorySegment pCopies
+    ) {
+        assertEquals(0, copyCount);
+        VkWriteDescriptorSet.Ptr writes = new VkWriteDescriptorSet.Ptr(
+                pWrites.reinterpret((long) writeCount * VkWriteDescriptorSet.BYTES)
+        );
+        List<String> update = new ArrayList<>();
+        for (VkWriteDescriptorSet write : writes) {
+            int count = write.descriptorCount();
+            long dstSet = handle(write.segment(), VkWriteDescriptorSet.OFFSET$dstSet);
+            StringBuilder builder = new StringBuilder();
+            builder.append(dstSet == SET_A.segment().address() ? "A" : "B")
+                    .append(' ').append(write.dstBinding())
+                    .append('[').append(write.dstArrayElement()).append("] ")
+                    .append(write.descriptorType());
+            if (write.pBufferInfoRaw().address() != 0) {
+                assertEquals(0, write.pImageInfoRaw().address());
+                for (VkDescriptorBufferInfo info : write.pBufferInfo(count)) {
+                    builder.append(" buffer(")
+                            .append(handle(info.segment(), VkDescriptorBufferInfo.OFFSET$buffer) - 0x1000)
+                            .append(',').append(info.offset())
+                            .append(',').append(info.range()).append(')');
+                }
+            } else {
+                for (VkDescriptorImageInfo info : write.pImageInfo(count)) {
+                    assertEquals(VkImageLayout.SHADER_READ_ONLY_OPTIMAL, info.imageLayout());
+                    builder.append(" image(")
+                            .append(handle(info.segment(), VkDescriptorImageInfo.OFFSET$imageView) - 0x2000)
+                            .append(',')
+                            .append(handle(info.segment(), VkDescriptorImageInfo.OFFSET$sampler) - 0x3000)
+                            .append(')');
+                }
+            }
+            update.add(builder.toString());
+        }
+        updates.add(update);
+    }
+
+    /// Reads a handle member directly, the generated getters return a slice of the structure
+    private static long handle(MemorySegment struct, long offset) {
+        return struct.get(ValueLayout.JAVA_LONG, offset);
+    }
+
+    private static VkBuffer buffer(int id) {
+        return new VkBuffer(MemorySegment.ofAddress(0x1000 + id));
+    }
+
+    private static VkImageView view(int id) {
+        return new VkImageView(MemorySegment.ofAddress(0x2000 + id));
+    }
+
+    private static VkSampler sampler(int id) {
+        return new VkSampler(MemorySegment.ofAddress(0x3000 + id));
+    }
+
+    private static String uniform() {
+        return Integer.toString(VkDescriptorType.UNIFORM_BUFFER);
+    }
+
+    private static String storage() {
+        return Integer.toString(VkDescriptorType.STORAGE_BUFFER);
+    }
+
+    private static String sampled() {
+        return Integer.toString(VkDescriptorType.COMBINED_IMAGE_SAMPLER);
+    }
+
+    private static final VkDevice DEVICE = new VkDevice(MemorySegment.ofAddress(0x100));
+    private static final VkDescriptorSet SET_A = new VkDescriptorSet(MemorySegment.ofAddress(0xA00));
+    private static final VkDescriptorSet SET_B = new VkDescriptorSet(MemorySegment.ofAddress(0xB00));
+    private static final List<List<String>> updates = new ArrayList<>();
+}
@@ -0,0 +1,233 @@
+package club.doki7.vulkan.test.util;
+
+import club.doki7.vulkan.VkConstants;
+import club.doki7.vulkan.Version;
+import club.doki7.vulkan.bitmask.VkFormatFeatureFlags;
+import club.doki7.vulkan.bitmask.VkQueueFlags;
+import club.doki7.vulkan.command.VkInstanceCommands;
+import club.doki7.vulkan.datatype.VkExtensionProperties;
+import club.doki7.vulkan.datatype.VkFormatProperties;
+import club.doki7.vulkan.datatype.VkPhysicalDeviceFeatures;
+import club.doki7.vulkan.datatype.VkPhysicalDeviceMemoryProperties;
+import club.doki7.vulkan.datatype.VkPhysicalDeviceProperties;
+import club.doki7.vulkan.datatype.VkQueueFamilyProperties;
+import club.doki7.vulkan.enumtype.VkFormat;
+import club.doki7.vulkan.enumtype.VkResult;
+import club.doki7.vulkan.handle.VkPhysicalDevice;
+import club.doki7.vulkan.util.DeviceCapabilities;
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestDeviceCapabilities {
+    @Test
+    void testRejectMissingAndForeignFiles() throws Exception {
+        Path directory = Files.createTempDirectory("caps");
+        byte[] uuid = new byte[16];
+
+        assertNull(DeviceCapabilities.load(directory.resolve("missing.caps"), 1, uuid));
+
+        Path tiny = directory.resolve("tiny.caps");
+        Files.write(tiny, new byte[] { 1, 2, 3 });
+        assertNull(DeviceCapabilities.load(tiny, 1, uuid));
+
+        Path garbage = directory.resolve("garbage.caps");
+        Files.write(garbage, new byte[4096]);
+        assertNull(DeviceCapabilities.load(garbage, 1, uuid));
+    }
+
+    @Test
+    void testSaveLoadRoundTrip() throws Exception {
+        queriedFormats.clear();
+        try (Arena arena = Arena.ofConfined()) {
+            VkInstanceCommands instanceCommands = stubInstanceCommands(arena);
+            VkPhysicalDevice physicalDevice = new VkPhysicalDevice(MemorySegment.ofAddress(0x1000));
+
+            DeviceCapabilities gathered = DeviceCapabilities.gather(instanceCommands, physicalDevice);
+            assertFalse(gathered.isLoaded());
+
+            // core formats and formats of supported extensions only
+            assertTrue(queriedFormats.contains(VkFormat.R8G8B8A8_UNORM));
+            assertTrue(queriedFormats.contains(VkFormat.G8B8G8R8_422_UNORM));
+            assertFalse(queriedFormats.contains(VkFormat.UNDEFINED));
+            assertFalse(queriedFormats.contains(VkFormat.ASTC_4X4_SFLOAT_BLOCK));
+            assertFalse(queriedFormats.contains(VkFormat.PVRTC1_2BPP_UNORM_BLOCK_IMG));
+            assertFalse(queriedFormats.contains(VkFormat.A8_UNORM));
+
+            Path file = Files.createTempDirectory("caps").resolve("device.caps");
+            gathered.save(file);
+            DeviceCapabilities loaded = DeviceCapabilities.load(file, DRIVER_VERSION, gathered.deviceUUID());
+            assertNotNull(loaded);
+            assertTrue(loaded.isLoaded());
+            assertNull(DeviceCapabilities.load(file, DRIVER_VERSION + 1, gathered.deviceUUID()));
+
+            for (DeviceCapabilities capabilities : new DeviceCapabilities[] { gathered, loaded }) {
+                assertEquals(DRIVER_VERSION, capabilities.driverVersion());
+                assertArrayEquals(UUID, capabilities.deviceUUID());
+                assertEquals(DEVICE_ID, capabilities.properties().deviceID());
+                assertEquals(VkConstants.TRUE, capabilities.features().geometryShader());
+                assertEquals(2, capabilities.memoryProperties().memoryTypeCount());
+                assertNull(capabilities.vulkan11Features());
+                assertNull(capabilities.vulkan13Properties());
+
+                assertEquals(2, capabilities.queueFamilies().size());
+                assertEquals(VkQueueFlags.GRAPHICS, capabilities.queueFamilies().at(0).queueFlags());
+                assertEquals(2, capabilities.queueFamilies().at(1).queueCount());
+
+                assertEquals(Set.copyOf(EXTENSIONS.keySet()), capabilities.extensions());
+                assertTrue(capabilities.hasExtension("VK_KHR_swapchain"));
+                assertEquals(14, capabilities.extensionSpecVersion("VK_KHR_sampler_ycbcr_conversion"));
+                assertEquals(0, capabilities.extensionSpecVersion("VK_EXT_mesh_shader"));
+
+                assertEquals(features(VkFormat.R8G8B8A8_UNORM), capabilities.optimalTilingFeatures(VkFormat.R8G8B8A8_UNORM));
+                assertEquals(features(VkFormat.D32_SFLOAT) >>> 1, capabilities.linearTilingFeatures(VkFormat.D32_SFLOAT));
+                assertEquals(
+                        features(VkFormat.G8B8G8R8_422_UNORM),
+                        capabilities.optimalTilingFeatures(VkFormat.G8B8G8R8_422_UNORM)
+                );
+                assertEquals(0, capabilities.optimalTilingFeatures(VkFormat.ASTC_4X4_SFLOAT_BLOCK));
+                assertEquals(
+                        VkFormat.D32_SFLOAT,
+                        capabilities.findSupportedFormat(
+                                new int[] { VkFormat.ASTC_4X4_SFLOAT_BLOCK, VkFormat.D32_SFLOAT },
+                                true,
+                                features(VkFormat.D32_SFLOAT)
+                        )
+                );
+            }
+        }
+    }
+
+    private static VkInstanceCommands stubInstanceCommands(Arena arena) throws ReflectiveOperationException {
+        Map<String, MemorySegment> stubs = new HashMap<>();
+        stubs.put("vkGetPhysicalDeviceProperties", stub(
+                arena, "getProperties", VkInstanceCommands.Descriptors.DESCRIPTOR$vkGetPhysicalDeviceProperties
+        ));
+        stubs.put("vkGetPhysicalDeviceFeatures", stub(
+                arena, "getFeatures", VkInstanceCommands.Descriptors.DESCRIPTOR$vkGetPhysicalDeviceFeatures
+        ));
+        stubs.put("vkGetPhysicalDeviceMemoryProperties", stub(
+                arena, "getMemoryProperties", VkInstanceCommands.Descriptors.DESCRIPTOR$vkGetPhysicalDeviceMemoryProperties
+        ));
+        stubs.put("vkGetPhysicalDeviceQueueFamilyProperties", stub(
+                arena, "getQueueFamilyProperties", VkInstanceCommands.Descriptors.DESCRIPTOR$vkGetPhysicalDeviceQueueFamilyProperties
+        ));
+        stubs.put("vkEnumerateDeviceExtensionProperties", stub(
+                arena, "enumerateExtensions", VkInstanceCommands.Descriptors.DESCRIPTOR$vkEnumerateDeviceExtensionProperties
+        ));
+        stubs.put("vkGetPhysicalDeviceFormatProperties", stub(
+                arena, "getFormatProperties", VkInstanceCommands.Descriptors.DESCRIPTOR$vkGetPhysicalDeviceFormatProperties
+        ));
+        return new VkInstanceCommands(name -> stubs.getOrDefault(name, MemorySegment.NULL));
+    }
+
+    private static MemorySegment stub(Arena arena, String name, FunctionDescriptor descriptor)
+            throws ReflectiveOperationException {
+        MethodType type = descriptor.toMethodType();
+        return Linker.nativeLinker().upcallStub(
+                MethodHandles.lookup().findStatic(TestDeviceCapabilities.class, name, type),
+                descriptor,
+                arena
+        );
+    }
+
+    private static void getProperties(MemorySegment physicalDevice, MemorySegment pProperties) {
+        VkPhysicalDeviceProperties properties = new VkPhysicalDeviceProperties(pProperties);
+        properties.apiVersion(Version.VK_API_VERSION_1_0.encode())
+                .driverVersion(DRIVER_VERSION)
+                .deviceID(DEVICE_ID);
+        MemorySegment.copy(UUID, 0, properties.pipelineCacheUUIDRaw(), ValueLayout.JAVA_BYTE, 0, UUID.length);
+    }
+
+    private static void getFeatures(MemorySegment physicalDevice, MemorySegment pFeatures) {
+        new VkPhysicalDeviceFeatures(pFeatures).geometryShader(VkConstants.TRUE);
+    }
+
+    private static void getMemoryProperties(MemorySegment physicalDevice, MemorySegment pMemoryProperties) {
+        new VkPhysicalDeviceMemoryProperties(pMemoryProperties).memoryTypeCount(2).memoryHeapCount(1);
+    }
+
+    private static void getQueueFamilyProperties(
+            MemorySegment physicalDevice,
+            MemorySegment pCount,
+            MemorySegment pProperties
+    ) {
+        pCount.set(ValueLayout.JAVA_INT, 0, 2);
+        if (pProperties.address() == 0) {
+            return;
+        }
+        VkQueueFamilyProperties.Ptr properties = new VkQueueFamilyProperties.Ptr(
+                pProperties.reinterpret(2L * VkQueueFamilyProperties.BYTES)
+        );
+        properties.at(0).queueFlags(VkQueueFlags.GRAPHICS).queueCount(1);
+        properties.at(1).queueFlags(VkQueueFlags.COMPUTE).queueCount(2);
+    }
+
+    private static int enumerateExtensions(
+            MemorySegment physicalDevice,
+            MemorySegment pLayerName,
+            MemorySegment pCount,
+            MemorySegment pProperties
+    ) {
+        pCount.set(ValueLayout.JAVA_INT, 0, EXTENSIONS.size());
+        if (pProperties.address() == 0) {
+            return VkResult.SUCCESS;
+        }
+        VkExtensionProperties.Ptr properties = new VkExtensionProperties.Ptr(
+                pProperties.reinterpret((long) EXTENSIONS.size() * VkExtensionProperties.BYTES)
+        );
+        int i = 0;
+        for (Map.Entry<String, Integer> extension : EXTENSIONS.entrySet()) {
+            byte[] name = extension.getKey().getBytes(StandardCharsets.UTF_8);
+            MemorySegment.copy(name, 0, properties.at(i).extensionNameRaw(), ValueLayout.JAVA_BYTE, 0, name.length);
+            properties.at(i).specVersion(extension.getValue());
+            i++;
+        }
+        return VkResult.SUCCESS;
+    }
+
+    private static void getFormatProperties(MemorySegment physicalDevice, int format, MemorySegment pProperties) {
+        queriedFormats.add(format);
+        new VkFormatProperties(pProperties)
+                .linearTilingFeatures(features(format) >>> 1)
+                .optimalTilingFeatures(features(format))
+                .bufferFeatures(0);
+    }
+
+    private static int features(int format) {
+        return switch (format) {
+            case VkFormat.D32_SFLOAT -> VkFormatFeatureFlags.DEPTH_STENCIL_ATTACHMENT | VkFormatFeatureFlags.SAMPLED_IMAGE;
+            case VkFormat.ASTC_4X4_SFLOAT_BLOCK -> VkFormatFeatureFlags.SAMPLED_IMAGE;
+            default -> VkFormatFeatureFlags.SAMPLED_IMAGE | VkFormatFeatureFlags.TRANSFER_DST;
+        };
+    }
+
+    private static final int DRIVER_VERSION = 0x1234;
+    private static final int DEVICE_ID = 42;
+    private static final byte[] UUID = { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16 };
+    private static final Map<String, Integer> EXTENSIONS = Map.of(
+            "VK_KHR_swapchain", 70,
+            "VK_KHR_sampler_ycbcr_conversion", 14
+    );
+    private static final Set<Integer> queriedFormats = new HashSet<>();
+}
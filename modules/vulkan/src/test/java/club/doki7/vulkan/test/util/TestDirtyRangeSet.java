@@ -0,0 +1,81 @@
+package club.doki7.vulkan.test.util;
+
+import club.doki7.vulkan.util.DirtyRangeSet;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestDirtyRangeSet {
+    @Test
+    void testAlignAndMerge() {
+        DirtyRangeSet set = new DirtyRangeSet(64);
+        set.add(10, 4);
+        assertEquals(1, set.count());
+        assertEquals(0, set.start(0));
+        assertEquals(64, set.end(0));
+
+        // adjacent after alignment
+        set.add(70, 8);
+        assertEquals(1, set.count());
+        assertEquals(128, set.end(0));
+
+        set.add(1000, 1);
+        set.add(300, 1);
+        assertEquals(3, set.count());
+        assertEquals(256, set.start(1));
+        assertEquals(960, set.start(2));
+
+        // bridges the last two ranges
+        set.add(310, 700);
+        assertEquals(2, set.count());
+        assertEquals(256, set.start(1));
+        assertEquals(1024, set.end(1));
+        assertEquals(128 + 768, set.totalBytes());
+
+        set.clear();
+        assertTrue(set.isEmpty());
+        set.add(5, 0);
+        assertTrue(set.isEmpty());
+    }
+
+    @Test
+    void testAgainstBitmap() {
+        Random random = new Random(42);
+        DirtyRangeSet set = new DirtyRangeSet(16);
+        boolean[] reference = new boolean[1 << 14];
+        for (int i = 0; i < 2000; i++) {
+            int offset = random.nextInt(reference.length - 256);
+            int size = 1 + random.nextInt(random.nextBoolean() ? 8 : 200);
+            set.add(offset, size);
+            for (int b = offset & -16; b < ((offset + size + 15) & -16); b++) {
+                reference[b] = true;
+            }
+        }
+
+        boolean[] actual = new boolean[reference.length];
+        for (int i = 0; i < set.count(); i++) {
+            assertEquals(0, set.start(i) % 16);
+            assertEquals(0, set.end(i) % 16);
+            if (i > 0) {
+                // disjoint and not adjacent
+                assertTrue(set.start(i) > set.end(i - 1));
+            }
+            for (long b = set.start(i); b < set.end(i); b++) {
+                actual[(int) b] = true;
+            }
+        }
+        for (int b = 0; b < reference.length; b++) {
+            assertEquals(reference[b], actual[b]);
+        }
+    }
+
+    @Test
+    void testRejectBadAlignment() {
+        assertThrows(IllegalArgumentException.class, () -> new DirtyRangeSet(48));
+        assertThrows(IllegalArgumentException.class, () -> new DirtyRangeSet(0));
+    }
+}
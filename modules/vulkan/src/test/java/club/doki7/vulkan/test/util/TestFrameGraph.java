@@ -0,0 +1,237 @@
+package club.doki7.vulkan.test.util;
+
+import club.doki7.vulkan.bitmask.VkAccessFlags2;
+import club.doki7.vulkan.bitmask.VkImageAspectFlags;
+import club.doki7.vulkan.bitmask.VkPipelineStageFlags2;
+import club.doki7.vulkan.enumtype.VkImageLayout;
+import club.doki7.vulkan.util.FrameGraph;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestFrameGraph {
+    private static final long COLOR_OUTPUT = VkPipelineStageFlags2.COLOR_ATTACHMENT_OUTPUT;
+    private static final long COLOR_WRITE = VkAccessFlags2.COLOR_ATTACHMENT_WRITE;
+    private static final long FRAGMENT = VkPipelineStageFlags2.FRAGMENT_SHADER;
+    private static final long COMPUTE = VkPipelineStageFlags2.COMPUTE_SHADER;
+    private static final long SAMPLED_READ = VkAccessFlags2.SHADER_SAMPLED_READ;
+    private static final long STORAGE_READ = VkAccessFlags2.SHADER_STORAGE_READ;
+    private static final long STORAGE_WRITE = VkAccessFlags2.SHADER_STORAGE_WRITE;
+
+    @Test
+    void testCullingAndLayoutTransitions() {
+        FrameGraph graph = new FrameGraph();
+        int swapchain = graph.importImage("swapchain", VkImageAspectFlags.COLOR, VkImageLayout.UNDEFINED);
+        graph.setFinalLayout(swapchain, VkImageLayout.PRESENT_SRC_KHR);
+        int hdr = graph.createImage("hdr", VkImageAspectFlags.COLOR);
+        int debug = graph.createImage("debug", VkImageAspectFlags.COLOR);
+
+        int scene = graph.addPass("scene", FrameGraph.QUEUE_GRAPHICS, _ -> {});
+        graph.write(scene, hdr, COLOR_OUTPUT, COLOR_WRITE, VkImageLayout.COLOR_ATTACHMENT_OPTIMAL);
+        int unused = graph.addPass("debug", FrameGraph.QUEUE_GRAPHICS, _ -> {});
+        graph.read(unused, hdr, FRAGMENT, SAMPLED_READ, VkImageLayout.SHADER_READ_ONLY_OPTIMAL);
+        graph.write(unused, debug, COLOR_OUTPUT, COLOR_WRITE, VkImageLayout.COLOR_ATTACHMENT_OPTIMAL);
+        int tonemap = graph.addPass("tonemap", FrameGraph.QUEUE_GRAPHICS, _ -> {});
+        graph.read(tonemap, hdr, FRAGMENT, SAMPLED_READ, VkImageLayout.SHADER_READ_ONLY_OPTIMAL);
+        graph.write(tonemap, swapchain, COLOR_OUTPUT, COLOR_WRITE, VkImageLayout.COLOR_ATTACHMENT_OPTIMAL);
+
+        FrameGraph.Compiled compiled = graph.compile(false);
+        assertFalse(compiled.isCulled(scene));
+        assertTrue(compiled.isCulled(unused));
+        assertFalse(compiled.isCulled(tonemap));
+        assertEquals(1, compiled.submissionCount());
+        assertArrayEquals(new int[] { scene, tonemap }, compiled.submissionPasses(0));
+
+        FrameGraph.ImageBarrier[] sceneBarriers = compiled.imageBarriers(scene);
+        assertEquals(1, sceneBarriers.length);
+        assertEquals(new FrameGraph.ImageBarrier(
+                hdr, VkImageLayout.UNDEFINED, VkImageLayout.COLOR_ATTACHMENT_OPTIMAL,
+                0, 0, COLOR_OUTPUT, COLOR_WRITE
+        ), sceneBarriers[0]);
+
+        // both transitions of tonemap are merged into one call
+        FrameGraph.ImageBarrier[] tonemapBarriers = compiled.imageBarriers(tonemap);
+        assertEquals(2, tonemapBarriers.length);
+        assertEquals(new FrameGraph.ImageBarrier(
+                hdr, VkImageLayout.COLOR_ATTACHMENT_OPTIMAL, VkImageLayout.SHADER_READ_ONLY_OPTIMAL,
+                COLOR_OUTPUT, COLOR_WRITE, FRAGMENT, SAMPLED_READ
+        ), tonemapBarriers[0]);
+        // imported image: source stage chains with the acquire semaphore wait
+        assertEquals(new FrameGraph.ImageBarrier(
+                swapchain, VkImageLayout.UNDEFINED, VkImageLayout.COLOR_ATTACHMENT_OPTIMAL,
+                COLOR_OUTPUT, 0, COLOR_OUTPUT, COLOR_WRITE
+        ), tonemapBarriers[1]);
+        assertNull(compiled.memoryBarrier(tonemap));
+
+        FrameGraph.ImageBarrier[] finalBarriers = compiled.finalBarriers(0);
+        assertEquals(1, finalBarriers.length);
+        assertEquals(VkImageLayout.PRESENT_SRC_KHR, finalBarriers[0].newLayout());
+        assertEquals(COLOR_OUTPUT, finalBarriers[0].srcStageMask());
+        assertEquals(COLOR_WRITE, finalBarriers[0].srcAccessMask());
+        assertEquals(3, compiled.pipelineBarrierCount());
+    }
+
+    @Test
+    void testBufferHazardsUseOneMemoryBarrier() {
+        FrameGraph graph = new FrameGraph();
+        int a = graph.createBuffer("a");
+        int b = graph.createBuffer("b");
+        int out = graph.importBuffer("out");
+        graph.markOutput(out);
+
+        int produce = graph.addPass("produce", FrameGraph.QUEUE_GRAPHICS, _ -> {});
+        graph.write(produce, a, COMPUTE, STORAGE_WRITE);
+        graph.write(produce, b, COMPUTE, STORAGE_WRITE);
+        int consume = graph.addPass("consume", FrameGraph.QUEUE_GRAPHICS, _ -> {});
+        graph.read(consume, a, COMPUTE, STORAGE_READ);
+        graph.read(consume, b, VkPipelineStageFlags2.DRAW_INDIRECT, VkAccessFlags2.INDIRECT_COMMAND_READ);
+        graph.write(consume, out, COMPUTE, STORAGE_WRITE);
+        int again = graph.addPass("again", FrameGraph.QUEUE_GRAPHICS, _ -> {});
+        graph.read(again, a, COMPUTE, STORAGE_READ);
+        graph.read(again, out, COMPUTE, STORAGE_READ);
+        graph.write(again, out, COMPUTE, STORAGE_WRITE);
+
+        FrameGraph.Compiled compiled = graph.compile(false);
+        assertNull(compiled.memoryBarrier(produce));
+
+        FrameGraph.MemoryBarrier barrier = compiled.memoryBarrier(consume);
+        assertNotNull(barrier);
+        assertEquals(COMPUTE, barrier.srcStageMask());
+        assertEquals(STORAGE_WRITE, barrier.srcAccessMask());
+        assertEquals(COMPUTE | VkPipelineStageFlags2.DRAW_INDIRECT, barrier.dstStageMask());
+        assertEquals(STORAGE_READ | VkAccessFlags2.INDIRECT_COMMAND_READ, barrier.dstAccessMask());
+        assertEquals(0, compiled.imageBarriers(consume).length);
+
+        // the read of a is already visible, only out needs a barrier
+        barrier = compiled.memoryBarrier(again);
+        assertNotNull(barrier);
+        assertEquals(COMPUTE, barrier.srcStageMask());
+        assertEquals(STORAGE_WRITE, barrier.srcAccessMask());
+        assertEquals(2, compiled.pipelineBarrierCount());
+    }
+
+    @Test
+    void testAsyncComputeSubmissions() {
+        FrameGraph graph = new FrameGraph();
+        int depth = graph.createImage("depth", VkImageAspectFlags.DEPTH);
+        int ao = graph.createImage("ao", VkImageAspectFlags.COLOR);
+        int color = graph.importImage("color", VkImageAspectFlags.COLOR, VkImageLayout.UNDEFINED);
+        graph.setFinalLayout(color, VkImageLayout.PRESENT_SRC_KHR);
+
+        long depthStages = VkPipelineStageFlags2.EARLY_FRAGMENT_TESTS | VkPipelineStageFlags2.LATE_FRAGMENT_TESTS;
+        int prepass = graph.addPass("prepass", FrameGraph.QUEUE_GRAPHICS, _ -> {});
+        graph.write(prepass, depth, depthStages, VkAccessFlags2.DEPTH_STENCIL_ATTACHMENT_WRITE,
+                VkImageLayout.DEPTH_STENCIL_ATTACHMENT_OPTIMAL);
+        int ssao = graph.addPass("ssao", FrameGraph.QUEUE_ASYNC_COMPUTE, _ -> {});
+        graph.read(ssao, depth, COMPUTE, SAMPLED_READ, VkImageLayout.SHADER_READ_ONLY_OPTIMAL);
+        graph.write(ssao, ao, COMPUTE, STORAGE_WRITE, VkImageLayout.GENERAL);
+        int shadows = graph.addPass("shadows", FrameGraph.QUEUE_GRAPHICS, _ -> {});
+        graph.setSideEffects(shadows);
+        int lighting = graph.addPass("lighting", FrameGraph.QUEUE_GRAPHICS, _ -> {});
+        graph.read(lighting, ao, FRAGMENT, SAMPLED_READ, VkImageLayout.SHADER_READ_ONLY_OPTIMAL);
+        graph.write(lighting, color, COLOR_OUTPUT, COLOR_WRITE, VkImageLayout.COLOR_ATTACHMENT_OPTIMAL);
+
+        FrameGraph.Compiled compiled = graph.compile(true);
+        assertEquals(4, compiled.submissionCount());
+        assertEquals(FrameGraph.QUEUE_GRAPHICS, compiled.submissionQueue(0));
+        assertArrayEquals(new int[] { prepass }, compiled.submissionPasses(0));
+        assertTrue(compiled.submissionSignals(0));
+
+        assertEquals(FrameGraph.QUEUE_ASYNC_COMPUTE, compiled.submissionQueue(1));
+        assertArrayEquals(new int[] { ssao }, compiled.submissionPasses(1));
+        assertArrayEquals(new int[] { 0 }, compiled.submissionWaits(1));
+        assertArrayEquals(new long[] { COMPUTE }, compiled.submissionWaitStages(1));
+        assertTrue(compiled.submissionSignals(1));
+
+        // shadows overlaps with ssao and does not wait, lighting starts a new submission waiting for it
+        assertArrayEquals(new int[] { shadows }, compiled.submissionPasses(2));
+        assertEquals(0, compiled.submissionWaits(2).length);
+        assertFalse(compiled.submissionSignals(2));
+        assertEquals(FrameGraph.QUEUE_GRAPHICS, compiled.submissionQueue(3));
+        assertArrayEquals(new int[] { lighting }, compiled.submissionPasses(3));
+        assertArrayEquals(new int[] { 1 }, compiled.submissionWaits(3));
+        assertArrayEquals(new long[] { FRAGMENT }, compiled.submissionWaitStages(3));
+        assertEquals(1, compiled.finalBarriers(3).length);
+
+        // the depth transition on the compute queue chains with the semaphore
+        FrameGraph.ImageBarrier depthBarrier = compiled.imageBarriers(ssao)[0];
+        assertEquals(COMPUTE, depthBarrier.srcStageMask());
+        assertEquals(0, depthBarrier.srcAccessMask());
+
+        FrameGraph.Compiled serial = graph.compile(false);
+        assertEquals(1, serial.submissionCount());
+        assertArrayEquals(new int[] { prepass, ssao, shadows, lighting }, serial.submissionPasses(0));
+    }
+
+    @Test
+    void testCrossQueueConsumersShareOneWait() {
+        FrameGraph graph = new FrameGraph();
+        int ao = graph.createImage("ao", VkImageAspectFlags.COLOR);
+        int color = graph.importImage("color", VkImageAspectFlags.COLOR, VkImageLayout.UNDEFINED);
+        graph.setFinalLayout(color, VkImageLayout.PRESENT_SRC_KHR);
+
+        int ssao = graph.addPass("ssao", FrameGraph.QUEUE_ASYNC_COMPUTE, _ -> {});
+        graph.write(ssao, ao, COMPUTE, STORAGE_WRITE, VkImageLayout.GENERAL);
+        int lighting = graph.addPass("lighting", FrameGraph.QUEUE_GRAPHICS, _ -> {});
+        graph.read(lighting, ao, FRAGMENT, STORAGE_READ, VkImageLayout.GENERAL);
+        graph.write(lighting, color, COLOR_OUTPUT, COLOR_WRITE, VkImageLayout.COLOR_ATTACHMENT_OPTIMAL);
+        int fog = graph.addPass("fog", FrameGraph.QUEUE_GRAPHICS, _ -> {});
+        graph.read(fog, ao, FRAGMENT, STORAGE_READ, VkImageLayout.GENERAL);
+        graph.read(fog, color, COLOR_OUTPUT, VkAccessFlags2.COLOR_ATTACHMENT_READ, VkImageLayout.COLOR_ATTACHMENT_OPTIMAL);
+        graph.write(fog, color, COLOR_OUTPUT, COLOR_WRITE, VkImageLayout.COLOR_ATTACHMENT_OPTIMAL);
+        int composite = graph.addPass("composite", FrameGraph.QUEUE_GRAPHICS, _ -> {});
+        graph.read(composite, ao, FRAGMENT, STORAGE_READ, VkImageLayout.GENERAL);
+        graph.read(composite, color, COLOR_OUTPUT, VkAccessFlags2.COLOR_ATTACHMENT_READ, VkImageLayout.COLOR_ATTACHMENT_OPTIMAL);
+        graph.write(composite, color, COLOR_OUTPUT, COLOR_WRITE, VkImageLayout.COLOR_ATTACHMENT_OPTIMAL);
+
+        FrameGraph.Compiled compiled = graph.compile(true);
+        assertEquals(2, compiled.submissionCount());
+        assertArrayEquals(new int[] { ssao }, compiled.submissionPasses(0));
+        assertEquals(FrameGraph.QUEUE_GRAPHICS, compiled.submissionQueue(1));
+        assertArrayEquals(new int[] { lighting, fog, composite }, compiled.submissionPasses(1));
+        assertArrayEquals(new int[] { 0 }, compiled.submissionWaits(1));
+        assertArrayEquals(new long[] { FRAGMENT }, compiled.submissionWaitStages(1));
+    }
+
+    @Test
+    void testDeterministicAndInvalidUses() {
+        FrameGraph graph = new FrameGraph();
+        int image = graph.createImage("image", VkImageAspectFlags.COLOR);
+        graph.markOutput(image);
+        int pass = graph.addPass("pass", FrameGraph.QUEUE_GRAPHICS, _ -> {});
+        graph.write(pass, image, COLOR_OUTPUT, COLOR_WRITE, VkImageLayout.COLOR_ATTACHMENT_OPTIMAL);
+        graph.read(pass, image, FRAGMENT, SAMPLED_READ, VkImageLayout.SHADER_READ_ONLY_OPTIMAL);
+        assertThrows(IllegalArgumentException.class, () -> graph.compile(false));
+
+        FrameGraph other = new FrameGraph();
+        int otherImage = other.createImage("image", VkImageAspectFlags.COLOR);
+        int otherBuffer = other.createBuffer("buffer");
+        int otherPass = other.addPass("pass", FrameGraph.QUEUE_GRAPHICS, _ -> {});
+        assertThrows(IllegalArgumentException.class, () -> other.read(otherPass, otherImage, FRAGMENT, SAMPLED_READ));
+        assertThrows(IllegalArgumentException.class,
+                () -> other.read(otherPass, otherBuffer, FRAGMENT, SAMPLED_READ, VkImageLayout.GENERAL));
+        assertThrows(IllegalArgumentException.class, () -> other.addPass("bad", 7, _ -> {}));
+
+        FrameGraph big = new FrameGraph();
+        int[] images = new int[40];
+        for (int i = 0; i < images.length; i++) {
+            images[i] = big.createImage("image" + i, VkImageAspectFlags.COLOR);
+        }
+        big.markOutput(images[images.length - 1]);
+        for (int i = 0; i < images.length; i++) {
+            int p = big.addPass("pass" + i, i % 3 == 0 ? FrameGraph.QUEUE_ASYNC_COMPUTE : FrameGraph.QUEUE_GRAPHICS, _ -> {});
+            if (i > 0) {
+                big.read(p, images[i - 1], COMPUTE, SAMPLED_READ, VkImageLayout.SHADER_READ_ONLY_OPTIMAL);
+            }
+            big.write(p, images[i], COMPUTE, STORAGE_WRITE, VkImageLayout.GENERAL);
+        }
+        assertEquals(big.compile(true).toString(), big.compile(true).toString());
+        assertEquals(big.compile(false).toString(), big.compile(false).toString());
+    }
+}
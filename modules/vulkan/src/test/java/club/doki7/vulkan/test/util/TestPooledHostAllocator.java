@@ -0,0 +1,177 @@
+package club.doki7.vulkan.test.util;
+
+import club.doki7.vulkan.datatype.VkAllocationCallbacks;
+import club.doki7.vulkan.enumtype.VkSystemAllocationScope;
+import club.doki7.vulkan.util.PooledHostAllocator;
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestPooledHostAllocator {
+    /// Calls the callbacks the way a driver would, through their function pointers.
+    static final class Driver {
+        Driver(VkAllocationCallbacks callbacks) {
+            Linker linker = Linker.nativeLinker();
+            allocation = linker.downcallHandle(callbacks.pfnAllocation(), FunctionDescriptor.of(
+                    ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT
+            ));
+            reallocation = linker.downcallHandle(callbacks.pfnReallocation(), FunctionDescriptor.of(
+                    ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT
+            ));
+            free = linker.downcallHandle(callbacks.pfnFree(), FunctionDescriptor.ofVoid(
+                    ValueLayout.ADDRESS, ValueLayout.ADDRESS
+            ));
+            internalAllocation = linker.downcallHandle(callbacks.pfnInternalAllocation(), FunctionDescriptor.ofVoid(
+                    ValueLayout.ADDRESS, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT
+            ));
+            internalFree = linker.downcallHandle(callbacks.pfnInternalFree(), FunctionDescriptor.ofVoid(
+                    ValueLayout.ADDRESS, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT
+            ));
+        }
+
+        MemorySegment allocate(long size, long alignment, int scope) throws Throwable {
+            MemorySegment p = (MemorySegment) allocation.invokeExact(MemorySegment.NULL, size, alignment, scope);
+            return p.reinterpret(size);
+        }
+
+        MemorySegment reallocate(MemorySegment original, long size, long alignment, int scope) throws Throwable {
+            MemorySegment p = (MemorySegment) reallocation.invokeExact(MemorySegment.NULL, original, size, alignment, scope);
+            return p.reinterpret(size);
+        }
+
+        void free(MemorySegment p) throws Throwable {
+            free.invokeExact(MemorySegment.NULL, p);
+        }
+
+        final MethodHandle allocation;
+        final MethodHandle reallocation;
+        final MethodHandle free;
+        final MethodHandle internalAllocation;
+        final MethodHandle internalFree;
+    }
+
+    @Test
+    void testAllocateAndStatistics() throws Throwable {
+        try (PooledHostAllocator allocator = new PooledHostAllocator("test")) {
+            Driver driver = new Driver(allocator.callbacks());
+
+            MemorySegment a = driver.allocate(100, 8, VkSystemAllocationScope.OBJECT);
+            MemorySegment b = driver.allocate(1000, 256, VkSystemAllocationScope.OBJECT);
+            MemorySegment c = driver.allocate(100_000, 64, VkSystemAllocationScope.DEVICE);
+            assertEquals(0, a.address() % 8);
+            assertEquals(0, b.address() % 256);
+            assertEquals(0, c.address() % 64);
+            a.fill((byte) 1);
+            b.fill((byte) 2);
+            c.fill((byte) 3);
+
+            assertEquals(2, allocator.allocationCount(VkSystemAllocationScope.OBJECT));
+            assertEquals(1100, allocator.liveBytes(VkSystemAllocationScope.OBJECT));
+            assertEquals(100_000, allocator.liveBytes(VkSystemAllocationScope.DEVICE));
+            assertTrue(allocator.reservedBytes() >= 100_000 + 64 * 1024);
+
+            driver.free(b);
+            driver.free(MemorySegment.NULL);
+            assertEquals(1, allocator.freeCount(VkSystemAllocationScope.OBJECT));
+            assertEquals(100, allocator.liveBytes(VkSystemAllocationScope.OBJECT));
+            assertEquals(1100, allocator.peakBytes(VkSystemAllocationScope.OBJECT));
+
+            // freed block is reused
+            MemorySegment d = driver.allocate(1000, 256, VkSystemAllocationScope.COMMAND);
+            assertEquals(b.address(), d.address());
+
+            driver.free(a);
+            driver.free(c);
+            driver.free(d);
+            assertEquals(0, allocator.liveBytes(VkSystemAllocationScope.OBJECT));
+            assertEquals(0, allocator.liveBytes(VkSystemAllocationScope.DEVICE));
+            allocator.resetPeaks();
+            assertEquals(0, allocator.peakBytes(VkSystemAllocationScope.OBJECT));
+
+            driver.internalAllocation.invokeExact(MemorySegment.NULL, 4096L, 0, VkSystemAllocationScope.INSTANCE);
+            driver.internalFree.invokeExact(MemorySegment.NULL, 1024L, 0, VkSystemAllocationScope.INSTANCE);
+            assertEquals(3072, allocator.internalBytes(VkSystemAllocationScope.INSTANCE));
+            assertEquals(4096, allocator.internalPeakBytes(VkSystemAllocationScope.INSTANCE));
+
+            // invalid alignment fails instead of crashing
+            assertEquals(0, driver.allocate(16, 3, VkSystemAllocationScope.OBJECT).address());
+        }
+    }
+
+    @Test
+    void testReallocatePreservesContents() throws Throwable {
+        try (PooledHostAllocator allocator = new PooledHostAllocator("test")) {
+            Driver driver = new Driver(allocator.callbacks());
+
+            MemorySegment p = driver.reallocate(MemorySegment.NULL, 20, 16, VkSystemAllocationScope.OBJECT);
+            for (int i = 0; i < 20; i++) {
+                p.set(ValueLayout.JAVA_BYTE, i, (byte) i);
+            }
+            // fits the same block
+            MemorySegment q = driver.reallocate(p, 40, 16, VkSystemAllocationScope.OBJECT);
+            assertEquals(p.address(), q.address());
+            assertEquals(40, allocator.liveBytes(VkSystemAllocationScope.OBJECT));
+
+            MemorySegment r = driver.reallocate(q, 50_000, 16, VkSystemAllocationScope.OBJECT);
+            assertNotEquals(q.address(), r.address());
+            for (int i = 0; i < 20; i++) {
+                assertEquals((byte) i, r.get(ValueLayout.JAVA_BYTE, i));
+            }
+            MemorySegment s = driver.reallocate(r, 10, 16, VkSystemAllocationScope.OBJECT);
+            for (int i = 0; i < 10; i++) {
+                assertEquals((byte) i, s.get(ValueLayout.JAVA_BYTE, i));
+            }
+            assertEquals(10, allocator.liveBytes(VkSystemAllocationScope.OBJECT));
+            assertEquals(3, allocator.reallocationCount(VkSystemAllocationScope.OBJECT));
+
+            assertEquals(0, driver.reallocate(s, 0, 16, VkSystemAllocationScope.OBJECT).address());
+            assertEquals(0, allocator.liveBytes(VkSystemAllocationScope.OBJECT));
+        }
+    }
+
+    @Test
+    void testRandomNoOverlap() throws Throwable {
+        try (PooledHostAllocator allocator = new PooledHostAllocator("test")) {
+            Driver driver = new Driver(allocator.callbacks());
+            Random random = new Random(3);
+            ArrayList<MemorySegment> live = new ArrayList<>();
+            long expectedLive = 0;
+            for (int i = 0; i < 20_000; i++) {
+                if (!live.isEmpty() && random.nextInt(3) == 0) {
+                    MemorySegment p = live.remove(random.nextInt(live.size()));
+                    byte tag = p.get(ValueLayout.JAVA_BYTE, 0);
+                    assertEquals(tag, p.get(ValueLayout.JAVA_BYTE, p.byteSize() - 1));
+                    expectedLive -= p.byteSize();
+                    driver.free(p);
+                } else {
+                    long size = 1 + random.nextInt(random.nextInt(20) == 0 ? 20_000 : 600);
+                    long alignment = 1L << random.nextInt(8);
+                    MemorySegment p = driver.allocate(size, alignment, VkSystemAllocationScope.OBJECT);
+                    assertEquals(0, p.address() % alignment);
+                    p.fill((byte) i);
+                    live.add(p);
+                    expectedLive += size;
+                }
+            }
+            assertEquals(expectedLive, allocator.liveBytes(VkSystemAllocationScope.OBJECT));
+            for (MemorySegment p : live) {
+                byte tag = p.get(ValueLayout.JAVA_BYTE, 0);
+                for (long j = 0; j < p.byteSize(); j++) {
+                    assertEquals(tag, p.get(ValueLayout.JAVA_BYTE, j));
+                }
+                driver.free(p);
+            }
+            assertEquals(0, allocator.liveBytes(VkSystemAllocationScope.OBJECT));
+        }
+    }
+}
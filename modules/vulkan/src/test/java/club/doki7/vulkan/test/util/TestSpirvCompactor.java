@@ -0,0 +1,163 @@
+package club.doki7.vulkan.test.util;
+
+import club.doki7.ffm.ptr.IntPtr;
+import club.doki7.vulkan.util.SpirvCompactor;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.ValueLayout;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestSpirvCompactor {
+    private static final Path SHADERS = Path.of("src/test/resources/spirv");
+    private static final String[] SHADER_FILES = { "vert.spv", "frag.spv", "ch26.frag.spv" };
+
+    @Test
+    void testShadersRoundTrip() throws IOException {
+        for (String file : SHADER_FILES) {
+            try (Arena arena = Arena.ofConfined()) {
+                int[] input = readWords(SHADERS.resolve(file));
+                IntPtr compacted = SpirvCompactor.compact(IntPtr.allocate(arena, input), arena);
+                int[] output = compacted.segment().toArray(ValueLayout.JAVA_INT);
+
+                assertEquals(input[0], output[0], file);
+                assertEquals(input[1], output[1], file);
+                assertTrue(output.length < input.length, file);
+                assertTrue(output[3] <= input[3], file);
+
+                // same instructions in the same order, minus debug information
+                List<Integer> expected = new ArrayList<>();
+                for (int opcode : opcodes(input)) {
+                    if (!isDebug(opcode)) {
+                        expected.add(opcode);
+                    }
+                }
+                assertEquals(expected, opcodes(output), file);
+
+                // compacting is idempotent
+                IntPtr again = SpirvCompactor.compact(compacted, arena);
+                assertArrayEquals(output, again.segment().toArray(ValueLayout.JAVA_INT), file);
+            }
+        }
+    }
+
+    @Test
+    void testUnusedDefinitionsRemoved() {
+        int[] input = {
+                0x07230203, 0x00010000, 0, 40, 0,
+                op(2, 17), 1,                                   // OpCapability Shader
+                op(6, 11), 30, str("NonS"), str("eman"), str("tic."), str("Foo\0"),
+                op(3, 14), 0, 1,                                // OpMemoryModel Logical GLSL450
+                op(5, 15), 5, 10, str("main"), 0,               // OpEntryPoint GLCompute %10 "main"
+                op(6, 16), 10, 17, 1, 1, 1,                     // OpExecutionMode %10 LocalSize 1 1 1
+                op(4, 5), 10, str("main"), 0,                   // OpName %10 "main"
+                op(3, 71), 20, 0,                               // OpDecorate %20 RelaxedPrecision
+                op(2, 19), 2,                                   // %2 = OpTypeVoid
+                op(3, 33), 3, 2,                                // %3 = OpTypeFunction %2
+                op(4, 21), 4, 32, 0,                            // %4 = OpTypeInt 32 0
+                op(4, 43), 4, 20, 42,                           // %20 = OpConstant %4 42
+                op(3, 22), 21, 32,                              // %21 = OpTypeFloat 32
+                op(5, 54), 2, 10, 0, 3,                         // %10 = OpFunction %2 None %3
+                op(2, 248), 11,                                 // %11 = OpLabel
+                op(5, 12), 2, 31, 30, 1,                        // %31 = OpExtInst %2 %30 1
+                op(1, 253),                                     // OpReturn
+                op(1, 56),                                      // OpFunctionEnd
+        };
+        int[] expected = {
+                0x07230203, 0x00010000, 0, 5, 0,
+                op(2, 17), 1,
+                op(3, 14), 0, 1,
+                op(5, 15), 5, 1, str("main"), 0,
+                op(6, 16), 1, 17, 1, 1, 1,
+                op(2, 19), 2,
+                op(3, 33), 3, 2,
+                op(5, 54), 2, 1, 0, 3,
+                op(2, 248), 4,
+                op(1, 253),
+                op(1, 56),
+        };
+
+        try (Arena arena = Arena.ofConfined()) {
+            IntPtr compacted = SpirvCompactor.compact(IntPtr.allocate(arena, input), arena);
+            assertArrayEquals(expected, compacted.segment().toArray(ValueLayout.JAVA_INT));
+        }
+    }
+
+    @Test
+    void testCompactDirectory() throws IOException {
+        Path output = Files.createTempDirectory("spirv-compactor");
+        try {
+            SpirvCompactor.DirectoryReport report = SpirvCompactor.compactDirectory(SHADERS, output);
+            assertEquals(SHADER_FILES.length, report.modules());
+            assertTrue(report.outputBytes() < report.inputBytes());
+
+            long total = 0;
+            for (String file : SHADER_FILES) {
+                total += Files.size(output.resolve(file));
+            }
+            assertEquals(report.outputBytes(), total);
+        } finally {
+            for (String file : SHADER_FILES) {
+                Files.deleteIfExists(output.resolve(file));
+            }
+            Files.delete(output);
+        }
+    }
+
+    @Test
+    void testRejectInvalid() {
+        try (Arena arena = Arena.ofConfined()) {
+            assertThrows(
+                    IllegalArgumentException.class,
+                    () -> SpirvCompactor.compact(IntPtr.allocateV(arena, 1, 2, 3, 4, 5), arena)
+            );
+            // instruction running past the end of the module
+            assertThrows(
+                    IllegalArgumentException.class,
+                    () -> SpirvCompactor.compact(IntPtr.allocateV(arena, 0x07230203, 0x00010000, 0, 8, 0, op(4, 17), 1), arena)
+            );
+        }
+    }
+
+    private static int[] readWords(Path path) throws IOException {
+        try (Arena arena = Arena.ofConfined()) {
+            byte[] bytes = Files.readAllBytes(path);
+            assertFalse(bytes.length % 4 != 0);
+            return IntPtr.allocate(arena, bytes).segment().toArray(ValueLayout.JAVA_INT);
+        }
+    }
+
+    private static List<Integer> opcodes(int[] words) {
+        List<Integer> opcodes = new ArrayList<>();
+        for (int i = 5; i < words.length; i += words[i] >>> 16) {
+            opcodes.add(words[i] & 0xFFFF);
+        }
+        return opcodes;
+    }
+
+    private static boolean isDebug(int opcode) {
+        return (opcode >= 2 && opcode <= 8) || opcode == 317 || opcode == 330;
+    }
+
+    private static int op(int wordCount, int opcode) {
+        return (wordCount << 16) | opcode;
+    }
+
+    private static int str(String fourChars) {
+        int word = 0;
+        for (int i = 0; i < 4; i++) {
+            word |= (fourChars.charAt(i) & 0xFF) << (i * 8);
+        }
+        return word;
+    }
+}
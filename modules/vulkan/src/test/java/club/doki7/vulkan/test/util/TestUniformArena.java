@@ -0,0 +1,85 @@
+package club.doki7.vulkan.test.util;
+
+import club.doki7.vulkan.handle.VkBuffer;
+import club.doki7.vulkan.util.UniformArena;
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TestUniformArena {
+    @Test
+    void testAlignmentAndFrames() {
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment mapped = arena.allocate(3000);
+            UniformArena uniforms = new UniformArena(new VkBuffer(MemorySegment.NULL), mapped, 256, 2);
+            // 1500 per frame, aligned down
+            assertEquals(1280, uniforms.frameSize());
+
+            uniforms.beginFrame(0);
+            assertEquals(0, uniforms.allocate(64));
+            assertEquals(256, uniforms.allocate(300));
+            assertEquals(768, uniforms.allocate(1));
+            assertEquals(768 + 256, uniforms.usedBytes());
+
+            uniforms.beginFrame(1);
+            assertEquals(1280, uniforms.frameOffset());
+            assertEquals(1280, uniforms.allocate(16));
+            assertEquals(1280 + 256, uniforms.allocate(1024));
+            assertEquals(UniformArena.EXHAUSTED, uniforms.allocate(16));
+            assertEquals(1280, uniforms.usedBytes());
+
+            uniforms.floats(1280, 4).writeV(1.0f, 2.0f, 3.0f, 4.0f);
+            assertEquals(3.0f, uniforms.floats(1280, 4).read(2));
+
+            uniforms.beginFrame(0);
+            assertEquals(0, uniforms.allocate(64));
+            assertThrows(IndexOutOfBoundsException.class, () -> uniforms.beginFrame(2));
+            assertThrows(IllegalArgumentException.class, () -> new UniformArena(new VkBuffer(MemorySegment.NULL), mapped, 48, 2));
+        }
+    }
+
+    @Test
+    void testConcurrentAllocationsDoNotOverlap() throws InterruptedException {
+        int threadCount = 8;
+        int perThread = 2000;
+        try (Arena arena = Arena.ofShared()) {
+            MemorySegment mapped = arena.allocate(64L * threadCount * perThread);
+            UniformArena uniforms = new UniformArena(new VkBuffer(MemorySegment.NULL), mapped, 64, 1);
+            uniforms.beginFrame(0);
+
+            long[][] offsets = new long[threadCount][perThread];
+            AtomicBoolean exhausted = new AtomicBoolean();
+            Thread[] threads = new Thread[threadCount];
+            for (int t = 0; t < threadCount; t++) {
+                int thread = t;
+                threads[t] = new Thread(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        long offset = uniforms.allocate(1 + (i % 64));
+                        if (offset == UniformArena.EXHAUSTED) {
+                            exhausted.set(true);
+                        }
+                        offsets[thread][i] = offset;
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            assertFalse(exhausted.get());
+            long[] all = Arrays.stream(offsets).flatMapToLong(Arrays::stream).sorted().toArray();
+            for (int i = 0; i < all.length; i++) {
+                assertEquals(64L * i, all[i]);
+            }
+            assertEquals(UniformArena.EXHAUSTED, uniforms.allocate(1));
+        }
+    }
+}